@@ -0,0 +1,30 @@
+package com.redhat.jenkins.plugins.perfci.monitors;
+
+import com.redhat.jenkins.plugins.perfci.common.Listenable;
+import hudson.FilePath;
+import hudson.model.Describable;
+
+import java.io.IOException;
+
+/**
+ * Something which records resource usage of a target while the body of <code>withMonitoring</code> runs.
+ */
+public interface Monitor<T extends Describable<T>> extends Describable<T>, AutoCloseable, Listenable {
+    void start(FilePath path) throws InterruptedException, IOException;
+    boolean isStarted();
+    void stop(FilePath path) throws InterruptedException, IOException;
+
+    /**
+     * Brings what has been recorded so far into the workspace. It can be called while the monitor is running.
+     *
+     * @return the result file in the workspace
+     */
+    FilePath collectNewData(FilePath path) throws IOException, InterruptedException;
+
+    /**
+     * Brings the complete result into the workspace after {@link #stop(FilePath)}.
+     *
+     * @return the result file in the workspace
+     */
+    FilePath collectResult(FilePath path, boolean deleteFromTarget) throws IOException, InterruptedException;
+}
@@ -16,14 +16,16 @@ import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
 import javax.annotation.Nonnull;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
-public class NMONMonitor extends AbstractDescribableImpl<NMONMonitor> implements Listenable, Serializable, AutoCloseable {
+public class NMONMonitor extends AbstractDescribableImpl<NMONMonitor> implements Monitor<NMONMonitor>, Serializable {
     private MonitoringTarget target;
     @DataBoundSetter
     private String executable = "nmon";
@@ -40,11 +42,29 @@ public class NMONMonitor extends AbstractDescribableImpl<NMONMonitor> implements
     private String dir;
     @DataBoundSetter
     private String fileName;
+    /**
+     * Whether results are gzipped on the target before they are transferred
+     */
+    @DataBoundSetter
+    private boolean compress = true;
 
     private String workDir;
 
     private transient TaskListener listener;
     private int pid;
+    /**
+     * name of the result file on the target, known once something has been collected
+     */
+    private String resultFileName;
+    /**
+     * bytes of the result file fetched so far. A local file with the same name, e.g. of an earlier build in the same
+     * workspace, says nothing about what has been fetched.
+     */
+    private long fetchedBytes;
+    /**
+     * set once the target turned out to have no gzip, so later fetches don't try again
+     */
+    private boolean compressionUnavailable;
 
     @DataBoundConstructor
     public NMONMonitor(@Nonnull MonitoringTarget target) {
@@ -121,6 +141,8 @@ public class NMONMonitor extends AbstractDescribableImpl<NMONMonitor> implements
                 throw new IOException("Failed to start NMON:" + result);
             }
             this.pid = Integer.parseInt(result.getOut().trim());
+            this.resultFileName = null;
+            this.fetchedBytes = 0;
             printConsole("NMON started as PID " + this.pid);
         } catch (Exception e) {
             if (e instanceof IOException)
@@ -225,24 +247,33 @@ public class NMONMonitor extends AbstractDescribableImpl<NMONMonitor> implements
         }
     }
 
-    public FilePath collectResult(FilePath path, boolean deleteFromTarget) throws IOException, InterruptedException {
+    /**
+     * Fetches what NMON has appended to its result file since the last call and appends it to the local copy,
+     * so the result survives the target and {@link #collectResult(FilePath, boolean)} has little left to transfer.
+     * It can be called while NMON is running.
+     *
+     * @return the local copy of the result file
+     */
+    public synchronized FilePath collectNewData(FilePath path) throws IOException, InterruptedException {
         final TaskListener listener = this.listener;
         final MonitoringTarget target = this.target;
-        final String fileName = this.fileName;
+        final String knownFileName = this.resultFileName != null ? this.resultFileName : this.fileName;
+        final boolean compress = this.compress && !this.compressionUnavailable;
         final String resultDirOnTarget = workDir == null || workDir.isEmpty() ? "." : workDir;
         final FilePath destDir = dir == null || dir.isEmpty() ? path : path.child(dir);
+        final long fetchedBytes = this.fetchedBytes;
         try {
-            return path.act(new Callable<FilePath, Exception>() {
+            Collected collected = path.act(new Callable<Collected, Exception>() {
                 @Override
                 public void checkRoles(RoleChecker roleChecker) throws SecurityException {
                 }
 
                 @Override
-                public FilePath call() throws Exception {
+                public Collected call() throws Exception {
                     target.setListener(listener);
                     try {
                         target.connect();
-                        String resultFileName = fileName;
+                        String resultFileName = knownFileName;
                         if (resultFileName == null || resultFileName.isEmpty()) {
                             List<String> remoteFiles = target.ls(resultDirOnTarget);
                             if (remoteFiles.isEmpty()) {
@@ -252,13 +283,87 @@ public class NMONMonitor extends AbstractDescribableImpl<NMONMonitor> implements
                         }
                         String resultPathOnTarget = resultDirOnTarget + "/" + resultFileName;
                         destDir.mkdirs();
-                        target.download(resultPathOnTarget, destDir.getRemote(), deleteFromTarget);
-                        return destDir.child(resultFileName);
+                        File localFile = new File(destDir.getRemote(), resultFileName);
+                        long offset = fetchedBytes;
+                        if (localFile.length() < offset) {
+                            listener.getLogger().println("WARNING: " + localFile + " is shorter than what has been fetched, fetching it again.");
+                            offset = 0;
+                        }
+                        // drop whatever is not ours, e.g. the whole file on the first fetch
+                        try (RandomAccessFile file = new RandomAccessFile(localFile, "rw")) {
+                            file.setLength(offset);
+                        }
+                        Collected collected = new Collected(resultFileName, compress);
+                        collected.fetchedBytes = offset;
+                        if (compress) {
+                            // the target reports the compression ratio and transfer rate
+                            long bytes = target.downloadCompressedFrom(resultPathOnTarget, localFile.getPath(), offset);
+                            if (bytes >= 0) {
+                                collected.fetchedBytes += bytes;
+                                return collected;
+                            }
+                            listener.getLogger().println("WARNING: gzip is not available on " + target + ", fetching NMON results uncompressed.");
+                            collected.compressed = false;
+                        }
+                        long start = System.nanoTime();
+                        long bytes = target.downloadFrom(resultPathOnTarget, localFile.getPath(), offset);
+                        collected.fetchedBytes += bytes;
+                        if (bytes > 0) {
+                            double seconds = (System.nanoTime() - start) / 1e9;
+                            listener.getLogger().println(String.format("Fetched %d new bytes of %s from %s (%d bytes in total) in %.1fs, %.1f KB/s.",
+                                    bytes, resultFileName, target, offset + bytes, seconds, bytes / 1024.0 / Math.max(seconds, 0.001)));
+                        }
+                        return collected;
+                    } finally {
+                        target.close();
+                    }
+                }
+            });
+            this.resultFileName = collected.fileName;
+            this.fetchedBytes = collected.fetchedBytes;
+            if (compress && !collected.compressed)
+                this.compressionUnavailable = true;
+            return destDir.child(collected.fileName);
+        } catch (Exception e) {
+            if (e instanceof IOException)
+                throw (IOException) e;
+            else if (e instanceof InterruptedException)
+                throw (InterruptedException) e;
+            else
+                throw new IOException(e);
+        }
+    }
+
+    /**
+     * Fetches the rest of the result file, after what {@link #collectNewData(FilePath)} has already fetched.
+     */
+    public synchronized FilePath collectResult(FilePath path, boolean deleteFromTarget) throws IOException, InterruptedException {
+        FilePath result = collectNewData(path);
+        if (!deleteFromTarget)
+            return result;
+        final TaskListener listener = this.listener;
+        final MonitoringTarget target = this.target;
+        final String resultPathOnTarget = (workDir == null || workDir.isEmpty() ? "." : workDir) + "/" + resultFileName;
+        try {
+            RunCommandResult deleted = path.act(new Callable<RunCommandResult, Exception>() {
+                @Override
+                public void checkRoles(RoleChecker roleChecker) throws SecurityException {
+                }
+
+                @Override
+                public RunCommandResult call() throws Exception {
+                    target.setListener(listener);
+                    try {
+                        target.connect();
+                        return target.run("rm", Lists.newArrayList("-f", "--", resultPathOnTarget), null);
                     } finally {
                         target.close();
                     }
                 }
             });
+            if (deleted.getStatus() != 0) {
+                throw new IOException("Failed to delete NMON result from target: " + deleted);
+            }
         } catch (Exception e) {
             if (e instanceof IOException)
                 throw (IOException) e;
@@ -267,6 +372,19 @@ public class NMONMonitor extends AbstractDescribableImpl<NMONMonitor> implements
             else
                 throw new IOException(e);
         }
+        return result;
+    }
+
+    private static class Collected implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String fileName;
+        private boolean compressed;
+        private long fetchedBytes;
+
+        Collected(String fileName, boolean compressed) {
+            this.fileName = fileName;
+            this.compressed = compressed;
+        }
     }
 
     public MonitoringTarget getTarget() {
@@ -349,6 +467,14 @@ public class NMONMonitor extends AbstractDescribableImpl<NMONMonitor> implements
         this.fileName = fileName;
     }
 
+    public boolean isCompress() {
+        return compress;
+    }
+
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
     public int getInterval() {
         return interval;
     }
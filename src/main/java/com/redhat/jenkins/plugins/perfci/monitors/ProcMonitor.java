@@ -0,0 +1,214 @@
+package com.redhat.jenkins.plugins.perfci.monitors;
+
+import com.redhat.jenkins.plugins.perfci.common.Listenable;
+import com.redhat.jenkins.plugins.perfci.targets.MonitoringTarget;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import org.jenkinsci.Symbol;
+import org.jenkinsci.plugins.perfci.nmon.ProcSampleWriter;
+import org.jenkinsci.remoting.RoleChecker;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Samples <code>/proc</code> of a Linux target at intervals below a second, without installing anything on it,
+ * as an alternative to {@link NMONMonitor}. The samples are written into the workspace as they are taken, see
+ * {@link ProcSampler}, so there is nothing to collect from the target afterwards. A target whose <code>sleep</code>
+ * doesn't take fractions of a second is sampled in whole seconds instead, with a warning.
+ */
+public class ProcMonitor extends AbstractDescribableImpl<ProcMonitor> implements Monitor<ProcMonitor>, Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int MIN_INTERVAL = 10;
+
+    private MonitoringTarget target;
+    /**
+     * Milliseconds between samples.
+     */
+    @DataBoundSetter
+    private int interval = 200;
+    @DataBoundSetter
+    private String dir;
+    @DataBoundSetter
+    private String fileName;
+
+    private transient TaskListener listener;
+    /**
+     * id of the sampler on the agent while it runs
+     */
+    private String samplerId;
+    private String resultFileName;
+
+    @DataBoundConstructor
+    public ProcMonitor(@Nonnull MonitoringTarget target) {
+        this.target = target;
+    }
+
+    @Override
+    public void start(@Nonnull FilePath path) throws InterruptedException, IOException {
+        if (this.samplerId != null) {
+            throw new IOException("/proc sampler already started.");
+        }
+        final String resultFileName = fileName != null && !fileName.isEmpty() ? fileName
+                : "proc_" + new SimpleDateFormat("yyMMdd_HHmmss").format(new Date()) + "_" + Integer.toHexString(System.identityHashCode(this)) + ProcSampleWriter.EXTENSION;
+        final FilePath destDir = dir == null || dir.isEmpty() ? path : path.child(dir);
+        final TaskListener listener = this.listener;
+        final MonitoringTarget target = this.target;
+        final int interval = Math.max(MIN_INTERVAL, this.interval);
+        printConsole(String.format("Starting /proc sampler every %d ms...", interval));
+        try {
+            this.samplerId = path.act(new Callable<String, Exception>() {
+                @Override
+                public void checkRoles(RoleChecker roleChecker) throws SecurityException {
+                }
+
+                @Override
+                public String call() throws Exception {
+                    destDir.mkdirs();
+                    // the target stays connected until the sampler is stopped
+                    return new ProcSampler(target, new File(destDir.getRemote(), resultFileName), interval, listener).start();
+                }
+            });
+            this.resultFileName = resultFileName;
+            printConsole("/proc sampler started, writing to " + destDir.child(resultFileName).getRemote());
+        } catch (Exception e) {
+            if (e instanceof IOException)
+                throw (IOException) e;
+            else if (e instanceof InterruptedException)
+                throw (InterruptedException) e;
+            else
+                throw new IOException(e);
+        }
+    }
+
+    @Override
+    public boolean isStarted() {
+        return this.samplerId != null;
+    }
+
+    @Override
+    public void stop(@Nonnull FilePath path) throws InterruptedException, IOException {
+        if (this.samplerId == null) {
+            printConsole("Already stopped.");
+            return;
+        }
+        final String samplerId = this.samplerId;
+        try {
+            long samples = path.act(new Callable<Long, Exception>() {
+                @Override
+                public void checkRoles(RoleChecker roleChecker) throws SecurityException {
+                }
+
+                @Override
+                public Long call() throws Exception {
+                    return ProcSampler.stop(samplerId);
+                }
+            });
+            this.samplerId = null;
+            if (samples < 0)
+                printConsole("/proc sampler is dead.");
+            else
+                printConsole(String.format("/proc sampler stopped after %d samples.", samples));
+        } catch (Exception e) {
+            if (e instanceof IOException)
+                throw (IOException) e;
+            else if (e instanceof InterruptedException)
+                throw (InterruptedException) e;
+            else
+                throw new IOException(e);
+        }
+    }
+
+    /**
+     * The sampler writes into the workspace itself, so this only locates the result file.
+     */
+    @Override
+    public FilePath collectNewData(FilePath path) throws IOException, InterruptedException {
+        if (resultFileName == null)
+            throw new IOException("/proc sampler has not been started.");
+        return (dir == null || dir.isEmpty() ? path : path.child(dir)).child(resultFileName);
+    }
+
+    /**
+     * Nothing is left on the target, so <code>deleteFromTarget</code> doesn't matter.
+     */
+    @Override
+    public FilePath collectResult(FilePath path, boolean deleteFromTarget) throws IOException, InterruptedException {
+        return collectNewData(path);
+    }
+
+    public MonitoringTarget getTarget() {
+        return target;
+    }
+
+    public void setTarget(MonitoringTarget target) {
+        this.target = target;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public void setInterval(int interval) {
+        this.interval = interval;
+    }
+
+    public String getDir() {
+        return dir;
+    }
+
+    public void setDir(String dir) {
+        this.dir = dir;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("/proc monitor on %s", target);
+    }
+
+    @Override
+    public void setListener(TaskListener listener) {
+        this.listener = listener;
+        if (target instanceof Listenable)
+            ((Listenable) target).setListener(listener);
+    }
+
+    @Override
+    public TaskListener getListener() {
+        return this.listener;
+    }
+
+    /**
+     * The sampler holds its own connection on the agent, which {@link #stop(FilePath)} closes.
+     */
+    @Override
+    public void close() throws IOException, InterruptedException {
+    }
+
+    @Extension
+    @Symbol("proc")
+    public static class DescriptorImpl extends Descriptor<ProcMonitor> {
+        @Override
+        public String getDisplayName() {
+            return "/proc sampler monitor";
+        }
+    }
+}
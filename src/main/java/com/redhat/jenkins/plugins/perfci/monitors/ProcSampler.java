@@ -0,0 +1,235 @@
+package com.redhat.jenkins.plugins.perfci.monitors;
+
+import com.redhat.jenkins.plugins.perfci.targets.MonitoringTarget;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.jenkinsci.plugins.perfci.nmon.ProcSampleWriter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs on the agent of the workspace and samples <code>/proc</code> of a target over a single command which keeps
+ * printing <code>/proc/uptime</code>, <code>stat</code>, <code>meminfo</code>, <code>diskstats</code>,
+ * <code>net/dev</code> and <code>loadavg</code>, one <code>head</code> per sample, so the target needs nothing but
+ * a POSIX shell. Where its <code>sleep</code> only takes whole seconds, samples are taken every second at most. The
+ * numbers are picked out of the text right away and appended to a file written by
+ * {@link ProcSampleWriter}.
+ * <p>
+ * Samplers are registered by id in the agent JVM, so a later call to the agent can stop the one an earlier call
+ * has started.
+ */
+class ProcSampler implements Runnable {
+    private static final Map<String, ProcSampler> RUNNING = new ConcurrentHashMap<>();
+    private static final String[] FILES = {"/proc/uptime", "/proc/stat", "/proc/meminfo", "/proc/diskstats", "/proc/net/dev", "/proc/loadavg"};
+    private static final String CLOCK = "clock";
+    private static final String END_OF_SAMPLE = "<==";
+    private static final String WHOLE_SECONDS = "whole-seconds";
+    private static final String[] CPU_FIELDS = {"user", "nice", "system", "idle", "iowait", "irq", "softirq", "steal"};
+    private static final long STOP_TIMEOUT = 30 * 1000;
+
+    private final String id = UUID.randomUUID().toString();
+    private final MonitoringTarget target;
+    private final File file;
+    private final int interval;
+    private final TaskListener listener;
+    private volatile boolean stopping;
+    private InputStream stream;
+    private Thread thread;
+    private long samples;
+
+    private String section;
+    private long bootTime;
+    private long time;
+    private final Map<String, Long> sample = new LinkedHashMap<>();
+
+    /**
+     * @param interval milliseconds between samples
+     */
+    ProcSampler(MonitoringTarget target, File file, int interval, TaskListener listener) {
+        this.target = target;
+        this.file = file;
+        this.interval = interval;
+        this.listener = listener;
+    }
+
+    /**
+     * Connects to the target, starts the sampling command and a thread writing what it prints.
+     *
+     * @return id to {@link #stop(String)} the sampler with
+     */
+    String start() throws IOException, InterruptedException {
+        target.setListener(listener);
+        target.connect();
+        try {
+            stream = target.open(getCommand());
+        } catch (IOException | InterruptedException e) {
+            closeTarget();
+            throw e;
+        }
+        RUNNING.put(id, this);
+        thread = new NamingThreadFactory(new DaemonThreadFactory(), "perfci /proc sampler").newThread(this);
+        thread.start();
+        return id;
+    }
+
+    /**
+     * @return number of samples written, or -1 if there is no such sampler, e.g. because the agent has been restarted
+     */
+    static long stop(String id) throws InterruptedException {
+        ProcSampler sampler = RUNNING.remove(id);
+        if (sampler == null)
+            return -1;
+        sampler.stopping = true;
+        try {
+            // ends the command, and the reading thread with it
+            sampler.stream.close();
+        } catch (IOException ignored) {
+        }
+        sampler.thread.join(STOP_TIMEOUT);
+        return sampler.samples;
+    }
+
+    /**
+     * Fractions of a second to <code>sleep</code> are a GNU and BusyBox extension, which a POSIX <code>sleep</code>
+     * rejects. The command tries one first, and sleeps whole seconds, rounded up, if it fails.
+     */
+    private String getCommand() {
+        String sleep = String.format(Locale.ENGLISH, "%.3f", interval / 1000.0);
+        long wholeSeconds = Math.max(1, (interval + 999) / 1000);
+        StringBuilder files = new StringBuilder();
+        for (String f : FILES)
+            files.append(' ').append(f);
+        return "exec 2>/dev/null; if sleep 0.001; then s=" + sleep + "; else s=" + wholeSeconds + "; echo " + WHOLE_SECONDS + " $s; fi; "
+                // wall-clock time of boot, to which the uptime of each sample is added
+                + "echo " + CLOCK + " $(date +%s) $(cut -d' ' -f1 /proc/uptime) $(cat /proc/sys/kernel/hostname); "
+                + "while :; do head -n 100000" + files + "; echo '" + END_OF_SAMPLE + "'; sleep $s || break; done";
+    }
+
+    @Override
+    public void run() {
+        try (InputStream in = stream;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+             OutputStream out = new FileOutputStream(file)) {
+            ProcSampleWriter writer = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (writer == null) {
+                    if (line.startsWith(WHOLE_SECONDS + " "))
+                        listener.getLogger().println("WARNING: sleep on " + target + " doesn't take fractions of a second, sampling /proc every "
+                                + line.substring(WHOLE_SECONDS.length() + 1) + " s instead of every " + interval + " ms.");
+                    if (!line.startsWith(CLOCK + " "))
+                        continue;
+                    String[] fields = line.trim().split("\\s+");
+                    bootTime = Long.parseLong(fields[1]) * 1000 - Math.round(Double.parseDouble(fields[2]) * 1000);
+                    writer = new ProcSampleWriter(out, fields.length > 3 ? fields[3] : "");
+                } else if (line.equals(END_OF_SAMPLE)) {
+                    if (time != 0) {
+                        writer.write(time, sample);
+                        ++samples;
+                    }
+                    sample.clear();
+                    time = 0;
+                } else if (line.startsWith("==> ") && line.endsWith(" <==")) {
+                    section = line.substring(4, line.length() - 4);
+                } else if (!line.isEmpty() && section != null) {
+                    parseLine(line.trim());
+                }
+            }
+            if (!stopping)
+                listener.getLogger().println("WARNING: Sampling /proc of " + target + " ended unexpectedly after " + samples + " samples.");
+        } catch (IOException | RuntimeException e) {
+            if (!stopping)
+                listener.getLogger().println("WARNING: Sampling /proc of " + target + " failed after " + samples + " samples: " + e);
+        } finally {
+            RUNNING.remove(id);
+            closeTarget();
+        }
+    }
+
+    private void closeTarget() {
+        try {
+            target.close();
+        } catch (Exception e) {
+            listener.getLogger().println("WARNING: Couldn't disconnect from " + target + ": " + e);
+        }
+    }
+
+    private void parseLine(String line) {
+        String[] fields = line.split("\\s+");
+        try {
+            switch (section) {
+                case "/proc/uptime":
+                    time = bootTime + Math.round(Double.parseDouble(fields[0]) * 1000);
+                    break;
+                case "/proc/stat":
+                    if (fields[0].equals("cpu")) {
+                        for (int i = 0; i < CPU_FIELDS.length && i + 1 < fields.length; ++i)
+                            sample.put("stat/cpu/" + CPU_FIELDS[i], Long.parseLong(fields[i + 1]));
+                    } else if (fields[0].equals("ctxt") || fields[0].equals("processes")
+                            || fields[0].equals("procs_running") || fields[0].equals("procs_blocked")) {
+                        sample.put("stat/" + fields[0], Long.parseLong(fields[1]));
+                    }
+                    break;
+                case "/proc/meminfo":
+                    // MemTotal:       16318676 kB
+                    if (fields[0].endsWith(":"))
+                        sample.put("meminfo/" + fields[0].substring(0, fields[0].length() - 1), Long.parseLong(fields[1]));
+                    break;
+                case "/proc/diskstats":
+                    // major minor name reads merged sectors ms writes merged sectors ms in-flight io-ms weighted-ms ...
+                    String disk = fields[2];
+                    if (fields.length < 13 || disk.startsWith("loop") || disk.startsWith("ram"))
+                        break;
+                    sample.put("diskstats/" + disk + "/reads", Long.parseLong(fields[3]));
+                    sample.put("diskstats/" + disk + "/readSectors", Long.parseLong(fields[5]));
+                    sample.put("diskstats/" + disk + "/writes", Long.parseLong(fields[7]));
+                    sample.put("diskstats/" + disk + "/writeSectors", Long.parseLong(fields[9]));
+                    sample.put("diskstats/" + disk + "/inFlight", Long.parseLong(fields[11]));
+                    sample.put("diskstats/" + disk + "/ioTicks", Long.parseLong(fields[12]));
+                    break;
+                case "/proc/net/dev":
+                    // eth0: rx-bytes rx-packets rx-errs drop fifo frame compressed multicast tx-bytes tx-packets tx-errs ...
+                    int colon = line.indexOf(':');
+                    if (colon < 0)
+                        break;
+                    String net = line.substring(0, colon).trim();
+                    String[] counters = line.substring(colon + 1).trim().split("\\s+");
+                    if (counters.length < 11)
+                        break;
+                    sample.put("netdev/" + net + "/rxBytes", Long.parseLong(counters[0]));
+                    sample.put("netdev/" + net + "/rxPackets", Long.parseLong(counters[1]));
+                    sample.put("netdev/" + net + "/rxErrors", Long.parseLong(counters[2]));
+                    sample.put("netdev/" + net + "/txBytes", Long.parseLong(counters[8]));
+                    sample.put("netdev/" + net + "/txPackets", Long.parseLong(counters[9]));
+                    sample.put("netdev/" + net + "/txErrors", Long.parseLong(counters[10]));
+                    break;
+                case "/proc/loadavg":
+                    // 0.52 0.58 0.59 2/1234 5678
+                    sample.put("loadavg/1", Math.round(Double.parseDouble(fields[0]) * 100));
+                    sample.put("loadavg/5", Math.round(Double.parseDouble(fields[1]) * 100));
+                    sample.put("loadavg/15", Math.round(Double.parseDouble(fields[2]) * 100));
+                    String[] threads = fields[3].split("/");
+                    sample.put("loadavg/running", Long.parseLong(threads[0]));
+                    sample.put("loadavg/threads", Long.parseLong(threads[1]));
+                    break;
+                default:
+                    break;
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException ignored) {
+            // a line of a kernel version which looks different, the rest of the sample is still fine
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.redhat.jenkins.plugins.perfci.pipeline;
 
 import com.google.common.collect.Sets;
 import com.redhat.jenkins.plugins.perfci.common.Listenable;
+import com.redhat.jenkins.plugins.perfci.monitors.Monitor;
 import com.redhat.jenkins.plugins.perfci.monitors.NMONMonitor;
 import hudson.EnvVars;
 import hudson.Extension;
@@ -9,31 +10,107 @@ import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.jenkinsci.plugins.perfci.common.ChartJSON;
+import org.jenkinsci.plugins.perfci.executor.NativeBuildReportExecutor;
+import org.jenkinsci.plugins.perfci.nmon.NmonHost;
+import org.jenkinsci.plugins.perfci.nmon.NmonParser;
+import org.jenkinsci.plugins.perfci.nmon.ResourceTimeSeries;
 import org.jenkinsci.plugins.workflow.steps.*;
+import org.jenkinsci.remoting.RoleChecker;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
 import javax.annotation.Nonnull;
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class WithMonitoringStep extends Step implements Serializable {
     public static final String FUNCTION_NAME = "withMonitoring";
 
     @DataBoundSetter
-    private List<NMONMonitor> monitors;
+    private List<Monitor> monitors;
+
+    /**
+     * Maximum number of monitors started or stopped at the same time. 1 means one by one, 0 means all at once.
+     */
+    @DataBoundSetter
+    private int parallelism = 1;
+
+    /**
+     * Deadline in seconds for starting or stopping a single monitor. 0 means no deadline.
+     */
+    @DataBoundSetter
+    private int timeout;
+
+    /**
+     * Seconds between fetches of what the monitors have recorded so far. 0 means results are only fetched at the end.
+     */
+    @DataBoundSetter
+    private int collectInterval = 60;
+
+    /**
+     * Time zone of the monitored hosts, e.g. <code>Asia/Shanghai</code>, in which NMON records the time of its snapshots.
+     * Empty means the time zone of the agent running the step.
+     */
+    @DataBoundSetter
+    private String timeZone;
 
     @DataBoundConstructor
-    public WithMonitoringStep(List<NMONMonitor> monitors) {
+    public WithMonitoringStep(List<Monitor> monitors) {
         this.monitors = monitors;
     }
 
-    public List<NMONMonitor> getMonitors() {
+    public List<Monitor> getMonitors() {
         return monitors;
     }
 
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    public int getCollectInterval() {
+        return collectInterval;
+    }
+
+    public void setCollectInterval(int collectInterval) {
+        this.collectInterval = collectInterval;
+    }
+
+    public String getTimeZone() {
+        return timeZone;
+    }
+
+    public void setTimeZone(String timeZone) {
+        this.timeZone = timeZone;
+    }
+
     @Override
     public StepExecution start(StepContext context) throws Exception {
         return new Execution(this, context);
@@ -42,6 +119,7 @@ public class WithMonitoringStep extends Step implements Serializable {
     private static class Execution extends SynchronousNonBlockingStepExecution<Void> implements Serializable {
 
         private static final long serialVersionUID = 1L;
+        private static final int COLLECTOR_STOP_TIMEOUT = 60;
 
         private WithMonitoringStep step;
 
@@ -62,52 +140,229 @@ public class WithMonitoringStep extends Step implements Serializable {
 
         private void startMonitors() throws IOException, InterruptedException {
             listener.getLogger().println("Starting monitors");
-            for (NMONMonitor monitor : step.monitors) {
-                listener.getLogger().println("Starting " + monitor);
+            for (Monitor monitor : step.monitors) {
                 if (monitor instanceof Listenable) {
                     Listenable listenable = (Listenable) monitor;
                     listenable.setListener(listener);
                 }
-                monitor.setWorkDir("/tmp/jenkins-perfci/monitoring/nmon/" + envVars.get("BUILD_TAG"));
+                if (monitor instanceof NMONMonitor)
+                    ((NMONMonitor) monitor).setWorkDir("/tmp/jenkins-perfci/monitoring/nmon/" + envVars.get("BUILD_TAG"));
+            }
+            Map<Monitor, Throwable> failures = forEachMonitor(step.monitors, monitor -> {
+                listener.getLogger().println("Starting " + monitor);
                 monitor.start(path);
+            });
+            if (!failures.isEmpty()) {
+                throw aggregate("Couldn't start " + failures.size() + " of " + step.monitors.size() + " monitors.", failures);
             }
             listener.getLogger().println("Monitors started.");
         }
 
         private void stopMonitors() throws IOException, InterruptedException {
-            boolean allSuccess = true;
             listener.getLogger().println("Stopping monitoring");
-            for (NMONMonitor monitor : step.monitors) {
-                if (!monitor.isStarted())
-                    continue;
+            List<Monitor> startedMonitors = new ArrayList<>();
+            for (Monitor monitor : step.monitors) {
+                if (monitor.isStarted())
+                    startedMonitors.add(monitor);
+            }
+            List<String> resultFiles = Collections.synchronizedList(new ArrayList<>());
+            Map<Monitor, Throwable> failures = forEachMonitor(startedMonitors, monitor -> {
                 listener.getLogger().println("Stopping " + monitor);
-                try {
-                    monitor.stop(path);
-                    String resultFile = monitor.collectResult(path, false).getRemote();
-                    listener.getLogger().println("Monitoring result is saved to " + resultFile);
-                } catch (Exception ex) {
-                    listener.getLogger().println("Something went wrong when stopping " + monitor);
-                    ex.printStackTrace();
-                    allSuccess = false;
+                monitor.stop(path);
+                String resultFile = monitor.collectResult(path, false).getRemote();
+                listener.getLogger().println("Monitoring result is saved to " + resultFile);
+                resultFiles.add(resultFile);
+            });
+            try {
+                summarizeResults(new ArrayList<>(resultFiles));
+            } catch (IOException e) {
+                listener.getLogger().println("WARNING: Couldn't summarize the monitoring results: " + e);
+            }
+            if (!failures.isEmpty()) {
+                throw aggregate("Couldn't stop " + failures.size() + " of " + startedMonitors.size() + " monitors.", failures);
+            }
+        }
+
+        /**
+         * Parses the collected NMON and /proc sample files on the agent, all hosts at once, writes a resource chart
+         * report next to each of them (<code>&lt;result file&gt;.json</code>) and prints the average and peak CPU
+         * usage of each host.
+         * A file which can't be parsed or summarized doesn't fail the step, it is reported as a warning.
+         */
+        private void summarizeResults(List<String> resultFiles) throws IOException, InterruptedException {
+            if (resultFiles.isEmpty())
+                return;
+            final TaskListener listener = this.listener;
+            final int parallelism = step.parallelism > 0 ? step.parallelism : resultFiles.size();
+            final String timeZoneId = step.timeZone == null ? "" : step.timeZone.trim();
+            if (!timeZoneId.isEmpty() && !Arrays.asList(TimeZone.getAvailableIDs()).contains(timeZoneId))
+                listener.getLogger().println("WARNING: Unknown time zone '" + timeZoneId + "', NMON times are read as GMT.");
+            path.act(new Callable<Void, IOException>() {
+                @Override
+                public void checkRoles(RoleChecker roleChecker) throws SecurityException {
+                }
+
+                @Override
+                public Void call() throws IOException {
+                    List<File> files = new ArrayList<>();
+                    for (String resultFile : resultFiles)
+                        files.add(new File(resultFile));
+                    TimeZone timeZone = timeZoneId.isEmpty() ? TimeZone.getDefault() : TimeZone.getTimeZone(timeZoneId);
+                    List<NmonHost> hosts;
+                    try {
+                        hosts = NmonParser.parseAll(files, timeZone, parallelism, listener.getLogger());
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    for (NmonHost host : hosts) {
+                        // hosts come in the order of their files, result files of different directories may have the same name
+                        File reportFile = null;
+                        for (Iterator<File> it = files.iterator(); it.hasNext() && reportFile == null; ) {
+                            File file = it.next();
+                            it.remove();
+                            if (file.getName().equals(host.getFileName()))
+                                reportFile = new File(file.getPath() + ".json");
+                        }
+                        if (reportFile == null) {
+                            listener.getLogger().println("WARNING: Couldn't find the result file of " + host.getHostName() + ", skipped.");
+                            continue;
+                        }
+                        try {
+                            ChartJSON.writeJSON(reportFile, NativeBuildReportExecutor.buildResourceReport(Collections.singletonList(host), timeZone));
+                        } catch (IOException | RuntimeException e) {
+                            listener.getLogger().println("WARNING: Couldn't write the resource charts of " + host.getHostName() + ": " + e);
+                            continue;
+                        }
+                        ResourceTimeSeries user = host.getSeries("CPU_ALL/User%");
+                        ResourceTimeSeries sys = host.getSeries("CPU_ALL/Sys%");
+                        listener.getLogger().println(String.format("%s: %d snapshots, CPU user %.1f%% (peak %.1f%%), sys %.1f%% (peak %.1f%%), resource charts saved to %s",
+                                host.getHostName(), host.getSnapshots(),
+                                user == null ? Double.NaN : user.getMean(), user == null ? Double.NaN : user.getMax(),
+                                sys == null ? Double.NaN : sys.getMean(), sys == null ? Double.NaN : sys.getMax(), reportFile));
+                    }
+                    return null;
                 }
+            });
+        }
+
+        /**
+         * Runs the action against every monitor, at most <code>parallelism</code> at a time,
+         * and returns the monitors that failed (or missed the per-monitor deadline) with their causes.
+         */
+        private Map<Monitor, Throwable> forEachMonitor(List<Monitor> monitors, MonitorAction action) throws InterruptedException {
+            Map<Monitor, Throwable> failures = new LinkedHashMap<>();
+            if (monitors.isEmpty())
+                return failures;
+            int threads = step.parallelism > 0 ? Math.min(step.parallelism, monitors.size()) : monitors.size();
+            ExecutorService executor = Executors.newFixedThreadPool(threads,
+                    new NamingThreadFactory(new DaemonThreadFactory(), "withMonitoring"));
+            ScheduledExecutorService watchdog = step.timeout > 0 ? Executors.newSingleThreadScheduledExecutor(
+                    new NamingThreadFactory(new DaemonThreadFactory(), "withMonitoring-watchdog")) : null;
+            Map<Monitor, Future<Void>> futures = new LinkedHashMap<>();
+            try {
+                for (Monitor monitor : monitors) {
+                    AtomicReference<Future<Void>> self = new AtomicReference<>();
+                    FutureTask<Void> task = new FutureTask<>(() -> {
+                        // the deadline counts from the moment this monitor is picked up, not from when it is queued
+                        ScheduledFuture<?> deadline = watchdog == null ? null
+                                : watchdog.schedule(() -> self.get().cancel(true), step.timeout, TimeUnit.SECONDS);
+                        try {
+                            action.apply(monitor);
+                        } finally {
+                            if (deadline != null)
+                                deadline.cancel(false);
+                        }
+                        return null;
+                    });
+                    self.set(task);
+                    futures.put(monitor, task);
+                    executor.execute(task);
+                }
+                for (Map.Entry<Monitor, Future<Void>> entry : futures.entrySet()) {
+                    try {
+                        entry.getValue().get();
+                    } catch (CancellationException ex) {
+                        failures.put(entry.getKey(), new TimeoutException("No response from " + entry.getKey()
+                                + " within " + step.timeout + " seconds."));
+                    } catch (ExecutionException ex) {
+                        failures.put(entry.getKey(), ex.getCause());
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+                if (watchdog != null)
+                    watchdog.shutdownNow();
             }
-            if (!allSuccess) {
-                throw new IOException("Couldn't stop some monitors.");
+            for (Map.Entry<Monitor, Throwable> failure : failures.entrySet()) {
+                listener.getLogger().println("Something went wrong with " + failure.getKey() + ": " + failure.getValue());
             }
+            return failures;
+        }
+
+        private IOException aggregate(String message, Map<Monitor, Throwable> failures) {
+            IOException ex = new IOException(message);
+            for (Throwable cause : failures.values())
+                ex.addSuppressed(cause);
+            return ex;
+        }
+
+        /**
+         * Periodically fetches the data appended to the result files of the running monitors, one monitor after
+         * another, so the final collection only transfers the last few snapshots and a dead target loses little.
+         */
+        private ScheduledExecutorService startCollector() {
+            if (step.collectInterval <= 0)
+                return null;
+            ScheduledExecutorService collector = Executors.newSingleThreadScheduledExecutor(
+                    new NamingThreadFactory(new DaemonThreadFactory(), "withMonitoring-collector"));
+            collector.scheduleWithFixedDelay(() -> {
+                for (Monitor monitor : step.monitors) {
+                    if (Thread.currentThread().isInterrupted())
+                        return;
+                    if (!monitor.isStarted())
+                        continue;
+                    try {
+                        monitor.collectNewData(path);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } catch (Exception ex) {
+                        // the next run or the final collection tries again
+                        listener.getLogger().println("Couldn't fetch monitoring data from " + monitor + ": " + ex);
+                    }
+                }
+            }, step.collectInterval, step.collectInterval, TimeUnit.SECONDS);
+            return collector;
+        }
+
+        private void stopCollector(ScheduledExecutorService collector) throws InterruptedException {
+            if (collector == null)
+                return;
+            collector.shutdown();
+            // let a running fetch finish, it is resumed from where it stopped otherwise
+            if (!collector.awaitTermination(COLLECTOR_STOP_TIMEOUT, TimeUnit.SECONDS))
+                collector.shutdownNow();
         }
 
         @Override
         protected Void run() throws Exception {
+            ScheduledExecutorService collector = null;
             try {
                 startMonitors();
+                collector = startCollector();
                 getContext().newBodyInvoker().withContext(step).withCallback(BodyExecutionCallback.wrap(getContext())).start().get();
             } finally {
+                stopCollector(collector);
                 stopMonitors();
             }
             return null;
         }
     }
 
+    private interface MonitorAction {
+        void apply(Monitor monitor) throws Exception;
+    }
+
     @Extension
     public static class DescriptorImpl extends StepDescriptor {
         @Override
@@ -0,0 +1,188 @@
+package com.redhat.jenkins.plugins.perfci.targets;
+
+import com.google.common.collect.Lists;
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.TaskListener;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * The machine the monitor runs on, i.e. the agent of the workspace, which needs no connection.
+ * Mostly useful to try out monitors, or to monitor the load generator itself.
+ */
+public class LocalTarget extends AbstractDescribableImpl<LocalTarget> implements MonitoringTarget<LocalTarget>, Serializable {
+    private static final long serialVersionUID = 1L;
+    private final static int TRANSFER_BUFFER_SIZE = 32 * 1024;
+
+    private transient TaskListener listener;
+
+    @DataBoundConstructor
+    public LocalTarget() {
+    }
+
+    @Override
+    public void connect() throws IOException, InterruptedException {
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public void disconnect() throws IOException, InterruptedException {
+    }
+
+    @Override
+    public RunCommandResult run(String executable, List<String> arguments, Map<String, String> envVars) throws IOException, InterruptedException {
+        List<String> fullCommand = Lists.newArrayList(executable);
+        fullCommand.addAll(arguments);
+        ProcessBuilder builder = new ProcessBuilder(fullCommand);
+        if (envVars != null)
+            builder.environment().putAll(envVars);
+        Process process = builder.start();
+        process.getOutputStream().close();
+        CompletableFuture<String> stderr = CompletableFuture.supplyAsync(() -> readLines(process.getErrorStream()));
+        String out = readLines(process.getInputStream());
+        int exitStatus = process.waitFor();
+        try {
+            String err = stderr.get();
+            if (exitStatus != 0)
+                printConsole("Command " + String.join(", ", fullCommand) + " exited with " + exitStatus);
+            return new RunCommandResult(exitStatus, out, err, fullCommand);
+        } catch (ExecutionException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private String readLines(InputStream in) {
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            reader.lines().forEach(line -> {
+                sb.append(line).append("\n");
+                printConsole(line);
+            });
+        } catch (IOException e) {
+            printConsole("WARNING: Couldn't read command output: " + e);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public InputStream open(String command) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder("sh", "-c", command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        process.getOutputStream().close();
+        return new FilterInputStream(process.getInputStream()) {
+            @Override
+            public void close() throws IOException {
+                process.destroy();
+                super.close();
+            }
+        };
+    }
+
+    @Override
+    public void download(String remote, String local, boolean deleteAfterDownload) throws IOException, InterruptedException {
+        File source = new File(remote);
+        File target = new File(local);
+        if (target.isDirectory())
+            target = new File(target, source.getName());
+        Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        if (deleteAfterDownload)
+            Files.delete(source.toPath());
+    }
+
+    @Override
+    public long downloadFrom(String remote, String local, long offset) throws IOException, InterruptedException {
+        long transferred = 0;
+        byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+        try (RandomAccessFile in = new RandomAccessFile(remote, "r");
+             RandomAccessFile out = new RandomAccessFile(local, "rw")) {
+            long length = in.length();
+            if (length < offset)
+                throw new IOException("File " + remote + " is shorter (" + length + " bytes) than its copy " + local + ".");
+            in.seek(offset);
+            out.seek(offset);
+            int n;
+            while (offset + transferred < length
+                    && (n = in.read(buffer, 0, (int) Math.min(buffer.length, length - offset - transferred))) > 0) {
+                out.write(buffer, 0, n);
+                transferred += n;
+            }
+        }
+        return transferred;
+    }
+
+    /**
+     * Nothing goes over a network, so this copies without compression.
+     */
+    @Override
+    public long downloadCompressedFrom(String remote, String local, long offset) throws IOException, InterruptedException {
+        return downloadFrom(remote, local, offset);
+    }
+
+    @Override
+    public void upload(String local, String remote) throws IOException, InterruptedException {
+        File source = new File(local);
+        File target = new File(remote);
+        if (target.isDirectory())
+            target = new File(target, source.getName());
+        Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public List<String> ls(String path) throws IOException, InterruptedException {
+        String[] names = new File(path).list();
+        if (names == null)
+            throw new IOException("Couldn't list " + path + ".");
+        return Arrays.stream(names).sorted().collect(Collectors.toList());
+    }
+
+    @Override
+    public String toString() {
+        return "local target";
+    }
+
+    @Override
+    public void setListener(TaskListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public TaskListener getListener() {
+        return this.listener;
+    }
+
+    @Override
+    public void close() throws Exception {
+    }
+
+    @Extension
+    @Symbol("localTarget")
+    public static class DescriptorImpl extends Descriptor<LocalTarget> {
+        @Override
+        public String getDisplayName() {
+            return "Local monitoring target";
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.redhat.jenkins.plugins.perfci.common.Listenable;
 import hudson.model.Describable;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -13,6 +14,28 @@ public interface MonitoringTarget<T extends Describable<T>> extends Describable<
     void disconnect() throws InterruptedException, IOException;
     RunCommandResult run(String executable, List<String> arguments, Map<String, String> envVars) throws InterruptedException, IOException;
     void download(String remote, String local, boolean deleteAfterDownload) throws IOException, InterruptedException;
+
+    /**
+     * Copies the bytes of a growing remote file from <code>offset</code> on to the same position of the local file,
+     * so calling this again with the local file length only transfers what has been appended since.
+     *
+     * @return number of bytes transferred
+     */
+    long downloadFrom(String remote, String local, long offset) throws IOException, InterruptedException;
+
+    /**
+     * Like {@link #downloadFrom(String, String, long)}, but the bytes are gzipped on the target and decompressed
+     * while they are received.
+     *
+     * @return number of (uncompressed) bytes transferred, or -1 if the target can't compress
+     */
+    long downloadCompressedFrom(String remote, String local, long offset) throws IOException, InterruptedException;
+
+    /**
+     * Starts a shell command on the target which keeps running, e.g. a sampling loop, and returns its standard
+     * output as it is written. Closing the stream ends the command.
+     */
+    InputStream open(String command) throws IOException, InterruptedException;
     void upload(String local, String remote) throws IOException, InterruptedException;
     List<String> ls(String path) throws IOException, InterruptedException;
 }
@@ -0,0 +1,271 @@
+package com.redhat.jenkins.plugins.perfci.targets;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.sftp.SFTPClient;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Authenticated SSH connections kept alive in the JVM (usually an agent) that runs the monitoring callables,
+ * so that consecutive {@link MonitoringTarget} calls to the same host open sessions over one transport
+ * instead of doing a full TCP, key exchange and authentication handshake every time.
+ * <p>
+ * A connection is shared by all leases with the same {@link Key}. It is closed when it is found broken
+ * or when it has been idle (no lease) for longer than its idle timeout. A broken connection is replaced for new
+ * leases right away, but only closed once the leases still held on it have been returned.
+ */
+final class SSHConnectionPool {
+    private static final Logger LOGGER = Logger.getLogger(SSHConnectionPool.class.getName());
+    private static final long EVICTION_PERIOD_SECONDS = 30;
+    private static final SSHConnectionPool INSTANCE = new SSHConnectionPool();
+
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private ScheduledExecutorService evictor;
+
+    static SSHConnectionPool get() {
+        return INSTANCE;
+    }
+
+    interface Connector {
+        SSHClient connect() throws IOException;
+    }
+
+    /**
+     * Leases a healthy connection for the key, creating one with the connector if there is none.
+     * Every successful call must be paired with {@link #release(Key, SSHClient)}.
+     */
+    SSHClient acquire(Key key, long idleTimeoutMillis, Connector connector) throws IOException {
+        startEvictor();
+        while (true) {
+            Entry entry = entries.computeIfAbsent(key, Entry::new);
+            synchronized (entry) {
+                if (entry.retired)
+                    continue;
+                if (entry.client != null && !isHealthy(entry.client)) {
+                    LOGGER.log(Level.FINE, "Dropping broken SSH connection to {0}", key);
+                    dropClient(entry, entry.leases);
+                }
+                if (entry.client == null)
+                    entry.client = connector.connect();
+                entry.leases++;
+                entry.idleTimeoutMillis = idleTimeoutMillis;
+                return entry.client;
+            }
+        }
+    }
+
+    /**
+     * Returns a lease. The connection stays open for reuse unless it is broken.
+     */
+    void release(Key key, SSHClient client) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            closeQuietly(client);
+            return;
+        }
+        synchronized (entry) {
+            if (entry.client != client) {
+                // a stale connection that has been replaced after it broke
+                releaseStale(entry, client);
+                return;
+            }
+            if (entry.leases > 0)
+                entry.leases--;
+            entry.lastReleased = System.currentTimeMillis();
+            if (entry.leases == 0 && !isHealthy(client))
+                dropClient(entry, 0);
+        }
+    }
+
+    /**
+     * Forgets a connection that is known to be unusable and returns the caller's lease on it. New leases get a new
+     * connection; the old one is closed once nobody else is using it.
+     */
+    void invalidate(Key key, SSHClient client) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            closeQuietly(client);
+            return;
+        }
+        synchronized (entry) {
+            if (entry.client == client)
+                dropClient(entry, Math.max(0, entry.leases - 1));
+            else
+                releaseStale(entry, client);
+        }
+    }
+
+    /**
+     * Returns a lease on a connection which has been replaced, and closes it with the last one.
+     */
+    private static void releaseStale(Entry entry, SSHClient client) {
+        Integer leases = entry.staleLeases.get(client);
+        if (leases != null && leases > 1) {
+            entry.staleLeases.put(client, leases - 1);
+            return;
+        }
+        entry.staleLeases.remove(client);
+        closeQuietly(client);
+    }
+
+    /**
+     * Returns the SFTP subsystem of a leased connection, started on first use, so that all transfers over the
+     * connection share one subsystem channel instead of starting one each.
+     */
+    SFTPClient sftp(Key key, SSHClient client) throws IOException {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            throw new IOException("SSH connection to " + key + " is not leased.");
+        synchronized (entry) {
+            if (entry.client != client)
+                throw new IOException("SSH connection to " + key + " has been replaced.");
+            if (entry.sftp == null)
+                entry.sftp = client.newSFTPClient();
+            return entry.sftp;
+        }
+    }
+
+    /**
+     * Forgets the connection of an entry, together with its SFTP subsystem. The connection is closed now if no
+     * leases are left on it, otherwise when the last of them is returned.
+     */
+    private static void dropClient(Entry entry, int remainingLeases) {
+        SSHClient client = entry.client;
+        SFTPClient sftp = entry.sftp;
+        entry.client = null;
+        entry.sftp = null;
+        entry.leases = 0;
+        if (remainingLeases > 0) {
+            // the subsystem is closed together with the connection
+            entry.staleLeases.put(client, remainingLeases);
+            return;
+        }
+        if (sftp != null) {
+            try {
+                sftp.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close SFTP subsystem", e);
+            }
+        }
+        closeQuietly(client);
+    }
+
+    private synchronized void startEvictor() {
+        if (evictor != null)
+            return;
+        evictor = Executors.newSingleThreadScheduledExecutor(
+                new NamingThreadFactory(new DaemonThreadFactory(), "SSHConnectionPool.evictor"));
+        evictor.scheduleWithFixedDelay(this::evictIdle, EVICTION_PERIOD_SECONDS, EVICTION_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (Entry entry : entries.values()) {
+            synchronized (entry) {
+                if (entry.leases > 0 || !entry.staleLeases.isEmpty())
+                    continue;
+                if (entry.client != null && isHealthy(entry.client) && now - entry.lastReleased < entry.idleTimeoutMillis)
+                    continue;
+                if (entry.client != null) {
+                    LOGGER.log(Level.FINE, "Closing idle SSH connection to {0}", entry.key);
+                    dropClient(entry, 0);
+                }
+                entry.retired = true;
+                entries.remove(entry.key, entry);
+            }
+        }
+    }
+
+    private static boolean isHealthy(SSHClient client) {
+        return client.isConnected() && client.isAuthenticated();
+    }
+
+    private static void closeQuietly(SSHClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to close SSH connection", e);
+        }
+    }
+
+    private static final class Entry {
+        private final Key key;
+        private SSHClient client;
+        private SFTPClient sftp;
+        private int leases;
+        /**
+         * leases still held on connections which have been replaced after they broke
+         */
+        private final Map<SSHClient, Integer> staleLeases = new IdentityHashMap<>();
+        private long lastReleased;
+        private long idleTimeoutMillis;
+        private boolean retired;
+
+        Entry(Key key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Identifies connections that can be shared. Credentials are part of the key so that a connection
+     * authenticated with one set of credentials is never handed out to a target configured with another.
+     */
+    static final class Key {
+        private final String host;
+        private final int port;
+        private final String user;
+        private final String fingerprint;
+        private final String password;
+        private final List<String> keys;
+        private final boolean compression;
+
+        Key(String host, int port, String user, String fingerprint, String password, List<String> keys, boolean compression) {
+            this.host = host;
+            this.port = port;
+            this.user = user;
+            this.fingerprint = fingerprint;
+            this.password = password;
+            this.keys = keys;
+            this.compression = compression;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key that = (Key) o;
+            return port == that.port &&
+                    compression == that.compression &&
+                    Objects.equals(host, that.host) &&
+                    Objects.equals(user, that.user) &&
+                    Objects.equals(fingerprint, that.fingerprint) &&
+                    Objects.equals(password, that.password) &&
+                    Objects.equals(keys, that.keys);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, port, user, fingerprint);
+        }
+
+        @Override
+        public String toString() {
+            return user + "@" + host + ":" + port;
+        }
+    }
+}
@@ -9,24 +9,54 @@ import hudson.util.QuotedStringTokenizer;
 import net.schmizz.sshj.SSHClient;
 import net.schmizz.sshj.connection.ConnectionException;
 import net.schmizz.sshj.connection.channel.direct.Session;
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.FileMode;
+import net.schmizz.sshj.sftp.OpenMode;
+import net.schmizz.sshj.sftp.RemoteFile;
 import net.schmizz.sshj.sftp.SFTPClient;
+import net.schmizz.sshj.transport.TransportException;
 import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
 public class SSHTarget extends AbstractDescribableImpl<SSHTarget> implements MonitoringTarget<SSHTarget>, Serializable {
 
     private final static int DEFAULT_TIMEOUT = 600000;
+    private final static int DEFAULT_IDLE_TIMEOUT = 300;
+    private final static int KEEP_ALIVE_INTERVAL = 30;
+    private final static int TRANSFER_BUFFER_SIZE = 32 * 1024;
+    /**
+     * SFTP read and write requests kept in flight per transfer, so a transfer doesn't wait a round trip per packet
+     */
+    private final static int MAX_UNCONFIRMED_READS = 16;
+    private final static int MAX_UNCONFIRMED_WRITES = 16;
+    private final static int TRANSFER_TRIES = 3;
+    /**
+     * exit status of the compressed download command when gzip is missing, as a shell does for an unknown command
+     */
+    private final static int EXIT_NO_COMPRESSOR = 127;
     @DataBoundSetter
     private String host;
     @DataBoundSetter
@@ -41,6 +71,21 @@ public class SSHTarget extends AbstractDescribableImpl<SSHTarget> implements Mon
     private String password;
     @DataBoundSetter
     private List<String> keys;
+    /**
+     * Whether to reuse one authenticated connection per host for consecutive operations.
+     */
+    @DataBoundSetter
+    private boolean pooled = true;
+    /**
+     * Seconds an unused pooled connection is kept open.
+     */
+    @DataBoundSetter
+    private int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    /**
+     * Whether to compress the SSH transport with zlib, which pays off for text like NMON results over slow links.
+     */
+    @DataBoundSetter
+    private boolean compression;
     private int timeout = DEFAULT_TIMEOUT;
     private int connectTimeout = DEFAULT_TIMEOUT;
     private int joinTimeout = DEFAULT_TIMEOUT;
@@ -48,6 +93,10 @@ public class SSHTarget extends AbstractDescribableImpl<SSHTarget> implements Mon
     private transient TaskListener listener;
 
     private transient SSHClient ssh;
+    /**
+     * SFTP subsystem of a connection which is not pooled, pooled ones are kept by {@link SSHConnectionPool}
+     */
+    private transient SFTPClient sftp;
 
     @DataBoundConstructor
     public SSHTarget(String host) {
@@ -110,9 +159,47 @@ public class SSHTarget extends AbstractDescribableImpl<SSHTarget> implements Mon
         this.keys = keys;
     }
 
+    public boolean isPooled() {
+        return pooled;
+    }
+
+    public void setPooled(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    private SSHConnectionPool.Key getPoolKey() {
+        return new SSHConnectionPool.Key(host, port, user, fingerprint, password, keys, compression);
+    }
+
     @Override
-    public void connect() throws IOException {
-        ssh = new SSHClient();
+    public void connect() throws IOException, InterruptedException {
+        if (ssh != null)
+            disconnect();
+        if (pooled) {
+            ssh = SSHConnectionPool.get().acquire(getPoolKey(), TimeUnit.SECONDS.toMillis(idleTimeout), this::newClient);
+        } else {
+            ssh = newClient();
+        }
+    }
+
+    private SSHClient newClient() throws IOException {
+        SSHClient ssh = new SSHClient();
         ssh.setConnectTimeout(connectTimeout);
         ssh.setTimeout(timeout);
         if (fingerprint != null && !fingerprint.isEmpty()) {
@@ -121,9 +208,11 @@ public class SSHTarget extends AbstractDescribableImpl<SSHTarget> implements Mon
             printConsole("WARNING: Fingerprint is not specified. The SSH connection is vulnerable to MIIT attack!");
             ssh.addHostKeyVerifier(new PromiscuousVerifier());
         }
+        if (compression)
+            ssh.useCompression();
         printConsole(
                 "INFO: Connecting to host \"" + host + ":" + port + "\"...");
-        ssh.connect(host);
+        ssh.connect(host, port);
         try {
             if (password != null && !password.isEmpty()) {
                 printConsole("INFO: Authenticating user \"" + user + "\" with password...");
@@ -141,6 +230,11 @@ public class SSHTarget extends AbstractDescribableImpl<SSHTarget> implements Mon
             ssh.disconnect();
             throw e;
         }
+        if (pooled) {
+            // notice dead idle connections before they are handed out again
+            ssh.getConnection().getKeepAlive().setKeepAliveInterval(KEEP_ALIVE_INTERVAL);
+        }
+        return ssh;
     }
 
     @Override
@@ -152,7 +246,11 @@ public class SSHTarget extends AbstractDescribableImpl<SSHTarget> implements Mon
     public void disconnect() throws IOException, InterruptedException {
         if (ssh == null)
             return;
-        ssh.close();
+        if (pooled)
+            SSHConnectionPool.get().release(getPoolKey(), ssh);
+        else
+            closeNonPooled();
+        ssh = null;
     }
 
     @Override
@@ -205,24 +303,300 @@ public class SSHTarget extends AbstractDescribableImpl<SSHTarget> implements Mon
         } catch (ExecutionException e) {
             e.printStackTrace();
             throw new IOException(e);
+        } catch (ConnectionException | TransportException e) {
+            invalidate();
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream open(String command) throws IOException, InterruptedException {
+        if (ssh == null || !ssh.isConnected() || !ssh.isAuthenticated()) {
+            throw new ConnectionException("SSH target is not connected or authenticated.");
+        }
+        Session session = ssh.startSession();
+        try {
+            Session.Command cmd = session.exec(command);
+            return new FilterInputStream(cmd.getInputStream()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        cmd.close();
+                    } finally {
+                        session.close();
+                    }
+                }
+            };
+        } catch (ConnectionException | TransportException e) {
+            session.close();
+            invalidate();
+            throw e;
         }
     }
 
     @Override
     public List<String> ls(String path) throws IOException, InterruptedException {
-        return ssh.newSFTPClient().ls(path).stream().map(file -> file.getName()).collect(Collectors.toList());
+        return sftp().ls(path).stream().map(file -> file.getName()).collect(Collectors.toList());
     }
 
+    /**
+     * Downloads a file, replacing the local one. Up to {@value #MAX_UNCONFIRMED_READS} read requests are kept in
+     * flight, so the transfer isn't bound by the round trip time, and a dropped connection is re-established and
+     * the transfer resumed where it stopped.
+     *
+     * @param local a file, or a directory to download into
+     */
     public void download(String remote, String local, boolean deleteAfterDownload) throws IOException, InterruptedException {
-        SFTPClient sftp = ssh.newSFTPClient();
-        sftp.get(remote, local);
+        File localFile = new File(local);
+        if (localFile.isDirectory())
+            localFile = new File(localFile, remote.substring(remote.lastIndexOf('/') + 1));
+        final File target = localFile;
+        long start = System.nanoTime();
+        long[] transferred = new long[1];
+        retrying("download " + remote, resume -> {
+            try (RemoteFile file = sftp().open(remote)) {
+                long length = file.length();
+                // an existing local file is replaced, only what an earlier try of this call has written is kept
+                long offset = resume ? Math.min(target.length(), length) : 0;
+                if (offset > 0)
+                    printConsole("INFO: Resuming download of " + remote + " at byte " + offset + ".");
+                try (RandomAccessFile out = new RandomAccessFile(target, "rw")) {
+                    out.setLength(offset);
+                }
+                transferred[0] += copy(file.new ReadAheadRemoteFileInputStream(MAX_UNCONFIRMED_READS, offset), target, offset, length - offset);
+            }
+        });
+        reportThroughput("Downloaded", remote, transferred[0], start);
         if (deleteAfterDownload)
-            sftp.rm(remote);
+            sftp().rm(remote);
+    }
+
+    @Override
+    public long downloadFrom(String remote, String local, long offset) throws IOException, InterruptedException {
+        try (RemoteFile file = sftp().open(remote)) {
+            long length = file.length();
+            if (length < offset)
+                throw new IOException("Remote file " + remote + " is shorter (" + length + " bytes) than its local copy " + local + ".");
+            if (length == offset)
+                return 0;
+            // stop at the length seen above, a line being appended now is fetched complete next time
+            return copy(file.new ReadAheadRemoteFileInputStream(MAX_UNCONFIRMED_READS, offset), new File(local), offset, length - offset);
+        } catch (ConnectionException | TransportException e) {
+            invalidate();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes at most <code>count</code> bytes of <code>in</code> into <code>file</code> at <code>offset</code>,
+     * and closes <code>in</code>.
+     */
+    private static long copy(InputStream in, File file, long offset, long count) throws IOException {
+        long transferred = 0;
+        byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+        try (InputStream input = in;
+             RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(offset);
+            int n;
+            while (transferred < count
+                    && (n = input.read(buffer, 0, (int) Math.min(buffer.length, count - transferred))) > 0) {
+                out.write(buffer, 0, n);
+                transferred += n;
+            }
+            if (out.length() > offset + transferred)
+                out.setLength(offset + transferred);
+        }
+        return transferred;
+    }
+
+    @Override
+    public long downloadCompressedFrom(String remote, String local, long offset) throws IOException, InterruptedException {
+        if (ssh == null || !ssh.isConnected() || !ssh.isAuthenticated()) {
+            throw new ConnectionException("SSH target is not connected or authenticated.");
+        }
+        StringBuffer command = new StringBuffer("command -v gzip >/dev/null 2>&1 || exit ")
+                .append(EXIT_NO_COMPRESSOR).append("; test -r ");
+        QuotedStringTokenizer.quote(command, remote);
+        command.append(" || exit 1; test \"$(wc -c < ");
+        QuotedStringTokenizer.quote(command, remote);
+        command.append(")\" -ge ").append(offset).append(" || exit 2; tail -c +").append(offset + 1).append(' ');
+        QuotedStringTokenizer.quote(command, remote);
+        command.append(" | gzip -c");
+        long start = System.nanoTime();
+        long transferred = 0;
+        try (Session session = ssh.startSession()) {
+            Session.Command cmd = session.exec(command.toString());
+            // drained meanwhile, a command filling the stderr channel window would otherwise stall stdout too
+            CompletableFuture<String> stderr = CompletableFuture.supplyAsync(() -> readFully(cmd.getErrorStream()));
+            CountingInputStream compressed = new CountingInputStream(cmd.getInputStream());
+            byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+            // gzip writes a header as soon as it starts, so no output at all means it didn't run
+            PushbackInputStream probe = new PushbackInputStream(compressed, 1);
+            int first = probe.read();
+            if (first >= 0) {
+                probe.unread(first);
+                try (InputStream in = new GZIPInputStream(probe, TRANSFER_BUFFER_SIZE);
+                     RandomAccessFile out = new RandomAccessFile(local, "rw")) {
+                    out.seek(offset);
+                    int n;
+                    // what has been written stays valid if the link drops, the next call resumes after it
+                    while ((n = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, n);
+                        transferred += n;
+                    }
+                }
+            }
+            String err;
+            try {
+                err = stderr.get();
+            } catch (ExecutionException e) {
+                throw new IOException(e);
+            }
+            cmd.join(joinTimeout, TimeUnit.MILLISECONDS);
+            Integer exitStatus = cmd.getExitStatus();
+            if (exitStatus != null && exitStatus == EXIT_NO_COMPRESSOR)
+                return -1;
+            if (exitStatus == null || exitStatus != 0)
+                throw new IOException("Failed to read " + remote + " from " + this + " (exit status " + exitStatus + "): " + err.trim());
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if (transferred > 0)
+                printConsole(String.format("INFO: Received %d bytes of %s as %d gzipped bytes (%.1f:1) in %.1fs, %.1f KB/s on the wire.",
+                        transferred, remote, compressed.getByteCount(), (double) transferred / Math.max(1, compressed.getByteCount()),
+                        seconds, compressed.getByteCount() / 1024.0 / Math.max(seconds, 0.001)));
+            return transferred;
+        } catch (ConnectionException | TransportException e) {
+            invalidate();
+            throw e;
+        }
+    }
+
+    private String readFully(InputStream in) {
+        try {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            printConsole("WARNING: Couldn't read command output: " + e);
+            return "";
+        }
     }
 
+    /**
+     * Uploads a file, replacing the remote one. Up to {@value #MAX_UNCONFIRMED_WRITES} write requests are kept in
+     * flight, and a dropped connection is re-established and the transfer resumed where it stopped.
+     *
+     * @param remote a file, or a directory to upload into
+     */
     public void upload(String local, String remote) throws IOException, InterruptedException {
-        SFTPClient sftp = ssh.newSFTPClient();
-        sftp.put(local, remote);
+        File localFile = new File(local);
+        long length = localFile.length();
+        long start = System.nanoTime();
+        long[] transferred = new long[1];
+        String[] target = {remote};
+        retrying("upload " + local, resume -> {
+            SFTPClient sftp = sftp();
+            long offset = 0;
+            if (!resume) {
+                FileAttributes attributes = sftp.statExistence(target[0]);
+                if (attributes != null && attributes.getType() == FileMode.Type.DIRECTORY)
+                    target[0] = target[0] + "/" + localFile.getName();
+            } else {
+                // an existing remote file is replaced, only what an earlier try of this call has written is kept
+                FileAttributes attributes = sftp.statExistence(target[0]);
+                offset = attributes != null ? Math.min(attributes.getSize(), length) : 0;
+                if (offset > 0)
+                    printConsole("INFO: Resuming upload of " + local + " at byte " + offset + ".");
+            }
+            Set<OpenMode> mode = offset > 0 ? EnumSet.of(OpenMode.WRITE, OpenMode.CREAT)
+                    : EnumSet.of(OpenMode.WRITE, OpenMode.CREAT, OpenMode.TRUNC);
+            try (RemoteFile file = sftp.open(target[0], mode);
+                 OutputStream out = file.new RemoteFileOutputStream(offset, MAX_UNCONFIRMED_WRITES);
+                 RandomAccessFile in = new RandomAccessFile(localFile, "r")) {
+                in.seek(offset);
+                byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                    transferred[0] += n;
+                }
+            }
+        });
+        reportThroughput("Uploaded", local, transferred[0], start);
+    }
+
+    /**
+     * Runs a transfer, and runs it again over a new connection if the connection drops, up to
+     * {@value #TRANSFER_TRIES} times. A try after the first is expected to resume from what the earlier tries have
+     * transferred.
+     */
+    private void retrying(String description, Transfer transfer) throws IOException, InterruptedException {
+        for (int i = 1; ; ++i) {
+            try {
+                transfer.run(i > 1);
+                return;
+            } catch (ConnectionException | TransportException e) {
+                invalidate();
+                if (i >= TRANSFER_TRIES)
+                    throw e;
+                printConsole("WARNING: Connection lost during " + description + " (" + e + "), reconnecting (try " + (i + 1) + " of " + TRANSFER_TRIES + ")...");
+                connect();
+            }
+        }
+    }
+
+    private interface Transfer {
+        /**
+         * @param resume false on the first try, which starts from scratch
+         */
+        void run(boolean resume) throws IOException, InterruptedException;
+    }
+
+    private void reportThroughput(String action, String file, long bytes, long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        printConsole(String.format("INFO: %s %s, %d bytes in %.1fs, %.2f MB/s%s.", action, file, bytes, seconds,
+                bytes / 1048576.0 / Math.max(seconds, 0.001), compression ? " (zlib compressed transport)" : ""));
+    }
+
+    /**
+     * @return the SFTP subsystem of the current connection, started on first use and shared by all transfers
+     */
+    private SFTPClient sftp() throws IOException {
+        if (ssh == null || !ssh.isConnected() || !ssh.isAuthenticated()) {
+            throw new ConnectionException("SSH target is not connected or authenticated.");
+        }
+        if (pooled)
+            return SSHConnectionPool.get().sftp(getPoolKey(), ssh);
+        if (sftp == null)
+            sftp = ssh.newSFTPClient();
+        return sftp;
+    }
+
+    /**
+     * Drops the current connection from the pool after a transport failure, so that the next
+     * {@link #connect()} establishes a new one.
+     */
+    private void invalidate() {
+        if (ssh == null)
+            return;
+        if (pooled) {
+            SSHConnectionPool.get().invalidate(getPoolKey(), ssh);
+        } else {
+            try {
+                closeNonPooled();
+            } catch (IOException ignored) {
+                // the connection is broken anyway
+            }
+        }
+        ssh = null;
+    }
+
+    private void closeNonPooled() throws IOException {
+        try {
+            if (sftp != null)
+                sftp.close();
+        } finally {
+            sftp = null;
+            if (ssh.isConnected())
+                ssh.close();
+        }
     }
 
     @Override
@@ -242,8 +616,14 @@ public class SSHTarget extends AbstractDescribableImpl<SSHTarget> implements Mon
 
     @Override
     public void close() throws Exception {
-        if (this.ssh != null && this.ssh.isConnected())
-            this.ssh.close();
+        if (this.ssh == null)
+            return;
+        if (pooled) {
+            disconnect();
+        } else {
+            closeNonPooled();
+            this.ssh = null;
+        }
     }
 
     @Extension
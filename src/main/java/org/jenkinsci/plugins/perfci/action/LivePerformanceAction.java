@@ -0,0 +1,105 @@
+package org.jenkinsci.plugins.perfci.action;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.perfci.stats.LiveStats;
+import org.jenkinsci.plugins.perfci.stats.TransactionStats;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+
+/**
+ * Shows throughput, error rate and response times of a JMeter test while it is running.
+ * <p>
+ * The statistics only live in memory. They are not saved with the build, so the action is hidden once Jenkins
+ * restarts; the performance report covers the finished test.
+ */
+public class LivePerformanceAction implements Action {
+    private static final String ACTION_NAME = "Live Performance";
+    private static final String ACTION_PATH = "live-performance";
+    private static final String ACTION_ICON = "graph.gif";
+    private static final int[] WINDOWS = {10, LiveStats.WINDOW_SECONDS};
+
+    public final AbstractBuild<?, ?> build;
+    private transient LiveStats stats;
+
+    public LivePerformanceAction(AbstractBuild<?, ?> build, LiveStats stats) {
+        this.build = build;
+        this.stats = stats;
+    }
+
+    public LiveStats getStats() {
+        return stats;
+    }
+
+    public void doStats(StaplerRequest request, StaplerResponse response) throws IOException {
+        response.setContentType("text/json");
+        response.setHeader("Cache-Control", "no-cache");
+        JSONObject result = new JSONObject();
+        if (stats == null) {
+            result.put("error", 1);
+            result.put("errorMessage", "No live statistics, the test has finished before Jenkins restarted.");
+            IOUtils.write(result.toString(), response.getOutputStream());
+            return;
+        }
+        result.put("error", 0);
+        result.put("building", build.isBuilding());
+        result.put("lastUpdate", stats.getLastUpdate());
+        JSONArray windows = new JSONArray();
+        for (int seconds : WINDOWS) {
+            TransactionStats windowStats = stats.getWindow(seconds);
+            JSONObject window = toJSON(windowStats);
+            window.put("seconds", seconds);
+            putNumber(window, "throughput", (double) windowStats.getCount() / seconds);
+            windows.add(window);
+        }
+        result.put("windows", windows);
+        JSONArray transactions = new JSONArray();
+        for (TransactionStats transaction : stats.getTransactions())
+            transactions.add(toJSON(transaction));
+        transactions.add(toJSON(stats.getTotal()));
+        result.put("transactions", transactions);
+        IOUtils.write(result.toString(), response.getOutputStream());
+    }
+
+    private static JSONObject toJSON(TransactionStats stats) {
+        JSONObject json = new JSONObject();
+        json.put("name", stats.getName());
+        json.put("samples", stats.getCount());
+        json.put("errors", stats.getErrors());
+        putNumber(json, "errorRate", stats.getErrorRate());
+        putNumber(json, "throughput", stats.getThroughput());
+        putNumber(json, "average", stats.getHistogram().getMean());
+        putNumber(json, "p90", stats.getHistogram().getValueAtPercentile(90));
+        putNumber(json, "p95", stats.getHistogram().getValueAtPercentile(95));
+        putNumber(json, "p99", stats.getHistogram().getValueAtPercentile(99));
+        return json;
+    }
+
+    /**
+     * JSON has no NaN, a missing value is left out instead.
+     */
+    private static void putNumber(JSONObject json, String key, double value) {
+        if (!Double.isNaN(value) && !Double.isInfinite(value))
+            json.put(key, value);
+    }
+
+    @Override
+    public String getDisplayName() {
+        return ACTION_NAME;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return stats == null ? null : ACTION_ICON;
+    }
+
+    @Override
+    public String getUrlName() {
+        return ACTION_PATH;
+    }
+}
@@ -6,15 +6,17 @@ import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 import org.apache.commons.io.IOUtils;
 import org.jenkinsci.plugins.perfci.common.Constants;
-import org.jenkinsci.plugins.perfci.common.IOHelper;
+import org.jenkinsci.plugins.perfci.common.ReportFileServer;
 import org.jenkinsci.plugins.perfci.model.PerfchartsComparisonReport;
+import org.jenkinsci.plugins.perfci.stats.TimeSeriesRollup;
+import org.jenkinsci.plugins.perfci.stats.TransactionStats;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.logging.Logger;
 
 /**
@@ -24,6 +26,8 @@ public class PerfchartsBuildReportAction implements Action {
     private static final String ACTION_NAME = "Performance Report";
     private static final String ACTION_PATH = "performance-report";
     private static final String ACTION_ICON = "graph.gif";
+    private static final int DEFAULT_TIME_SERIES_POINTS = 2000;
+    private static final int MAX_TIME_SERIES_POINTS = 5000;
     private static final Logger LOGGER = Logger
             .getLogger(PerfchartsBuildReportAction.class.getName());
 
@@ -38,10 +42,7 @@ public class PerfchartsBuildReportAction implements Action {
         String buildPath = build.getRootDir().getAbsolutePath();
         String outputPath = buildPath + File.separator + Constants.OUTPUT_DIR_RELATIVE_PATH;
         String monoReportFile = outputPath + File.separator + Constants.MONO_REPORT_NAME;
-        response.setContentType("text/html; charset=UTF-8");
-        IOHelper.copySteam(new FileInputStream(monoReportFile),
-                response.getOutputStream());
-
+        ReportFileServer.serve(request, response, new File(monoReportFile), "text/html; charset=UTF-8");
     }
 
     public void doGetDataJs(StaplerRequest request, StaplerResponse response)
@@ -51,12 +52,65 @@ public class PerfchartsBuildReportAction implements Action {
                 Constants.OUTPUT_DIR_RELATIVE_PATH;
         String dataFile = outputPath+ File.separator +"data"+ File.separator +
                 "data.js";
-        response.setContentType("text/javascript");
+        ReportFileServer.serve(request, response, new File(dataFile), "text/javascript");
+    }
+
+    /**
+     * Returns the time series of the build between the <code>from</code> and <code>to</code> parameters
+     * (milliseconds since the epoch, both optional), at the finest resolution of {@link TimeSeriesRollup} which
+     * has at most <code>points</code> buckets. Each point is
+     * <code>[start, count, errors, mean, 90th percentile, max, bytes]</code>.
+     */
+    public void doTimeSeries(StaplerRequest request, StaplerResponse response)
+            throws IOException {
+        response.setContentType("text/json");
+        long from = parseLong(request.getParameter("from"), Long.MIN_VALUE);
+        long to = parseLong(request.getParameter("to"), Long.MAX_VALUE);
+        int points = (int) Math.max(1, Math.min(MAX_TIME_SERIES_POINTS,
+                parseLong(request.getParameter("points"), DEFAULT_TIME_SERIES_POINTS)));
+        String label = request.getParameter("label");
+        File rollupDir = new File(build.getRootDir(), Constants.OUTPUT_DIR_RELATIVE_PATH + File.separator + "data"
+                + File.separator + TimeSeriesRollup.DIR_NAME);
+        TimeSeriesRollup.Slice slice = TimeSeriesRollup.read(rollupDir, from, to, points);
+        JSONObject result = new JSONObject();
+        if (slice == null) {
+            result.put("error", 1);
+            result.put("errorMessage", "No time series have been recorded for this build.");
+            IOUtils.write(result.toString(), response.getOutputStream());
+            return;
+        }
+        Map<String, JSONArray> series = new TreeMap<>();
+        for (Map.Entry<Long, Map<String, TransactionStats>> bucket : slice.getBuckets().entrySet()) {
+            for (TransactionStats stats : bucket.getValue().values()) {
+                if (label != null && !label.equals(stats.getName()))
+                    continue;
+                JSONArray data = series.get(stats.getName());
+                if (data == null)
+                    series.put(stats.getName(), data = new JSONArray());
+                JSONArray point = new JSONArray();
+                point.add(bucket.getKey());
+                point.add(stats.getCount());
+                point.add(stats.getErrors());
+                point.add(stats.getHistogram().getMean());
+                point.add(stats.getHistogram().getValueAtPercentile(90));
+                point.add(stats.getHistogram().getMax());
+                point.add(stats.getBytes());
+                data.add(point);
+            }
+        }
+        result.put("error", 0);
+        result.put("resolution", slice.getResolution());
+        result.put("series", series);
+        IOUtils.write(result.toString(), response.getOutputStream());
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null || value.isEmpty())
+            return defaultValue;
         try {
-            IOHelper.copySteam(new FileInputStream(dataFile),
-                    response.getOutputStream());
-        } catch (FileNotFoundException ex) {
-            response.sendError(404);
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
         }
     }
 
@@ -3,14 +3,16 @@ package org.jenkinsci.plugins.perfci.action;
 import hudson.model.AbstractProject;
 import hudson.model.Action;
 import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.perfci.common.BuildRanges;
+import org.jenkinsci.plugins.perfci.common.ReportJobs;
 import org.jenkinsci.plugins.perfci.common.TrendReportManager;
 import org.jenkinsci.plugins.perfci.model.PerfchartsTrendReport;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
 import javax.annotation.Nullable;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 public class PerfchartsTrendReportAction implements Action/*, StaplerProxy*/ {
     private static final String ACTION_NAME = "Performance Trend";
@@ -52,9 +54,8 @@ public class PerfchartsTrendReportAction implements Action/*, StaplerProxy*/ {
         JSONObject result = new JSONObject();
         //response.getWriter().println(request.getRestOfPath());
         String input = request.getParameter("builds");
-        Pattern pattern = Pattern.compile("\\d+(-\\d+)*(,\\d+(-\\d+)*)*");
         //response.getWriter().println("<p>" + input + "</p>\n");
-        if (!input.isEmpty() && !pattern.matcher(input).matches()) {
+        if (!input.isEmpty() && !BuildRanges.isValid(input)) {
             //response.getWriter().println("<p>ERROR_VALIDATION</p>\n");
             result.put("error", 1);
             result.put("errorMessage", "invalid input format");
@@ -65,26 +66,39 @@ public class PerfchartsTrendReportAction implements Action/*, StaplerProxy*/ {
                 project.getFirstBuild().number + "-" + project.getLastBuild().number}
                 : input.split(",");
 
-        // check cache file existence
+        // check cache file existence; anything else is generated in the background, see doJobStatus()
         String urlID = TrendReportManager.concatParts(buildParts);
         String reportID = TrendReportManager.calculateReportID(urlID);
+        String url = "show/" + urlID + "/monoReport";
         if (!TrendReportManager.reportExists(project, reportID)) {
+            final String[] parts = buildParts;
             try {
-                TrendReportManager.generateReport(project, buildParts);
-            } catch (Exception ex) {
-                ex.printStackTrace();
-                result.put("error", 2);
-                result.put("errorMessage", ex.toString());
+                ReportJobs.Job job = ReportJobs.submit(TrendReportManager.getGenerationKey(project, reportID), url, new ReportJobs.Task() {
+                    @Override
+                    public void run() throws Exception {
+                        // written to the directory the report page is served from
+                        TrendReportManager.generateReport(project, parts);
+                    }
+                });
+                result.put("jobId", job.getId());
+            } catch (RejectedExecutionException ex) {
+                result.put("error", 3);
+                result.put("errorMessage", ex.getMessage());
                 response.getWriter().write(result.toString());
                 return;
             }
         }
         result.put("error", 0);
-        result.put("url", "show/" + urlID + "/monoReport");
+        result.put("url", url);
         response.getWriter().write(result.toString());
         //response.sendRedirect(302, "show/" + sb.toString());
     }
 
+    public void doJobStatus(StaplerRequest request, StaplerResponse response) throws Exception {
+        response.setContentType("text/json");
+        response.getWriter().write(ReportJobs.getStatus(request.getParameter("id")).toString());
+    }
+
     public PerfchartsTrendReport getShow(@Nullable String urlID) throws Exception {
         return new PerfchartsTrendReport(project, urlID);
     }
@@ -15,6 +15,7 @@ import net.sf.json.JSONObject;
 import org.jenkinsci.plugins.perfci.action.PerfchartsBuildReportAction;
 import org.jenkinsci.plugins.perfci.action.PerfchartsTrendReportAction;
 import org.jenkinsci.plugins.perfci.common.*;
+import org.jenkinsci.plugins.perfci.executor.NativeBuildReportExecutor;
 import org.jenkinsci.plugins.perfci.executor.PerfchartsNewExecutor;
 import org.jenkinsci.plugins.perfci.model.PerformanceTester;
 import org.jenkinsci.plugins.perfci.model.ResourceMonitor;
@@ -41,9 +42,13 @@ public class PerformanceTestBuilder extends Builder implements Serializable {
     private String perfchartsCommand;
     private String excludedTransactionPattern;
     private String reportTemplate;
+    private String reportEngine;
+
+    public static final String REPORT_ENGINE_NATIVE = "native";
+    public static final String REPORT_ENGINE_PERFCHARTS = "perfcharts";
 
     @DataBoundConstructor
-    public PerformanceTestBuilder(boolean disabled, String resultDir, int keepBuilds, boolean reportDisabled, String fallbackTimezone, List<PerformanceTester> performanceTesters, List<ResourceMonitor> resourceMonitors, String perfchartsCommand, String excludedTransactionPattern, String reportTemplate) {
+    public PerformanceTestBuilder(boolean disabled, String resultDir, int keepBuilds, boolean reportDisabled, String fallbackTimezone, List<PerformanceTester> performanceTesters, List<ResourceMonitor> resourceMonitors, String perfchartsCommand, String excludedTransactionPattern, String reportTemplate, String reportEngine) {
         this.disabled = disabled;
         this.resultDir = resultDir;
         this.keepBuilds = keepBuilds;
@@ -52,6 +57,7 @@ public class PerformanceTestBuilder extends Builder implements Serializable {
         this.perfchartsCommand = perfchartsCommand;
         this.excludedTransactionPattern = excludedTransactionPattern;
         this.reportTemplate = reportTemplate;
+        this.reportEngine = reportEngine;
         this.performanceTesters = performanceTesters != null ? performanceTesters : Collections.<PerformanceTester>emptyList();
         this.resourceMonitors = resourceMonitors != null ? resourceMonitors : Collections.<ResourceMonitor>emptyList();
     }
@@ -139,6 +145,7 @@ public class PerformanceTestBuilder extends Builder implements Serializable {
             listener.getLogger().println("WARNING: No performance test reports will be generated according to your configuration.");
         } else {
             final String workspaceFullPathOnAgent = build.getWorkspace().getRemote();
+            final boolean nativeEngine = REPORT_ENGINE_NATIVE.equals(reportEngine);
             launcher.getChannel().call(new hudson.remoting.Callable<Object, IOException>() {
                 @Override
                 public void checkRoles(RoleChecker checker) throws SecurityException {
@@ -147,6 +154,29 @@ public class PerformanceTestBuilder extends Builder implements Serializable {
                 @Override
                 public Object call() throws IOException {
                     // generate a report
+                    try {
+                        generateReport();
+                        // compress on the agent, so the controller serves the report without compressing it
+                        File reportDir = new File(reportDirForBuild);
+                        ReportCompressor.compress(reportDir.isAbsolute() ? reportDir : new File(workspaceFullPathOnAgent, reportDirForBuild));
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    return null;
+                }
+
+                private void generateReport() throws IOException, InterruptedException {
+                    if (nativeEngine) {
+                        new NativeBuildReportExecutor(workspaceFullPathOnAgent,
+                                fallbackTimezoneObj,
+                                baseDirForBuild,
+                                reportDirForBuild,
+                                reportDirForBuild + File.separator + Constants.MONO_REPORT_NAME,
+                                PerformanceTestBuilder.this.excludedTransactionPattern,
+                                listener.getLogger()).run();
+                        listener.getLogger().println("INFO: Performance report generated successfully.");
+                        return;
+                    }
                     PerfchartsNewExecutor perfchartsExecutor = new PerfchartsNewExecutor(perfchartsCommand,
                             reportTemplate, workspaceFullPathOnAgent,
                             fallbackTimezoneObj,
@@ -155,23 +185,34 @@ public class PerformanceTestBuilder extends Builder implements Serializable {
                             reportDirForBuild + File.separator + Constants.MONO_REPORT_NAME,
                             PerformanceTestBuilder.this.excludedTransactionPattern,
                             listener.getLogger());
-
-
+                    if (perfchartsExecutor.run() != 0) {
+                        listener.getLogger().println("ERROR: Perfcharts reported an error when generating a performance report.");
+                        throw new InterruptedException("Perfcharts reported an error when generating a performance report.");
+                    }
+                    // keep a summary for trend and comparison reports, which merge the histograms of builds,
+                    // and the time series, read in one pass. The Perfcharts report is complete without them.
                     try {
-                        if (perfchartsExecutor.run() != 0) {
-                            listener.getLogger().println("ERROR: Perfcharts reported an error when generating a performance report.");
-                            throw new InterruptedException("Perfcharts reported an error when generating a performance report.");
-                        }
-                        listener.getLogger().println("INFO: Performance report generated successfully.");
-                    } catch (InterruptedException e) {
-                        throw new IOException(e);
+                        new NativeBuildReportExecutor(workspaceFullPathOnAgent,
+                                fallbackTimezoneObj,
+                                baseDirForBuild,
+                                reportDirForBuild,
+                                reportDirForBuild + File.separator + Constants.MONO_REPORT_NAME,
+                                PerformanceTestBuilder.this.excludedTransactionPattern,
+                                listener.getLogger()).writeStatistics();
+                    } catch (IOException e) {
+                        listener.getLogger().println("WARNING: Couldn't summarize the test results, this build will be missing from trend and comparison reports: " + e);
                     }
-                    return null;
+                    listener.getLogger().println("INFO: Performance report generated successfully.");
                 }
             });
             // copy generated report to master
             listener.getLogger().println("INFO: Copying generated performance report to Jenkins master...");
             IOHelper.copyDirFromWorkspace(build.getWorkspace().child(reportDirForBuild), Constants.PERF_CHARTS_RELATIVE_PATH, build, listener);
+            try {
+                TrendStore.get(build.getProject()).add(build);
+            } catch (IOException e) {
+                listener.getLogger().println("WARNING: Couldn't add this build to the trend store, it will be added when a trend report needs it: " + e);
+            }
         }
 
         listener.getLogger().println("INFO: Preparing views for generated performance report...");
@@ -268,6 +309,17 @@ public class PerformanceTestBuilder extends Builder implements Serializable {
         this.reportTemplate = reportTemplate;
     }
 
+    /**
+     * @return the report engine, {@value #REPORT_ENGINE_PERFCHARTS} for jobs configured before there was a choice
+     */
+    public String getReportEngine() {
+        return reportEngine == null || reportEngine.isEmpty() ? REPORT_ENGINE_PERFCHARTS : reportEngine;
+    }
+
+    public void setReportEngine(String reportEngine) {
+        this.reportEngine = reportEngine;
+    }
+
     /**
      * Descriptor for {@link PerformanceTestBuilder}. Used as a singleton.
      * The class is marked as public so that it can be accessed from views.
@@ -278,6 +330,7 @@ public class PerformanceTestBuilder extends Builder implements Serializable {
         private String defaultPerfchartsCommand = "docker run --rm -v \"$WORKSPACE\":/data:rw docker-perf.eng.pek2.redhat.com:5000/perfci-agent perfcharts";
         private String defaultJmeterCommand = "docker run --rm -v \"$WORKSPACE\":/data:rw -w /data/\"$PERFCI_WORKING_DIR\" docker-perf.eng.pek2.redhat.com:5000/perfci-agent jmeter";
         private String nmonSSHKeys = "\"$HOME\"/.ssh/id_rsa,\"$HOME\"/.ssh/id_dsa";
+        private long reportCacheSizeMB = ReportCacheManager.DEFAULT_BUDGET_MB;
 
         /**
          * In order to load the persisted global configuration, you have to
@@ -285,6 +338,7 @@ public class PerformanceTestBuilder extends Builder implements Serializable {
          */
         public DescriptorImpl() {
             load();
+            ReportCacheManager.setBudgetMB(reportCacheSizeMB);
         }
 
         public static DescriptorImpl getDescriptor() {
@@ -323,6 +377,8 @@ public class PerformanceTestBuilder extends Builder implements Serializable {
             defaultPerfchartsCommand = formData.getString("defaultPerfchartsCommand");
             defaultJmeterCommand = formData.getString("defaultJmeterCommand");
             nmonSSHKeys = formData.getString("nmonSSHKeys");
+            reportCacheSizeMB = formData.optLong("reportCacheSizeMB", ReportCacheManager.DEFAULT_BUDGET_MB);
+            ReportCacheManager.setBudgetMB(reportCacheSizeMB);
             save();
             return super.configure(req, formData);
         }
@@ -332,6 +388,12 @@ public class PerformanceTestBuilder extends Builder implements Serializable {
                     new ListBoxModel.Option("General purpose performance test", "perf-general"));
         }
 
+        public ListBoxModel doFillReportEngineItems() {
+            // Perfcharts stays the default until the built-in reports have the same trend and comparison layout
+            return new ListBoxModel(new ListBoxModel.Option("Perfcharts", REPORT_ENGINE_PERFCHARTS),
+                    new ListBoxModel.Option("Built-in", REPORT_ENGINE_NATIVE));
+        }
+
 
         public String getDefaultPerfchartsCommand() {
             return defaultPerfchartsCommand;
@@ -357,6 +419,14 @@ public class PerformanceTestBuilder extends Builder implements Serializable {
             this.nmonSSHKeys = nmonSSHKeys;
         }
 
+        public long getReportCacheSizeMB() {
+            return reportCacheSizeMB;
+        }
+
+        public void setReportCacheSizeMB(long reportCacheSizeMB) {
+            this.reportCacheSizeMB = reportCacheSizeMB;
+        }
+
     }
 
 
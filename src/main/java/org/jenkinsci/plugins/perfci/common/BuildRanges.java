@@ -0,0 +1,44 @@
+package org.jenkinsci.plugins.perfci.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the build selections of trend reports, e.g. <code>1-50,60</code>.
+ * A range may be descending (<code>50-1</code>), in which case its builds are listed in descending order.
+ */
+public class BuildRanges {
+    public static final Pattern PATTERN = Pattern.compile("\\d+(-\\d+)?(,\\d+(-\\d+)?)*");
+    private static final Pattern RANGE_PATTERN = Pattern.compile("(\\d+)-(\\d+)");
+
+    public static boolean isValid(String input) {
+        return PATTERN.matcher(input).matches();
+    }
+
+    /**
+     * @param parts the comma separated parts of a selection, each a build number or a range
+     * @return the selected build numbers, in the order they are selected
+     */
+    public static List<Integer> parse(String[] parts) {
+        List<Integer> numbers = new ArrayList<>();
+        for (String part : parts) {
+            Matcher m = RANGE_PATTERN.matcher(part);
+            if (m.matches()) { // is a range
+                int first = Integer.parseInt(m.group(1));
+                int second = Integer.parseInt(m.group(2));
+                if (first <= second) { // increase
+                    for (int i = first; i <= second; ++i)
+                        numbers.add(i);
+                } else { //decrease
+                    for (int i = first; i >= second; --i)
+                        numbers.add(i);
+                }
+            } else {
+                numbers.add(Integer.parseInt(part));
+            }
+        }
+        return numbers;
+    }
+}
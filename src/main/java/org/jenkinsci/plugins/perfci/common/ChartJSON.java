@@ -0,0 +1,115 @@
+package org.jenkinsci.plugins.perfci.common;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.TimeZone;
+
+/**
+ * Builds reports in the JSON model rendered by the Perfcharts front-end (<code>js/perfcharts.js</code>):
+ * a report has a title and a list of charts, each chart is either a table or a set of series plotted
+ * against an x axis.
+ */
+public class ChartJSON {
+    public static final String X_AXIS_TIME = "TIME";
+    public static final String X_AXIS_INTEGER = "INTEGER";
+
+    public static JSONObject report(String title) {
+        return new JSONObject().put("title", title).put("charts", new JSONArray());
+    }
+
+    public static JSONObject addChart(JSONObject report, JSONObject chart) {
+        report.getJSONArray("charts").put(chart);
+        return chart;
+    }
+
+    public static JSONObject table(String key, String title, String subtitle, String... header) {
+        JSONArray headerJSON = new JSONArray();
+        for (String column : header)
+            headerJSON.put(column);
+        return new JSONObject().put("chartType", "TABLE").put("key", key).put("title", title)
+                .put("subtitle", subtitle == null ? "" : subtitle)
+                .put("header", headerJSON).put("rows", new JSONArray()).put("bottomRows", new JSONArray());
+    }
+
+    public static JSONObject cell(String value) {
+        return new JSONObject().put("value", value == null ? JSONObject.NULL : value);
+    }
+
+    public static JSONObject cell(long value) {
+        return new JSONObject().put("value", value).put("valueType", "long");
+    }
+
+    public static JSONObject cell(double value) {
+        JSONObject cell = new JSONObject().put("valueType", "double");
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            return cell.put("value", JSONObject.NULL).put("rawValue", "NaN");
+        return cell.put("value", value);
+    }
+
+    public static JSONObject chart(String title, String subtitle, String xLabel, String yLabel, String xaxisMode) {
+        return new JSONObject().put("title", title).put("subtitle", subtitle == null ? "" : subtitle)
+                .put("xLabel", xLabel).put("yLabel", yLabel).put("xaxisMode", xaxisMode)
+                .put("series", new JSONArray());
+    }
+
+    public static JSONArray addSeries(JSONObject chart, String label) {
+        JSONArray data = new JSONArray();
+        chart.getJSONArray("series").put(new JSONObject().put("label", label).put("data", data));
+        return data;
+    }
+
+    /**
+     * Labels an x value of an {@link #X_AXIS_INTEGER} chart, e.g. with the name of a build.
+     */
+    public static void addTick(JSONObject chart, long x, String label) {
+        if (!chart.has("xaxisTicks"))
+            chart.put("xaxisTicks", new JSONArray());
+        chart.getJSONArray("xaxisTicks").put(new JSONArray().put(x).put(label));
+    }
+
+    /**
+     * Adds a point unless y is not a number, which Flot could not plot anyway.
+     */
+    public static void addPoint(JSONArray series, long x, double y) {
+        if (Double.isNaN(y) || Double.isInfinite(y))
+            return;
+        series.put(new JSONArray().put(x).put(y));
+    }
+
+    /**
+     * Flot plots time axes in UTC, so timestamps are shifted to show wall-clock time of the given time zone.
+     */
+    public static long toChartTime(long timestamp, TimeZone timeZone) {
+        return timeZone == null ? timestamp : timestamp + timeZone.getOffset(timestamp);
+    }
+
+    public static void writeJSON(File file, JSONObject json) throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            json.write(writer);
+        }
+    }
+
+    /**
+     * Writes the <code>data.js</code> file loaded by report pages, which hands the reports to the front-end.
+     */
+    public static void writeDataJS(File file, JSONObject... reports) throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writeDataJS(writer, reports);
+        }
+    }
+
+    public static void writeDataJS(Writer writer, JSONObject... reports) throws IOException {
+        writer.write("ChartGeneration.data = [");
+        for (int i = 0; i < reports.length; ++i) {
+            if (i > 0)
+                writer.write(",\n");
+            reports[i].write(writer);
+        }
+        writer.write("];\n");
+    }
+}
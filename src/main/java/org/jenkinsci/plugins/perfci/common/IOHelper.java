@@ -3,21 +3,30 @@ package org.jenkinsci.plugins.perfci.common;
 import hudson.FilePath;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.jenkinsci.remoting.RoleChecker;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Created by vfreex on 11/26/15.
  */
 public class IOHelper {
+    private static final int COPY_TRIES = 6;
+    /**
+     * default number of files copied at a time by {@link #copyFilesFromWorkspace},
+     * set by the system property <code>org.jenkinsci.plugins.perfci.common.IOHelper.copyParallelism</code>
+     */
+    public static final int COPY_PARALLELISM = Math.max(1, Integer.getInteger(IOHelper.class.getName() + ".copyParallelism", 4));
+
 //    public static List<FilePath> locateFiles(FilePath basePath, String includes)
 //            throws IOException, InterruptedException {
 //        String parts[] = includes.split("\\s*[;:,]+\\s*");
@@ -49,33 +58,132 @@ public class IOHelper {
         }
         out.flush();
     }
+
     public static void copyFilesFromWorkspace(List<FilePath> files, String toDir, AbstractBuild<?, ?> build, BuildListener listener) throws IOException, InterruptedException {
-        String localFilePathString = build.getRootDir().getAbsolutePath() + File.separator + toDir;
-        FilePath localFilePath = new FilePath(new File(localFilePathString));
+        copyFilesFromWorkspace(files, toDir, build, listener, COPY_PARALLELISM);
+    }
+
+    /**
+     * Copies files of the workspace into a directory of the build on the controller, up to <code>parallelism</code>
+     * files at a time over the remoting channel.
+     * <p>
+     * A file which already exists on the controller with the same size and MD5 checksum is skipped. A failed file is
+     * retried with the same backoff as {@link #copyDirFromWorkspace}; once it gives up, the files not started yet are
+     * cancelled and the failure is thrown.
+     * <p>
+     * Files are copied under their names, without their directories. A file whose name is taken by another one gets
+     * a number appended to its base name, e.g. <code>result-2.jtl</code>.
+     */
+    public static void copyFilesFromWorkspace(List<FilePath> files, String toDir, AbstractBuild<?, ?> build, final BuildListener listener, int parallelism) throws IOException, InterruptedException {
+        final File localDir = new File(build.getRootDir().getAbsolutePath() + File.separator + toDir);
+        if (!localDir.isDirectory() && !localDir.mkdirs())
+            throw new IOException("Couldn't create directory '" + localDir + "'.");
+        // files of different directories may have the same name, each must get its own destination and temporary file
+        Map<FilePath, String> regularFiles = new LinkedHashMap<>();
+        Set<String> remotes = new HashSet<>();
+        Set<String> names = new HashSet<>();
         for (FilePath src : files) {
             if (src.isDirectory()) {
                 listener.getLogger().println("[WARNING] File '" + src.getName()
                         + "' is a directory. We won't copy directories.");
                 continue;
             }
-            FilePath zippedFile = new FilePath(new File(localFilePathString + File.separator + src.getName() + ".zip"));
-            int _try;
-            for (_try = 1; _try <= 5; ++_try) {
-                try {
-                    listener.getLogger().println("[INFO] Zipping and copying file '" + src.getName() + "' to master...");
-                    src.zip(zippedFile);
-                    listener.getLogger().println("[INFO] Unzipping file '" + src.getName() + "' on master...");
-                    zippedFile.unzip(localFilePath);
-                    zippedFile.delete();
-                    listener.getLogger().println("[INFO] File '" + src.getName() + "' has been copied to build directory on master.");
-                    break;
-                } catch (Exception ex) {
-                    if (_try > 5) {
-                        throw new IOException("Failed to copy file '" + src.getName() + "'. Give up.", ex);
+            if (!remotes.add(src.getRemote()))
+                continue;
+            String name = uniqueName(src.getName(), names);
+            if (!name.equals(src.getName()))
+                listener.getLogger().println("[WARNING] Another file is named '" + src.getName() + "' too, '"
+                        + src.getRemote() + "' is copied to master as '" + name + "'.");
+            regularFiles.put(src, name);
+        }
+        if (regularFiles.isEmpty())
+            return;
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, regularFiles.size())),
+                new NamingThreadFactory(new DaemonThreadFactory(), "perfci copy from " + build.getFullDisplayName()));
+        List<Future<Long>> futures = new ArrayList<>();
+        try {
+            for (final Map.Entry<FilePath, String> file : regularFiles.entrySet()) {
+                futures.add(executor.submit(new java.util.concurrent.Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return copyFileFromWorkspace(file.getKey(), new File(localDir, file.getValue()), listener);
                     }
-                    listener.getLogger().println("[WARNING] Copy '" + src.getName() + "' failed. Try again in " + _try + " minute.\n" + ex.toString());
-                    Thread.sleep(1000 * 60 * _try);
-                }
+                }));
+            }
+            long bytes = 0;
+            int skipped = 0;
+            for (Future<Long> future : futures) {
+                long copied = getResult(future);
+                if (copied < 0)
+                    ++skipped;
+                else
+                    bytes += copied;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            listener.getLogger().println(String.format("[INFO] Copied %d files (%d bytes, %d unchanged files skipped) to master "
+                            + "in %.1f s, %.2f MB/s with %d parallel transfers.", regularFiles.size() - skipped, bytes, skipped,
+                    seconds, seconds > 0 ? bytes / seconds / 1024 / 1024 : 0, parallelism));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Appends a number to the base name, before the extension, if the name is taken already. Names are compared
+     * ignoring case, since the controller's file system may do so.
+     *
+     * @param taken names given so far, the returned name is added
+     */
+    private static String uniqueName(String name, Set<String> taken) {
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        String unique = name;
+        for (int i = 2; !taken.add(unique.toLowerCase(Locale.ROOT)); ++i)
+            unique = base + "-" + i + extension;
+        return unique;
+    }
+
+    private static long getResult(Future<Long> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof InterruptedException)
+                throw (InterruptedException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @return number of bytes copied, or -1 if the file is unchanged on the controller
+     */
+    private static long copyFileFromWorkspace(FilePath src, File dest, BuildListener listener) throws IOException, InterruptedException {
+        long length = src.length();
+        if (dest.isFile() && dest.length() == length && new FilePath(dest).digest().equals(src.digest())) {
+            listener.getLogger().println("[INFO] File '" + src.getName() + "' is unchanged on master, skipped.");
+            return -1;
+        }
+        // never leave a partly copied file under the real name
+        FilePath temp = new FilePath(new File(dest.getParentFile(), "." + dest.getName() + ".part"));
+        for (int _try = 1; ; ++_try) {
+            try {
+                long start = System.nanoTime();
+                src.copyTo(temp);
+                temp.renameTo(new FilePath(dest));
+                double seconds = (System.nanoTime() - start) / 1e9;
+                listener.getLogger().println(String.format("[INFO] File '%s' has been copied to build directory on master: "
+                        + "%d bytes in %.1f s.", src.getName(), length, seconds));
+                return length;
+            } catch (IOException ex) {
+                if (_try >= COPY_TRIES)
+                    throw new IOException("Failed to copy file '" + src.getName() + "'. Give up after " + _try + " tries.", ex);
+                int backoff = 1 << (_try - 1);
+                listener.getLogger().println("[WARNING] Copy '" + src.getName() + "' failed. Try again in " + backoff + " seconds.\n" + ex.toString());
+                Thread.sleep(1000L * backoff);
             }
         }
     }
@@ -84,6 +192,14 @@ public class IOHelper {
         return new File(base.getRemote()).toURI().relativize(new File(path.getRemote()).toURI()).getPath();
     }
 
+    /**
+     * Copies a directory of the workspace into the build directory on the controller.
+     * <p>
+     * The files are piped as a tar stream from the agent straight into the build directory. If the transfer fails,
+     * it is retried with an exponential backoff of 1, 2, 4, 8 and 16 seconds. A retry copies the files which haven't
+     * arrived completely one by one, so their names never go through an Ant pattern. A file only counts as arrived if
+     * it has been written since this call started, not merely because a file of the same size was there before.
+     */
     public static void copyDirFromWorkspace(FilePath src, String pathToBuildDir, AbstractBuild<?, ?> build, BuildListener listener) throws IOException, InterruptedException {
         if (!src.exists() || !src.isDirectory())
             throw new IOException("Directory '" + src.getName() +
@@ -91,25 +207,132 @@ public class IOHelper {
         URI srcRelativeToWorkspace = new File(build.getWorkspace().getRemote()).toURI().relativize(new File(src.getRemote()).toURI());
         if (srcRelativeToWorkspace.isAbsolute())
             throw new IOException("FilePath `src` is not located in workspace.");
-        FilePath pathOnMaster = new FilePath(new File(build.getRootDir().getAbsolutePath() + File.separator + pathToBuildDir));
-        FilePath zippedFile = pathOnMaster.getParent().child(src.getName() + ".zip");
-        int _try;
-        for (_try = 1; _try <= 5; ++_try) {
+        File dirOnMaster = new File(build.getRootDir().getAbsolutePath() + File.separator + pathToBuildDir);
+        FilePath pathOnMaster = new FilePath(dirOnMaster);
+        pathOnMaster.mkdirs();
+        Map<String, Long> manifest = src.act(new ListFiles());
+        long totalBytes = 0;
+        for (long length : manifest.values())
+            totalBytes += length;
+        Map<String, FileState> before = getFileStates(dirOnMaster, manifest);
+        long start = System.nanoTime();
+        long bytesSent = 0;
+        for (int _try = 1; ; ++_try) {
+            Set<String> copied = _try == 1 ? Collections.<String>emptySet() : findCopiedFiles(dirOnMaster, manifest, before);
+            long bytes = 0;
+            for (Map.Entry<String, Long> file : manifest.entrySet()) {
+                if (!copied.contains(file.getKey()))
+                    bytes += file.getValue();
+            }
             try {
-                listener.getLogger().println("[INFO] Zipping and copying file '" + src.getName() + "' to master...");
-                src.zip(zippedFile);
-                listener.getLogger().println("[INFO] Unzipping file '" + src.getName() + "' on master...");
-                zippedFile.unzip(pathOnMaster);
-                zippedFile.delete();
-                listener.getLogger().println("[INFO] File '" + src.getName() + "' has been copied to build directory on master.");
-                break;
-            } catch (Exception ex) {
-                if (_try > 5) {
-                    throw new IOException("Failed to copy file '" + src.getName() + "'. Give up.", ex);
+                listener.getLogger().println("[INFO] Copying " + (manifest.size() - copied.size()) + " files (" + bytes
+                        + " bytes) in '" + src.getName() + "' to master...");
+                if (_try == 1) {
+                    src.copyRecursiveTo("**/*", pathOnMaster);
+                } else {
+                    for (String path : manifest.keySet()) {
+                        if (copied.contains(path))
+                            continue;
+                        File local = new File(dirOnMaster, path);
+                        local.getParentFile().mkdirs();
+                        src.child(path).copyTo(new FilePath(local));
+                    }
                 }
-                listener.getLogger().println("[WARNING] Copy '" + src.getName() + "' failed. Try again in " + _try + " minute.\n" + ex.toString());
-                Thread.sleep(1000 * 60 * _try);
+                bytesSent += bytes;
+                break;
+            } catch (IOException ex) {
+                if (_try >= COPY_TRIES)
+                    throw new IOException("Failed to copy directory '" + src.getName() + "'. Give up after " + _try + " tries.", ex);
+                int backoff = 1 << (_try - 1);
+                listener.getLogger().println("[WARNING] Copy '" + src.getName() + "' failed. Try again in " + backoff + " seconds.\n" + ex.toString());
+                Thread.sleep(1000L * backoff);
             }
         }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        listener.getLogger().println(String.format("[INFO] Directory '%s' has been copied to build directory on master: "
+                        + "%d files, %d bytes (%d sent) in %.1f s, %.2f MB/s.", src.getName(), manifest.size(), totalBytes,
+                bytesSent, seconds, seconds > 0 ? bytesSent / seconds / 1024 / 1024 : 0));
+    }
+
+    /**
+     * @return size and modification time of the files in the manifest which exist on the controller
+     */
+    private static Map<String, FileState> getFileStates(File dir, Map<String, Long> manifest) {
+        Map<String, FileState> states = new HashMap<>();
+        for (String path : manifest.keySet()) {
+            File local = new File(dir, path);
+            if (local.isFile())
+                states.put(path, new FileState(local));
+        }
+        return states;
+    }
+
+    /**
+     * @param before states of the files before the first try, see {@link #getFileStates(File, Map)}
+     * @return relative paths of the files in the manifest which an earlier try has written completely
+     */
+    private static Set<String> findCopiedFiles(File dir, Map<String, Long> manifest, Map<String, FileState> before) {
+        Set<String> copied = new HashSet<>();
+        for (Map.Entry<String, Long> file : manifest.entrySet()) {
+            File local = new File(dir, file.getKey());
+            if (!local.isFile() || local.length() != file.getValue())
+                continue;
+            if (!new FileState(local).equals(before.get(file.getKey())))
+                copied.add(file.getKey());
+        }
+        return copied;
+    }
+
+    private static final class FileState {
+        private final long length;
+        private final long lastModified;
+
+        FileState(File file) {
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FileState))
+                return false;
+            FileState that = (FileState) o;
+            return length == that.length && lastModified == that.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(length, lastModified);
+        }
+    }
+
+    /**
+     * Lists the files of a directory with their sizes, keyed by their paths relative to the directory.
+     */
+    private static final class ListFiles implements FilePath.FileCallable<Map<String, Long>> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Map<String, Long> invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            Map<String, Long> files = new TreeMap<>();
+            list(dir, "", files);
+            return files;
+        }
+
+        private static void list(File dir, String prefix, Map<String, Long> files) {
+            File[] children = dir.listFiles();
+            if (children == null)
+                return;
+            for (File child : children) {
+                if (child.isDirectory())
+                    list(child, prefix + child.getName() + "/", files);
+                else
+                    files.put(prefix + child.getName(), child.length());
+            }
+        }
+
+        @Override
+        public void checkRoles(RoleChecker checker) throws SecurityException {
+        }
     }
 }
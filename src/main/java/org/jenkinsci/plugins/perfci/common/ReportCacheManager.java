@@ -0,0 +1,202 @@
+package org.jenkinsci.plugins.perfci.common;
+
+import hudson.model.AbstractProject;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the disk space used by generated trend and comparison reports within a budget.
+ * <p>
+ * Every report directory is tracked with its size and when it was last read. When the total size exceeds the budget,
+ * the least recently read reports are deleted; they are generated again the next time they are asked for.
+ * The last access time is also stored as the modification time of the report directory, so the order survives
+ * restarts. Reports which already existed when Jenkins started are found by a scan in the background.
+ */
+public class ReportCacheManager {
+    private static final Logger LOGGER = Logger.getLogger(ReportCacheManager.class.getName());
+    /**
+     * reports younger than this are never evicted, so a report is not deleted before its requester has read it
+     */
+    private static final long MIN_AGE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    public static final long DEFAULT_BUDGET_MB = 4096;
+
+    private static final Map<File, Entry> ENTRIES = new HashMap<>();
+    private static long totalSize;
+    private static volatile long budgetBytes = DEFAULT_BUDGET_MB * 1024 * 1024;
+    private static boolean scanned;
+    private static boolean evictionScheduled;
+
+    private static class Entry {
+        long size;
+        long lastAccess;
+    }
+
+    /**
+     * @param budgetMB maximum disk space of all generated reports in megabytes, 0 for no limit
+     */
+    public static void setBudgetMB(long budgetMB) {
+        budgetBytes = Math.max(0, budgetMB) * 1024 * 1024;
+        scheduleEviction();
+    }
+
+    /**
+     * Records a report which has just been generated into <code>dir</code>.
+     */
+    public static void register(File dir) {
+        long size = FileUtils.sizeOfDirectory(dir);
+        synchronized (ReportCacheManager.class) {
+            Entry entry = ENTRIES.get(dir);
+            if (entry == null)
+                ENTRIES.put(dir, entry = new Entry());
+            totalSize += size - entry.size;
+            entry.size = size;
+            entry.lastAccess = System.currentTimeMillis();
+        }
+        scheduleEviction();
+    }
+
+    /**
+     * Records that the report in <code>dir</code> has been read.
+     */
+    public static void touch(File dir) {
+        long now = System.currentTimeMillis();
+        boolean known;
+        synchronized (ReportCacheManager.class) {
+            Entry entry = ENTRIES.get(dir);
+            known = entry != null;
+            if (known)
+                entry.lastAccess = now;
+        }
+        if (!known && dir.isDirectory()) {
+            register(dir);
+            return;
+        }
+        if (!dir.setLastModified(now))
+            LOGGER.fine("Couldn't update the modification time of '" + dir + "'.");
+    }
+
+    /**
+     * @return total size in bytes of the reports known so far
+     */
+    public static synchronized long getTotalSize() {
+        return totalSize;
+    }
+
+    private static synchronized void scheduleEviction() {
+        if (evictionScheduled)
+            return;
+        evictionScheduled = true;
+        Timer.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ReportCacheManager.class) {
+                    evictionScheduled = false;
+                }
+                try {
+                    if (!scanned)
+                        scan();
+                    evict();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to evict generated performance reports.", e);
+                }
+            }
+        }, 10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Finds the reports generated before Jenkins started: <code>perfcharts/trend/*</code> of each project and
+     * <code>perfcharts/comparison/*</code> of each build.
+     */
+    private static void scan() {
+        List<File> dirs = new ArrayList<>();
+        for (AbstractProject<?, ?> project : Jenkins.getInstance().getAllItems(AbstractProject.class)) {
+            addReportDirs(new File(project.getBuildDir(), Constants.TREND_DIR_RELATIVE_PATH), dirs);
+            File[] builds = project.getBuildDir().listFiles();
+            if (builds == null)
+                continue;
+            for (File build : builds) {
+                // builds are also reachable through permalinks such as lastSuccessfulBuild
+                if (!Files.isSymbolicLink(build.toPath()))
+                    addReportDirs(new File(build, Constants.CMP_DIR_RELATIVE_PATH), dirs);
+            }
+        }
+        for (File dir : dirs) {
+            long size = FileUtils.sizeOfDirectory(dir);
+            synchronized (ReportCacheManager.class) {
+                if (ENTRIES.containsKey(dir))
+                    continue;
+                Entry entry = new Entry();
+                entry.size = size;
+                entry.lastAccess = dir.lastModified();
+                ENTRIES.put(dir, entry);
+                totalSize += size;
+            }
+        }
+        scanned = true;
+        LOGGER.info("Found " + dirs.size() + " generated performance reports using " + (getTotalSize() >> 20) + " MB.");
+    }
+
+    private static void addReportDirs(File parent, List<File> dirs) {
+        File[] children = parent.listFiles();
+        if (children == null)
+            return;
+        for (File child : children) {
+            // skip reports being generated or published, see ReportGenerationService
+            if (child.isDirectory() && !child.getName().startsWith("."))
+                dirs.add(child);
+        }
+    }
+
+    private static void evict() {
+        long budget = budgetBytes;
+        if (budget <= 0)
+            return;
+        List<Map.Entry<File, Entry>> victims = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (ReportCacheManager.class) {
+            if (totalSize <= budget)
+                return;
+            List<Map.Entry<File, Entry>> entries = new ArrayList<>(ENTRIES.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<File, Entry>>() {
+                @Override
+                public int compare(Map.Entry<File, Entry> a, Map.Entry<File, Entry> b) {
+                    return Long.compare(a.getValue().lastAccess, b.getValue().lastAccess);
+                }
+            });
+            long size = totalSize;
+            for (Map.Entry<File, Entry> entry : entries) {
+                if (size <= budget)
+                    break;
+                if (now - entry.getValue().lastAccess < MIN_AGE_MILLIS)
+                    continue;
+                victims.add(entry);
+                size -= entry.getValue().size;
+            }
+        }
+        for (Map.Entry<File, Entry> victim : victims) {
+            File dir = victim.getKey();
+            synchronized (ReportCacheManager.class) {
+                // skip reports read since they were chosen
+                if (ENTRIES.get(dir) != victim.getValue() || now - victim.getValue().lastAccess < MIN_AGE_MILLIS)
+                    continue;
+                ENTRIES.remove(dir);
+                totalSize -= victim.getValue().size;
+            }
+            try {
+                FileUtils.deleteDirectory(dir);
+                LOGGER.fine("Evicted generated performance report '" + dir + "'.");
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Couldn't delete generated performance report '" + dir + "'.", e);
+            }
+        }
+    }
+}
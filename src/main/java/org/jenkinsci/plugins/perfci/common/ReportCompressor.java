@@ -0,0 +1,90 @@
+package org.jenkinsci.plugins.perfci.common;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes gzip and deflate siblings of the text files of a generated report, which {@link ReportFileServer} sends
+ * to browsers accepting them. Reports are compressed once when they are generated instead of on every request.
+ */
+public class ReportCompressor {
+    private static final Logger LOGGER = Logger.getLogger(ReportCompressor.class.getName());
+    public static final String GZIP_SUFFIX = ".gz";
+    public static final String DEFLATE_SUFFIX = ".deflate";
+    private static final String[] COMPRESSIBLE_EXTENSIONS = {".js", ".json", ".html", ".css"};
+    /**
+     * smaller files gain nothing from compression
+     */
+    private static final long MIN_SIZE = 1024;
+
+    /**
+     * Compresses the report files under <code>dir</code>.
+     *
+     * @return number of bytes of the compressed files, to compare with the original size in logs
+     */
+    public static long compress(File dir) throws IOException {
+        long start = System.currentTimeMillis();
+        long[] sizes = new long[2];
+        compress(dir, sizes);
+        if (sizes[0] > 0)
+            LOGGER.fine("Compressed " + sizes[0] + " bytes of report files in '" + dir + "' to " + sizes[1]
+                    + " bytes of gzip in " + (System.currentTimeMillis() - start) + " ms.");
+        return sizes[1];
+    }
+
+    private static void compress(File dir, long[] sizes) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null)
+            return;
+        for (File child : children) {
+            if (child.isDirectory()) {
+                compress(child, sizes);
+            } else if (isCompressible(child)) {
+                sizes[0] += child.length();
+                sizes[1] += write(child, GZIP_SUFFIX);
+                write(child, DEFLATE_SUFFIX);
+            }
+        }
+    }
+
+    private static boolean isCompressible(File file) {
+        if (file.length() < MIN_SIZE)
+            return false;
+        for (String extension : COMPRESSIBLE_EXTENSIONS) {
+            if (file.getName().endsWith(extension))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the sibling to a temporary file first, so a request never sees a partly written one.
+     */
+    private static long write(File file, String suffix) throws IOException {
+        File target = new File(file.getPath() + suffix);
+        File temp = new File(file.getParentFile(), "." + target.getName() + ".tmp");
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, false);
+        try (InputStream in = new FileInputStream(file);
+             OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(temp), 65536);
+             OutputStream out = GZIP_SUFFIX.equals(suffix) ? new BestGZIPOutputStream(fileOut)
+                     : new DeflaterOutputStream(fileOut, deflater, 65536)) {
+            IOHelper.copySteam(in, out, 65536);
+        } finally {
+            deflater.end();
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return target.length();
+    }
+
+    private static class BestGZIPOutputStream extends GZIPOutputStream {
+        BestGZIPOutputStream(OutputStream out) throws IOException {
+            super(out, 65536);
+            def.setLevel(Deflater.BEST_COMPRESSION);
+        }
+    }
+}
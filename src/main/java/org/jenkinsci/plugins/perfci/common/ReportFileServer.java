@@ -0,0 +1,159 @@
+package org.jenkinsci.plugins.perfci.common;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves generated report files such as <code>mono_report.html</code> and <code>data.js</code>.
+ * <p>
+ * Files are streamed with {@link FileChannel#transferTo} without copying them through a heap buffer.
+ * Responses carry <code>ETag</code>, <code>Last-Modified</code> and <code>Content-Length</code>, conditional
+ * requests are answered with 304 and a single byte range with 206, so a report page which is viewed again does
+ * not download its data again. If the client accepts gzip or deflate and a sibling written by {@link ReportCompressor}
+ * at least as new as the file exists, the sibling is served instead.
+ */
+public class ReportFileServer {
+    private static final Logger LOGGER = Logger.getLogger(ReportFileServer.class.getName());
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    public static void serve(StaplerRequest request, StaplerResponse response, File file, String contentType)
+            throws IOException {
+        if (!file.isFile()) {
+            LOGGER.warning("Report file `" + file + "` does not exist.");
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        String range = request.getHeader("Range");
+        // byte ranges always refer to the uncompressed file
+        String encoding = null;
+        File served = file;
+        if (range == null) {
+            if (isUsable(request, file, "gzip", ReportCompressor.GZIP_SUFFIX))
+                encoding = "gzip";
+            else if (isUsable(request, file, "deflate", ReportCompressor.DEFLATE_SUFFIX))
+                encoding = "deflate";
+            if (encoding != null)
+                served = new File(file.getPath() + ("gzip".equals(encoding) ? ReportCompressor.GZIP_SUFFIX : ReportCompressor.DEFLATE_SUFFIX));
+        }
+        long length = served.length();
+        long lastModified = file.lastModified();
+        String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(file.length())
+                + (encoding == null ? "" : "-" + encoding) + "\"";
+
+        response.setContentType(contentType);
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", lastModified);
+        response.setHeader("Cache-Control", "private, no-cache");
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("Vary", "Accept-Encoding");
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long start = 0;
+        long end = length - 1;
+        if (range != null && isRangeApplicable(request, etag, lastModified)) {
+            Matcher matcher = RANGE_PATTERN.matcher(range.trim());
+            // multiple ranges are not supported, the whole file is sent instead as RFC 7233 allows
+            if (matcher.matches() && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+                if (matcher.group(1).isEmpty()) {
+                    start = Math.max(0, length - Long.parseLong(matcher.group(2)));
+                } else {
+                    start = Long.parseLong(matcher.group(1));
+                    if (!matcher.group(2).isEmpty())
+                        end = Math.min(end, Long.parseLong(matcher.group(2)));
+                }
+                if (start >= length || start > end) {
+                    response.setHeader("Content-Range", "bytes */" + length);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+        if (encoding != null)
+            response.setHeader("Content-Encoding", encoding);
+        long count = end - start + 1;
+        response.setHeader("Content-Length", Long.toString(count));
+        if ("HEAD".equals(request.getMethod()))
+            return;
+
+        try (FileChannel in = FileChannel.open(served.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long transferred = in.transferTo(position, remaining, out);
+                if (transferred <= 0)
+                    break;
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+        response.getOutputStream().flush();
+    }
+
+    private static boolean isUsable(StaplerRequest request, File file, String encoding, String suffix) {
+        File sibling = new File(file.getPath() + suffix);
+        return accepts(request, encoding) && sibling.isFile() && sibling.lastModified() >= file.lastModified();
+    }
+
+    private static boolean accepts(StaplerRequest request, String encoding) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null)
+            return false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase(encoding))
+                return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+        }
+        return false;
+    }
+
+    private static boolean isNotModified(StaplerRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.startsWith("W/"))
+                    candidate = candidate.substring(2);
+                if (candidate.equals("*") || candidate.equals(etag))
+                    return true;
+            }
+            return false;
+        }
+        long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+        // HTTP dates have a resolution of one second
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private static boolean isRangeApplicable(StaplerRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null)
+            return true;
+        if (ifRange.trim().startsWith("\""))
+            return ifRange.trim().equals(etag);
+        return getDateHeader(request, "If-Range") / 1000 == lastModified / 1000;
+    }
+
+    private static long getDateHeader(StaplerRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException ex) {
+            return -1;
+        }
+    }
+}
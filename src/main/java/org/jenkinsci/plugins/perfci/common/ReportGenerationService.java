@@ -0,0 +1,140 @@
+package org.jenkinsci.plugins.perfci.common;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates reports at most once at a time per key.
+ * <p>
+ * A request for a key which is already being generated waits for that generation instead of starting another one;
+ * requests for different keys run in parallel. A report is generated into a temporary directory next to its
+ * target directory. Once complete, each of its files is renamed over the old version of that file, and files the new
+ * report doesn't have are deleted afterwards, so readers never see a half-written file, nor miss one which both
+ * versions of the report have.
+ */
+public class ReportGenerationService {
+    private static final Logger LOGGER = Logger.getLogger(ReportGenerationService.class.getName());
+    private static final ConcurrentMap<String, CompletableFuture<Void>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    public interface Generator {
+        /**
+         * @param outputDir an empty directory to write the report to
+         */
+        void generate(File outputDir) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Generates a report into <code>targetDir</code>, or waits for the generation already running for <code>key</code>.
+     */
+    public static void generate(String key, File targetDir, Generator generator) throws IOException, InterruptedException {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        CompletableFuture<Void> inFlight = IN_FLIGHT.putIfAbsent(key, future);
+        if (inFlight != null) {
+            LOGGER.fine("Waiting for report '" + key + "' being generated by another request.");
+            try {
+                inFlight.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                    throw new IOException(cause.getMessage(), cause);
+                if (cause instanceof InterruptedException)
+                    throw new IOException("Generation of report '" + key + "' was interrupted.", cause);
+                throw new IOException(cause);
+            }
+            return;
+        }
+        try {
+            generateAndPublish(targetDir, generator);
+            future.complete(null);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            IN_FLIGHT.remove(key, future);
+        }
+    }
+
+    /**
+     * @return true if a report is being generated for <code>key</code>
+     */
+    public static boolean isGenerating(String key) {
+        return IN_FLIGHT.containsKey(key);
+    }
+
+    private static void generateAndPublish(File targetDir, Generator generator) throws IOException, InterruptedException {
+        File parent = targetDir.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        String suffix = UUID.randomUUID().toString();
+        File tempDir = new File(parent, "." + targetDir.getName() + ".tmp-" + suffix);
+        if (!tempDir.mkdirs())
+            throw new IOException("Couldn't create directory '" + tempDir + "'.");
+        try {
+            generator.generate(tempDir);
+            publish(tempDir, targetDir);
+        } finally {
+            deleteQuietly(tempDir);
+        }
+    }
+
+    /**
+     * Moves the files of a directory into another one, each replacing its old version in one rename.
+     */
+    private static void publish(File sourceDir, File targetDir) throws IOException {
+        if (targetDir.isFile())
+            Files.delete(targetDir.toPath());
+        if (!targetDir.exists()) {
+            Files.move(sourceDir.toPath(), targetDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return;
+        }
+        Set<String> names = new HashSet<>();
+        for (File source : listFiles(sourceDir)) {
+            names.add(source.getName());
+            File target = new File(targetDir, source.getName());
+            if (source.isDirectory()) {
+                publish(source, target);
+                continue;
+            }
+            if (target.isDirectory())
+                FileUtils.deleteDirectory(target);
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        for (File target : listFiles(targetDir)) {
+            if (names.contains(target.getName()))
+                continue;
+            if (target.isDirectory())
+                deleteQuietly(target);
+            else
+                Files.deleteIfExists(target.toPath());
+        }
+    }
+
+    private static File[] listFiles(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null)
+            throw new IOException("Couldn't list '" + dir + "'.");
+        return files;
+    }
+
+    private static void deleteQuietly(File dir) {
+        if (!dir.exists())
+            return;
+        try {
+            FileUtils.deleteDirectory(dir);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Couldn't delete '" + dir + "'.", e);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package org.jenkinsci.plugins.perfci.common;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs report generation in the background, so HTTP request threads only submit a job and poll its status.
+ * <p>
+ * At most {@link #THREADS} reports are generated at a time and at most {@link #QUEUE_SIZE} more wait in the queue;
+ * further submissions are rejected until the queue drains. A submission for a key which already has a queued or
+ * running job returns that job. Finished jobs are remembered for {@link #RETENTION_MILLIS} so their status can be read.
+ * The limits can be changed with the system properties
+ * <code>org.jenkinsci.plugins.perfci.common.ReportJobs.threads</code> and <code>.queueSize</code>.
+ */
+public class ReportJobs {
+    private static final Logger LOGGER = Logger.getLogger(ReportJobs.class.getName());
+    public static final int THREADS = Math.max(1, Integer.getInteger(ReportJobs.class.getName() + ".threads", 2));
+    public static final int QUEUE_SIZE = Math.max(0, Integer.getInteger(ReportJobs.class.getName() + ".queueSize", 16));
+    private static final long RETENTION_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+            QUEUE_SIZE > 0 ? new ArrayBlockingQueue<Runnable>(QUEUE_SIZE) : new SynchronousQueue<Runnable>(),
+            new NamingThreadFactory(new DaemonThreadFactory(), "perfci report generation"));
+    private static final ConcurrentMap<String, Job> JOBS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Job> ACTIVE_JOBS = new ConcurrentHashMap<>();
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    public enum State {QUEUED, RUNNING, DONE, FAILED}
+
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    /**
+     * @param key identifies the report, e.g. the key used by {@link ReportGenerationService}
+     * @param url where the report can be seen once the job is done
+     * @return the job generating the report
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public static Job submit(String key, String url, final Task task) {
+        purge();
+        while (true) {
+            Job active = ACTIVE_JOBS.get(key);
+            if (active != null)
+                return active;
+            final Job job = new Job(key, url);
+            if (ACTIVE_JOBS.putIfAbsent(key, job) != null)
+                continue;
+            JOBS.put(job.id, job);
+            try {
+                EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        job.run(task);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                ACTIVE_JOBS.remove(key, job);
+                JOBS.remove(job.id);
+                throw new RejectedExecutionException("Too many reports are being generated (" + THREADS + " running, "
+                        + QUEUE_SIZE + " queued). Please try again later.", e);
+            }
+            return job;
+        }
+    }
+
+    /**
+     * Answers a request for a file of a report which doesn't exist, e.g. because it has been evicted by
+     * {@link ReportCacheManager}, by submitting a job to generate the report and responding with 202 Accepted, so
+     * the request thread never waits for the generation. A script (<code>data.js</code>) names the job in
+     * <code>perfciPendingReportJob</code> for its page to wait for, see <code>ReportJobs.js</code>; a page waits for the
+     * job itself, through the <code>jobStatus</code> endpoint next to it, and reloads.
+     *
+     * @param script whether a script is requested rather than a page
+     */
+    public static void respondPending(StaplerRequest request, StaplerResponse response, String key, String url,
+                                      Task task, boolean script) throws IOException {
+        Job job;
+        try {
+            job = submit(key, url, task);
+        } catch (RejectedExecutionException e) {
+            response.setHeader("Retry-After", "10");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        response.setHeader("Cache-Control", "no-cache");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter writer = response.getWriter();
+        if (script) {
+            response.setContentType("text/javascript");
+            writer.println("var perfciPendingReportJob = \"" + job.id + "\";");
+        } else {
+            String plugin = request.getContextPath() + "/plugin/perfci";
+            response.setContentType("text/html");
+            writer.println("<!DOCTYPE html>");
+            writer.println("<html><head><meta charset=\"UTF-8\"/><title>Generating report...</title>");
+            writer.println("<script type=\"text/javascript\" src=\"" + plugin + "/lib/jquery-1.11.1.min.js\"></script>");
+            writer.println("<script type=\"text/javascript\" src=\"" + plugin + "/js/ReportJobs.js\"></script>");
+            writer.println("</head><body><p id=\"status\">Generating the report...</p>");
+            writer.println("<script type=\"text/javascript\">PerfciReportJobs.waitForPendingPage(\"jobStatus\", \"" + job.id + "\", \"status\");</script>");
+            writer.println("</body></html>");
+        }
+        writer.flush();
+    }
+
+    public static Job get(String id) {
+        return id == null ? null : JOBS.get(id);
+    }
+
+    /**
+     * @return the status of a job as returned by the <code>jobStatus</code> endpoints, or an error if it is unknown
+     */
+    public static JSONObject getStatus(String id) {
+        JSONObject result = new JSONObject();
+        Job job = get(id);
+        if (job == null) {
+            result.put("error", 1);
+            result.put("errorMessage", "Unknown job " + id + ".");
+            return result;
+        }
+        result.put("error", 0);
+        result.put("jobId", job.id);
+        result.put("state", job.state.name());
+        result.put("done", job.state == State.DONE || job.state == State.FAILED);
+        result.put("url", job.url);
+        result.put("queuePosition", job.getQueuePosition());
+        long now = System.currentTimeMillis();
+        result.put("waitedSeconds", ((job.started > 0 ? job.started : now) - job.submitted) / 1000);
+        result.put("runSeconds", job.started > 0 ? ((job.finished > 0 ? job.finished : now) - job.started) / 1000 : 0);
+        result.put("errorMessage", job.message == null ? job.state.name().toLowerCase() : job.message);
+        if (job.state == State.FAILED)
+            result.put("error", 2);
+        return result;
+    }
+
+    private static void purge() {
+        long expired = System.currentTimeMillis() - RETENTION_MILLIS;
+        for (Iterator<Map.Entry<String, Job>> it = JOBS.entrySet().iterator(); it.hasNext(); ) {
+            Job job = it.next().getValue();
+            if (job.finished > 0 && job.finished < expired)
+                it.remove();
+        }
+    }
+
+    public static class Job {
+        private final String id = UUID.randomUUID().toString();
+        private final String key;
+        private final String url;
+        private final long submitted = System.currentTimeMillis();
+        private volatile long started;
+        private volatile long finished;
+        private volatile State state = State.QUEUED;
+        private volatile String message;
+
+        Job(String key, String url) {
+            this.key = key;
+            this.url = url;
+        }
+
+        private void run(Task task) {
+            started = System.currentTimeMillis();
+            state = State.RUNNING;
+            try {
+                task.run();
+                message = "Generated.";
+                state = State.DONE;
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to generate report " + key, e);
+                message = "Failed to generate report. " + e;
+                state = State.FAILED;
+            } finally {
+                finished = System.currentTimeMillis();
+                ACTIVE_JOBS.remove(key, this);
+            }
+        }
+
+        /**
+         * @return how many jobs are queued before this one, 0 if it is running or finished
+         */
+        int getQueuePosition() {
+            if (state != State.QUEUED)
+                return 0;
+            int position = 0;
+            for (Job job : ACTIVE_JOBS.values()) {
+                if (job.state == State.QUEUED && job.submitted < submitted)
+                    ++position;
+            }
+            return position;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package org.jenkinsci.plugins.perfci.common;
+
+import org.jenkinsci.plugins.perfci.stats.PerformanceSummary;
+import org.jenkinsci.plugins.perfci.stats.TransactionStats;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A columnar index of the per-build metrics of a project, read through a memory-mapped file.
+ * <p>
+ * Each row holds the metrics of one transaction (or the total) of one build. Every column is a fixed-width array
+ * of its own, so listing the builds only touches the build column, and the metrics of a range of builds are read
+ * from a few contiguous pages of each column. When the file is full, it is rewritten with twice the capacity.
+ * Strings (display names of builds and transaction names) are kept in a sidecar dictionary file and referred to by id.
+ * <p>
+ * The rows of a build are appended together, starting with its total row. Appending a build again makes the new
+ * rows replace the old ones. Not thread-safe; {@link TrendStore} serializes access.
+ * <p>
+ * An index whose header or dictionary doesn't match its rows, e.g. after a crash, is started anew, which makes
+ * {@link TrendStore} rebuild it from its records.
+ */
+public class TrendIndex implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(TrendIndex.class.getName());
+    public static final String FILE_NAME = "trend.index";
+    public static final String STRINGS_FILE_NAME = "trend.index.strings";
+    private static final int MAGIC = 0x5054494e; // "PTIN"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int TOTAL = -1;
+
+    // columns, in file order
+    private static final int BUILD = 0;
+    private static final int NAME = 1;
+    private static final int TRANSACTION = 2;
+    private static final int TIMESTAMP = 3;
+    private static final int COUNT = 4;
+    private static final int ERRORS = 5;
+    private static final int MEAN = 6;
+    private static final int P50 = 7;
+    private static final int P90 = 8;
+    private static final int P95 = 9;
+    private static final int P99 = 10;
+    private static final int THROUGHPUT = 11;
+    private static final int[] WIDTHS = {4, 4, 4, 8, 8, 8, 8, 8, 8, 8, 8, 8};
+
+    private final File file;
+    private final File stringsFile;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int rows;
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    /**
+     * first row and row count of the latest rows of each build
+     */
+    private final TreeMap<Integer, int[]> builds = new TreeMap<>();
+
+    public TrendIndex(File dir) throws IOException {
+        this.file = new File(dir, FILE_NAME);
+        this.stringsFile = new File(dir, STRINGS_FILE_NAME);
+        dir.mkdirs();
+        loadStrings();
+        boolean exists = file.exists() && file.length() >= HEADER_SIZE;
+        if (!exists)
+            create(file, INITIAL_CAPACITY);
+        map();
+        String problem = load();
+        if (problem != null) {
+            LOGGER.warning("'" + file + "' " + problem + ", starting a new one.");
+            close();
+            builds.clear();
+            strings.clear();
+            stringIds.clear();
+            Files.deleteIfExists(stringsFile.toPath());
+            create(file, INITIAL_CAPACITY);
+            map();
+            load();
+        }
+    }
+
+    /**
+     * Reads the header and finds the rows of each build.
+     *
+     * @return what is wrong with the file, or null if it is fine
+     */
+    private String load() throws IOException {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            return "is not a trend index of this version";
+        rows = buffer.getInt(8);
+        capacity = buffer.getInt(12);
+        if (capacity <= 0 || rows < 0 || rows > capacity || fileSize(capacity) != channel.size())
+            return "has a header of " + rows + " rows and a capacity of " + capacity + " which doesn't match its size";
+        int[] current = null;
+        for (int row = 0; row < rows; ++row) {
+            int build = buffer.getInt(offset(BUILD, row));
+            int name = buffer.getInt(offset(NAME, row));
+            int transaction = buffer.getInt(offset(TRANSACTION, row));
+            if (name < 0 || name >= strings.size() || transaction != TOTAL && (transaction < 0 || transaction >= strings.size()))
+                return "refers to strings missing from '" + stringsFile.getName() + "'";
+            if (transaction == TOTAL)
+                builds.put(build, current = new int[]{row, 1});
+            else if (current != null)
+                ++current[1];
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the index has no builds, e.g. because it has just been created
+     */
+    public boolean isEmpty() {
+        return builds.isEmpty();
+    }
+
+    public boolean contains(int number) {
+        return builds.containsKey(number);
+    }
+
+    /**
+     * @return numbers of all indexed builds, in ascending order
+     */
+    public List<Integer> getBuilds() {
+        return new ArrayList<>(builds.keySet());
+    }
+
+    public void add(int number, String displayName, PerformanceSummary summary) throws IOException {
+        int needed = rows + 1 + summary.getTransactions().size();
+        if (needed > capacity)
+            grow(Math.max(capacity * 2, needed));
+        int name = stringId(displayName);
+        long timestamp = summary.getTotal().getCount() == 0 ? 0 : summary.getTotal().getFirstTimestamp();
+        int first = rows;
+        putRow(first, number, name, TOTAL, timestamp, summary.getTotal());
+        int row = first;
+        for (TransactionStats stats : summary.getTransactions())
+            putRow(++row, number, name, stringId(stats.getName()), timestamp, stats);
+        rows = row + 1;
+        buffer.putInt(8, rows); // publish the rows only once they are complete
+        buffer.force();
+        builds.put(number, new int[]{first, rows - first});
+    }
+
+    /**
+     * @return metrics of each of the given builds which is indexed, in the given order
+     */
+    public List<Build> slice(List<Integer> numbers) {
+        List<Build> result = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        for (int number : numbers) {
+            int[] range = builds.get(number);
+            if (range == null || !seen.add(number))
+                continue;
+            int first = range[0];
+            Build build = new Build(number, strings.get(buffer.getInt(offset(NAME, first))),
+                    buffer.getLong(offset(TIMESTAMP, first)), getMetrics(first));
+            for (int row = first + 1; row < first + range[1]; ++row)
+                build.transactions.put(strings.get(buffer.getInt(offset(TRANSACTION, row))), getMetrics(row));
+            result.add(build);
+        }
+        return result;
+    }
+
+    private Metrics getMetrics(int row) {
+        return new Metrics(buffer.getLong(offset(COUNT, row)), buffer.getLong(offset(ERRORS, row)),
+                buffer.getDouble(offset(MEAN, row)), buffer.getDouble(offset(P50, row)),
+                buffer.getDouble(offset(P90, row)), buffer.getDouble(offset(P95, row)),
+                buffer.getDouble(offset(P99, row)), buffer.getDouble(offset(THROUGHPUT, row)));
+    }
+
+    private void putRow(int row, int number, int name, int transaction, long timestamp, TransactionStats stats) {
+        buffer.putInt(offset(BUILD, row), number);
+        buffer.putInt(offset(NAME, row), name);
+        buffer.putInt(offset(TRANSACTION, row), transaction);
+        buffer.putLong(offset(TIMESTAMP, row), timestamp);
+        buffer.putLong(offset(COUNT, row), stats.getCount());
+        buffer.putLong(offset(ERRORS, row), stats.getErrors());
+        buffer.putDouble(offset(MEAN, row), stats.getHistogram().getMean());
+        buffer.putDouble(offset(P50, row), stats.getHistogram().getValueAtPercentile(50));
+        buffer.putDouble(offset(P90, row), stats.getHistogram().getValueAtPercentile(90));
+        buffer.putDouble(offset(P95, row), stats.getHistogram().getValueAtPercentile(95));
+        buffer.putDouble(offset(P99, row), stats.getHistogram().getValueAtPercentile(99));
+        buffer.putDouble(offset(THROUGHPUT, row), stats.getThroughput());
+    }
+
+    private int offset(int column, int row) {
+        return (int) columnOffset(column, capacity) + row * WIDTHS[column];
+    }
+
+    private static long columnOffset(int column, int capacity) {
+        long offset = HEADER_SIZE;
+        for (int i = 0; i < column; ++i)
+            offset += (long) capacity * WIDTHS[i];
+        return offset;
+    }
+
+    private static long fileSize(int capacity) {
+        return columnOffset(WIDTHS.length, capacity);
+    }
+
+    private static void create(File file, int capacity) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.setLength(fileSize(capacity));
+            raf.writeInt(MAGIC);
+            raf.writeInt(VERSION);
+            raf.writeInt(0);
+            raf.writeInt(capacity);
+        }
+    }
+
+    private void map() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+    }
+
+    /**
+     * Copies every column into a new file with a larger capacity, which then replaces the current one.
+     */
+    private void grow(int newCapacity) throws IOException {
+        if (fileSize(newCapacity) > Integer.MAX_VALUE)
+            throw new IOException("Trend index '" + file + "' is full.");
+        File newFile = new File(file.getPath() + ".tmp");
+        create(newFile, newCapacity);
+        try (FileChannel newChannel = FileChannel.open(newFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer newBuffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, newChannel.size());
+            for (int column = 0; column < WIDTHS.length; ++column) {
+                ByteBuffer source = buffer.duplicate();
+                source.position((int) columnOffset(column, capacity));
+                source.limit(source.position() + rows * WIDTHS[column]);
+                newBuffer.position((int) columnOffset(column, newCapacity));
+                newBuffer.put(source);
+            }
+            newBuffer.putInt(8, rows);
+            newBuffer.force();
+            unmap(newBuffer);
+        }
+        close();
+        Files.move(newFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        map();
+        capacity = newCapacity;
+    }
+
+    private int stringId(String s) throws IOException {
+        Integer id = stringIds.get(s);
+        if (id != null)
+            return id;
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(stringsFile, true))) {
+            out.writeUTF(s);
+        }
+        strings.add(s);
+        stringIds.put(s, strings.size() - 1);
+        return strings.size() - 1;
+    }
+
+    /**
+     * Reads the dictionary. A string whose write has been interrupted is cut off, so that the next one is
+     * appended where it belongs.
+     */
+    private void loadStrings() throws IOException {
+        if (!stringsFile.exists())
+            return;
+        byte[] bytes = Files.readAllBytes(stringsFile.toPath());
+        ByteArrayInputStream bytesIn = new ByteArrayInputStream(bytes);
+        DataInputStream in = new DataInputStream(bytesIn);
+        int complete = 0;
+        try {
+            while (complete < bytes.length) {
+                String s = in.readUTF();
+                stringIds.put(s, strings.size());
+                strings.add(s);
+                complete = bytes.length - bytesIn.available();
+            }
+        } catch (EOFException | UTFDataFormatException e) {
+            LOGGER.warning("Discarding an incomplete string at the end of '" + stringsFile + "'.");
+            try (RandomAccessFile raf = new RandomAccessFile(stringsFile, "rw")) {
+                raf.setLength(complete);
+            }
+        }
+    }
+
+    /**
+     * Deletes the index in a directory, which must not be open.
+     */
+    public static void delete(File dir) throws IOException {
+        Files.deleteIfExists(new File(dir, FILE_NAME).toPath());
+        Files.deleteIfExists(new File(dir, STRINGS_FILE_NAME).toPath());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer != null)
+            unmap(buffer);
+        buffer = null;
+        if (channel != null)
+            channel.close();
+        channel = null;
+    }
+
+    /**
+     * Releases the mapping of a buffer right away rather than when it is garbage collected, because a mapped file
+     * can't be replaced or deleted on Windows. The buffer must not be used afterwards.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            try {
+                // Java 9 and later
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (NoSuchMethodException e) {
+                // Java 8
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null)
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Couldn't unmap a trend index, it is unmapped when it is garbage collected", e);
+        }
+    }
+
+    /**
+     * Metrics of one transaction of one build.
+     */
+    public static class Metrics {
+        private final long count;
+        private final long errors;
+        private final double mean;
+        private final double p50;
+        private final double p90;
+        private final double p95;
+        private final double p99;
+        private final double throughput;
+
+        Metrics(long count, long errors, double mean, double p50, double p90, double p95, double p99, double throughput) {
+            this.count = count;
+            this.errors = errors;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p95 = p95;
+            this.p99 = p99;
+            this.throughput = throughput;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public double getErrorRate() {
+            return count == 0 ? Double.NaN : 100.0 * errors / count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP90() {
+            return p90;
+        }
+
+        public double getP95() {
+            return p95;
+        }
+
+        public double getP99() {
+            return p99;
+        }
+
+        /**
+         * @return samples per second
+         */
+        public double getThroughput() {
+            return throughput;
+        }
+    }
+
+    /**
+     * Metrics of one build.
+     */
+    public static class Build {
+        private final int number;
+        private final String displayName;
+        private final long timestamp;
+        private final Metrics total;
+        private final SortedMap<String, Metrics> transactions = new TreeMap<>();
+
+        Build(int number, String displayName, long timestamp, Metrics total) {
+            this.number = number;
+            this.displayName = displayName;
+            this.timestamp = timestamp;
+            this.total = total;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        /**
+         * @return when the first sample of the build started, in milliseconds since the epoch
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public Metrics getTotal() {
+            return total;
+        }
+
+        /**
+         * @return metrics of each transaction, ordered by name
+         */
+        public SortedMap<String, Metrics> getTransactions() {
+            return transactions;
+        }
+    }
+}
@@ -4,7 +4,10 @@ import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
+import org.jenkinsci.plugins.perfci.executor.NativeTrendReportExecutor;
 import org.jenkinsci.plugins.perfci.executor.PerfchartsTrendReportExecutor;
+import org.jenkinsci.plugins.perfci.stats.PerformanceSummary;
+import org.json.JSONObject;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -12,10 +15,8 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Set;
+import java.util.*;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class TrendReportManager {
     private static final Logger LOGGER = Logger
@@ -79,45 +80,53 @@ public class TrendReportManager {
         generateReport(project, urlID == null || urlID.isEmpty() ? new String[0] : urlID.split("_"));
     }
 
-    public static void generateReport(AbstractProject<?, ?> project, String[] parts) throws IOException, InterruptedException {
+    public static void generateReport(final AbstractProject<?, ?> project, final String[] parts) throws IOException, InterruptedException {
         String reportID = calculateReportID(parts);
-        String buildRootPath = project.getBuildDir().getAbsolutePath();
-        String trendDirPath = buildRootPath + File.separator +
-                Constants.TREND_DIR_RELATIVE_PATH + File.separator + reportID;
+        File trendDir = new File(getTrendDirPath(project, reportID));
+        ReportGenerationService.generate(getGenerationKey(project, reportID), trendDir, new ReportGenerationService.Generator() {
+            @Override
+            public void generate(File outputDir) throws IOException, InterruptedException {
+                generateReport(project, parts, outputDir);
+                ReportCompressor.compress(outputDir);
+            }
+        });
+        ReportCacheManager.register(trendDir);
+        LOGGER.info("Perf trend report generated successfully.");
+    }
+
+    /**
+     * @return the key under which a trend report is generated, so concurrent requests share one generation
+     */
+    public static String getGenerationKey(AbstractProject<?, ?> project, String reportID) {
+        return "trend:" + project.getFullName() + ":" + reportID;
+    }
+
+    private static void generateReport(AbstractProject<?, ?> project, String[] parts, File outputDir) throws IOException, InterruptedException {
+        String trendDirPath = outputDir.getAbsolutePath();
         String trendMonoReportPath =
                 trendDirPath + File.separator + Constants.TREND_MONO_REPORT_NAME;
         String trendInputFilePath =
                 trendDirPath + File.separator + Constants.TREND_INPUT_DEFAULT_FILENAME;
-        new File(trendDirPath).mkdirs();
-        OutputStreamWriter inputFileWriter = new OutputStreamWriter(new FileOutputStream(trendInputFilePath));
-        CSVPrinter csvPrinter = new CSVPrinter(inputFileWriter, CSVFormat.DEFAULT);
 
+        // slice the trend store if it has every build, otherwise let Perfcharts read Performance.json
+        JSONObject report = sliceTrendReport(project, parts);
+        if (report != null) {
+            new NativeTrendReportExecutor(report, trendDirPath, trendMonoReportPath).run();
+            return;
+        }
+
+        List<AbstractBuild<?, ?>> builds = new ArrayList<>();
         if (parts == null || parts.length == 0) {
-            for (AbstractBuild<?, ?> build : project.getBuilds()) {
-                writeBuildInfo(csvPrinter, build);
-            }
+            builds.addAll(project.getBuilds());
         } else {
-            Pattern rangePattern = Pattern.compile("(\\d+)-(\\d+)");
-            for (String part : parts) {
-                Matcher m = rangePattern.matcher(part);
-                if (m.matches()) { // is a range
-                    int first = Integer.parseInt(m.group(1));
-                    int second = Integer.parseInt(m.group(2));
-                    if (first <= second) { // increase
-                        for (int i = first; i <= second; ++i) {
-                            writeBuildInfo(csvPrinter, project, i);
-                        }
-                    } else { //decrease
-                        for (int i = first; i >= second; --i) {
-                            writeBuildInfo(csvPrinter, project, i);
-                        }
-                    }
-                } else {
-                    writeBuildInfo(csvPrinter, project, Integer.parseInt(part));
-                }
+            for (int number : BuildRanges.parse(parts))
+                builds.add(project.getBuildByNumber(number));
+        }
+        try (CSVPrinter csvPrinter = new CSVPrinter(new OutputStreamWriter(new FileOutputStream(trendInputFilePath)), CSVFormat.DEFAULT)) {
+            for (AbstractBuild<?, ?> build : builds) {
+                writeBuildInfo(csvPrinter, build);
             }
         }
-        csvPrinter.flush();
 
         PerfchartsTrendReportExecutor cgtTrend = new PerfchartsTrendReportExecutor("perfcharts", null,
                 trendInputFilePath, trendDirPath, trendMonoReportPath,
@@ -126,12 +135,45 @@ public class TrendReportManager {
         if (retcode != 0) {
             throw new IOException("PerfchartsTrendReportExecutor reported an error. code=" + retcode);
         }
-        LOGGER.info("Perf trend report generated successfully.");
     }
 
-    private static boolean writeBuildInfo(CSVPrinter csvPrinter, AbstractProject<?, ?> project, int buildNumber) throws IOException {
-        AbstractBuild<?, ?> build = project.getBuildByNumber(buildNumber);
-        return writeBuildInfo(csvPrinter, build);
+    /**
+     * Builds a trend report from the {@link TrendStore} of the project, adding the selected builds it does not have yet.
+     *
+     * @param parts build selection, see {@link BuildRanges}. All builds if empty.
+     * @return null if a selected build has a report but no performance summary, which only Perfcharts can read
+     */
+    public static JSONObject sliceTrendReport(AbstractProject<?, ?> project, String[] parts) throws IOException {
+        TrendStore store = TrendStore.get(project);
+        List<Integer> numbers;
+        if (parts == null || parts.length == 0) {
+            if (!store.sync(project))
+                return null;
+            // newest first, like project.getBuilds(), which the Perfcharts trend report lists
+            numbers = new ArrayList<>(store.getBuilds());
+            Collections.reverse(numbers);
+        } else {
+            numbers = BuildRanges.parse(parts);
+        }
+        List<Integer> selected = new ArrayList<>();
+        for (int number : numbers) {
+            if (store.contains(number)) {
+                // a deleted build leaves its record behind
+                if (new File(project.getBuildDir(), Integer.toString(number)).isDirectory())
+                    selected.add(number);
+                continue;
+            }
+            AbstractBuild<?, ?> build = project.getBuildByNumber(number);
+            if (build == null || !new File(getPerfDataPathForBuild(build)).exists())
+                continue;
+            if (!store.add(build))
+                return null;
+            selected.add(number);
+        }
+        List<PerformanceSummary> summaries = new ArrayList<>();
+        for (Map.Entry<String, PerformanceSummary> entry : store.slice(selected).values())
+            summaries.add(entry.getValue());
+        return NativeTrendReportExecutor.buildTrendReport(store.getMetrics(selected), PerformanceSummary.merge(summaries));
     }
 
     private static boolean writeBuildInfo(CSVPrinter csvPrinter, AbstractBuild<?, ?> build) throws IOException {
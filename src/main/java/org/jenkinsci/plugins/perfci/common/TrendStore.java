@@ -0,0 +1,283 @@
+package org.jenkinsci.plugins.perfci.common;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import org.jenkinsci.plugins.perfci.executor.NativeBuildReportExecutor;
+import org.jenkinsci.plugins.perfci.stats.PerformanceSummary;
+import org.jenkinsci.plugins.perfci.stats.TransactionStats;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * An append-only store of the per-transaction {@link PerformanceSummary} of each build of a project,
+ * kept in <code>perfcharts/trend/trend.store</code> under the build directory of the project.
+ * <p>
+ * A build is appended when its report has been generated, or the first time a trend report asks for it.
+ * Only the position of each record is kept in memory, so a trend report over any range of builds reads
+ * the records of that range and nothing else. Per-build metrics are also kept in a {@link TrendIndex},
+ * so listing builds and charting them does not need the records at all.
+ * <p>
+ * A build which is added again leaves its old record behind. Once the old records take more space than the
+ * current ones, the store is rewritten without them, and the index is rebuilt.
+ */
+public class TrendStore {
+    private static final Logger LOGGER = Logger.getLogger(TrendStore.class.getName());
+    public static final String FILE_NAME = "trend.store";
+    private static final ConcurrentMap<File, TrendStore> STORES = new ConcurrentHashMap<>();
+    private static final long MIN_COMPACTION_BYTES = 64 * 1024;
+
+    private final File file;
+    private final Map<Integer, Long> offsets = new HashMap<>();
+    /**
+     * bytes taken by the current records, of all builds, and by the ones they replaced
+     */
+    private long liveBytes;
+    private long deadBytes;
+    private boolean loaded;
+    private TrendIndex index;
+    private boolean synced;
+    private final Set<Integer> withoutSummary = new HashSet<>();
+
+    TrendStore(File file) {
+        this.file = file;
+    }
+
+    public static TrendStore get(AbstractProject<?, ?> project) {
+        File file = new File(project.getBuildDir(), Constants.TREND_DIR_RELATIVE_PATH + File.separator + FILE_NAME);
+        TrendStore store = STORES.get(file);
+        if (store == null) {
+            TrendStore existing = STORES.putIfAbsent(file, store = new TrendStore(file));
+            if (existing != null)
+                store = existing;
+        }
+        return store;
+    }
+
+    /**
+     * Appends the summary of a build, replacing any previous record of the same build.
+     *
+     * @return false if the build has no performance summary
+     */
+    public synchronized boolean add(AbstractBuild<?, ?> build) throws IOException {
+        File summaryFile = NativeBuildReportExecutor.getSummaryFile(new File(build.getRootDir(), Constants.OUTPUT_DIR_RELATIVE_PATH));
+        if (!summaryFile.exists())
+            return false;
+        PerformanceSummary summary = PerformanceSummary.read(summaryFile);
+        load();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(build.number);
+        out.writeUTF(build.getDisplayName());
+        summary.getTotal().writeTo(out);
+        out.writeInt(summary.getTransactions().size());
+        for (TransactionStats stats : summary.getTransactions())
+            stats.writeTo(out);
+        out.flush();
+        file.getParentFile().mkdirs();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long offset = raf.length();
+            raf.seek(offset);
+            raf.writeInt(bytes.size());
+            raf.write(bytes.toByteArray());
+            Long previous = offsets.put(build.number, offset);
+            if (previous != null) {
+                long replaced = recordBytes(raf, previous);
+                liveBytes -= replaced;
+                deadBytes += replaced;
+            }
+            liveBytes += 4 + bytes.size();
+        }
+        index.add(build.number, build.getDisplayName(), summary);
+        if (deadBytes > liveBytes && deadBytes >= MIN_COMPACTION_BYTES)
+            compact();
+        return true;
+    }
+
+    private static long recordBytes(RandomAccessFile raf, long offset) throws IOException {
+        raf.seek(offset);
+        return 4 + raf.readInt();
+    }
+
+    /**
+     * Rewrites the store with the current records only, in the order they have been added, and rebuilds the index.
+     */
+    private void compact() throws IOException {
+        LOGGER.info("Compacting '" + file + "', " + deadBytes + " of " + (liveBytes + deadBytes) + " bytes are replaced records.");
+        List<Map.Entry<Integer, Long>> records = new ArrayList<>(offsets.entrySet());
+        Collections.sort(records, new Comparator<Map.Entry<Integer, Long>>() {
+            @Override
+            public int compare(Map.Entry<Integer, Long> a, Map.Entry<Integer, Long> b) {
+                return Long.compare(a.getValue(), b.getValue());
+            }
+        });
+        File newFile = new File(file.getPath() + ".tmp");
+        Map<Integer, Long> newOffsets = new HashMap<>();
+        try (RandomAccessFile in = new RandomAccessFile(file, "r");
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(newFile)))) {
+            for (Map.Entry<Integer, Long> record : records) {
+                in.seek(record.getValue());
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                newOffsets.put(record.getKey(), (long) out.size());
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+        Files.move(newFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        offsets.clear();
+        offsets.putAll(newOffsets);
+        deadBytes = 0;
+        index.close();
+        TrendIndex.delete(file.getParentFile());
+        index = new TrendIndex(file.getParentFile());
+        rebuildIndex();
+    }
+
+    /**
+     * Adds the builds of the project which have a report but are not in the store yet. Only the first call walks
+     * the builds; later builds are added as they complete.
+     *
+     * @return false if a build has a report without a performance summary, so only Perfcharts can show it
+     */
+    public synchronized boolean sync(AbstractProject<?, ?> project) throws IOException {
+        load();
+        if (!synced) {
+            for (AbstractBuild<?, ?> build : project.getBuilds()) {
+                if (offsets.containsKey(build.number)
+                        || !new File(build.getRootDir(), Constants.OUTPUT_DIR_RELATIVE_PATH).isDirectory())
+                    continue;
+                if (!add(build))
+                    withoutSummary.add(build.number);
+            }
+            synced = true;
+        }
+        return withoutSummary.isEmpty();
+    }
+
+    /**
+     * @return numbers of all builds in the store, in ascending order
+     */
+    public synchronized List<Integer> getBuilds() throws IOException {
+        load();
+        return index.getBuilds();
+    }
+
+    /**
+     * @return metrics of each of the given builds which is in the store, in the given order
+     */
+    public synchronized List<TrendIndex.Build> getMetrics(List<Integer> numbers) throws IOException {
+        load();
+        return index.slice(numbers);
+    }
+
+    public synchronized boolean contains(int number) throws IOException {
+        load();
+        return offsets.containsKey(number);
+    }
+
+    /**
+     * @return display name and summary of each of the given builds which is in the store, in the given order
+     */
+    public synchronized LinkedHashMap<Integer, Map.Entry<String, PerformanceSummary>> slice(List<Integer> numbers) throws IOException {
+        load();
+        LinkedHashMap<Integer, Map.Entry<String, PerformanceSummary>> result = new LinkedHashMap<>();
+        if (offsets.isEmpty())
+            return result;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            for (int number : numbers) {
+                Long offset = offsets.get(number);
+                if (offset == null || result.containsKey(number))
+                    continue;
+                result.put(number, readRecord(raf, offset));
+            }
+        }
+        return result;
+    }
+
+    private static Map.Entry<String, PerformanceSummary> readRecord(RandomAccessFile raf, long offset) throws IOException {
+        raf.seek(offset);
+        byte[] record = new byte[raf.readInt()];
+        raf.readFully(record);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        in.readInt();
+        String displayName = in.readUTF();
+        TransactionStats total = TransactionStats.readFrom(in);
+        SortedMap<String, TransactionStats> transactions = new TreeMap<>();
+        for (int i = in.readInt(); i > 0; --i) {
+            TransactionStats stats = TransactionStats.readFrom(in);
+            transactions.put(stats.getName(), stats);
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(displayName,
+                new PerformanceSummary(0, transactions, total, new TreeMap<Long, Map<String, TransactionStats>>()));
+    }
+
+    /**
+     * Finds where each record is, and opens the index. A record left incomplete by a crash is cut off.
+     * An index which is missing, e.g. because the store predates it, or which doesn't have the builds of the store,
+     * is rebuilt from the records.
+     */
+    private void load() throws IOException {
+        if (loaded)
+            return;
+        offsets.clear();
+        liveBytes = 0;
+        deadBytes = 0;
+        if (file.exists()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                long length = raf.length();
+                long offset = 0;
+                while (offset + 8 <= length) {
+                    raf.seek(offset);
+                    int size = raf.readInt();
+                    if (size < 4 || offset + 4 + size > length)
+                        break;
+                    Long previous = offsets.put(raf.readInt(), offset);
+                    if (previous != null) {
+                        long replaced = recordBytes(raf, previous);
+                        liveBytes -= replaced;
+                        deadBytes += replaced;
+                    }
+                    liveBytes += 4 + size;
+                    offset += 4 + size;
+                }
+                if (offset < length) {
+                    LOGGER.warning("Discarding an incomplete record at the end of '" + file + "'.");
+                    raf.setLength(offset);
+                }
+            }
+        }
+        index = new TrendIndex(file.getParentFile());
+        if (!new HashSet<>(index.getBuilds()).equals(offsets.keySet())) {
+            LOGGER.info("Building the trend index of '" + file + "'.");
+            if (!index.isEmpty()) {
+                index.close();
+                TrendIndex.delete(file.getParentFile());
+                index = new TrendIndex(file.getParentFile());
+            }
+            rebuildIndex();
+        }
+        loaded = true;
+    }
+
+    /**
+     * Adds the current record of every build to an empty index, in the order they have been added.
+     */
+    private void rebuildIndex() throws IOException {
+        List<Long> sorted = new ArrayList<>(offsets.values());
+        Collections.sort(sorted);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            for (long offset : sorted) {
+                raf.seek(offset + 4);
+                int number = raf.readInt();
+                Map.Entry<String, PerformanceSummary> record = readRecord(raf, offset);
+                index.add(number, record.getKey(), record.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package org.jenkinsci.plugins.perfci.executor;
+
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.perfci.common.ChartJSON;
+import org.jenkinsci.plugins.perfci.jtl.JtlConverter;
+import org.jenkinsci.plugins.perfci.jtl.JtlScanner;
+import org.jenkinsci.plugins.perfci.nmon.NmonHost;
+import org.jenkinsci.plugins.perfci.nmon.NmonParser;
+import org.jenkinsci.plugins.perfci.nmon.ProcSampleWriter;
+import org.jenkinsci.plugins.perfci.nmon.ResourceTimeSeries;
+import org.jenkinsci.plugins.perfci.stats.PerformanceAggregator;
+import org.jenkinsci.plugins.perfci.stats.PerformanceSummary;
+import org.jenkinsci.plugins.perfci.stats.TimeSeriesRollup;
+import org.jenkinsci.plugins.perfci.stats.TransactionStats;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Generates a build report in this JVM instead of launching Perfcharts.
+ * <p>
+ * All JTL files under the input directory, or their binary conversions, are read once and aggregated into per-transaction statistics
+ * and a {@link TimeSeriesRollup}. JTL text files are converted by {@link JtlConverter} as they are read.
+ * The result is written in the layout produced by Perfcharts: <code>data/subreports/Performance.json</code>,
+ * <code>data/data.js</code> and a mono report page, plus the {@link PerformanceSummary} of the build
+ * in <code>data/subreports/Performance.hist</code>.
+ * <p>
+ * NMON files and /proc sample files under the input directory are parsed in parallel into a <code>Resource</code> report
+ * (<code>data/subreports/Resource.json</code>) with a chart per host and NMON section.
+ */
+public class NativeBuildReportExecutor implements Serializable {
+    private final static Logger LOGGER = Logger.getLogger(NativeBuildReportExecutor.class.getName());
+    private final static String MONO_REPORT_TEMPLATE = "NativeBuildReportExecutor/mono_report.html";
+    public final static String PERFORMANCE_REPORT_TITLE = "Performance";
+    public final static String SUMMARY_TABLE_KEY = "perf-summary";
+    public final static String RESOURCE_REPORT_TITLE = "Resource";
+    private final static int NMON_PARALLELISM = Math.max(1, Integer.getInteger(NativeBuildReportExecutor.class.getName() + ".nmonParallelism",
+            Math.min(4, Runtime.getRuntime().availableProcessors())));
+
+    private String currentDirectory;
+    private TimeZone timeZone;
+    private String inputDir;
+    private String outputDir;
+    private String monoReportPath;
+    private String excludedTransactionPattern;
+    private PrintStream redirectedOutput;
+
+    public NativeBuildReportExecutor(String currentDirectory, TimeZone timeZone, String inputDir, String outputDir,
+                                     String monoReportPath, String excludedTransactionPattern, PrintStream redirectedOutput) {
+        this.currentDirectory = currentDirectory;
+        this.timeZone = timeZone;
+        this.inputDir = inputDir;
+        this.outputDir = outputDir;
+        this.monoReportPath = monoReportPath;
+        this.excludedTransactionPattern = excludedTransactionPattern;
+        this.redirectedOutput = redirectedOutput;
+    }
+
+    public int run() throws IOException, InterruptedException {
+        File output = resolve(outputDir);
+        PerformanceSummary summary = aggregate(true);
+        summary.write(getSummaryFile(output));
+        JSONObject report = buildPerformanceReport(summary, timeZone);
+        ChartJSON.writeJSON(new File(output, "data" + File.separator + "subreports" + File.separator + "Performance.json"), report);
+        List<NmonHost> hosts = parseResources();
+        if (hosts.isEmpty()) {
+            ChartJSON.writeDataJS(new File(output, "data" + File.separator + "data.js"), report);
+        } else {
+            JSONObject resourceReport = buildResourceReport(hosts, timeZone);
+            ChartJSON.writeJSON(new File(output, "data" + File.separator + "subreports" + File.separator + "Resource.json"), resourceReport);
+            ChartJSON.writeDataJS(new File(output, "data" + File.separator + "data.js"), report, resourceReport);
+        }
+        writeMonoReport(resolve(monoReportPath), "Performance Report", "getDataJs");
+        log("INFO: NativeBuildReportExecutor - " + summary.getTotal().getCount() + " samples of "
+                + summary.getTransactions().size() + " transactions aggregated into '" + output + "'.");
+        return 0;
+    }
+
+    /**
+     * Only writes the {@link PerformanceSummary} and the {@link TimeSeriesRollup} of the build, both from one scan,
+     * for builds whose report is generated by Perfcharts.
+     */
+    public void writeStatistics() throws IOException, InterruptedException {
+        aggregate(false).write(getSummaryFile(resolve(outputDir)));
+    }
+
+    public static File getSummaryFile(File reportDir) {
+        return new File(reportDir, "data" + File.separator + "subreports" + File.separator + PerformanceSummary.FILE_NAME);
+    }
+
+    public static File getRollupDir(File reportDir) {
+        return new File(reportDir, "data" + File.separator + TimeSeriesRollup.DIR_NAME);
+    }
+
+    /**
+     * Reads all results once, and rolls them up into {@link #getRollupDir(File)} on the way.
+     * A rollup which can't be written only costs the time series charts, so it is a warning.
+     * Results of which not a single line can be read fail, rather than being summarized as an empty build.
+     *
+     * @param convert whether JTL text files are also converted by {@link JtlConverter} while they are read,
+     *                so later reports read the binary files
+     */
+    private PerformanceSummary aggregate(boolean convert) throws IOException, InterruptedException {
+        File input = resolve(inputDir);
+        List<File> jtlFiles = new ArrayList<>();
+        JtlConverter.findResultFiles(input, jtlFiles);
+        if (jtlFiles.isEmpty())
+            log("WARNING: NativeBuildReportExecutor - No JTL files found in '" + input + "'.");
+        PerformanceAggregator aggregator = new PerformanceAggregator(excludedTransactionPattern);
+        JtlConverter converter = new JtlConverter(redirectedOutput);
+        try (TimeSeriesRollup rollup = new TimeSeriesRollup(excludedTransactionPattern)) {
+            JtlScanner scanner = new JtlScanner(redirectedOutput, timeZone, aggregator, rollup);
+            for (File jtlFile : jtlFiles) {
+                if (!convert || jtlFile.getName().endsWith(JtlConverter.EXTENSION)) {
+                    scanner.scan(jtlFile);
+                    continue;
+                }
+                try (JtlConverter.Conversion conversion = converter.begin(jtlFile)) {
+                    scanner.scan(jtlFile, conversion);
+                    try {
+                        conversion.commit();
+                    } catch (IOException e) {
+                        log("WARNING: NativeBuildReportExecutor - Couldn't convert '" + jtlFile + "': " + e);
+                    }
+                }
+            }
+            if (scanner.getSamples() == 0 && scanner.getRejectedLines() > 0)
+                throw new IOException("None of the " + scanner.getRejectedLines() + " lines of the JTL files in '" + input
+                        + "' could be read, check their timeStamp format.");
+            File rollupDir = getRollupDir(resolve(outputDir));
+            try {
+                rollup.write(rollupDir);
+                log("INFO: NativeBuildReportExecutor - " + scanner.getSamples() + " samples rolled up into '" + rollupDir + "'.");
+            } catch (IOException e) {
+                log("WARNING: NativeBuildReportExecutor - Couldn't roll up the samples into '" + rollupDir + "', there will be no time series charts: " + e);
+            }
+        }
+        return PerformanceSummary.of(aggregator);
+    }
+
+    private List<NmonHost> parseResources() throws InterruptedException {
+        List<File> nmonFiles = new ArrayList<>();
+        findFiles(resolve(inputDir), ".nmon", nmonFiles);
+        findFiles(resolve(inputDir), ProcSampleWriter.EXTENSION, nmonFiles);
+        long start = System.nanoTime();
+        List<NmonHost> hosts = NmonParser.parseAll(nmonFiles, timeZone, NMON_PARALLELISM, redirectedOutput);
+        if (!hosts.isEmpty())
+            log("INFO: NativeBuildReportExecutor - Parsed " + hosts.size() + " NMON and /proc sample files in "
+                    + String.format("%.1f", (System.nanoTime() - start) / 1e9) + "s.");
+        return hosts;
+    }
+
+    /**
+     * Charts every section of every host, e.g. <code>CPU_ALL</code>, with a series per column.
+     */
+    public static JSONObject buildResourceReport(List<NmonHost> hosts, TimeZone timeZone) {
+        JSONObject report = ChartJSON.report(RESOURCE_REPORT_TITLE);
+        for (NmonHost host : hosts) {
+            Map<String, JSONObject> charts = new LinkedHashMap<>();
+            for (ResourceTimeSeries series : host.getSeries()) {
+                if (series.size() == 0)
+                    continue;
+                int separator = series.getName().indexOf('/');
+                String section = series.getName().substring(0, separator);
+                JSONObject chart = charts.get(section);
+                if (chart == null) {
+                    chart = ChartJSON.addChart(report, ChartJSON.chart(host.getHostName() + " - " + section,
+                            host.getFileName(), "time", section, ChartJSON.X_AXIS_TIME));
+                    charts.put(section, chart);
+                }
+                JSONArray data = ChartJSON.addSeries(chart, series.getName().substring(separator + 1));
+                for (int i = 0; i < series.size(); ++i)
+                    ChartJSON.addPoint(data, ChartJSON.toChartTime(series.getTime(i), timeZone), series.getValue(i));
+            }
+        }
+        return report;
+    }
+
+    private static void findFiles(File dir, String extension, List<File> result) {
+        File[] children = dir.listFiles();
+        if (children == null)
+            return;
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory())
+                findFiles(child, extension, result);
+            else if (child.getName().endsWith(extension))
+                result.add(child);
+        }
+    }
+
+    public static JSONObject buildPerformanceReport(PerformanceSummary summary, TimeZone timeZone) {
+        JSONObject report = ChartJSON.report(PERFORMANCE_REPORT_TITLE);
+
+        JSONObject summaryTable = ChartJSON.addChart(report, ChartJSON.table(SUMMARY_TABLE_KEY, "Transaction Summary", null,
+                "Transaction", "#Samples", "#Errors", "Error %", "Average (ms)", "Min (ms)", "Max (ms)",
+                "50% Line (ms)", "90% Line (ms)", "95% Line (ms)", "99% Line (ms)", "Throughput (/s)", "Received KB/s"));
+        for (TransactionStats stats : summary.getTransactions())
+            summaryTable.getJSONArray("rows").put(summaryRow(stats));
+        summaryTable.getJSONArray("bottomRows").put(summaryRow(summary.getTotal()));
+
+        long bucketWidth = summary.getBucketWidth();
+        String interval = "interval: " + bucketWidth / 1000.0 + "s";
+        JSONObject responseTime = ChartJSON.addChart(report,
+                ChartJSON.chart("Average Response Time", interval, "time", "response time (ms)", ChartJSON.X_AXIS_TIME));
+        JSONObject percentile90 = ChartJSON.addChart(report,
+                ChartJSON.chart("90th Percentile Response Time", interval, "time", "response time (ms)", ChartJSON.X_AXIS_TIME));
+        JSONObject throughput = ChartJSON.addChart(report,
+                ChartJSON.chart("Throughput", interval, "time", "samples/s", ChartJSON.X_AXIS_TIME));
+        JSONObject errorRate = ChartJSON.addChart(report,
+                ChartJSON.chart("Error Rate", interval, "time", "error %", ChartJSON.X_AXIS_TIME));
+
+        List<String> labels = new ArrayList<>();
+        for (TransactionStats stats : summary.getTransactions())
+            labels.add(stats.getName());
+        labels.add(PerformanceAggregator.TOTAL);
+        SortedMap<Long, Map<String, TransactionStats>> buckets = summary.getTimeBuckets();
+        for (String label : labels) {
+            JSONArray responseTimeSeries = ChartJSON.addSeries(responseTime, label);
+            JSONArray percentile90Series = ChartJSON.addSeries(percentile90, label);
+            JSONArray throughputSeries = ChartJSON.addSeries(throughput, label);
+            JSONArray errorRateSeries = ChartJSON.addSeries(errorRate, label);
+            for (Map.Entry<Long, Map<String, TransactionStats>> bucket : buckets.entrySet()) {
+                TransactionStats stats = bucket.getValue().get(label);
+                if (stats == null)
+                    continue;
+                long x = ChartJSON.toChartTime(bucket.getKey(), timeZone);
+                ChartJSON.addPoint(responseTimeSeries, x, stats.getHistogram().getMean());
+                ChartJSON.addPoint(percentile90Series, x, stats.getHistogram().getValueAtPercentile(90));
+                ChartJSON.addPoint(throughputSeries, x, stats.getCount() * 1000.0 / bucketWidth);
+                ChartJSON.addPoint(errorRateSeries, x, stats.getErrorRate());
+            }
+        }
+        return report;
+    }
+
+    private static JSONArray summaryRow(TransactionStats stats) {
+        double throughput = stats.getThroughput();
+        double kbPerSecond = stats.getCount() == 0 ? Double.NaN : throughput * stats.getBytes() / stats.getCount() / 1024.0;
+        return new JSONArray()
+                .put(ChartJSON.cell(stats.getName()))
+                .put(ChartJSON.cell(stats.getCount()))
+                .put(ChartJSON.cell(stats.getErrors()))
+                .put(ChartJSON.cell(stats.getErrorRate()))
+                .put(ChartJSON.cell(stats.getHistogram().getMean()))
+                .put(ChartJSON.cell(stats.getHistogram().getMin()))
+                .put(ChartJSON.cell(stats.getHistogram().getMax()))
+                .put(ChartJSON.cell(stats.getHistogram().getValueAtPercentile(50)))
+                .put(ChartJSON.cell(stats.getHistogram().getValueAtPercentile(90)))
+                .put(ChartJSON.cell(stats.getHistogram().getValueAtPercentile(95)))
+                .put(ChartJSON.cell(stats.getHistogram().getValueAtPercentile(99)))
+                .put(ChartJSON.cell(throughput))
+                .put(ChartJSON.cell(kbPerSecond));
+    }
+
+    /**
+     * Writes a stand-alone report page which loads its data from <code>dataJSPath</code>, relative to the page URL.
+     */
+    public static void writeMonoReport(File file, String title, String dataJSPath) throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(renderMonoReport(title, dataJSPath));
+        }
+    }
+
+    private static String renderMonoReport(String title, String dataJSPath) throws IOException {
+        try (InputStream in = NativeBuildReportExecutor.class.getResourceAsStream(MONO_REPORT_TEMPLATE)) {
+            if (in == null)
+                throw new IOException("Mono report template is missing.");
+            return IOUtils.toString(in, StandardCharsets.UTF_8).replace("@TITLE@", title).replace("@DATA_JS@", dataJSPath);
+        }
+    }
+
+    private File resolve(String path) {
+        File file = new File(path);
+        return file.isAbsolute() || currentDirectory == null ? file : new File(currentDirectory, path);
+    }
+
+    private void log(String message) {
+        LOGGER.fine(message);
+        if (redirectedOutput != null)
+            redirectedOutput.println(message);
+    }
+
+    public TimeZone getTimeZone() {
+        return timeZone;
+    }
+
+    public void setTimeZone(TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    public String getExcludedTransactionPattern() {
+        return excludedTransactionPattern;
+    }
+
+    public void setExcludedTransactionPattern(String excludedTransactionPattern) {
+        this.excludedTransactionPattern = excludedTransactionPattern;
+    }
+
+    public PrintStream getRedirectedOutput() {
+        return redirectedOutput;
+    }
+
+    public void setRedirectedOutput(PrintStream redirectedOutput) {
+        this.redirectedOutput = redirectedOutput;
+    }
+}
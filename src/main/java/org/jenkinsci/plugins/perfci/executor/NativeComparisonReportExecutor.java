@@ -0,0 +1,80 @@
+package org.jenkinsci.plugins.perfci.executor;
+
+import org.jenkinsci.plugins.perfci.common.ChartJSON;
+import org.jenkinsci.plugins.perfci.stats.PerformanceAggregator;
+import org.jenkinsci.plugins.perfci.stats.PerformanceSummary;
+import org.jenkinsci.plugins.perfci.stats.TransactionStats;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Compares two builds using their {@link PerformanceSummary}, without reading any raw data.
+ */
+public class NativeComparisonReportExecutor {
+    private final File sourceSummaryFile;
+    private final File destSummaryFile;
+    private final String outputDir;
+    private final String monoReportPath;
+    private final String subtitle;
+
+    public NativeComparisonReportExecutor(File sourceSummaryFile, File destSummaryFile, String outputDir,
+                                          String monoReportPath, String subtitle) {
+        this.sourceSummaryFile = sourceSummaryFile;
+        this.destSummaryFile = destSummaryFile;
+        this.outputDir = outputDir;
+        this.monoReportPath = monoReportPath;
+        this.subtitle = subtitle;
+    }
+
+    public int run() throws IOException {
+        JSONObject report = buildComparisonReport(PerformanceSummary.read(sourceSummaryFile),
+                PerformanceSummary.read(destSummaryFile), subtitle);
+        ChartJSON.writeDataJS(new File(outputDir, "data" + File.separator + "data.js"), report);
+        NativeBuildReportExecutor.writeMonoReport(new File(monoReportPath), "Performance Comparison Report", "getDataJs");
+        return 0;
+    }
+
+    public static JSONObject buildComparisonReport(PerformanceSummary source, PerformanceSummary dest, String subtitle) {
+        JSONObject report = ChartJSON.report("Performance Comparison");
+        JSONObject table = ChartJSON.addChart(report, ChartJSON.table("perf-compare", "Transaction Comparison", subtitle,
+                "Transaction", "#Samples", "#Samples (baseline)",
+                "Average (ms)", "Average (baseline)", "Average (diff)",
+                "90% Line (ms)", "90% Line (baseline)", "90% Line (diff)",
+                "99% Line (ms)", "99% Line (baseline)", "99% Line (diff)",
+                "Error %", "Error % (baseline)", "Error % (diff)"));
+        Set<String> names = new TreeSet<>();
+        for (TransactionStats stats : source.getTransactions())
+            names.add(stats.getName());
+        for (TransactionStats stats : dest.getTransactions())
+            names.add(stats.getName());
+        for (String name : names)
+            table.getJSONArray("rows").put(row(name, source.getTransaction(name), dest.getTransaction(name)));
+        table.getJSONArray("bottomRows").put(row(PerformanceAggregator.TOTAL, source.getTotal(), dest.getTotal()));
+        return report;
+    }
+
+    private static JSONArray row(String name, TransactionStats source, TransactionStats dest) {
+        if (source == null)
+            source = new TransactionStats(name);
+        if (dest == null)
+            dest = new TransactionStats(name);
+        JSONArray row = new JSONArray()
+                .put(ChartJSON.cell(name))
+                .put(ChartJSON.cell(source.getCount()))
+                .put(ChartJSON.cell(dest.getCount()));
+        compare(row, source.getHistogram().getMean(), dest.getHistogram().getMean());
+        compare(row, source.getHistogram().getValueAtPercentile(90), dest.getHistogram().getValueAtPercentile(90));
+        compare(row, source.getHistogram().getValueAtPercentile(99), dest.getHistogram().getValueAtPercentile(99));
+        compare(row, source.getErrorRate(), dest.getErrorRate());
+        return row;
+    }
+
+    private static void compare(JSONArray row, double current, double baseline) {
+        row.put(ChartJSON.cell(current)).put(ChartJSON.cell(baseline)).put(ChartJSON.cell(current - baseline));
+    }
+}
@@ -0,0 +1,145 @@
+package org.jenkinsci.plugins.perfci.executor;
+
+import org.jenkinsci.plugins.perfci.common.ChartJSON;
+import org.jenkinsci.plugins.perfci.common.TrendIndex;
+import org.jenkinsci.plugins.perfci.stats.PerformanceAggregator;
+import org.jenkinsci.plugins.perfci.stats.PerformanceSummary;
+import org.jenkinsci.plugins.perfci.stats.TransactionStats;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Generates a trend report from the indexed metrics of each build, without reading any raw data.
+ * Statistics over the whole range of builds are computed by merging their histograms.
+ */
+public class NativeTrendReportExecutor {
+    private final static Logger LOGGER = Logger.getLogger(NativeTrendReportExecutor.class.getName());
+    public final static String TITLE = "Performance Trend Report";
+    public final static String DATA_JS_PATH = "trendDataJS";
+    private final JSONObject report;
+    private final String outputDir;
+    private final String monoReportPath;
+
+    /**
+     * @param report a report built by {@link #buildTrendReport(List, PerformanceSummary)}
+     */
+    public NativeTrendReportExecutor(JSONObject report, String outputDir, String monoReportPath) {
+        this.report = report;
+        this.outputDir = outputDir;
+        this.monoReportPath = monoReportPath;
+    }
+
+    public int run() throws IOException {
+        ChartJSON.writeDataJS(new File(outputDir, "data" + File.separator + "data.js"), report);
+        NativeBuildReportExecutor.writeMonoReport(new File(monoReportPath), TITLE, DATA_JS_PATH);
+        LOGGER.info("Trend report written to '" + outputDir + "'.");
+        return 0;
+    }
+
+    /**
+     * @param builds metrics of each build, in the order to show
+     * @param all    merged summary of all the builds
+     */
+    public static JSONObject buildTrendReport(List<TrendIndex.Build> builds, PerformanceSummary all) {
+        JSONObject report = ChartJSON.report("Performance Trend");
+        List<String> names = new ArrayList<>();
+        for (TrendIndex.Build build : builds) {
+            String name = build.getDisplayName();
+            for (int i = 2; names.contains(name); ++i)
+                name = build.getDisplayName() + " (" + i + ")";
+            names.add(name);
+        }
+
+        JSONObject buildTable = ChartJSON.addChart(report, ChartJSON.table("perf-trend-builds", "Build Summary", null,
+                "Build", "#Samples", "#Errors", "Error %", "Average (ms)", "50% Line (ms)", "90% Line (ms)",
+                "95% Line (ms)", "99% Line (ms)", "Throughput (/s)"));
+        for (int i = 0; i < builds.size(); ++i)
+            buildTable.getJSONArray("rows").put(row(names.get(i), builds.get(i).getTotal()));
+        buildTable.getJSONArray("bottomRows").put(row("All builds", all.getTotal()));
+
+        JSONObject transactions = ChartJSON.addChart(report, ChartJSON.table("perf-trend-transactions",
+                "Transaction Summary", "all builds",
+                "Transaction", "#Samples", "#Errors", "Error %", "Average (ms)", "50% Line (ms)", "90% Line (ms)",
+                "95% Line (ms)", "99% Line (ms)", "Throughput (/s)"));
+        for (TransactionStats stats : all.getTransactions())
+            transactions.getJSONArray("rows").put(row(stats.getName(), stats));
+        transactions.getJSONArray("bottomRows").put(row(PerformanceAggregator.TOTAL, all.getTotal()));
+
+        JSONObject responseTime = trendChart(report, "Response Time Trend", "response time (ms)", names);
+        JSONArray average = ChartJSON.addSeries(responseTime, "Average");
+        JSONArray median = ChartJSON.addSeries(responseTime, "50% Line");
+        JSONArray percentile90 = ChartJSON.addSeries(responseTime, "90% Line");
+        JSONArray percentile99 = ChartJSON.addSeries(responseTime, "99% Line");
+        JSONObject throughput = trendChart(report, "Throughput Trend", "samples/s", names);
+        JSONArray throughputSeries = ChartJSON.addSeries(throughput, PerformanceAggregator.TOTAL);
+        JSONObject errorRate = trendChart(report, "Error Rate Trend", "error %", names);
+        JSONArray errorRateSeries = ChartJSON.addSeries(errorRate, PerformanceAggregator.TOTAL);
+        for (int x = 0; x < builds.size(); ++x) {
+            TrendIndex.Metrics total = builds.get(x).getTotal();
+            ChartJSON.addPoint(average, x, total.getMean());
+            ChartJSON.addPoint(median, x, total.getP50());
+            ChartJSON.addPoint(percentile90, x, total.getP90());
+            ChartJSON.addPoint(percentile99, x, total.getP99());
+            ChartJSON.addPoint(throughputSeries, x, total.getThroughput());
+            ChartJSON.addPoint(errorRateSeries, x, total.getErrorRate());
+        }
+
+        JSONObject transactionAverage = trendChart(report, "Average Response Time Trend per Transaction", "response time (ms)", names);
+        JSONObject transaction90 = trendChart(report, "90% Line Trend per Transaction", "response time (ms)", names);
+        for (TransactionStats stats : all.getTransactions()) {
+            JSONArray averageSeries = ChartJSON.addSeries(transactionAverage, stats.getName());
+            JSONArray percentile90Series = ChartJSON.addSeries(transaction90, stats.getName());
+            for (int x = 0; x < builds.size(); ++x) {
+                TrendIndex.Metrics metrics = builds.get(x).getTransactions().get(stats.getName());
+                if (metrics != null) {
+                    ChartJSON.addPoint(averageSeries, x, metrics.getMean());
+                    ChartJSON.addPoint(percentile90Series, x, metrics.getP90());
+                }
+            }
+        }
+        return report;
+    }
+
+    private static JSONObject trendChart(JSONObject report, String title, String yLabel, List<String> names) {
+        JSONObject chart = ChartJSON.addChart(report, ChartJSON.chart(title, null, "build", yLabel, ChartJSON.X_AXIS_INTEGER));
+        for (int x = 0; x < names.size(); ++x)
+            ChartJSON.addTick(chart, x, names.get(x));
+        return chart;
+    }
+
+    private static JSONArray row(String name, TrendIndex.Metrics metrics) {
+        return new JSONArray()
+                .put(ChartJSON.cell(name))
+                .put(ChartJSON.cell(metrics.getCount()))
+                .put(ChartJSON.cell(metrics.getErrors()))
+                .put(ChartJSON.cell(metrics.getErrorRate()))
+                .put(ChartJSON.cell(metrics.getMean()))
+                .put(ChartJSON.cell(metrics.getP50()))
+                .put(ChartJSON.cell(metrics.getP90()))
+                .put(ChartJSON.cell(metrics.getP95()))
+                .put(ChartJSON.cell(metrics.getP99()))
+                .put(ChartJSON.cell(metrics.getThroughput()));
+    }
+
+    /**
+     * Throughput is left out, since it is only meaningful within one build, not across the gaps between builds.
+     */
+    private static JSONArray row(String name, TransactionStats stats) {
+        return new JSONArray()
+                .put(ChartJSON.cell(name))
+                .put(ChartJSON.cell(stats.getCount()))
+                .put(ChartJSON.cell(stats.getErrors()))
+                .put(ChartJSON.cell(stats.getErrorRate()))
+                .put(ChartJSON.cell(stats.getHistogram().getMean()))
+                .put(ChartJSON.cell(stats.getHistogram().getValueAtPercentile(50)))
+                .put(ChartJSON.cell(stats.getHistogram().getValueAtPercentile(90)))
+                .put(ChartJSON.cell(stats.getHistogram().getValueAtPercentile(95)))
+                .put(ChartJSON.cell(stats.getHistogram().getValueAtPercentile(99)))
+                .put(ChartJSON.cell(Double.NaN));
+    }
+}
@@ -0,0 +1,134 @@
+package org.jenkinsci.plugins.perfci.jtl;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads JTL files written by {@link BinaryJtlWriter}, a block of samples at a time.
+ */
+public class BinaryJtlReader extends JtlReader {
+    private final DataInputStream in;
+    private final List<String> labels = new ArrayList<>();
+    private final List<String> responseCodes = new ArrayList<>();
+    private final long[] timestamps = new long[BinaryJtlWriter.BLOCK_SIZE];
+    private final long[] elapsed = new long[BinaryJtlWriter.BLOCK_SIZE];
+    private final int[] labelIds = new int[BinaryJtlWriter.BLOCK_SIZE];
+    private final int[] responseCodeIds = new int[BinaryJtlWriter.BLOCK_SIZE];
+    private final byte[] successes = new byte[(BinaryJtlWriter.BLOCK_SIZE + 7) / 8];
+    private final long[] bytes = new long[BinaryJtlWriter.BLOCK_SIZE];
+    private final long[] latencies = new long[BinaryJtlWriter.BLOCK_SIZE];
+    private int size;
+    private int position;
+    private long lastTimestamp;
+    private boolean ended;
+
+    public BinaryJtlReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in, BUFFER_SIZE));
+        byte[] magic = new byte[BinaryJtlWriter.MAGIC.length];
+        this.in.readFully(magic);
+        if (!Arrays.equals(magic, BinaryJtlWriter.MAGIC))
+            throw new IOException("Not a binary JTL file.");
+        int version = this.in.read();
+        if (version != BinaryJtlWriter.VERSION)
+            throw new IOException("Unsupported binary JTL version " + version + ".");
+        labels.add(null);
+        responseCodes.add(null);
+    }
+
+    /**
+     * Checks whether a stream starts with the magic number of a binary JTL file, without consuming it.
+     */
+    static boolean isBinary(BufferedInputStream in) throws IOException {
+        in.mark(BinaryJtlWriter.MAGIC.length);
+        try {
+            for (byte b : BinaryJtlWriter.MAGIC) {
+                if (in.read() != b)
+                    return false;
+            }
+            return true;
+        } finally {
+            in.reset();
+        }
+    }
+
+    @Override
+    public boolean read(JtlSample sample) throws IOException {
+        if (position == size && !readBlock())
+            return false;
+        int i = position++;
+        sample.set(timestamps[i], elapsed[i], labels.get(labelIds[i]), responseCodes.get(responseCodeIds[i]),
+                (successes[i >> 3] & (1 << (i & 7))) != 0, bytes[i], latencies[i]);
+        return true;
+    }
+
+    private boolean readBlock() throws IOException {
+        if (ended)
+            return false;
+        int count = (int) readVarint();
+        if (count == 0) {
+            ended = true;
+            return false;
+        }
+        if (count > BinaryJtlWriter.BLOCK_SIZE)
+            throw new IOException("Corrupt binary JTL file, block of " + count + " samples.");
+        readStrings(labels);
+        readStrings(responseCodes);
+        for (int i = 0; i < count; ++i)
+            timestamps[i] = lastTimestamp += unzigzag(readVarint());
+        for (int i = 0; i < count; ++i)
+            elapsed[i] = unzigzag(readVarint());
+        for (int i = 0; i < count; ++i)
+            labelIds[i] = readId(labels);
+        for (int i = 0; i < count; ++i)
+            responseCodeIds[i] = readId(responseCodes);
+        in.readFully(successes, 0, (count + 7) / 8);
+        for (int i = 0; i < count; ++i)
+            bytes[i] = unzigzag(readVarint());
+        for (int i = 0; i < count; ++i)
+            latencies[i] = unzigzag(readVarint());
+        size = count;
+        position = 0;
+        return true;
+    }
+
+    private void readStrings(List<String> dictionary) throws IOException {
+        int count = (int) readVarint();
+        for (int i = 0; i < count; ++i) {
+            byte[] utf8 = new byte[(int) readVarint()];
+            in.readFully(utf8);
+            dictionary.add(new String(utf8, StandardCharsets.UTF_8));
+        }
+    }
+
+    private int readId(List<String> dictionary) throws IOException {
+        long id = readVarint();
+        if (id >= dictionary.size())
+            throw new IOException("Corrupt binary JTL file, unknown dictionary index " + id + ".");
+        return (int) id;
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException("Truncated binary JTL file.");
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Corrupt binary JTL file, varint too long.");
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,137 @@
+package org.jenkinsci.plugins.perfci.jtl;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes samples in the compact binary JTL format read by {@link BinaryJtlReader}.
+ * <p>
+ * The file starts with {@link #MAGIC} and a version byte, followed by blocks of up to {@value #BLOCK_SIZE} samples.
+ * A block starts with its sample count (0 ends the file) and the labels and response codes first seen in it,
+ * then stores each field as a column: timestamps as the difference to the previous sample, labels and response
+ * codes as indexes into the dictionaries, success as a bit set, and all numbers as zigzag varints.
+ * A typical sample takes 6 to 10 bytes instead of 100 to 200 in CSV.
+ */
+public class BinaryJtlWriter implements Closeable {
+    static final byte[] MAGIC = {'P', 'J', 'T', 'L'};
+    static final int VERSION = 1;
+    static final int BLOCK_SIZE = 4096;
+
+    private final DataOutputStream out;
+    /**
+     * dictionary indexes start from 1, 0 stands for null
+     */
+    private final Map<String, Integer> labels = new HashMap<>();
+    private final Map<String, Integer> responseCodes = new HashMap<>();
+    private final long[] timestamps = new long[BLOCK_SIZE];
+    private final long[] elapsed = new long[BLOCK_SIZE];
+    private final int[] labelIds = new int[BLOCK_SIZE];
+    private final int[] responseCodeIds = new int[BLOCK_SIZE];
+    private final boolean[] successes = new boolean[BLOCK_SIZE];
+    private final long[] bytes = new long[BLOCK_SIZE];
+    private final long[] latencies = new long[BLOCK_SIZE];
+    private final List<String> newLabels = new ArrayList<>();
+    private final List<String> newResponseCodes = new ArrayList<>();
+    private int size;
+    private long lastTimestamp;
+
+    public BinaryJtlWriter(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, JtlReader.BUFFER_SIZE));
+        this.out.write(MAGIC);
+        this.out.write(VERSION);
+    }
+
+    public void write(JtlSample sample) throws IOException {
+        timestamps[size] = sample.getTimestamp();
+        elapsed[size] = sample.getElapsed();
+        labelIds[size] = lookup(labels, sample.getLabel(), newLabels);
+        responseCodeIds[size] = lookup(responseCodes, sample.getResponseCode(), newResponseCodes);
+        successes[size] = sample.isSuccess();
+        bytes[size] = sample.getBytes();
+        latencies[size] = sample.getLatency();
+        if (++size == BLOCK_SIZE)
+            flushBlock();
+    }
+
+    private static int lookup(Map<String, Integer> dictionary, String value, List<String> newValues) {
+        if (value == null)
+            return 0;
+        Integer id = dictionary.get(value);
+        if (id == null) {
+            dictionary.put(value, id = dictionary.size() + 1);
+            newValues.add(value);
+        }
+        return id;
+    }
+
+    private void flushBlock() throws IOException {
+        if (size == 0)
+            return;
+        writeVarint(size);
+        writeStrings(newLabels);
+        writeStrings(newResponseCodes);
+        for (int i = 0; i < size; ++i) {
+            writeVarint(zigzag(timestamps[i] - lastTimestamp));
+            lastTimestamp = timestamps[i];
+        }
+        for (int i = 0; i < size; ++i)
+            writeVarint(zigzag(elapsed[i]));
+        for (int i = 0; i < size; ++i)
+            writeVarint(labelIds[i]);
+        for (int i = 0; i < size; ++i)
+            writeVarint(responseCodeIds[i]);
+        for (int i = 0; i < size; i += 8) {
+            int bits = 0;
+            for (int j = 0; j < 8 && i + j < size; ++j) {
+                if (successes[i + j])
+                    bits |= 1 << j;
+            }
+            out.write(bits);
+        }
+        for (int i = 0; i < size; ++i)
+            writeVarint(zigzag(bytes[i]));
+        for (int i = 0; i < size; ++i)
+            writeVarint(zigzag(latencies[i]));
+        newLabels.clear();
+        newResponseCodes.clear();
+        size = 0;
+    }
+
+    /**
+     * Writes each string with its length first, so any character may appear in a label.
+     */
+    private void writeStrings(List<String> strings) throws IOException {
+        writeVarint(strings.size());
+        for (String string : strings) {
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(utf8.length);
+            out.write(utf8);
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBlock();
+            writeVarint(0);
+        } finally {
+            out.close();
+        }
+    }
+}
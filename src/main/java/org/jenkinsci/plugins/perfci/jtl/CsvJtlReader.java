@@ -0,0 +1,292 @@
+package org.jenkinsci.plugins.perfci.jtl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Reads JTL files written with <code>jmeter.save.saveservice.output_format=csv</code>.
+ * If the file has no header line, JMeter's default column order is assumed. The delimiter is taken from the header.
+ * <p>
+ * Time stamps are epoch milliseconds unless <code>jmeter.save.saveservice.timestamp_format</code> has been set.
+ * Formatted time stamps are read with the common patterns, in the time zone given to the reader unless they carry
+ * an offset. Lines which can't be read are skipped and counted, see {@link #getRejectedLines()}.
+ * <p>
+ * Lines are tokenized straight from a fixed-size buffer. Only the columns needed by {@link JtlSample} are kept,
+ * and labels and response codes are deduplicated, so the memory used does not depend on the file size or on
+ * how long other columns (e.g. failure messages) are.
+ */
+public class CsvJtlReader extends JtlReader {
+    private static final String[] DEFAULT_HEADER = {"timeStamp", "elapsed", "label", "responseCode",
+            "responseMessage", "threadName", "dataType", "success", "failureMessage", "bytes", "sentBytes",
+            "grpThreads", "allThreads", "URL", "Latency", "IdleTime", "Connect"};
+    private static final String[] FIELD_NAMES = {"timeStamp", "elapsed", "label", "responseCode", "success",
+            "bytes", "Latency"};
+    private static final int TIMESTAMP = 0;
+    private static final int ELAPSED = 1;
+    private static final int LABEL = 2;
+    private static final int RESPONSE_CODE = 3;
+    private static final int SUCCESS = 4;
+    private static final int BYTES = 5;
+    private static final int LATENCY = 6;
+    private static final DateTimeFormatter[] LOCAL_TIME_FORMATS = {
+            DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss[.SSS]"),
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss[.SSS]"),
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss[.SSS]"),
+            DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm:ss[.SSS]")};
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private char delimiter = ',';
+    /**
+     * index of the field each column goes to, or -1 if the column is ignored
+     */
+    private int[] columnFields;
+    /**
+     * lines with fewer columns are truncated and skipped
+     */
+    private int requiredColumns;
+    private final boolean[] mapped = new boolean[FIELD_NAMES.length];
+    private final StringBuilder[] fields = new StringBuilder[FIELD_NAMES.length];
+    private final StringTable labels = new StringTable();
+    private final StringTable responseCodes = new StringTable();
+    private final ZoneId zone;
+    /**
+     * the pattern which has read the last formatted time stamp, tried first on the next one
+     */
+    private DateTimeFormatter timeFormat;
+    private long rejectedLines;
+
+    public CsvJtlReader(Reader reader) throws IOException {
+        this(reader, TimeZone.getDefault());
+    }
+
+    /**
+     * @param timeZone of formatted time stamps without an offset
+     */
+    public CsvJtlReader(Reader reader, TimeZone timeZone) throws IOException {
+        this.reader = reader;
+        this.zone = timeZone.toZoneId();
+        for (int i = 0; i < fields.length; ++i)
+            fields[i] = new StringBuilder();
+        if (peek() == '\uFEFF') // BOM
+            ++position;
+        if (startsWith("timeStamp")) {
+            if (limit - position > "timeStamp".length())
+                delimiter = buffer[position + "timeStamp".length()];
+            List<String> names = new ArrayList<>();
+            int end;
+            do {
+                StringBuilder name = new StringBuilder();
+                end = readField(name);
+                names.add(name.toString());
+            } while (end == delimiter);
+            mapColumns(names.toArray(new String[names.size()]));
+        } else {
+            mapColumns(DEFAULT_HEADER);
+        }
+    }
+
+    private void mapColumns(String[] names) {
+        columnFields = new int[names.length];
+        for (int i = 0; i < names.length; ++i) {
+            columnFields[i] = -1;
+            for (int field = 0; field < FIELD_NAMES.length; ++field) {
+                if (FIELD_NAMES[field].equals(names[i]) && !mapped[field]) {
+                    columnFields[i] = field;
+                    mapped[field] = true;
+                    if (field == TIMESTAMP || field == ELAPSED || field == LABEL)
+                        requiredColumns = i + 1;
+                    break;
+                }
+            }
+        }
+        if (!mapped[TIMESTAMP] || !mapped[ELAPSED] || !mapped[LABEL])
+            throw new IllegalArgumentException("JTL file must have timeStamp, elapsed and label columns.");
+    }
+
+    @Override
+    public boolean read(JtlSample sample) throws IOException {
+        int columns;
+        while ((columns = readRecord()) >= 0) {
+            if (columns < requiredColumns) {
+                if (columns > 1 || fields[TIMESTAMP].length() > 0)
+                    ++rejectedLines;
+                continue;
+            }
+            try {
+                sample.set(parseTimeStamp(fields[TIMESTAMP]),
+                        parseLong(fields[ELAPSED]),
+                        labels.get(fields[LABEL]),
+                        mapped[RESPONSE_CODE] ? responseCodes.get(fields[RESPONSE_CODE]) : null,
+                        !mapped[SUCCESS] || isTrue(fields[SUCCESS]),
+                        parseOptionalLong(fields[BYTES]),
+                        parseOptionalLong(fields[LATENCY]));
+                return true;
+            } catch (NumberFormatException | DateTimeParseException e) {
+                // skip malformed or truncated lines, e.g. the last one of a test that was killed
+                ++rejectedLines;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long getRejectedLines() {
+        return rejectedLines;
+    }
+
+    private long parseTimeStamp(StringBuilder s) {
+        if (s.length() == 0 || isDigits(s))
+            return parseLong(s);
+        String text = s.toString().trim();
+        if (timeFormat != null) {
+            try {
+                return LocalDateTime.parse(text, timeFormat).atZone(zone).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                // the format may vary, try the others
+            }
+        }
+        for (DateTimeFormatter format : LOCAL_TIME_FORMATS) {
+            try {
+                long time = LocalDateTime.parse(text, format).atZone(zone).toInstant().toEpochMilli();
+                timeFormat = format;
+                return time;
+            } catch (DateTimeParseException e) {
+                // try the next one
+            }
+        }
+        return OffsetDateTime.parse(text).toInstant().toEpochMilli();
+    }
+
+    private static boolean isDigits(CharSequence s) {
+        for (int i = s.charAt(0) == '-' ? 1 : 0; i < s.length(); ++i) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next line into {@link #fields}.
+     *
+     * @return number of columns of the line, or -1 at the end of the file
+     */
+    private int readRecord() throws IOException {
+        for (StringBuilder field : fields)
+            field.setLength(0);
+        if (peek() < 0)
+            return -1;
+        int column = 0;
+        int end;
+        do {
+            int field = column < columnFields.length ? columnFields[column] : -1;
+            end = readField(field < 0 ? null : fields[field]);
+            ++column;
+        } while (end == delimiter);
+        return column;
+    }
+
+    /**
+     * Reads a field, appending its unquoted content to <code>target</code> unless it is null.
+     *
+     * @return the character which ended the field: the delimiter, a line feed, or -1 at the end of the file
+     */
+    private int readField(StringBuilder target) throws IOException {
+        int c;
+        if (peek() == '"') {
+            ++position;
+            while ((c = next()) >= 0) {
+                if (c == '"') {
+                    if (peek() != '"')
+                        break;
+                    ++position; // an escaped quote
+                }
+                if (target != null)
+                    target.append((char) c);
+            }
+            // ignore anything between the closing quote and the end of the field
+            do {
+                c = next();
+            } while (c >= 0 && c != delimiter && c != '\n');
+            return c;
+        }
+        while ((c = next()) >= 0 && c != delimiter && c != '\n') {
+            if (target != null && c != '\r')
+                target.append((char) c);
+        }
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (position == limit) {
+            position = 0;
+            limit = Math.max(reader.read(buffer, 0, buffer.length), 0);
+            if (limit == 0)
+                return -1;
+        }
+        return buffer[position];
+    }
+
+    private int next() throws IOException {
+        int c = peek();
+        if (c >= 0)
+            ++position;
+        return c;
+    }
+
+    private boolean startsWith(String prefix) throws IOException {
+        while (limit - position < prefix.length()) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+            int n = reader.read(buffer, limit, buffer.length - limit);
+            if (n < 0)
+                return false;
+            limit += n;
+        }
+        for (int i = 0; i < prefix.length(); ++i) {
+            if (buffer[position + i] != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static long parseLong(CharSequence s) {
+        int length = s.length();
+        if (length == 0)
+            throw new NumberFormatException("empty number");
+        boolean negative = s.charAt(0) == '-';
+        long result = 0;
+        for (int i = negative ? 1 : 0; i < length; ++i) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                throw new NumberFormatException("not a number: " + s);
+            result = result * 10 + (c - '0');
+        }
+        return negative ? -result : result;
+    }
+
+    private static long parseOptionalLong(CharSequence s) {
+        return s.length() == 0 ? 0 : parseLong(s);
+    }
+
+    private static boolean isTrue(CharSequence s) {
+        return s.length() == 4 && Character.toLowerCase(s.charAt(0)) == 't' && Character.toLowerCase(s.charAt(1)) == 'r'
+                && Character.toLowerCase(s.charAt(2)) == 'u' && Character.toLowerCase(s.charAt(3)) == 'e';
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,138 @@
+package org.jenkinsci.plugins.perfci.jtl;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Converts the JTL files written by JMeter into the binary format of {@link BinaryJtlWriter}, which is several
+ * times smaller and much faster to read, so a result is parsed as text only once.
+ * <p>
+ * A converted file is stored next to the original with the extension {@value #EXTENSION}. The text files are kept:
+ * the binary format doesn't store every column JMeter writes, and builds may archive them.
+ */
+public class JtlConverter {
+    public static final String EXTENSION = ".jtlb";
+    private static final String JTL_EXTENSION = ".jtl";
+    private final PrintStream logger;
+
+    /**
+     * @param logger where progress is printed. May be null.
+     */
+    public JtlConverter(PrintStream logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Starts converting a JTL file to {@link #getConvertedFile(File)} from samples read elsewhere, so that a scan
+     * which reads the file anyway converts it on the way, see {@link JtlScanner#scan(File, SampleAggregator...)}.
+     */
+    public Conversion begin(File jtlFile) throws IOException {
+        return new Conversion(jtlFile, getConvertedFile(jtlFile));
+    }
+
+    /**
+     * Writes the samples it is given into a temporary file, which becomes the converted file on {@link #commit()}.
+     * A write error doesn't interrupt the samples; it is thrown by {@link #commit()}.
+     */
+    public class Conversion implements SampleAggregator, Closeable {
+        private final long start = System.nanoTime();
+        private final File jtlFile;
+        private final File target;
+        private final File temp;
+        private final BinaryJtlWriter writer;
+        private long samples;
+        private IOException failure;
+        private boolean done;
+
+        private Conversion(File jtlFile, File target) throws IOException {
+            this.jtlFile = jtlFile;
+            this.target = target;
+            this.temp = new File(target.getPath() + ".tmp");
+            this.writer = new BinaryJtlWriter(new FileOutputStream(temp));
+        }
+
+        @Override
+        public void add(JtlSample sample) {
+            if (failure != null)
+                return;
+            try {
+                writer.write(sample);
+                ++samples;
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        /**
+         * @return number of samples converted
+         */
+        public long commit() throws IOException {
+            done = true;
+            try {
+                writer.close();
+                if (failure != null)
+                    throw failure;
+            } catch (IOException e) {
+                temp.delete();
+                throw e;
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            log("INFO: JtlConverter - Converted " + samples + " samples of '" + jtlFile.getName() + "' from "
+                    + toKB(jtlFile.length()) + " KB to " + toKB(target.length()) + " KB in "
+                    + String.format("%.1f", (System.nanoTime() - start) / 1e9) + "s.");
+            return samples;
+        }
+
+        /**
+         * Discards the conversion unless it has been committed.
+         */
+        @Override
+        public void close() {
+            if (done)
+                return;
+            done = true;
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+            }
+            temp.delete();
+        }
+    }
+
+    public static File getConvertedFile(File jtlFile) {
+        String name = jtlFile.getName();
+        if (name.endsWith(JTL_EXTENSION))
+            name = name.substring(0, name.length() - JTL_EXTENSION.length());
+        return new File(jtlFile.getParentFile(), name + EXTENSION);
+    }
+
+    /**
+     * Lists the files of a directory tree to read samples from: converted files, and JTL files not converted.
+     */
+    public static void findResultFiles(File dir, List<File> result) {
+        File[] children = dir.listFiles();
+        if (children == null)
+            return;
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory())
+                findResultFiles(child, result);
+            else if (child.getName().endsWith(EXTENSION))
+                result.add(child);
+            else if (child.getName().endsWith(JTL_EXTENSION) && !getConvertedFile(child).isFile())
+                result.add(child);
+        }
+    }
+
+    private static String toKB(long bytes) {
+        return Long.toString((bytes + 1023) / 1024);
+    }
+
+    private void log(String message) {
+        if (logger != null)
+            logger.println(message);
+    }
+}
@@ -0,0 +1,155 @@
+package org.jenkinsci.plugins.perfci.jtl;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges CSV JTL files recorded on several machines into one JTL file ordered by time.
+ * <p>
+ * The clock of each machine may be off, so every file comes with an offset which is subtracted from its timestamps.
+ * All files must have the same header line with a <code>timeStamp</code> column in milliseconds, which is what
+ * JMeter writes with <code>jmeter.save.saveservice.print_field_names=true</code> and
+ * <code>jmeter.save.saveservice.timestamp_format=ms</code>. Each file is read once, record by record, so the merge
+ * needs little memory however large the files are.
+ */
+public class JtlMerger {
+    private static final String TIMESTAMP_COLUMN = "timeStamp";
+
+    /**
+     * @param offsets milliseconds to subtract from the timestamps of each part
+     * @return number of samples written
+     */
+    public static long merge(List<File> parts, long[] offsets, File target) throws IOException {
+        if (parts.size() != offsets.length)
+            throw new IllegalArgumentException("Each part needs an offset.");
+        PriorityQueue<Part> queue = new PriorityQueue<>();
+        String header = null;
+        long samples = 0;
+        try {
+            for (int i = 0; i < parts.size(); ++i) {
+                Part part = new Part(parts.get(i), offsets[i]);
+                if (part.header == null) {
+                    part.close();
+                    continue;
+                }
+                if (header == null)
+                    header = part.header;
+                else if (!header.equals(part.header)) {
+                    part.close();
+                    throw new IOException("JTL file '" + parts.get(i) + "' has different columns than the others.");
+                }
+                if (part.next())
+                    queue.add(part);
+                else
+                    part.close();
+            }
+            target.getAbsoluteFile().getParentFile().mkdirs();
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(target), StandardCharsets.UTF_8), 65536)) {
+                if (header != null) {
+                    writer.write(header);
+                    writer.write('\n');
+                }
+                while (!queue.isEmpty()) {
+                    Part part = queue.poll();
+                    writer.write(part.record);
+                    writer.write('\n');
+                    ++samples;
+                    if (part.next())
+                        queue.add(part);
+                    else
+                        part.close();
+                }
+            }
+        } finally {
+            for (Part part : queue)
+                part.close();
+        }
+        return samples;
+    }
+
+    private static class Part implements Comparable<Part>, Closeable {
+        private final BufferedReader reader;
+        private final long offset;
+        private final String header;
+        private char delimiter = ',';
+        private int timestampColumn = -1;
+        private String record;
+        private long timestamp = Long.MIN_VALUE;
+
+        Part(File file, long offset) throws IOException {
+            this.reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 65536);
+            this.offset = offset;
+            this.header = reader.readLine();
+            if (header == null)
+                return;
+            if (header.startsWith(TIMESTAMP_COLUMN) && header.length() > TIMESTAMP_COLUMN.length())
+                delimiter = header.charAt(TIMESTAMP_COLUMN.length());
+            String[] columns = header.split(java.util.regex.Pattern.quote(String.valueOf(delimiter)));
+            for (int i = 0; i < columns.length; ++i) {
+                if (columns[i].equals(TIMESTAMP_COLUMN))
+                    timestampColumn = i;
+            }
+            if (timestampColumn < 0) {
+                reader.close();
+                throw new IOException("JTL file '" + file + "' has no " + TIMESTAMP_COLUMN + " column.");
+            }
+        }
+
+        /**
+         * Reads the next record, which spans several lines if a quoted field contains line breaks,
+         * and shifts its timestamp by the offset of this part.
+         */
+        boolean next() throws IOException {
+            String line = reader.readLine();
+            if (line == null)
+                return false;
+            StringBuilder builder = new StringBuilder(line);
+            while (countQuotes(builder) % 2 != 0 && (line = reader.readLine()) != null)
+                builder.append('\n').append(line);
+            int start = 0;
+            boolean quoted = false;
+            int column = 0;
+            for (int i = 0; i <= builder.length(); ++i) {
+                char c = i < builder.length() ? builder.charAt(i) : delimiter;
+                if (c == '"') {
+                    quoted = !quoted;
+                } else if (c == delimiter && !quoted) {
+                    if (column == timestampColumn) {
+                        try {
+                            // a record without a valid timestamp stays next to the previous one
+                            timestamp = Long.parseLong(builder.substring(start, i).trim()) - offset;
+                            builder.replace(start, i, Long.toString(timestamp));
+                        } catch (NumberFormatException ignored) {
+                        }
+                        break;
+                    }
+                    ++column;
+                    start = i + 1;
+                }
+            }
+            record = builder.toString();
+            return true;
+        }
+
+        private static int countQuotes(CharSequence s) {
+            int quotes = 0;
+            for (int i = 0; i < s.length(); ++i) {
+                if (s.charAt(i) == '"')
+                    ++quotes;
+            }
+            return quotes;
+        }
+
+        @Override
+        public int compareTo(Part other) {
+            return Long.compare(timestamp, other.timestamp);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
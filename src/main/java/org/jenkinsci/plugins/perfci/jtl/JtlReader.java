@@ -0,0 +1,76 @@
+package org.jenkinsci.plugins.perfci.jtl;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.TimeZone;
+
+/**
+ * Reads sample results from a JTL file, one at a time, without loading the file into memory.
+ */
+public abstract class JtlReader implements Closeable {
+    static final int BUFFER_SIZE = 64 * 1024;
+    private CountingInputStream counter;
+
+    /**
+     * Fills <code>sample</code> with the next sample of the file.
+     *
+     * @return false at the end of the file
+     */
+    public abstract boolean read(JtlSample sample) throws IOException;
+
+    /**
+     * @return how many lines of the file have been skipped because they couldn't be read, so far
+     */
+    public long getRejectedLines() {
+        return 0;
+    }
+
+    /**
+     * @return how many bytes of the file have been consumed so far, or -1 if unknown
+     */
+    public long getBytesRead() {
+        return counter == null ? -1 : counter.getByteCount();
+    }
+
+    /**
+     * Opens a JTL file written in the CSV or the XML save service format, or converted by {@link JtlConverter}.
+     * Formatted time stamps are read in the default time zone.
+     */
+    public static JtlReader open(File file) throws IOException {
+        return open(file, TimeZone.getDefault());
+    }
+
+    /**
+     * @param timeZone of formatted time stamps without an offset in CSV files
+     */
+    public static JtlReader open(File file, TimeZone timeZone) throws IOException {
+        CountingInputStream counter = new CountingInputStream(new FileInputStream(file));
+        BufferedInputStream in = new BufferedInputStream(counter, BUFFER_SIZE);
+        try {
+            JtlReader reader = BinaryJtlReader.isBinary(in) ? new BinaryJtlReader(in)
+                    : isXml(in) ? new XmlJtlReader(in)
+                    : new CsvJtlReader(new InputStreamReader(in, StandardCharsets.UTF_8), timeZone);
+            reader.counter = counter;
+            return reader;
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static boolean isXml(BufferedInputStream in) throws IOException {
+        in.mark(64);
+        try {
+            int c;
+            while ((c = in.read()) >= 0) {
+                if (!Character.isWhitespace(c) && c != 0xEF && c != 0xBB && c != 0xBF) // skip a UTF-8 BOM
+                    return c == '<';
+            }
+            return false;
+        } finally {
+            in.reset();
+        }
+    }
+}
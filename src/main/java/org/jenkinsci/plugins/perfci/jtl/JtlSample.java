@@ -0,0 +1,64 @@
+package org.jenkinsci.plugins.perfci.jtl;
+
+/**
+ * A sample result read from a JTL file.
+ * <p>
+ * Readers fill the same instance over and over, so a sample is only valid until the next call to
+ * {@link JtlReader#read(JtlSample)}. Aggregators must copy whatever they need to keep.
+ */
+public class JtlSample {
+    private long timestamp;
+    private long elapsed;
+    private String label;
+    private String responseCode;
+    private boolean success;
+    private long bytes;
+    private long latency;
+
+    void set(long timestamp, long elapsed, String label, String responseCode, boolean success, long bytes, long latency) {
+        this.timestamp = timestamp;
+        this.elapsed = elapsed;
+        this.label = label;
+        this.responseCode = responseCode;
+        this.success = success;
+        this.bytes = bytes;
+        this.latency = latency;
+    }
+
+    /**
+     * @return when the sample started, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return response time in milliseconds
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public String getResponseCode() {
+        return responseCode;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return time to first byte in milliseconds
+     */
+    public long getLatency() {
+        return latency;
+    }
+}
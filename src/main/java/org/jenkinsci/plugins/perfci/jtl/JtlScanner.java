@@ -0,0 +1,126 @@
+package org.jenkinsci.plugins.perfci.jtl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams JTL files through a set of {@link SampleAggregator}s in a single pass, using one reused {@link JtlSample},
+ * and reports how fast the files are read.
+ */
+public class JtlScanner {
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(30);
+    private static final int INTERRUPT_CHECK_INTERVAL = 64 * 1024;
+    private final SampleAggregator[] aggregators;
+    private final PrintStream logger;
+    private final TimeZone timeZone;
+    private long samples;
+    private long rejectedLines;
+    private long bytes;
+    private long nanos;
+
+    /**
+     * @param logger where progress and throughput are printed. May be null.
+     */
+    public JtlScanner(PrintStream logger, SampleAggregator... aggregators) {
+        this(logger, TimeZone.getDefault(), aggregators);
+    }
+
+    /**
+     * @param timeZone of formatted time stamps without an offset in CSV files
+     */
+    public JtlScanner(PrintStream logger, TimeZone timeZone, SampleAggregator... aggregators) {
+        this.logger = logger;
+        this.timeZone = timeZone;
+        this.aggregators = aggregators;
+    }
+
+    public void scan(File file) throws IOException, InterruptedException {
+        scan(file, new SampleAggregator[0]);
+    }
+
+    /**
+     * @param fileAggregators also get the samples of this file only, e.g. a {@link JtlConverter.Conversion}
+     */
+    public void scan(File file, SampleAggregator... fileAggregators) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long nextProgress = start + PROGRESS_INTERVAL;
+        long fileSamples = 0;
+        long fileBytes;
+        long fileRejectedLines;
+        log("INFO: JtlScanner - Reading '" + file + "' (" + toMB(file.length()) + " MB)...");
+        JtlSample sample = new JtlSample();
+        try (JtlReader reader = JtlReader.open(file, timeZone)) {
+            while (reader.read(sample)) {
+                for (SampleAggregator aggregator : aggregators)
+                    aggregator.add(sample);
+                for (SampleAggregator aggregator : fileAggregators)
+                    aggregator.add(sample);
+                if (++fileSamples % INTERRUPT_CHECK_INTERVAL == 0) {
+                    if (Thread.interrupted())
+                        throw new InterruptedException();
+                    long now = System.nanoTime();
+                    if (now - nextProgress >= 0) {
+                        nextProgress = now + PROGRESS_INTERVAL;
+                        log("INFO: JtlScanner - " + fileSamples + " samples, " + toMB(reader.getBytesRead())
+                                + " MB of '" + file.getName() + "' read so far, " + rate(reader.getBytesRead(), now - start) + " MB/s.");
+                    }
+                }
+            }
+            fileBytes = reader.getBytesRead();
+            fileRejectedLines = reader.getRejectedLines();
+        }
+        long fileNanos = System.nanoTime() - start;
+        samples += fileSamples;
+        bytes += fileBytes;
+        nanos += fileNanos;
+        rejectedLines += fileRejectedLines;
+        if (fileRejectedLines > 0)
+            log("WARNING: JtlScanner - Skipped " + fileRejectedLines + " lines of '" + file.getName() + "' which couldn't be read.");
+        log("INFO: JtlScanner - Read " + fileSamples + " samples (" + toMB(fileBytes) + " MB) from '" + file.getName()
+                + "' in " + String.format("%.1f", fileNanos / 1e9) + "s, " + rate(fileBytes, fileNanos) + " MB/s.");
+    }
+
+    /**
+     * @return number of samples read by all {@link #scan(File)} calls
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return number of lines skipped by all {@link #scan(File)} calls because they couldn't be read
+     */
+    public long getRejectedLines() {
+        return rejectedLines;
+    }
+
+    /**
+     * @return number of bytes read by all {@link #scan(File)} calls
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return read throughput of all {@link #scan(File)} calls, in bytes per second
+     */
+    public double getBytesPerSecond() {
+        return nanos == 0 ? Double.NaN : bytes * 1e9 / nanos;
+    }
+
+    private static String toMB(long bytes) {
+        return String.format("%.1f", bytes / 1048576.0);
+    }
+
+    private static String rate(long bytes, long nanos) {
+        return nanos <= 0 ? "-" : String.format("%.1f", bytes / 1048576.0 * 1e9 / nanos);
+    }
+
+    private void log(String message) {
+        if (logger != null)
+            logger.println(message);
+    }
+}
@@ -0,0 +1,193 @@
+package org.jenkinsci.plugins.perfci.jtl;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import org.jenkinsci.plugins.perfci.stats.TransactionStats;
+import org.jenkinsci.remoting.RoleChecker;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads the samples appended to a JTL file since the last call, where the file is, and returns them aggregated
+ * per second, so following a JTL file on an agent sends a few counters over the channel instead of the file.
+ * <p>
+ * Only complete records are read: whole lines of a CSV file, whole top-level sample elements of an XML file.
+ * The returned {@link Chunk} carries the position to continue from in the next call.
+ */
+public class JtlTail implements FilePath.FileCallable<JtlTail.Chunk> {
+    private static final long serialVersionUID = 1L;
+    /**
+     * at most this many bytes are read per call, so a file written faster than it is followed catches up gradually
+     */
+    private static final int MAX_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final String XML_ROOT = "<testResults";
+
+    private final long offset;
+    /**
+     * null before the first call, the CSV header line, empty for CSV without a header, or {@link #XML_ROOT}
+     */
+    private final String header;
+
+    public JtlTail() {
+        this(0, null);
+    }
+
+    private JtlTail(long offset, String header) {
+        this.offset = offset;
+        this.header = header;
+    }
+
+    @Override
+    public Chunk invoke(File file, VirtualChannel channel) throws IOException, InterruptedException {
+        Chunk chunk = new Chunk(offset, header);
+        if (!file.isFile())
+            return chunk;
+        byte[] bytes;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long available = in.length() - offset;
+            if (available <= 0)
+                return chunk;
+            bytes = new byte[(int) Math.min(available, MAX_CHUNK_SIZE)];
+            in.seek(offset);
+            in.readFully(bytes);
+        }
+        // record boundaries are ASCII, so they can be searched for before decoding
+        String text = new String(bytes, StandardCharsets.ISO_8859_1);
+        int start = 0;
+        if (chunk.header == null) {
+            if (text.startsWith("\u00EF\u00BB\u00BF")) // UTF-8 BOM
+                start = 3;
+            if (text.startsWith("<?xml", start) || text.startsWith(XML_ROOT, start)) {
+                int root = text.indexOf(XML_ROOT, start);
+                int rootEnd = root < 0 ? -1 : text.indexOf('>', root);
+                if (rootEnd < 0)
+                    return chunk;
+                chunk.header = XML_ROOT;
+                start = rootEnd + 1;
+            } else if (text.startsWith("timeStamp", start)) {
+                int lineEnd = text.indexOf('\n', start);
+                if (lineEnd < 0)
+                    return chunk;
+                chunk.header = new String(bytes, start, lineEnd - start, StandardCharsets.UTF_8).trim();
+                start = lineEnd + 1;
+            } else {
+                chunk.header = "";
+            }
+        }
+        boolean xml = XML_ROOT.equals(chunk.header);
+        int end = xml ? findXmlBoundary(text, start) : text.lastIndexOf('\n') + 1;
+        if (end <= start) {
+            chunk.offset = offset + start;
+            return chunk;
+        }
+        String records = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        JtlReader reader = xml
+                ? new XmlJtlReader(new ByteArrayInputStream(("<testResults>" + records + "</testResults>").getBytes(StandardCharsets.UTF_8)))
+                : new CsvJtlReader(new StringReader(chunk.header.isEmpty() ? records : chunk.header + "\n" + records));
+        try {
+            JtlSample sample = new JtlSample();
+            while (reader.read(sample))
+                chunk.add(sample);
+        } finally {
+            reader.close();
+        }
+        chunk.offset = offset + end;
+        return chunk;
+    }
+
+    /**
+     * @return position after the last complete top-level element which starts at or after <code>start</code>
+     */
+    private static int findXmlBoundary(String text, int start) {
+        int boundary = start;
+        int depth = 0;
+        int i = start;
+        while ((i = text.indexOf('<', i)) >= 0) {
+            int tagEnd = findTagEnd(text, i);
+            if (tagEnd < 0)
+                break;
+            char next = i + 1 < text.length() ? text.charAt(i + 1) : 0;
+            if (next == '/') {
+                if (--depth < 0) // the end of the root element
+                    break;
+                if (depth == 0)
+                    boundary = tagEnd + 1;
+            } else if (next != '?' && next != '!') {
+                if (text.charAt(tagEnd - 1) == '/') {
+                    if (depth == 0)
+                        boundary = tagEnd + 1;
+                } else {
+                    ++depth;
+                }
+            }
+            i = tagEnd + 1;
+        }
+        return boundary;
+    }
+
+    private static int findTagEnd(String text, int tagStart) {
+        boolean quoted = false;
+        for (int i = tagStart + 1; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c == '"')
+                quoted = !quoted;
+            else if (c == '>' && !quoted)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Samples read by one call, aggregated per second and transaction.
+     */
+    public static class Chunk implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private long offset;
+        private String header;
+        private long samples;
+        private final Map<Long, Map<String, TransactionStats>> seconds = new TreeMap<>();
+
+        Chunk(long offset, String header) {
+            this.offset = offset;
+            this.header = header;
+        }
+
+        void add(JtlSample sample) {
+            Long second = Math.floorDiv(sample.getTimestamp(), 1000L);
+            Map<String, TransactionStats> bucket = seconds.get(second);
+            if (bucket == null)
+                seconds.put(second, bucket = new HashMap<>());
+            TransactionStats stats = bucket.get(sample.getLabel());
+            if (stats == null)
+                bucket.put(sample.getLabel(), stats = new TransactionStats(sample.getLabel()));
+            stats.add(sample.getTimestamp(), sample.getElapsed(), sample.isSuccess(), sample.getBytes());
+            ++samples;
+        }
+
+        /**
+         * @return the tail to call next time, which continues after this chunk
+         */
+        public JtlTail next() {
+            return new JtlTail(offset, header);
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        /**
+         * @return statistics keyed by second since the epoch and transaction name
+         */
+        public Map<Long, Map<String, TransactionStats>> getSeconds() {
+            return seconds;
+        }
+    }
+
+    @Override
+    public void checkRoles(RoleChecker checker) throws SecurityException {
+    }
+}
@@ -0,0 +1,133 @@
+package org.jenkinsci.plugins.perfci.jtl;
+
+import hudson.FilePath;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.jenkinsci.plugins.perfci.stats.LiveStats;
+import org.jenkinsci.plugins.perfci.stats.SlaRule;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Follows the JTL files of a running test and feeds their samples into {@link LiveStats}, printing a summary to
+ * the console from time to time.
+ * <p>
+ * The files are polled every {@link #POLL_SECONDS} seconds with {@link JtlTail}, which reads the new samples where
+ * the files are and only sends counters per second back. A summary is printed every {@link #SUMMARY_SECONDS}
+ * seconds. If an {@link SlaRule} is set and the test breaches it, the monitor creates an abort file, which tells
+ * the running JMeter processes to shut down. Both intervals can be changed with the system properties
+ * <code>org.jenkinsci.plugins.perfci.jtl.LiveJtlMonitor.pollSeconds</code> and <code>.summarySeconds</code>.
+ * <p>
+ * Each monitor polls on a thread of its own, since a poll makes remoting calls to the agent which may take a while,
+ * and must not hold up the shared Jenkins timer.
+ */
+public class LiveJtlMonitor {
+    private static final Logger LOGGER = Logger.getLogger(LiveJtlMonitor.class.getName());
+    public static final int POLL_SECONDS = Math.max(1, Integer.getInteger(LiveJtlMonitor.class.getName() + ".pollSeconds", 5));
+    public static final int SUMMARY_SECONDS = Math.max(1, Integer.getInteger(LiveJtlMonitor.class.getName() + ".summarySeconds", 60));
+
+    private final FilePath dir;
+    private final String includes;
+    private final LiveStats stats;
+    private final PrintStream logger;
+    private final Map<String, JtlTail> tails = new HashMap<>();
+    private SlaRule slaRule;
+    private FilePath abortFile;
+    private volatile String breach;
+    private ScheduledExecutorService poller;
+    private long lastSummary = System.currentTimeMillis();
+
+    /**
+     * @param includes ANT-style wildcards of the JTL files in <code>dir</code>, which need not exist yet
+     */
+    public LiveJtlMonitor(FilePath dir, String includes, LiveStats stats, PrintStream logger) {
+        this.dir = dir;
+        this.includes = includes;
+        this.stats = stats;
+        this.logger = logger;
+    }
+
+    /**
+     * @param abortFile created when the rule is breached
+     */
+    public void setSlaRule(SlaRule slaRule, FilePath abortFile) {
+        this.slaRule = slaRule;
+        this.abortFile = abortFile;
+    }
+
+    /**
+     * @return why the test breached its {@link SlaRule}, or null if it has not
+     */
+    public String getBreach() {
+        return breach;
+    }
+
+    public void start() {
+        poller = Executors.newSingleThreadScheduledExecutor(
+                new NamingThreadFactory(new DaemonThreadFactory(), "LiveJtlMonitor " + dir.getRemote()));
+        poller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, POLL_SECONDS, POLL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops following the files after reading what has been written so far.
+     */
+    public void stop() {
+        if (poller != null)
+            poller.shutdown();
+        // waits for a poll in progress
+        poll();
+        if (stats.getLastUpdate() > 0)
+            logger.println("INFO: Live JTL statistics - " + stats.getSummary());
+    }
+
+    private synchronized void poll() {
+        try {
+            if (!dir.exists())
+                return;
+            for (FilePath file : dir.list(includes)) {
+                JtlTail tail = tails.get(file.getRemote());
+                JtlTail.Chunk chunk = file.act(tail == null ? new JtlTail() : tail);
+                tails.put(file.getRemote(), chunk.next());
+                if (chunk.getSamples() > 0)
+                    stats.add(chunk.getSeconds());
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Couldn't follow JTL files in '" + dir.getRemote() + "'.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (slaRule != null && breach == null) {
+            String reason = slaRule.check(stats);
+            if (reason != null) {
+                breach = reason;
+                logger.println("ERROR: SLA breached, stopping Jmeter: " + reason + ". " + stats.getSummary());
+                try {
+                    abortFile.touch(System.currentTimeMillis());
+                } catch (IOException e) {
+                    logger.println("WARNING: Couldn't create abort file '" + abortFile.getRemote() + "': " + e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastSummary >= SUMMARY_SECONDS * 1000L && stats.getLastUpdate() > 0) {
+            lastSummary = now;
+            logger.println("INFO: Live JTL statistics - " + stats.getSummary());
+        }
+    }
+}
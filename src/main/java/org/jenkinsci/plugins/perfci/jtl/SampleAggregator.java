@@ -0,0 +1,11 @@
+package org.jenkinsci.plugins.perfci.jtl;
+
+/**
+ * Consumes samples read by a {@link JtlScanner}.
+ */
+public interface SampleAggregator {
+    /**
+     * @param sample only valid during this call; it is refilled with the next sample afterwards.
+     */
+    void add(JtlSample sample);
+}
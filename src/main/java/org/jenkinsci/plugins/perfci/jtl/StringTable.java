@@ -0,0 +1,33 @@
+package org.jenkinsci.plugins.perfci.jtl;
+
+/**
+ * Deduplicates the few distinct strings of a JTL column (labels, response codes), so reading a sample
+ * does not allocate a new string when the value has been seen before.
+ * Once {@value #CAPACITY} distinct values are known, further ones are returned without being cached.
+ */
+class StringTable {
+    private static final int CAPACITY = 4096;
+    private final String[] slots = new String[CAPACITY * 2];
+    private int size;
+
+    String get(CharSequence chars) {
+        int length = chars.length();
+        int hash = 0;
+        for (int i = 0; i < length; ++i)
+            hash = 31 * hash + chars.charAt(i);
+        int mask = slots.length - 1;
+        for (int i = (hash ^ (hash >>> 16)) & mask; ; i = (i + 1) & mask) {
+            String s = slots[i];
+            if (s == null) {
+                s = chars.toString();
+                if (size < CAPACITY) {
+                    slots[i] = s;
+                    ++size;
+                }
+                return s;
+            }
+            if (s.hashCode() == hash && s.contentEquals(chars))
+                return s;
+        }
+    }
+}
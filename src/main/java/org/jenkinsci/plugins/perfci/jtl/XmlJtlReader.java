@@ -0,0 +1,87 @@
+package org.jenkinsci.plugins.perfci.jtl;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads JTL files written with <code>jmeter.save.saveservice.output_format=xml</code>.
+ * Only top-level samples are returned; sub-results (e.g. embedded resources) are part of their parent sample.
+ * The file is pulled through StAX one event at a time and never held in memory.
+ */
+public class XmlJtlReader extends JtlReader {
+    private final InputStream in;
+    private final XMLStreamReader xml;
+    private final StringTable labels = new StringTable();
+    private final StringTable responseCodes = new StringTable();
+    private int depth;
+
+    public XmlJtlReader(InputStream in) throws IOException {
+        this.in = in;
+        try {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            xml = factory.createXMLStreamReader(in);
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public boolean read(JtlSample sample) throws IOException {
+        try {
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    ++depth;
+                    // depth 1 is <testResults>, depth 2 are the samples
+                    if (depth == 2 && xml.getAttributeValue(null, "ts") != null && fill(sample))
+                        return true;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    --depth;
+                }
+            }
+            return false;
+        } catch (XMLStreamException e) {
+            if (depth > 0) // an unterminated file, e.g. of a test that was killed
+                return false;
+            throw new IOException(e);
+        }
+    }
+
+    private boolean fill(JtlSample sample) {
+        try {
+            String label = xml.getAttributeValue(null, "lb");
+            String responseCode = xml.getAttributeValue(null, "rc");
+            sample.set(Long.parseLong(xml.getAttributeValue(null, "ts")),
+                    parseLong(xml.getAttributeValue(null, "t")),
+                    label == null ? "" : labels.get(label),
+                    responseCode == null ? null : responseCodes.get(responseCode),
+                    !"false".equals(xml.getAttributeValue(null, "s")),
+                    parseLong(xml.getAttributeValue(null, "by")),
+                    parseLong(xml.getAttributeValue(null, "lt")));
+            return true;
+        } catch (NumberFormatException e) {
+            return false; // skip malformed samples
+        }
+    }
+
+    private static long parseLong(String s) {
+        return s == null || s.isEmpty() ? 0 : Long.parseLong(s);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            in.close();
+        }
+    }
+}
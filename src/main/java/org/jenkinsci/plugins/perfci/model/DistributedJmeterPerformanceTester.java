@@ -0,0 +1,531 @@
+package org.jenkinsci.plugins.perfci.model;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+import org.apache.tools.ant.types.Commandline;
+import org.jenkinsci.plugins.perfci.common.BaseDirectoryRelocatable;
+import org.jenkinsci.plugins.perfci.common.IOHelper;
+import org.jenkinsci.plugins.perfci.common.LogDirectoryRelocatable;
+import org.jenkinsci.plugins.perfci.jtl.JtlMerger;
+import org.jenkinsci.remoting.RoleChecker;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Runs JMeter test plans on all online agents of a label at the same time, so the load is not limited by
+ * the network and CPU of a single agent.
+ * <p>
+ * If a property for the number of virtual users is given, every agent runs every plan with its share of
+ * the virtual users, passed as <code>-J&lt;property&gt;=&lt;share&gt;</code>. Otherwise the plans are spread over
+ * the agents. The plans start at the same moment on all agents: the clock offset of each agent is measured first
+ * and each agent waits until the common start time by its own clock. Afterwards the JTL files of all agents are
+ * merged, ordered by time and with timestamps corrected by the clock offsets, into one JTL file per plan in the
+ * base directory of the build, so the report sees one test.
+ */
+public class DistributedJmeterPerformanceTester extends PerformanceTester implements LogDirectoryRelocatable, BaseDirectoryRelocatable {
+    private static final String AGENT_DIR = "perfci-distributed";
+    private static final String RESULTS_DIR = "results";
+    private static final String LOGS_DIR = "logs";
+    /**
+     * JTL files must be CSV with a header and timestamps in milliseconds to be merged, see {@link JtlMerger}
+     */
+    private static final String[] JTL_FORMAT_ARGS = {"-Jjmeter.save.saveservice.output_format=csv",
+            "-Jjmeter.save.saveservice.print_field_names=true", "-Jjmeter.save.saveservice.timestamp_format=ms"};
+
+    private String logDirectory;
+    private String baseDirectory;
+    private boolean disabled;
+    private String agentLabel;
+    private String jmxIncludingPattern;
+    private String jmxExcludingPattern;
+    private String supportingFilesPattern;
+    private String jmeterCommand;
+    private String jmeterArgs;
+    private String threadsProperty;
+    private int totalThreads;
+    /**
+     * seconds between the end of the preparation and the common start, which must cover the time to launch the agents
+     */
+    private int startDelay;
+
+    @DataBoundConstructor
+    public DistributedJmeterPerformanceTester(boolean disabled, String agentLabel, String jmxIncludingPattern, String jmxExcludingPattern,
+                                              String supportingFilesPattern, String jmeterCommand, String jmeterArgs,
+                                              String threadsProperty, int totalThreads, int startDelay) {
+        this.disabled = disabled;
+        this.agentLabel = agentLabel;
+        this.jmxIncludingPattern = jmxIncludingPattern;
+        this.jmxExcludingPattern = jmxExcludingPattern;
+        this.supportingFilesPattern = supportingFilesPattern;
+        this.jmeterCommand = jmeterCommand;
+        this.jmeterArgs = jmeterArgs;
+        this.threadsProperty = threadsProperty;
+        this.totalThreads = totalThreads;
+        this.startDelay = startDelay;
+    }
+
+    @Override
+    public void run(final AbstractBuild<?, ?> build, final Launcher launcher, final BuildListener listener) throws IOException, InterruptedException {
+        if (disabled) {
+            listener.getLogger().println("[WARNING] Ignore disabled task: " + this.toString());
+            return;
+        }
+        final EnvVars env = build.getEnvironment(listener);
+        final String resultDir = this.getBaseDirectory() == null || this.getBaseDirectory().isEmpty() ? "." : this.getBaseDirectory();
+        final String jmeterLogDir = logDirectory == null || logDirectory.isEmpty() ? resultDir : logDirectory;
+        FilePath workspace = build.getWorkspace();
+
+        List<Node> agents = getAgents(env.expand(agentLabel));
+        FilePath[] plans = workspace.list(env.expand(jmxIncludingPattern), env.expand(jmxExcludingPattern));
+        if (plans.length == 0) {
+            listener.getLogger().println("WARNING: No Jmeter test plans match '" + jmxIncludingPattern + "'.");
+            return;
+        }
+        List<String> planPaths = new ArrayList<>();
+        for (FilePath plan : plans)
+            planPaths.add(IOHelper.relativizePath(workspace, plan));
+
+        // shard the virtual users or the plans
+        final String property = threadsProperty == null ? "" : env.expand(threadsProperty).trim();
+        List<Shard> shards = new ArrayList<>();
+        for (int i = 0; i < agents.size(); ++i) {
+            Shard shard = new Shard(agents.get(i));
+            if (!property.isEmpty()) {
+                shard.threads = totalThreads / agents.size() + (i < totalThreads % agents.size() ? 1 : 0);
+                if (shard.threads > 0)
+                    shard.plans.addAll(planPaths);
+            } else {
+                for (int j = i; j < planPaths.size(); j += agents.size())
+                    shard.plans.add(planPaths.get(j));
+            }
+            if (!shard.plans.isEmpty())
+                shards.add(shard);
+        }
+
+        // copy the plans to the agents and measure their clocks
+        String includes = env.expand(jmxIncludingPattern);
+        if (supportingFilesPattern != null && !supportingFilesPattern.trim().isEmpty())
+            includes += "," + env.expand(supportingFilesPattern);
+        String dirName = build.getProject().getFullName().replaceAll("[^\\w.-]", "_") + "-" + build.number;
+        FilePath partsDir = workspace.child(jmeterLogDir).child("distributed");
+        try {
+            for (Shard shard : shards) {
+                shard.dir = shard.node.getRootPath().child(AGENT_DIR).child(dirName);
+                shard.dir.deleteRecursive();
+                shard.dir.mkdirs();
+                workspace.copyRecursiveTo(includes, env.expand(jmxExcludingPattern), shard.dir);
+                shard.clockOffset = measureClockOffset(shard.channel);
+                listener.getLogger().println("INFO: Agent '" + shard.name + "' is ready to run " + shard.plans.size() + " test plans"
+                        + (property.isEmpty() ? "" : " with " + shard.threads + " virtual users")
+                        + ", its clock is off by " + shard.clockOffset + " ms.");
+            }
+
+            // start all agents at the same time
+            long startAt = System.currentTimeMillis() + startDelay * 1000L;
+            listener.getLogger().println("INFO: Starting distributed Jmeter test on " + shards.size() + " agents at "
+                    + new Date(startAt) + ".");
+            List<Future<Integer>> futures = new ArrayList<>();
+            try {
+                for (Shard shard : shards) {
+                    futures.add(shard.channel.callAsync(createShardCallable(shard, startAt + shard.clockOffset,
+                            property, env, listener)));
+                }
+                for (int i = 0; i < shards.size(); ++i) {
+                    int exitCode;
+                    try {
+                        exitCode = futures.get(i).get();
+                    } catch (ExecutionException e) {
+                        throw new IOException("Distributed Jmeter test failed on agent '" + shards.get(i).name + "'.", e.getCause());
+                    }
+                    if (exitCode != 0)
+                        listener.getLogger().println("WARNING: Jmeter exited with code " + exitCode + " on agent '" + shards.get(i).name + "'.");
+                }
+            } finally {
+                for (Future<Integer> future : futures)
+                    future.cancel(true);
+            }
+        } finally {
+            // collect the results and logs of every agent, also those of a failed or interrupted test, and clean up
+            for (Shard shard : shards) {
+                if (shard.dir != null)
+                    collectShard(shard, partsDir.child(shard.name), listener);
+            }
+        }
+
+        // merge the results
+        final Map<String, Long> clockOffsets = new LinkedHashMap<>();
+        for (Shard shard : shards)
+            clockOffsets.put(shard.name, shard.clockOffset);
+        final Set<String> planNames = new TreeSet<>();
+        for (FilePath plan : plans)
+            planNames.add(plan.getBaseName());
+        final String partsDirPath = partsDir.getRemote();
+        final String targetDirPath = workspace.child(resultDir).getRemote();
+        workspace.act(new Callable<Object, IOException>() {
+            @Override
+            public void checkRoles(RoleChecker checker) throws SecurityException {
+            }
+
+            @Override
+            public Object call() throws IOException {
+                for (String planName : planNames) {
+                    List<File> parts = new ArrayList<>();
+                    List<Long> offsets = new ArrayList<>();
+                    for (Map.Entry<String, Long> agent : clockOffsets.entrySet()) {
+                        File part = new File(new File(partsDirPath, agent.getKey()), planName + ".jtl");
+                        if (part.isFile()) {
+                            parts.add(part);
+                            offsets.add(agent.getValue());
+                        }
+                    }
+                    long[] offsetArray = new long[offsets.size()];
+                    for (int i = 0; i < offsetArray.length; ++i)
+                        offsetArray[i] = offsets.get(i);
+                    long samples = JtlMerger.merge(parts, offsetArray, new File(targetDirPath, planName + ".jtl"));
+                    listener.getLogger().println("INFO: Merged " + samples + " samples of test plan '" + planName
+                            + "' from " + parts.size() + " agents.");
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Copies the results and logs of a shard into the workspace and deletes its directory on the agent.
+     * Failures are only printed, so that the other shards are still collected.
+     */
+    private static void collectShard(Shard shard, FilePath target, BuildListener listener) {
+        boolean interrupted = false;
+        try {
+            if (shard.dir.child(RESULTS_DIR).exists())
+                shard.dir.child(RESULTS_DIR).copyRecursiveTo("**/*", target);
+            if (shard.dir.child(LOGS_DIR).exists())
+                shard.dir.child(LOGS_DIR).copyRecursiveTo("**/*", target);
+        } catch (IOException | InterruptedException e) {
+            interrupted = e instanceof InterruptedException;
+            listener.getLogger().println("WARNING: Couldn't collect the results of agent '" + shard.name + "': " + e);
+        }
+        try {
+            shard.dir.deleteRecursive();
+        } catch (IOException | InterruptedException e) {
+            interrupted |= e instanceof InterruptedException;
+            listener.getLogger().println("WARNING: Couldn't delete '" + shard.dir.getRemote() + "' on agent '" + shard.name + "': " + e);
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private static List<Node> getAgents(String labelExpression) throws IOException {
+        Label label = Jenkins.getInstance().getLabel(labelExpression);
+        List<Node> agents = new ArrayList<>();
+        if (label != null) {
+            for (Node node : label.getNodes()) {
+                Computer computer = node.toComputer();
+                if (computer != null && computer.isOnline() && computer.getChannel() != null)
+                    agents.add(node);
+            }
+        }
+        if (agents.isEmpty())
+            throw new IOException("No online agents match label '" + labelExpression + "'.");
+        return agents;
+    }
+
+    /**
+     * @return how many milliseconds the clock of the agent is ahead of the controller, measured with the shortest of
+     * a few round trips
+     */
+    private static long measureClockOffset(VirtualChannel channel) throws IOException, InterruptedException {
+        long bestRoundTrip = Long.MAX_VALUE;
+        long offset = 0;
+        for (int i = 0; i < 5; ++i) {
+            long sent = System.currentTimeMillis();
+            long agentTime = channel.call(new Callable<Long, IOException>() {
+                @Override
+                public void checkRoles(RoleChecker checker) throws SecurityException {
+                }
+
+                @Override
+                public Long call() throws IOException {
+                    return System.currentTimeMillis();
+                }
+            });
+            long received = System.currentTimeMillis();
+            if (received - sent < bestRoundTrip) {
+                bestRoundTrip = received - sent;
+                offset = agentTime - (sent + received) / 2;
+            }
+        }
+        return offset;
+    }
+
+    private Callable<Integer, IOException> createShardCallable(Shard shard, final long startAt, final String property,
+                                                               final EnvVars env, final BuildListener listener) {
+        final String dir = shard.dir.getRemote();
+        final List<String> plans = shard.plans;
+        final int threads = shard.threads;
+        final String prefix = "[" + shard.name + "] ";
+        // Jmeter runs in the directory of the shard on the agent instead of the workspace
+        final EnvVars shardEnv = new EnvVars(env);
+        shardEnv.put("WORKSPACE", dir);
+        shardEnv.put("PERFCI_WORKING_DIR", ".");
+        final String command = shardEnv.expand(jmeterCommand);
+        final String args = shardEnv.expand(jmeterArgs);
+        return new Callable<Integer, IOException>() {
+            @Override
+            public void checkRoles(RoleChecker checker) throws SecurityException {
+            }
+
+            @Override
+            public Integer call() throws IOException {
+                File workDir = new File(dir);
+                File resultsDir = new File(workDir, RESULTS_DIR);
+                File logsDir = new File(workDir, LOGS_DIR);
+                resultsDir.mkdirs();
+                logsDir.mkdirs();
+                int worstExitCode = 0;
+                try {
+                    long wait = startAt - System.currentTimeMillis();
+                    if (wait > 0)
+                        Thread.sleep(wait);
+                    else
+                        listener.getLogger().println(prefix + "WARNING: Started " + -wait + " ms late.");
+                    for (String plan : plans) {
+                        String baseName = new File(plan).getName().replaceFirst("\\.[^.]*$", "");
+                        List<String> cmdArgs = new LinkedList<String>();
+                        cmdArgs.addAll(Arrays.asList(Commandline.translateCommandline(command)));
+                        cmdArgs.addAll(Arrays.asList(Commandline.translateCommandline(args)));
+                        cmdArgs.addAll(Arrays.asList(JTL_FORMAT_ARGS));
+                        if (!property.isEmpty())
+                            cmdArgs.add("-J" + property + "=" + threads);
+                        cmdArgs.add("-n");
+                        cmdArgs.add("-t");
+                        cmdArgs.add(plan);
+                        cmdArgs.add("-l");
+                        cmdArgs.add(RESULTS_DIR + File.separator + baseName + ".jtl");
+                        cmdArgs.add("-j");
+                        cmdArgs.add(LOGS_DIR + File.separator + "jmeter-" + baseName + ".log");
+                        listener.getLogger().println(prefix + "INFO: Launch Jmeter by executing`" + cmdArgs + "`...");
+                        ProcessBuilder jmeterProcessBuilder = new ProcessBuilder(cmdArgs);
+                        jmeterProcessBuilder.directory(workDir);
+                        jmeterProcessBuilder.environment().putAll(shardEnv);
+                        jmeterProcessBuilder.redirectErrorStream(true);
+                        final Process jmeter = jmeterProcessBuilder.start();
+                        Thread outputReader = new Thread("Jmeter output of " + plan) {
+                            @Override
+                            public void run() {
+                                try (BufferedReader reader = new BufferedReader(new InputStreamReader(jmeter.getInputStream()))) {
+                                    String line;
+                                    while ((line = reader.readLine()) != null)
+                                        listener.getLogger().println(prefix + line);
+                                } catch (IOException ex) {
+                                    listener.getLogger().println(prefix + "WARNING: Couldn't read Jmeter output: " + ex);
+                                }
+                            }
+                        };
+                        outputReader.setDaemon(true);
+                        outputReader.start();
+                        try {
+                            int exitCode = jmeter.waitFor();
+                            outputReader.join();
+                            if (exitCode != 0 && worstExitCode == 0)
+                                worstExitCode = exitCode;
+                        } catch (InterruptedException ex) {
+                            jmeter.destroy();
+                            throw ex;
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    listener.getLogger().println(prefix + "WARNING: Distributed Jmeter test was stopped.");
+                    throw new IOException(ex);
+                }
+                return worstExitCode;
+            }
+        };
+    }
+
+    private static class Shard {
+        final Node node;
+        final String name;
+        final VirtualChannel channel;
+        final List<String> plans = new ArrayList<>();
+        int threads;
+        FilePath dir;
+        long clockOffset;
+
+        Shard(Node node) {
+            this.node = node;
+            this.name = node.getNodeName() == null || node.getNodeName().isEmpty() ? "master" : node.getNodeName();
+            this.channel = node.toComputer().getChannel();
+        }
+    }
+
+    public boolean isDisabled() {
+        return disabled;
+    }
+
+    public void setDisabled(boolean disabled) {
+        this.disabled = disabled;
+    }
+
+    public String getAgentLabel() {
+        return agentLabel;
+    }
+
+    public void setAgentLabel(String agentLabel) {
+        this.agentLabel = agentLabel;
+    }
+
+    public String getJmxIncludingPattern() {
+        return jmxIncludingPattern;
+    }
+
+    public void setJmxIncludingPattern(String jmxIncludingPattern) {
+        this.jmxIncludingPattern = jmxIncludingPattern;
+    }
+
+    public String getJmxExcludingPattern() {
+        return jmxExcludingPattern;
+    }
+
+    public void setJmxExcludingPattern(String jmxExcludingPattern) {
+        this.jmxExcludingPattern = jmxExcludingPattern;
+    }
+
+    public String getSupportingFilesPattern() {
+        return supportingFilesPattern;
+    }
+
+    public void setSupportingFilesPattern(String supportingFilesPattern) {
+        this.supportingFilesPattern = supportingFilesPattern;
+    }
+
+    public String getJmeterCommand() {
+        return jmeterCommand;
+    }
+
+    public void setJmeterCommand(String jmeterCommand) {
+        this.jmeterCommand = jmeterCommand;
+    }
+
+    public String getJmeterArgs() {
+        return jmeterArgs;
+    }
+
+    public void setJmeterArgs(String jmeterArgs) {
+        this.jmeterArgs = jmeterArgs;
+    }
+
+    public String getThreadsProperty() {
+        return threadsProperty;
+    }
+
+    public void setThreadsProperty(String threadsProperty) {
+        this.threadsProperty = threadsProperty;
+    }
+
+    public int getTotalThreads() {
+        return totalThreads;
+    }
+
+    public void setTotalThreads(int totalThreads) {
+        this.totalThreads = totalThreads;
+    }
+
+    public int getStartDelay() {
+        return startDelay;
+    }
+
+    public void setStartDelay(int startDelay) {
+        this.startDelay = startDelay;
+    }
+
+    @Override
+    public String getLogDirectory() {
+        return logDirectory;
+    }
+
+    @Override
+    public void setLogDirectory(String logDirectory) {
+        this.logDirectory = logDirectory;
+    }
+
+    @Override
+    public String getBaseDirectory() {
+        return baseDirectory;
+    }
+
+    @Override
+    public void setBaseDirectory(String baseDirectory) {
+        this.baseDirectory = baseDirectory;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().toString()
+                + " - Distributed Apache Jmeter Performance test task (agents=" + agentLabel
+                + ", command=" + jmeterCommand
+                + ", args=" + jmeterArgs
+                + ", +files=" + jmxIncludingPattern
+                + ", -files=" + jmxExcludingPattern
+                + ", resultDir=" + getBaseDirectory() + ")";
+    }
+
+    @Extension
+    public static class DescriptorImpl extends PerformanceTester.PerformanceTesterDescriptor {
+        @Override
+        public String getDisplayName() {
+            return "Apache Jmeter (distributed)";
+        }
+
+        public FormValidation doCheckAgentLabel(@QueryParameter String agentLabel) {
+            if (agentLabel == null || agentLabel.trim().isEmpty())
+                return FormValidation.error("This blank is required.");
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckJmxIncludingPattern(@QueryParameter String jmxIncludingPattern) {
+            if (jmxIncludingPattern == null || jmxIncludingPattern.isEmpty()) {
+                return FormValidation.error("This blank is required. Maybe you can simply use `**/*.jmx`.");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckJmeterCommand(@QueryParameter String jmeterCommand) {
+            if (jmeterCommand == null || jmeterCommand.trim().isEmpty()) {
+                return FormValidation.error("This blank is required, otherwise Jmeter cannot start.");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckTotalThreads(@QueryParameter String totalThreads, @QueryParameter String threadsProperty) {
+            if (threadsProperty == null || threadsProperty.trim().isEmpty())
+                return FormValidation.ok();
+            try {
+                if (Integer.parseInt(totalThreads.trim()) <= 0)
+                    return FormValidation.error("Must be a positive number when virtual users are sharded.");
+            } catch (NumberFormatException ex) {
+                return FormValidation.error("Must be a whole number.");
+            }
+            return FormValidation.ok();
+        }
+    }
+}
@@ -6,11 +6,18 @@ import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
+import hudson.model.Result;
 import hudson.remoting.Callable;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.FormValidation;
+import hudson.util.NamingThreadFactory;
 import org.apache.tools.ant.types.Commandline;
+import org.jenkinsci.plugins.perfci.action.LivePerformanceAction;
 import org.jenkinsci.plugins.perfci.common.BaseDirectoryRelocatable;
 import org.jenkinsci.plugins.perfci.common.LogDirectoryRelocatable;
+import org.jenkinsci.plugins.perfci.jtl.LiveJtlMonitor;
+import org.jenkinsci.plugins.perfci.stats.LiveStats;
+import org.jenkinsci.plugins.perfci.stats.SlaRule;
 import org.jenkinsci.remoting.RoleChecker;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
@@ -19,13 +26,26 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Created by vfreex on 11/23/15.
  */
 public class JmeterPerformanceTester extends PerformanceTester implements LogDirectoryRelocatable, BaseDirectoryRelocatable {
+    private static final Logger LOGGER = Logger.getLogger(JmeterPerformanceTester.class.getName());
+    /**
+     * created in the result directory when the test must stop, see {@link LiveJtlMonitor}
+     */
+    private static final String ABORT_FILE = ".perfci-abort";
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 60 * 1000;
     private String logDirectory;
     private String baseDirectory;
     private boolean disabled;
@@ -37,15 +57,33 @@ public class JmeterPerformanceTester extends PerformanceTester implements LogDir
     private String jmxExcludingPattern;
     private String jmeterCommand;
     private String jmeterArgs;
+    /**
+     * number of test plans run at a time, plans run one after another if it is less than 2
+     */
+    private int parallelPlans;
+    private boolean failFast;
+    /**
+     * the test is stopped when its error percentage or 99th percentile response time in milliseconds stays above
+     * these limits for {@link #abortWindowSeconds}, 0 means no limit
+     */
+    private double abortErrorRate;
+    private long abortLatency;
+    private int abortWindowSeconds;
 
     @DataBoundConstructor
-    public JmeterPerformanceTester(boolean disabled, boolean noAutoJTL, String jmxIncludingPattern, String jmxExcludingPattern, String jmeterCommand, String jmeterArgs) {
+    public JmeterPerformanceTester(boolean disabled, boolean noAutoJTL, String jmxIncludingPattern, String jmxExcludingPattern, String jmeterCommand, String jmeterArgs, int parallelPlans, boolean failFast,
+                                   double abortErrorRate, long abortLatency, int abortWindowSeconds) {
         this.disabled = disabled;
         this.noAutoJTL = noAutoJTL;
         this.jmxIncludingPattern = jmxIncludingPattern;
         this.jmxExcludingPattern = jmxExcludingPattern;
         this.jmeterCommand = jmeterCommand;
         this.jmeterArgs = jmeterArgs;
+        this.parallelPlans = parallelPlans;
+        this.failFast = failFast;
+        this.abortErrorRate = abortErrorRate;
+        this.abortLatency = abortLatency;
+        this.abortWindowSeconds = abortWindowSeconds;
     }
 
     public void run(final AbstractBuild<?, ?> build, final Launcher launcher, final BuildListener listener) throws IOException, InterruptedException {
@@ -65,69 +103,246 @@ public class JmeterPerformanceTester extends PerformanceTester implements LogDir
 
         env.put("PERFCI_WORKING_DIR", new File(workspaceDirFullPath).toPath().relativize(new File(workspaceDirFullPath, resultDir).toPath()).toString());
 
-        for (final FilePath file : build.getWorkspace().list(env.expand(jmxIncludingPattern), env.expand(jmxExcludingPattern))) {
-            launcher.getChannel().call(new Callable<Object, IOException>() {
-                @Override
-                public void checkRoles(RoleChecker checker) throws SecurityException {
-                }
+        FilePath[] plans = build.getWorkspace().list(env.expand(jmxIncludingPattern), env.expand(jmxExcludingPattern));
+        SlaRule slaRule = new SlaRule(abortErrorRate, abortLatency, abortWindowSeconds);
+        FilePath abortFile = build.getWorkspace().child(resultDir).child(ABORT_FILE);
+        abortFile.delete();
+        LiveJtlMonitor liveMonitor = startLiveMonitor(build, plans, resultDir, slaRule, abortFile, listener);
+        try {
+            if (parallelPlans > 1 && plans.length > 1) {
+                runInParallel(plans, env, resultDir, jmeterLogDir, workspaceDirFullPath, dateFormatForLogName, launcher, listener);
+                return;
+            }
+            for (final FilePath file : plans) {
+                if (liveMonitor.getBreach() != null)
+                    break;
+                int exitCode = launcher.getChannel().call(createPlanCallable(file, env, resultDir, jmeterLogDir,
+                        workspaceDirFullPath, dateFormatForLogName, listener, null));
+                checkExitCode(file, exitCode, listener);
+            }
+        } finally {
+            liveMonitor.stop();
+            if (liveMonitor.getBreach() != null) {
+                listener.getLogger().println("ERROR: Jmeter test was stopped early because the SLA was breached: "
+                        + liveMonitor.getBreach() + ". Marking the build as unstable.");
+                build.setResult(Result.UNSTABLE);
+            }
+        }
+    }
+
+    /**
+     * Follows the JTL files of the plans while they run, so their statistics can be seen in {@link LivePerformanceAction}
+     * and in the console before the test ends.
+     */
+    private LiveJtlMonitor startLiveMonitor(AbstractBuild<?, ?> build, FilePath[] plans, String resultDir, SlaRule slaRule,
+                                            FilePath abortFile, BuildListener listener) {
+        LivePerformanceAction action = build.getAction(LivePerformanceAction.class);
+        if (action == null || action.getStats() == null) {
+            action = new LivePerformanceAction(build, new LiveStats(slaRule.getWindowSeconds()));
+            build.addAction(action);
+        }
+        String includes;
+        if (noAutoJTL) {
+            includes = "**/*.jtl";
+        } else {
+            StringBuilder jtlFiles = new StringBuilder();
+            for (FilePath plan : plans) {
+                if (jtlFiles.length() > 0)
+                    jtlFiles.append(',');
+                jtlFiles.append(plan.getBaseName()).append(".jtl");
+            }
+            includes = jtlFiles.toString();
+        }
+        LiveJtlMonitor monitor = new LiveJtlMonitor(build.getWorkspace().child(resultDir), includes, action.getStats(), listener.getLogger());
+        if (slaRule.isEnabled()) {
+            monitor.setSlaRule(slaRule, abortFile);
+            listener.getLogger().println("INFO: Jmeter will be stopped if the error rate stays above " + abortErrorRate
+                    + "% or the 99th percentile response time above " + abortLatency + " ms for " + slaRule.getWindowSeconds()
+                    + " seconds (0 = no limit).");
+        }
+        monitor.start();
+        return monitor;
+    }
 
-                @Override
-                public Object call() throws IOException {
-                    // absolute path for each matched file
-                    String fileFullPath = file.getRemote();
-                    // get relative path to workspace
-                    //String fileRelativePath = new File(workspaceDirFullPath).toPath().relativize(new File(fileFullPath).toPath()).toString();
-                    File resultDirObj = new File(workspaceDirFullPath, resultDir);
-                    if (resultDirObj.mkdirs())
-                        listener.getLogger().println("INFO: Create directory '" + resultDirObj.getAbsolutePath() + "'.");
-                    File logFileDirObj = new File(workspaceDirFullPath, jmeterLogDir);
-                    if (logFileDirObj.mkdirs())
-                        listener.getLogger().println("INFO: Create directory '" + logFileDirObj.getAbsolutePath() + "'.");
-                    final String logFileName = jmeterLogDir + File.separator + "jmeter-" + file.getBaseName() + "-" + dateFormatForLogName.format(new Date()) + ".log";
-                    File logFile = new File(workspaceDirFullPath, logFileName);
-                    if (logFile.createNewFile())
-                        listener.getLogger().println("INFO: Create log file '" + logFile.getAbsolutePath() + "'.");
-
-                    // construct command line arguments for a Jmeter execution
-                    final List<String> cmdArgs = new LinkedList<String>();
-                    cmdArgs.addAll(Arrays.asList(Commandline.translateCommandline(env.expand(jmeterCommand))));
-                    cmdArgs.addAll(Arrays.asList(Commandline.translateCommandline(env.expand(jmeterArgs))));
-                    cmdArgs.add("-n");
-                    cmdArgs.add("-t");
-                    //cmdArgs.add(fileRelativePath);
-                    cmdArgs.add(resultDirObj.toPath().relativize(new File(fileFullPath).toPath()).toString());
-                    if (!noAutoJTL) {
-                        String resultFileName = resultDir + File.separator + file.getBaseName() + ".jtl";
-                        cmdArgs.add("-l");
-                        //cmdArgs.add(resultFileName);
-                        cmdArgs.add(resultDirObj.toPath().relativize(new File(workspaceDirFullPath, resultFileName).toPath()).toString());
+    /**
+     * Runs up to {@link #parallelPlans} test plans at a time. Each plan is a separate call over the remoting channel,
+     * so the plans run concurrently on the agent while the console lines of each plan are prefixed by its name.
+     */
+    private void runInParallel(FilePath[] plans, EnvVars env, String resultDir, String jmeterLogDir, String workspaceDirFullPath,
+                               SimpleDateFormat dateFormatForLogName, final Launcher launcher, final BuildListener listener)
+            throws IOException, InterruptedException {
+        listener.getLogger().println("INFO: Running " + plans.length + " Jmeter test plans, " + parallelPlans + " at a time"
+                + (failFast ? ", stopping all of them when one fails." : "."));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelPlans, plans.length),
+                new NamingThreadFactory(new DaemonThreadFactory(), "perfci jmeter"));
+        CompletionService<FilePath> completionService = new ExecutorCompletionService<>(executor);
+        final Map<Future<FilePath>, FilePath> futures = new HashMap<>();
+        try {
+            for (final FilePath file : plans) {
+                final Callable<Integer, IOException> callable = createPlanCallable(file, env, resultDir, jmeterLogDir,
+                        workspaceDirFullPath, dateFormatForLogName, listener, "[" + file.getBaseName() + "] ");
+                futures.put(completionService.submit(new java.util.concurrent.Callable<FilePath>() {
+                    @Override
+                    public FilePath call() throws Exception {
+                        checkExitCode(file, launcher.getChannel().call(callable), listener);
+                        return file;
                     }
-                    cmdArgs.add("-j");
-                    //cmdArgs.add(logFileName);
-                    cmdArgs.add(resultDirObj.toPath().relativize(logFile.toPath()).toString());
-
-                    listener.getLogger().printf("INFO: Launch Jmeter by executing`" + cmdArgs + "`...\n");
-                    ProcessBuilder jmeterProcessBuilder = new ProcessBuilder(cmdArgs);
-                    jmeterProcessBuilder.directory(resultDirObj);
-                    jmeterProcessBuilder.environment().putAll(env);
-                    jmeterProcessBuilder.redirectError(jmeterProcessBuilder.redirectOutput());
-                    Process jmeter = jmeterProcessBuilder.start();
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(jmeter.getInputStream()));
-                    String line;
-                    while ((line = reader.readLine()) != null)
-                        listener.getLogger().println(line);
-                    try {
-                        jmeter.waitFor();
-                    } catch (InterruptedException ex) {
-                        throw new IOException(ex);
+                }), file);
+            }
+            IOException failure = null;
+            for (int i = 0; i < plans.length; ++i) {
+                Future<FilePath> future = completionService.take();
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    listener.getLogger().println("ERROR: Jmeter test plan '" + futures.get(future).getName() + "' failed: " + cause);
+                    if (failure == null)
+                        failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                    else
+                        failure.addSuppressed(cause);
+                    if (failFast) {
+                        listener.getLogger().println("INFO: Stopping the other Jmeter test plans (fail-fast).");
+                        break;
                     }
-                    reader.close();
-                    return null;
                 }
-            });
+            }
+            if (failure != null)
+                throw failure;
+        } finally {
+            // interrupting a call also interrupts the plan on the agent, which destroys its Jmeter process
+            executor.shutdownNow();
         }
     }
 
+    /**
+     * Sends a command to the UDP port which Jmeter in non-GUI mode listens on, as Jmeter's shutdown.sh does.
+     */
+    private static void sendShutdownCommand(int port, String command) {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            byte[] data = command.getBytes(StandardCharsets.US_ASCII);
+            socket.send(new DatagramPacket(data, data.length, InetAddress.getLoopbackAddress(), port));
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Couldn't send " + command + " to Jmeter on port " + port, ex);
+        }
+    }
+
+    private void checkExitCode(FilePath file, int exitCode, BuildListener listener) throws IOException {
+        if (exitCode == 0)
+            return;
+        String message = "Jmeter exited with code " + exitCode + " when running '" + file.getName() + "'.";
+        if (failFast)
+            throw new IOException(message);
+        listener.getLogger().println("WARNING: " + message);
+    }
+
+    private Callable<Integer, IOException> createPlanCallable(final FilePath file, final EnvVars env, final String resultDir,
+                                                              final String jmeterLogDir, final String workspaceDirFullPath,
+                                                              final SimpleDateFormat dateFormatForLogName,
+                                                              final BuildListener listener, final String outputPrefix) {
+        return new Callable<Integer, IOException>() {
+            @Override
+            public void checkRoles(RoleChecker checker) throws SecurityException {
+            }
+
+            @Override
+            public Integer call() throws IOException {
+                // absolute path for each matched file
+                String fileFullPath = file.getRemote();
+                // get relative path to workspace
+                //String fileRelativePath = new File(workspaceDirFullPath).toPath().relativize(new File(fileFullPath).toPath()).toString();
+                File resultDirObj = new File(workspaceDirFullPath, resultDir);
+                if (resultDirObj.mkdirs())
+                    listener.getLogger().println("INFO: Create directory '" + resultDirObj.getAbsolutePath() + "'.");
+                File logFileDirObj = new File(workspaceDirFullPath, jmeterLogDir);
+                if (logFileDirObj.mkdirs())
+                    listener.getLogger().println("INFO: Create directory '" + logFileDirObj.getAbsolutePath() + "'.");
+                File abortFile = new File(resultDirObj, ABORT_FILE);
+                if (abortFile.exists()) {
+                    listener.getLogger().println("WARNING: Skip Jmeter test plan '" + file.getName() + "' because the test has been stopped.");
+                    return 0;
+                }
+                final String logFileName;
+                synchronized (dateFormatForLogName) {
+                    logFileName = jmeterLogDir + File.separator + "jmeter-" + file.getBaseName() + "-" + dateFormatForLogName.format(new Date()) + ".log";
+                }
+                File logFile = new File(workspaceDirFullPath, logFileName);
+                if (logFile.createNewFile())
+                    listener.getLogger().println("INFO: Create log file '" + logFile.getAbsolutePath() + "'.");
+
+                // construct command line arguments for a Jmeter execution
+                final List<String> cmdArgs = new LinkedList<String>();
+                cmdArgs.addAll(Arrays.asList(Commandline.translateCommandline(env.expand(jmeterCommand))));
+                cmdArgs.addAll(Arrays.asList(Commandline.translateCommandline(env.expand(jmeterArgs))));
+                cmdArgs.add("-n");
+                cmdArgs.add("-t");
+                //cmdArgs.add(fileRelativePath);
+                cmdArgs.add(resultDirObj.toPath().relativize(new File(fileFullPath).toPath()).toString());
+                if (!noAutoJTL) {
+                    String resultFileName = resultDir + File.separator + file.getBaseName() + ".jtl";
+                    cmdArgs.add("-l");
+                    //cmdArgs.add(resultFileName);
+                    cmdArgs.add(resultDirObj.toPath().relativize(new File(workspaceDirFullPath, resultFileName).toPath()).toString());
+                }
+                cmdArgs.add("-j");
+                //cmdArgs.add(logFileName);
+                cmdArgs.add(resultDirObj.toPath().relativize(logFile.toPath()).toString());
+                // a port of its own, so this Jmeter can be asked to shut down even when plans run in parallel
+                int shutdownPort;
+                try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+                    shutdownPort = socket.getLocalPort();
+                }
+                cmdArgs.add("-Jjmeterengine.nongui.port=" + shutdownPort);
+                cmdArgs.add("-Jjmeterengine.nongui.maxport=" + shutdownPort);
+
+                listener.getLogger().printf("INFO: Launch Jmeter by executing`" + cmdArgs + "`...\n");
+                ProcessBuilder jmeterProcessBuilder = new ProcessBuilder(cmdArgs);
+                jmeterProcessBuilder.directory(resultDirObj);
+                jmeterProcessBuilder.environment().putAll(env);
+                jmeterProcessBuilder.redirectError(jmeterProcessBuilder.redirectOutput());
+                final Process jmeter = jmeterProcessBuilder.start();
+                // read the output in another thread, so this one can be interrupted to stop Jmeter
+                Thread outputReader = new Thread("Jmeter output of " + file.getName()) {
+                    @Override
+                    public void run() {
+                        try (BufferedReader reader = new BufferedReader(new InputStreamReader(jmeter.getInputStream()))) {
+                            String line;
+                            while ((line = reader.readLine()) != null)
+                                listener.getLogger().println(outputPrefix == null ? line : outputPrefix + line);
+                        } catch (IOException ex) {
+                            listener.getLogger().println("WARNING: Couldn't read Jmeter output: " + ex);
+                        }
+                    }
+                };
+                outputReader.setDaemon(true);
+                outputReader.start();
+                try {
+                    long stopRequested = 0;
+                    while (!jmeter.waitFor(1, TimeUnit.SECONDS)) {
+                        if (stopRequested == 0 && abortFile.exists()) {
+                            listener.getLogger().println("INFO: Asking Jmeter to shut down test plan '" + file.getName() + "'...");
+                            sendShutdownCommand(shutdownPort, "Shutdown");
+                            stopRequested = System.currentTimeMillis();
+                        } else if (stopRequested > 0 && System.currentTimeMillis() - stopRequested > SHUTDOWN_TIMEOUT_MILLIS) {
+                            // samplers may wait long for a dead system, stop them without waiting for them to finish
+                            listener.getLogger().println("WARNING: Jmeter doesn't shut down, stopping test plan '" + file.getName() + "' now.");
+                            sendShutdownCommand(shutdownPort, "StopTestNow");
+                            if (!jmeter.waitFor(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+                                jmeter.destroy();
+                        }
+                    }
+                    int exitCode = jmeter.exitValue();
+                    outputReader.join();
+                    return exitCode;
+                } catch (InterruptedException ex) {
+                    jmeter.destroy();
+                    listener.getLogger().println("WARNING: Jmeter test plan '" + file.getName() + "' was stopped.");
+                    throw new IOException(ex);
+                }
+            }
+        };
+    }
+
     public String getJmxIncludingPattern() {
         return jmxIncludingPattern;
     }
@@ -175,7 +390,8 @@ public class JmeterPerformanceTester extends PerformanceTester implements LogDir
                 + ", args=" + jmeterArgs
                 + ", +files=" + jmxIncludingPattern
                 + ", -files=" + jmxExcludingPattern
-                + ", resultDir=" + getBaseDirectory() + ")";
+                + ", resultDir=" + getBaseDirectory()
+                + ", parallelPlans=" + parallelPlans + ")";
     }
 
     @Override
@@ -198,6 +414,46 @@ public class JmeterPerformanceTester extends PerformanceTester implements LogDir
         this.baseDirectory = baseDirectory;
     }
 
+    public int getParallelPlans() {
+        return parallelPlans;
+    }
+
+    public void setParallelPlans(int parallelPlans) {
+        this.parallelPlans = parallelPlans;
+    }
+
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    public void setFailFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+
+    public double getAbortErrorRate() {
+        return abortErrorRate;
+    }
+
+    public void setAbortErrorRate(double abortErrorRate) {
+        this.abortErrorRate = abortErrorRate;
+    }
+
+    public long getAbortLatency() {
+        return abortLatency;
+    }
+
+    public void setAbortLatency(long abortLatency) {
+        this.abortLatency = abortLatency;
+    }
+
+    public int getAbortWindowSeconds() {
+        return abortWindowSeconds;
+    }
+
+    public void setAbortWindowSeconds(int abortWindowSeconds) {
+        this.abortWindowSeconds = abortWindowSeconds;
+    }
+
     public boolean isNoAutoJTL() {
         return noAutoJTL;
     }
@@ -245,5 +501,17 @@ public class JmeterPerformanceTester extends PerformanceTester implements LogDir
         public FormValidation doCheckJmeterArgs(@QueryParameter String jmeterArgs) {
             return FormValidation.ok();
         }
+
+        public FormValidation doCheckParallelPlans(@QueryParameter String parallelPlans) {
+            if (parallelPlans == null || parallelPlans.trim().isEmpty())
+                return FormValidation.ok();
+            try {
+                if (Integer.parseInt(parallelPlans.trim()) < 0)
+                    return FormValidation.error("Must not be negative.");
+            } catch (NumberFormatException ex) {
+                return FormValidation.error("Must be a whole number.");
+            }
+            return FormValidation.ok();
+        }
     }
 }
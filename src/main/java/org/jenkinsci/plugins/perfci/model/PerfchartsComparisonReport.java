@@ -8,12 +8,19 @@ import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.io.IOUtils;
 import org.jenkinsci.plugins.perfci.common.Constants;
-import org.jenkinsci.plugins.perfci.common.IOHelper;
+import org.jenkinsci.plugins.perfci.common.ReportCacheManager;
+import org.jenkinsci.plugins.perfci.common.ReportCompressor;
+import org.jenkinsci.plugins.perfci.common.ReportFileServer;
+import org.jenkinsci.plugins.perfci.common.ReportGenerationService;
+import org.jenkinsci.plugins.perfci.common.ReportJobs;
+import org.jenkinsci.plugins.perfci.executor.NativeBuildReportExecutor;
+import org.jenkinsci.plugins.perfci.executor.NativeComparisonReportExecutor;
 import org.jenkinsci.plugins.perfci.executor.PerfchartsNewExecutor;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
 import java.io.*;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 
 public class PerfchartsComparisonReport {
@@ -36,7 +43,35 @@ public class PerfchartsComparisonReport {
         IOUtils.write(json.toString(), response.getOutputStream());
     }
 
+    /**
+     * Generates the report, or waits for the generation already started by another request for the same builds.
+     */
     private void buildReport() throws IOException, InterruptedException {
+        File reportDir = new File(sourceBuild.getRootDir(), Constants.CMP_DIR_RELATIVE_PATH + File.separator + destBuild.number);
+        ReportGenerationService.generate(getGenerationKey(), reportDir, new ReportGenerationService.Generator() {
+                    @Override
+                    public void generate(File outputDir) throws IOException, InterruptedException {
+                        buildReport(outputDir);
+                        ReportCompressor.compress(outputDir);
+                    }
+                });
+        ReportCacheManager.register(reportDir);
+    }
+
+    private ReportJobs.Task generation() {
+        return new ReportJobs.Task() {
+            @Override
+            public void run() throws Exception {
+                buildReport();
+            }
+        };
+    }
+
+    private String getGenerationKey() {
+        return "comparison:" + sourceBuild.getExternalizableId() + ":" + destBuild.number;
+    }
+
+    private void buildReport(File reportDir) throws IOException, InterruptedException {
         String sourceBuildPath = sourceBuild.getRootDir().getAbsolutePath();
         String destBuildPath = destBuild.getRootDir().getAbsolutePath();
         // get the display name, all the report will show the display name. If it is not set, will show build_id (the default display name)
@@ -44,9 +79,7 @@ public class PerfchartsComparisonReport {
         String destDisplayName = destBuild.getDisplayName();
         System.out.println("sourceDisplayName is " + sourceDisplayName);
         System.out.println("destDisplayName is " + destDisplayName);
-        String inputPath = sourceBuildPath + File.separator +
-                Constants.CMP_DIR_RELATIVE_PATH + File.separator + destBuild.number;
-        new File(inputPath).mkdirs();
+        String inputPath = reportDir.getAbsolutePath();
         // will clean the rawdata dir first
         //IOHelpers.cleanInputPath(inputPath);
         String inputFileName = "Perf-build_" + sourceBuild.number + "_vs_"
@@ -70,6 +103,14 @@ public class PerfchartsComparisonReport {
         //PerfchartsComparisonReportExecutor cgtCmp = new PerfchartsComparisonReportExecutor("cgt-cmp", inputPath, outputPath, outputPath + File.separator + Constants.MONO_REPORT_NAME);
 
         String subtitle = String.format("(current build: %s, baseline: %s, diff = current - baseline)", sourceDisplayName, destDisplayName);
+        // compare the histograms of both builds if they have them, otherwise let Perfcharts read Performance.json
+        File sourceSummaryFile = NativeBuildReportExecutor.getSummaryFile(new File(sourceBuildPath, Constants.OUTPUT_DIR_RELATIVE_PATH));
+        File destSummaryFile = NativeBuildReportExecutor.getSummaryFile(new File(destBuildPath, Constants.OUTPUT_DIR_RELATIVE_PATH));
+        if (sourceSummaryFile.exists() && destSummaryFile.exists()) {
+            new NativeComparisonReportExecutor(sourceSummaryFile, destSummaryFile, outputPath,
+                    outputPath + File.separator + Constants.MONO_REPORT_NAME, subtitle).run();
+            return;
+        }
         PerfchartsNewExecutor perfchartsExecutor = new PerfchartsNewExecutor("perfcharts",
                 "perf-compare",
                 inputPath,
@@ -96,7 +137,7 @@ public class PerfchartsComparisonReport {
         //get the display name of build
         String sourceDisplayName = sourceBuild.getDisplayName();
         String destDisplayName = destBuild.getDisplayName();
-        String inputFileName = "build" + sourceBuild.number + "_vs_"
+        String inputFileName = "Perf-build_" + sourceBuild.number + "_vs_"
                 + destBuild.number + ".perfcmp";
         //locate the perf-build*.perfcmp
         String inputPath = sourceBuildPath + File.separator +
@@ -108,16 +149,13 @@ public class PerfchartsComparisonReport {
                 "data.js";
         File inputFile = new File(inputFilePath);
         File dataFile = new File(dataFilePath);
-        // if the *.perfcmp does not exist, will rerun buildReport()
+        // if the *.perfcmp does not exist, the report is generated again, in the background
         if (!dataFile.exists() || !inputFile.exists()) {
-            buildReport();
-        }
-        if (!dataFile.exists()) {
-            response.sendError(404);
+            ReportJobs.respondPending(request, response, getGenerationKey(), "monoReport", generation(), true);
             return;
         }
-        IOHelper.copySteam(new FileInputStream(dataFile),
-                response.getOutputStream());
+        ReportCacheManager.touch(new File(inputPath));
+        ReportFileServer.serve(request, response, dataFile, "text/javascript");
     }
 
     public void doMonoReport(StaplerRequest request, StaplerResponse response)
@@ -133,16 +171,12 @@ public class PerfchartsComparisonReport {
         String monoReportFilePath = outputPath + File.separator +
                 Constants.MONO_REPORT_NAME;
         if (!new File(monoReportFilePath).exists()) {
-            buildReport();
-        }
-        // still not found
-        if (!new File(monoReportFilePath).exists()) {
-            LOGGER.warning("Mono report file ` " + monoReportFilePath + " ` doesn't exist.");
-            response.sendError(404);
+            LOGGER.fine("Mono report file ` " + monoReportFilePath + " ` doesn't exist, generating it.");
+            ReportJobs.respondPending(request, response, getGenerationKey(), "monoReport", generation(), false);
             return;
         }
-        IOHelper.copySteam(new FileInputStream(monoReportFilePath),
-                response.getOutputStream());
+        ReportCacheManager.touch(new File(inputPath));
+        ReportFileServer.serve(request, response, new File(monoReportFilePath), "text/html");
     }
 
     public void doGenerate(StaplerRequest request, StaplerResponse response)
@@ -150,19 +184,25 @@ public class PerfchartsComparisonReport {
         JSONObject result = new JSONObject();
         response.setContentType("text/json");
         try {
-            buildReport();
-        } catch (Exception e) {
+            ReportJobs.Job job = ReportJobs.submit(getGenerationKey(), "monoReport", generation());
+            result.put("jobId", job.getId());
+        } catch (RejectedExecutionException e) {
             result.put("error", 1);
-            result.put("errorMessage", "Fail to generate trend report." + e.toString());
+            result.put("errorMessage", e.getMessage());
             writeJSON(response, result);
-            e.printStackTrace();
             return;
         }
         result.put("error", 0);
-        result.put("errorMessage", "Generated.");
+        result.put("errorMessage", "Generating...");
         writeJSON(response, result);
     }
 
+    public void doJobStatus(StaplerRequest request, StaplerResponse response)
+            throws IOException {
+        response.setContentType("text/json");
+        writeJSON(response, ReportJobs.getStatus(request.getParameter("id")));
+    }
+
     public void doGetDestBuilds(StaplerRequest request, StaplerResponse response)
             throws IOException {
         response.setContentType("text/json");
@@ -3,14 +3,16 @@ package org.jenkinsci.plugins.perfci.model;
 import hudson.model.AbstractProject;
 import net.sf.json.JSONObject;
 import org.apache.commons.io.IOUtils;
-import org.jenkinsci.plugins.perfci.common.IOHelper;
+import org.jenkinsci.plugins.perfci.common.ReportCacheManager;
+import org.jenkinsci.plugins.perfci.common.ReportFileServer;
+import org.jenkinsci.plugins.perfci.common.ReportJobs;
 import org.jenkinsci.plugins.perfci.common.TrendReportManager;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 
 public class PerfchartsTrendReport {
@@ -32,59 +34,65 @@ public class PerfchartsTrendReport {
 
     public void doMonoReport(StaplerRequest request, StaplerResponse response)
             throws Exception {
-        response.setContentType("text/html");
-        //synchronized (project) {
-        String dataFile = TrendReportManager
-                .getTrendMonoReportPath(project, reportID);
-        if (!new File(dataFile).exists()) {
-            LOGGER.warning("Trend report `" + dataFile + "` does not exist.");
-            response.sendError(404);
-            return;
-        }
-        IOHelper.copySteam(new FileInputStream(dataFile),
-                response.getOutputStream());
+        serve(request, response, TrendReportManager.getTrendMonoReportPath(project, reportID), "text/html");
     }
 
     public void doTrendDataJS(StaplerRequest request, StaplerResponse response)
             throws Exception {
-        response.setContentType("text/javascript");
-        synchronized (project) {
-            String dataFile = TrendReportManager.getTrendDataJSPath(project, reportID);
-            if (!new File(dataFile).exists()) {
-                try {
-                    generate();
-                }catch (Exception ex) {
-                    response.sendError(404);
-                    return;
-                }
-            }
-            IOHelper.copySteam(new FileInputStream(dataFile),
-                    response.getOutputStream());
+        serve(request, response, TrendReportManager.getTrendDataJSPath(project, reportID), "text/javascript");
+    }
+
+    /**
+     * Serves a file of the report. If it doesn't exist, e.g. because it has been evicted by {@link ReportCacheManager},
+     * the report is generated in the background, see {@link ReportJobs#respondPending}.
+     */
+    private void serve(StaplerRequest request, StaplerResponse response, String path, String contentType)
+            throws Exception {
+        File file = new File(path);
+        if (!file.exists()) {
+            LOGGER.fine("Trend report `" + path + "` does not exist, generating it.");
+            ReportJobs.respondPending(request, response, TrendReportManager.getGenerationKey(project, reportID),
+                    "monoReport", generation(), contentType.equals("text/javascript"));
+            return;
         }
+        ReportCacheManager.touch(new File(TrendReportManager.getTrendDirPath(project, reportID)));
+        ReportFileServer.serve(request, response, file, contentType);
     }
 
-    private void generate() throws Exception  {
-        TrendReportManager.generateReport(project, urlID);
+    private ReportJobs.Task generation() {
+        return new ReportJobs.Task() {
+            @Override
+            public void run() throws Exception {
+                TrendReportManager.generateReport(project, urlID);
+            }
+        };
     }
 
     public void doRefresh(StaplerRequest request, StaplerResponse response)
             throws Exception {
-        String builds = request.getParameter("builds");
         response.setContentType("text/json");
         JSONObject result = new JSONObject();
         try {
-            generate();
-        }catch (Exception ex) {
-            ex.printStackTrace();
-            result.put("error", 1);
-            result.put("errorMessage", "Failed to generate trend report." + ex.getMessage());
+            ReportJobs.Job job = ReportJobs.submit(TrendReportManager.getGenerationKey(project, reportID), "monoReport",
+                    generation());
+            result.put("jobId", job.getId());
+        } catch (RejectedExecutionException ex) {
+            result.put("error", 3);
+            result.put("errorMessage", ex.getMessage());
             writeJSON(response, result);
+            return;
         }
         result.put("error", 0);
-        result.put("errorMessage", "Generated.");
+        result.put("errorMessage", "Generating...");
         writeJSON(response, result);
     }
 
+    public void doJobStatus(StaplerRequest request, StaplerResponse response)
+            throws IOException {
+        response.setContentType("text/json");
+        writeJSON(response, ReportJobs.getStatus(request.getParameter("id")));
+    }
+
     private static void writeJSON(StaplerResponse response, JSONObject json)
             throws IOException {
         IOUtils.write(json.toString(), response.getOutputStream());
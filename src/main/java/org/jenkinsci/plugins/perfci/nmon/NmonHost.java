@@ -0,0 +1,63 @@
+package org.jenkinsci.plugins.perfci.nmon;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The resource time series parsed from the NMON file of one host, named <code>SECTION/column</code>,
+ * e.g. <code>CPU_ALL/User%</code> or <code>NET/eth0-read-KB/s</code>.
+ */
+public class NmonHost implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final String fileName;
+    private String hostName;
+    private long snapshots;
+    private final Map<String, ResourceTimeSeries> series = new LinkedHashMap<>();
+
+    NmonHost(String fileName) {
+        this.fileName = fileName;
+    }
+
+    ResourceTimeSeries getOrCreateSeries(String name) {
+        ResourceTimeSeries s = series.get(name);
+        if (s == null)
+            series.put(name, s = new ResourceTimeSeries(name));
+        return s;
+    }
+
+    void setHostName(String hostName) {
+        this.hostName = hostName;
+    }
+
+    void addSnapshot() {
+        ++snapshots;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return the host name recorded by NMON, or the file name if there was none
+     */
+    public String getHostName() {
+        return hostName == null ? fileName : hostName;
+    }
+
+    /**
+     * @return number of ZZZZ snapshots read
+     */
+    public long getSnapshots() {
+        return snapshots;
+    }
+
+    public Collection<ResourceTimeSeries> getSeries() {
+        return series.values();
+    }
+
+    public ResourceTimeSeries getSeries(String name) {
+        return series.get(name);
+    }
+}
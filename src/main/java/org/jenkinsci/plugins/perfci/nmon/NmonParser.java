@@ -0,0 +1,235 @@
+package org.jenkinsci.plugins.perfci.nmon;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads NMON files line by line into {@link NmonHost}s, without keeping the file in memory.
+ * <p>
+ * An NMON file is a list of comma separated records. <code>ZZZZ,T0001,12:00:00,01-JAN-2016</code> starts a
+ * snapshot, and the records of each section refer to it by its tag: a section first has a header record naming its
+ * columns (<code>CPU_ALL,CPU Total host,User%,Sys%,...</code>) and then one data record per snapshot
+ * (<code>CPU_ALL,T0001,12.5,3.1,...</code>). The sections in {@link #SECTIONS} become a series per column.
+ * <code>TOP</code> has a record per process (<code>TOP,1234,T0001,25.0,...,java</code>), whose CPU usage is
+ * summed up per command; the {@value #MAX_TOP_COMMANDS} commands seen first get a series each, the others share one.
+ */
+public class NmonParser {
+    private static final Set<String> SECTIONS = new HashSet<>(Arrays.asList("CPU_ALL", "MEM", "NET", "DISKBUSY"));
+    private static final String SNAPSHOT = "ZZZZ";
+    private static final String TOP = "TOP";
+    private static final String TOP_CPU_SERIES = "TOP/%CPU/";
+    private static final String OTHER_COMMANDS = "(other)";
+    private static final int MAX_TOP_COMMANDS = 32;
+    private static final String[] MONTHS = {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+
+    private final ZoneId zone;
+    private final NmonHost host;
+    /**
+     * column names of each section whose header has been read
+     */
+    private final Map<String, ResourceTimeSeries[]> sectionColumns = new HashMap<>();
+    private int topCpuColumn = -1;
+    private int topCommandColumn = -1;
+    private final Map<String, Double> topCpuByCommand = new HashMap<>();
+    private final Set<String> topCommands = new HashSet<>();
+    private String snapshotTag;
+    private long snapshotTime = Long.MIN_VALUE;
+
+    /**
+     * @param timeZone time zone of the monitored host, in which NMON records wall-clock time
+     */
+    private NmonParser(String fileName, TimeZone timeZone) {
+        this.zone = timeZone.toZoneId();
+        this.host = new NmonHost(fileName);
+    }
+
+    public static NmonHost parse(File file, TimeZone timeZone) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return parse(file.getName(), in, timeZone);
+        }
+    }
+
+    public static NmonHost parse(String fileName, InputStream in, TimeZone timeZone) throws IOException {
+        NmonParser parser = new NmonParser(fileName, timeZone);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+        String line;
+        while ((line = reader.readLine()) != null)
+            parser.parseLine(line);
+        parser.flushTop();
+        return parser.host;
+    }
+
+    /**
+     * Parses several files, e.g. of different hosts, at the same time. Files written by {@link ProcSampleWriter}
+     * are read by {@link ProcSampleReader}.
+     * A file which can't be read is reported to <code>logger</code> and left out of the result.
+     *
+     * @param logger may be null
+     * @return the hosts in the order of <code>files</code>
+     */
+    public static List<NmonHost> parseAll(List<File> files, final TimeZone timeZone, int parallelism, PrintStream logger)
+            throws InterruptedException {
+        List<NmonHost> hosts = new ArrayList<>();
+        if (files.isEmpty())
+            return hosts;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, files.size())),
+                new NamingThreadFactory(new DaemonThreadFactory(), "perfci nmon parser"));
+        try {
+            List<Future<NmonHost>> futures = new ArrayList<>();
+            for (final File file : files) {
+                futures.add(executor.submit(new java.util.concurrent.Callable<NmonHost>() {
+                    @Override
+                    public NmonHost call() throws IOException {
+                        if (file.getName().endsWith(ProcSampleWriter.EXTENSION))
+                            return ProcSampleReader.read(file);
+                        return parse(file, timeZone);
+                    }
+                }));
+            }
+            for (int i = 0; i < files.size(); ++i) {
+                try {
+                    hosts.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    if (logger != null)
+                        logger.println("WARNING: NmonParser - Couldn't parse '" + files.get(i) + "': " + e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return hosts;
+    }
+
+    private void parseLine(String line) {
+        String[] fields = line.split(",", -1);
+        if (fields.length < 2)
+            return;
+        String section = fields[0];
+        if (SNAPSHOT.equals(section)) {
+            flushTop();
+            if (fields.length >= 4) {
+                snapshotTag = fields[1];
+                snapshotTime = parseTime(fields[2], fields[3]);
+                if (snapshotTime != Long.MIN_VALUE)
+                    host.addSnapshot();
+            }
+        } else if ("AAA".equals(section)) {
+            if (fields.length >= 3 && "host".equals(fields[1]))
+                host.setHostName(fields[2]);
+        } else if (TOP.equals(section)) {
+            parseTop(fields);
+        } else if (SECTIONS.contains(section)) {
+            if (!isTag(fields[1])) {
+                ResourceTimeSeries[] columns = new ResourceTimeSeries[fields.length - 2];
+                for (int i = 2; i < fields.length; ++i) {
+                    if (!fields[i].isEmpty())
+                        columns[i - 2] = host.getOrCreateSeries(section + "/" + fields[i]);
+                }
+                sectionColumns.put(section, columns);
+                return;
+            }
+            ResourceTimeSeries[] columns = sectionColumns.get(section);
+            if (columns == null || !isCurrentSnapshot(fields[1]))
+                return;
+            for (int i = 2; i < fields.length && i - 2 < columns.length; ++i) {
+                if (columns[i - 2] == null)
+                    continue;
+                double value = parseValue(fields[i]);
+                if (!Double.isNaN(value))
+                    columns[i - 2].add(snapshotTime, value);
+            }
+        }
+    }
+
+    private void parseTop(String[] fields) {
+        if (fields.length < 3)
+            return;
+        if (!isTag(fields[2])) {
+            // the header, e.g. TOP,+PID,Time,%CPU,%Usr,%Sys,Size,ResSet,ResText,ResData,ShdLib,MinorFault,MajorFault,Command
+            for (int i = 0; i < fields.length; ++i) {
+                if ("%CPU".equals(fields[i]))
+                    topCpuColumn = i;
+                else if ("Command".equals(fields[i]))
+                    topCommandColumn = i;
+            }
+            return;
+        }
+        if (topCpuColumn < 0 || topCommandColumn < 0 || fields.length <= Math.max(topCpuColumn, topCommandColumn)
+                || !isCurrentSnapshot(fields[2]))
+            return;
+        double cpu = parseValue(fields[topCpuColumn]);
+        if (Double.isNaN(cpu))
+            return;
+        String command = fields[topCommandColumn];
+        if (!topCommands.contains(command)) {
+            if (topCommands.size() < MAX_TOP_COMMANDS)
+                topCommands.add(command);
+            else
+                command = OTHER_COMMANDS;
+        }
+        Double sum = topCpuByCommand.get(command);
+        topCpuByCommand.put(command, sum == null ? cpu : sum + cpu);
+    }
+
+    private void flushTop() {
+        for (Map.Entry<String, Double> entry : topCpuByCommand.entrySet())
+            host.getOrCreateSeries(TOP_CPU_SERIES + entry.getKey()).add(snapshotTime, entry.getValue());
+        topCpuByCommand.clear();
+    }
+
+    private boolean isCurrentSnapshot(String tag) {
+        return snapshotTime != Long.MIN_VALUE && tag.equals(snapshotTag);
+    }
+
+    private static boolean isTag(String field) {
+        if (field.length() < 2 || field.charAt(0) != 'T')
+            return false;
+        for (int i = 1; i < field.length(); ++i) {
+            if (!Character.isDigit(field.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+    private static double parseValue(String field) {
+        if (field.isEmpty())
+            return Double.NaN;
+        try {
+            return Double.parseDouble(field);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * @param time e.g. <code>12:34:56</code>
+     * @param date e.g. <code>01-JAN-2016</code>
+     * @return milliseconds since the epoch, or {@link Long#MIN_VALUE} if malformed
+     */
+    private long parseTime(String time, String date) {
+        try {
+            String[] t = time.split(":");
+            String[] d = date.split("-");
+            if (t.length != 3 || d.length != 3)
+                return Long.MIN_VALUE;
+            int month = Arrays.asList(MONTHS).indexOf(d[1].toUpperCase(Locale.ENGLISH)) + 1;
+            if (month == 0)
+                return Long.MIN_VALUE;
+            return LocalDateTime.of(Integer.parseInt(d[2]), month, Integer.parseInt(d[0]),
+                    Integer.parseInt(t[0]), Integer.parseInt(t[1]), Integer.parseInt(t[2]))
+                    .atZone(zone).toInstant().toEpochMilli();
+        } catch (RuntimeException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.jenkinsci.plugins.perfci.nmon;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Reads a file written by {@link ProcSampleWriter} into the same series an NMON file of the host would give,
+ * so both end up in the same charts.
+ * <p>
+ * The raw metrics are named after the <code>/proc</code> file they come from:
+ * <ul>
+ * <li><code>stat/cpu/user</code>, <code>nice</code>, <code>system</code>, <code>idle</code>, <code>iowait</code>,
+ * <code>irq</code>, <code>softirq</code> and <code>steal</code> in jiffies, <code>stat/ctxt</code>,
+ * <code>stat/processes</code>, <code>stat/procs_running</code> and <code>stat/procs_blocked</code></li>
+ * <li><code>meminfo/&lt;field&gt;</code> in KB, e.g. <code>meminfo/MemFree</code></li>
+ * <li><code>diskstats/&lt;device&gt;/reads</code>, <code>readSectors</code>, <code>writes</code>,
+ * <code>writeSectors</code>, <code>inFlight</code> and <code>ioTicks</code> in milliseconds</li>
+ * <li><code>netdev/&lt;interface&gt;/rxBytes</code>, <code>rxPackets</code>, <code>rxErrors</code>,
+ * <code>txBytes</code>, <code>txPackets</code> and <code>txErrors</code></li>
+ * <li><code>loadavg/1</code>, <code>5</code> and <code>15</code> multiplied by 100, <code>loadavg/running</code>
+ * and <code>loadavg/threads</code></li>
+ * </ul>
+ * Counters become rates between consecutive samples. A file which ends in the middle of a record, because it is
+ * still being written or the sampler was killed, is read up to the last complete sample.
+ */
+public class ProcSampleReader {
+    private static final String[] CPU_FIELDS = {"user", "nice", "system", "idle", "iowait", "irq", "softirq", "steal"};
+    private static final String[][] MEM_FIELDS = {{"memtotal", "MemTotal"}, {"memfree", "MemFree"},
+            {"memavailable", "MemAvailable"}, {"cached", "Cached"}, {"buffers", "Buffers"},
+            {"swaptotal", "SwapTotal"}, {"swapfree", "SwapFree"}};
+    private static final int SECTOR_SIZE = 512;
+
+    private final DataInputStream in;
+    private final NmonHost host;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> disks = new ArrayList<>();
+    private final List<String> interfaces = new ArrayList<>();
+    private long[] values = new long[0];
+    private long[] lastValues = new long[0];
+    private long time;
+    /**
+     * time of the previous sample, {@link Long#MIN_VALUE} before the second one
+     */
+    private long lastTime = Long.MIN_VALUE;
+
+    private ProcSampleReader(String fileName, InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        this.host = new NmonHost(fileName);
+    }
+
+    public static NmonHost read(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return read(file.getName(), in);
+        }
+    }
+
+    public static NmonHost read(String fileName, InputStream in) throws IOException {
+        ProcSampleReader reader = new ProcSampleReader(fileName, in);
+        reader.readHeader();
+        try {
+            while (reader.readRecord()) {
+                // every sample is added to the host as it is read
+            }
+        } catch (EOFException ignored) {
+            // the last record is incomplete
+        }
+        return reader.host;
+    }
+
+    private void readHeader() throws IOException {
+        byte[] magic = new byte[ProcSampleWriter.MAGIC.length];
+        try {
+            in.readFully(magic);
+        } catch (EOFException e) {
+            throw new IOException("'" + host.getFileName() + "' is not a /proc sample file.");
+        }
+        if (!Arrays.equals(magic, ProcSampleWriter.MAGIC))
+            throw new IOException("'" + host.getFileName() + "' is not a /proc sample file.");
+        int version = in.read();
+        if (version != ProcSampleWriter.VERSION)
+            throw new IOException("Unsupported version " + version + " of /proc sample file '" + host.getFileName() + "'.");
+        String hostName = readString();
+        if (!hostName.isEmpty())
+            host.setHostName(hostName);
+    }
+
+    /**
+     * @return false at the end of the file
+     */
+    private boolean readRecord() throws IOException {
+        int type = in.read();
+        if (type < 0)
+            return false;
+        if (type == ProcSampleWriter.METRICS) {
+            int count = (int) readVarint();
+            List<String> metrics = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i)
+                metrics.add(readString());
+            // only define them once the record is complete
+            for (String metric : metrics)
+                define(metric);
+            return true;
+        }
+        if (type != ProcSampleWriter.SAMPLE)
+            throw new IOException("Corrupt /proc sample file '" + host.getFileName() + "', unknown record type " + type + ".");
+        long sampleTime = time + unzigzag(readVarint());
+        int count = (int) readVarint();
+        if (count > ids.size())
+            throw new IOException("Corrupt /proc sample file '" + host.getFileName() + "', undefined metrics.");
+        long[] sample = Arrays.copyOf(values, values.length);
+        for (int i = 0; i < count; ++i)
+            sample[i] += unzigzag(readVarint());
+        lastValues = values;
+        values = sample;
+        if (host.getSnapshots() > 0)
+            lastTime = time;
+        time = sampleTime;
+        host.addSnapshot();
+        addSeries();
+        return true;
+    }
+
+    private void define(String metric) {
+        int id = ids.size();
+        ids.put(metric, id);
+        values = Arrays.copyOf(values, id + 1);
+        if (metric.startsWith("diskstats/") && metric.endsWith("/ioTicks"))
+            disks.add(metric.substring("diskstats/".length(), metric.length() - "/ioTicks".length()));
+        else if (metric.startsWith("netdev/") && metric.endsWith("/rxBytes"))
+            interfaces.add(metric.substring("netdev/".length(), metric.length() - "/rxBytes".length()));
+    }
+
+    private void addSeries() {
+        double seconds = lastTime == Long.MIN_VALUE ? 0 : (time - lastTime) / 1000.0;
+        if (seconds > 0) {
+            long[] cpu = new long[CPU_FIELDS.length];
+            long total = 0;
+            for (int i = 0; i < CPU_FIELDS.length; ++i)
+                total += cpu[i] = Math.max(0, delta("stat/cpu/" + CPU_FIELDS[i]));
+            if (total > 0) {
+                add("CPU_ALL/User%", 100.0 * (cpu[0] + cpu[1]) / total);
+                add("CPU_ALL/Sys%", 100.0 * (cpu[2] + cpu[5] + cpu[6]) / total);
+                add("CPU_ALL/Wait%", 100.0 * cpu[4] / total);
+                add("CPU_ALL/Idle%", 100.0 * cpu[3] / total);
+                add("CPU_ALL/Steal%", 100.0 * cpu[7] / total);
+            }
+        }
+        for (String[] field : MEM_FIELDS) {
+            if (ids.containsKey("meminfo/" + field[1]))
+                add("MEM/" + field[0], value("meminfo/" + field[1]) / 1024.0);
+        }
+        add("PROC/Runnable", "stat/procs_running", 1);
+        add("PROC/Blocked", "stat/procs_blocked", 1);
+        add("LOAD/1min", "loadavg/1", 100);
+        add("LOAD/5min", "loadavg/5", 100);
+        add("LOAD/15min", "loadavg/15", 100);
+        if (seconds <= 0)
+            return;
+        addRate("PROC/pswitch", "stat/ctxt", 1, seconds);
+        addRate("PROC/fork", "stat/processes", 1, seconds);
+        for (String disk : disks) {
+            long busy = delta("diskstats/" + disk + "/ioTicks");
+            if (busy >= 0)
+                add("DISKBUSY/" + disk, Math.min(100.0, busy / seconds / 10));
+            addRate("DISKREAD/" + disk, "diskstats/" + disk + "/readSectors", 1024.0 / SECTOR_SIZE, seconds);
+            addRate("DISKWRITE/" + disk, "diskstats/" + disk + "/writeSectors", 1024.0 / SECTOR_SIZE, seconds);
+        }
+        for (String net : interfaces) {
+            addRate("NET/" + net + "-read-KB/s", "netdev/" + net + "/rxBytes", 1024, seconds);
+            addRate("NET/" + net + "-write-KB/s", "netdev/" + net + "/txBytes", 1024, seconds);
+        }
+    }
+
+    private void add(String series, double value) {
+        host.getOrCreateSeries(series).add(time, value);
+    }
+
+    private void add(String series, String metric, double divisor) {
+        if (ids.containsKey(metric))
+            add(series, value(metric) / divisor);
+    }
+
+    /**
+     * Adds the change of a counter per second, unless the counter has been reset.
+     */
+    private void addRate(String series, String metric, double divisor, double seconds) {
+        long delta = delta(metric);
+        if (delta >= 0)
+            add(series, delta / divisor / seconds);
+    }
+
+    private long value(String metric) {
+        return values[ids.get(metric)];
+    }
+
+    /**
+     * @return change since the previous sample, or -1 if unknown
+     */
+    private long delta(String metric) {
+        Integer id = ids.get(metric);
+        if (id == null || id >= lastValues.length)
+            return -1;
+        long delta = values[id] - lastValues[id];
+        return delta < 0 ? -1 : delta;
+    }
+
+    private String readString() throws IOException {
+        byte[] utf8 = new byte[(int) readVarint()];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException("Truncated /proc sample file.");
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Corrupt /proc sample file '" + host.getFileName() + "', varint too long.");
+    }
+}
@@ -0,0 +1,108 @@
+package org.jenkinsci.plugins.perfci.nmon;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Appends samples of raw <code>/proc</code> counters to a file as they are taken, in the format read by
+ * {@link ProcSampleReader}, and flushes after each one, so the file is complete up to the last sample whenever
+ * it is read.
+ * <p>
+ * The file starts with {@link #MAGIC}, a version byte and the host name, followed by records which start with
+ * their type. A {@link #METRICS} record names the metrics seen for the first time, which are numbered in that order.
+ * A {@link #SAMPLE} record has its time as the difference to the previous sample, the number of metrics, and the
+ * value of each metric as the difference to its previous value, all as zigzag varints. Most counters change little
+ * between sub-second samples, so a metric takes one or two bytes per sample instead of a line of text.
+ */
+public class ProcSampleWriter implements Closeable {
+    public static final String EXTENSION = ".proc";
+    static final byte[] MAGIC = {'P', 'P', 'R', 'C'};
+    static final int VERSION = 1;
+    static final int METRICS = 1;
+    static final int SAMPLE = 2;
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> newMetrics = new ArrayList<>();
+    private long[] values = new long[64];
+    private long[] lastValues = new long[64];
+    private boolean[] present = new boolean[64];
+    private long lastTime;
+
+    public ProcSampleWriter(OutputStream out, String hostName) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.out.write(MAGIC);
+        this.out.write(VERSION);
+        writeString(hostName == null ? "" : hostName);
+        this.out.flush();
+    }
+
+    /**
+     * Writes one sample. A metric missing from it keeps its previous value.
+     *
+     * @param time   milliseconds since the epoch
+     * @param sample raw values by metric name
+     */
+    public void write(long time, Map<String, Long> sample) throws IOException {
+        Arrays.fill(present, false);
+        for (Map.Entry<String, Long> entry : sample.entrySet()) {
+            Integer id = ids.get(entry.getKey());
+            if (id == null) {
+                ids.put(entry.getKey(), id = ids.size());
+                newMetrics.add(entry.getKey());
+                if (id == values.length) {
+                    values = Arrays.copyOf(values, id * 2);
+                    lastValues = Arrays.copyOf(lastValues, id * 2);
+                    present = Arrays.copyOf(present, id * 2);
+                }
+            }
+            values[id] = entry.getValue();
+            present[id] = true;
+        }
+        if (!newMetrics.isEmpty()) {
+            writeVarint(METRICS);
+            writeVarint(newMetrics.size());
+            for (String metric : newMetrics)
+                writeString(metric);
+            newMetrics.clear();
+        }
+        writeVarint(SAMPLE);
+        writeVarint(zigzag(time - lastTime));
+        lastTime = time;
+        writeVarint(ids.size());
+        for (int i = 0; i < ids.size(); ++i) {
+            long value = present[i] ? values[i] : lastValues[i];
+            writeVarint(zigzag(value - lastValues[i]));
+            lastValues[i] = value;
+        }
+        out.flush();
+    }
+
+    private void writeString(String s) throws IOException {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(utf8.length);
+        out.write(utf8);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,109 @@
+package org.jenkinsci.plugins.perfci.nmon;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A resource metric of one host over time, backed by primitive arrays.
+ * <p>
+ * At most {@value #MAX_POINTS} points are kept. When there would be more, neighbouring points are averaged and
+ * later points are averaged in groups twice as large, so memory use does not depend on the monitoring duration.
+ */
+public class ResourceTimeSeries implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final int MAX_POINTS = 4096;
+
+    private final String name;
+    private long[] times = new long[64];
+    private double[] values = new double[64];
+    private int size;
+    /**
+     * number of snapshots averaged into a point
+     */
+    private int groupSize = 1;
+    private long pendingTime;
+    private double pendingSum;
+    private int pendingCount;
+
+    public ResourceTimeSeries(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param time milliseconds since the epoch
+     */
+    public void add(long time, double value) {
+        if (pendingCount == 0)
+            pendingTime = time;
+        pendingSum += value;
+        if (++pendingCount == groupSize)
+            flush();
+    }
+
+    private void flush() {
+        if (pendingCount == 0)
+            return;
+        if (size == MAX_POINTS)
+            coarsen();
+        if (size == times.length) {
+            times = Arrays.copyOf(times, Math.min(MAX_POINTS, size * 2));
+            values = Arrays.copyOf(values, times.length);
+        }
+        times[size] = pendingTime;
+        values[size] = pendingSum / pendingCount;
+        ++size;
+        pendingSum = 0;
+        pendingCount = 0;
+    }
+
+    private void coarsen() {
+        int merged = 0;
+        for (int i = 0; i < size; i += 2) {
+            times[merged] = times[i];
+            values[merged] = i + 1 < size ? (values[i] + values[i + 1]) / 2 : values[i];
+            ++merged;
+        }
+        size = merged;
+        groupSize *= 2;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return number of points, including a last point averaged from fewer snapshots than the others
+     */
+    public int size() {
+        flush();
+        return size;
+    }
+
+    public long getTime(int index) {
+        flush();
+        return times[index];
+    }
+
+    public double getValue(int index) {
+        flush();
+        return values[index];
+    }
+
+    public double getMax() {
+        flush();
+        double max = Double.NaN;
+        for (int i = 0; i < size; ++i) {
+            if (!(values[i] <= max))
+                max = values[i];
+        }
+        return max;
+    }
+
+    public double getMean() {
+        flush();
+        double sum = 0;
+        for (int i = 0; i < size; ++i)
+            sum += values[i];
+        return size == 0 ? Double.NaN : sum / size;
+    }
+}
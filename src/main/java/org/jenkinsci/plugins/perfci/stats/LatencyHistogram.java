@@ -0,0 +1,167 @@
+package org.jenkinsci.plugins.perfci.stats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A log-linear histogram of non-negative values (usually response times in milliseconds).
+ * <p>
+ * Values below {@value #EXACT_LIMIT} are counted exactly. Larger values are counted in buckets whose width is
+ * 1/{@value #SUB_BUCKETS} of their magnitude, so any percentile is reported within about 3% of its true value
+ * while the histogram itself stays a few hundred counters, no matter how many samples are recorded.
+ * Two histograms can be merged by adding their counters, so the percentiles of a set of builds or of a longer
+ * period are computed exactly as if all their samples had been recorded into a single histogram.
+ */
+public class LatencyHistogram implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int EXACT_LIMIT = SUB_BUCKETS << 1;
+
+    private long[] counts = new long[EXACT_LIMIT];
+    private long totalCount;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    static int indexOf(long value) {
+        if (value < EXACT_LIMIT)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    static long lowerBoundOf(int index) {
+        if (index < EXACT_LIMIT)
+            return index;
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long subBucket = (index & (SUB_BUCKETS - 1)) + SUB_BUCKETS;
+        return subBucket << shift;
+    }
+
+    static long widthOf(int index) {
+        if (index < EXACT_LIMIT)
+            return 1;
+        return 1L << ((index >>> SUB_BUCKET_BITS) - 1);
+    }
+
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    public void record(long value, long count) {
+        if (value < 0)
+            value = 0;
+        int index = indexOf(value);
+        if (index >= counts.length)
+            counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length + (counts.length >> 1)));
+        counts[index] += count;
+        totalCount += count;
+        sum += value * count;
+        if (value < min)
+            min = value;
+        if (value > max)
+            max = value;
+    }
+
+    public void merge(LatencyHistogram other) {
+        if (other.totalCount == 0)
+            return;
+        if (other.counts.length > counts.length)
+            counts = Arrays.copyOf(counts, other.counts.length);
+        for (int i = 0; i < other.counts.length; ++i)
+            counts[i] += other.counts[i];
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Writes the histogram in a compact form which only contains the non-empty buckets.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(totalCount);
+        if (totalCount == 0)
+            return;
+        out.writeLong(sum);
+        out.writeLong(min);
+        out.writeLong(max);
+        int buckets = 0;
+        for (long count : counts) {
+            if (count != 0)
+                ++buckets;
+        }
+        out.writeInt(buckets);
+        for (int i = 0; i < counts.length; ++i) {
+            if (counts[i] != 0) {
+                out.writeShort(i);
+                out.writeLong(counts[i]);
+            }
+        }
+    }
+
+    public static LatencyHistogram readFrom(DataInput in) throws IOException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.totalCount = in.readLong();
+        if (histogram.totalCount == 0)
+            return histogram;
+        histogram.sum = in.readLong();
+        histogram.min = in.readLong();
+        histogram.max = in.readLong();
+        int buckets = in.readInt();
+        for (int i = 0; i < buckets; ++i) {
+            int index = in.readUnsignedShort();
+            if (index >= histogram.counts.length)
+                histogram.counts = Arrays.copyOf(histogram.counts, index + 1);
+            histogram.counts[index] = in.readLong();
+        }
+        return histogram;
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return totalCount == 0 ? 0 : max;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? Double.NaN : (double) sum / totalCount;
+    }
+
+    /**
+     * @param percentile a number in [0, 100]
+     * @return the value below which the given percentage of recorded values fall, or NaN if nothing is recorded.
+     */
+    public double getValueAtPercentile(double percentile) {
+        if (totalCount == 0)
+            return Double.NaN;
+        long rank = (long) Math.ceil(percentile / 100.0 * totalCount);
+        if (rank < 1)
+            rank = 1;
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // the middle of the bucket, but never outside what has actually been recorded
+                long value = lowerBoundOf(i) + (widthOf(i) - 1) / 2;
+                return Math.max(min, Math.min(max, value));
+            }
+        }
+        return max;
+    }
+}
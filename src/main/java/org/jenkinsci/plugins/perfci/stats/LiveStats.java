@@ -0,0 +1,122 @@
+package org.jenkinsci.plugins.perfci.stats;
+
+import java.util.*;
+
+/**
+ * Statistics of a test which is still running, fed with the samples of each second as they are written.
+ * <p>
+ * The last {@value #WINDOW_SECONDS} seconds, or more if asked for, are kept per second, so throughput, error rate
+ * and percentiles can be given for rolling windows. Over the whole test, only the totals of each transaction are kept,
+ * so memory use doesn't grow with the test duration.
+ * Times are those of the samples, so the most recent second, which may still be written, is left out of windows.
+ */
+public class LiveStats {
+    public static final int WINDOW_SECONDS = 60;
+
+    private final TreeMap<Long, TransactionStats> seconds = new TreeMap<>();
+    private final Map<String, TransactionStats> transactions = new TreeMap<>();
+    private final TransactionStats total = new TransactionStats(PerformanceAggregator.TOTAL);
+    private final int retainedSeconds;
+    private long firstSecond = Long.MAX_VALUE;
+    private long latestSecond = Long.MIN_VALUE;
+    private long lastUpdate;
+
+    public LiveStats() {
+        this(WINDOW_SECONDS);
+    }
+
+    /**
+     * @param windowSeconds the longest window which will be asked for
+     */
+    public LiveStats(int windowSeconds) {
+        this.retainedSeconds = Math.max(WINDOW_SECONDS, windowSeconds);
+    }
+
+    /**
+     * @param buckets statistics keyed by second since the epoch and transaction name
+     */
+    public synchronized void add(Map<Long, Map<String, TransactionStats>> buckets) {
+        for (Map.Entry<Long, Map<String, TransactionStats>> bucket : buckets.entrySet()) {
+            long second = bucket.getKey();
+            firstSecond = Math.min(firstSecond, second);
+            latestSecond = Math.max(latestSecond, second);
+            TransactionStats secondStats = seconds.get(second);
+            if (secondStats == null)
+                seconds.put(second, secondStats = new TransactionStats(PerformanceAggregator.TOTAL));
+            for (TransactionStats stats : bucket.getValue().values()) {
+                TransactionStats transaction = transactions.get(stats.getName());
+                if (transaction == null)
+                    transactions.put(stats.getName(), transaction = new TransactionStats(stats.getName()));
+                transaction.merge(stats);
+                total.merge(stats);
+                secondStats.merge(stats);
+            }
+        }
+        // seconds which slid out of the longest window
+        seconds.headMap(latestSecond - retainedSeconds, false).clear();
+        lastUpdate = System.currentTimeMillis();
+    }
+
+    /**
+     * @return statistics of all transactions over the last complete <code>windowSeconds</code> seconds
+     */
+    public synchronized TransactionStats getWindow(int windowSeconds) {
+        TransactionStats window = new TransactionStats(PerformanceAggregator.TOTAL);
+        for (TransactionStats stats : seconds.subMap(latestSecond - windowSeconds, true, latestSecond, false).values())
+            window.merge(stats);
+        return window;
+    }
+
+    /**
+     * @return statistics of all transactions in each second of the last complete <code>windowSeconds</code> seconds
+     * which has samples, oldest first
+     */
+    public synchronized List<TransactionStats> getWindowSeconds(int windowSeconds) {
+        List<TransactionStats> result = new ArrayList<>();
+        for (TransactionStats stats : seconds.subMap(latestSecond - windowSeconds, true, latestSecond, false).values()) {
+            if (stats.getCount() > 0)
+                result.add(stats.copy(stats.getName()));
+        }
+        return result;
+    }
+
+    /**
+     * @return seconds between the first sample and the latest one
+     */
+    public synchronized long getDuration() {
+        return latestSecond < firstSecond ? 0 : latestSecond - firstSecond;
+    }
+
+    /**
+     * @return statistics of each transaction since the test started, ordered by name
+     */
+    public synchronized List<TransactionStats> getTransactions() {
+        List<TransactionStats> result = new ArrayList<>();
+        for (TransactionStats stats : transactions.values())
+            result.add(stats.copy(stats.getName()));
+        return result;
+    }
+
+    public synchronized TransactionStats getTotal() {
+        return total.copy(PerformanceAggregator.TOTAL);
+    }
+
+    /**
+     * @return when samples were last added, in milliseconds since the epoch, or 0 if none have been
+     */
+    public synchronized long getLastUpdate() {
+        return lastUpdate;
+    }
+
+    /**
+     * @return a one-line summary for the console
+     */
+    public String getSummary() {
+        TransactionStats window = getWindow(WINDOW_SECONDS);
+        TransactionStats all = getTotal();
+        return String.format("last %ds: %.1f samples/s, %.2f%% errors, p95 %.0f ms; since start: %d samples, %d errors, p95 %.0f ms",
+                WINDOW_SECONDS, (double) window.getCount() / WINDOW_SECONDS,
+                window.getCount() == 0 ? 0 : window.getErrorRate(), window.getHistogram().getValueAtPercentile(95),
+                all.getCount(), all.getErrors(), all.getHistogram().getValueAtPercentile(95));
+    }
+}
@@ -0,0 +1,121 @@
+package org.jenkinsci.plugins.perfci.stats;
+
+import org.jenkinsci.plugins.perfci.jtl.JtlSample;
+import org.jenkinsci.plugins.perfci.jtl.SampleAggregator;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Aggregates samples into per-transaction statistics, both over the whole test and over time buckets.
+ * <p>
+ * Time buckets start one second wide. Whenever there would be more than {@value #MAX_TIME_BUCKETS} of them,
+ * neighbouring buckets are merged and the width doubles, so memory use does not depend on the test duration.
+ */
+public class PerformanceAggregator implements SampleAggregator {
+    public static final String TOTAL = "TOTAL";
+    private static final int MAX_TIME_BUCKETS = 300;
+    private static final long INITIAL_BUCKET_WIDTH = 1000;
+
+    private final Pattern excludedTransactionPattern;
+    private final Map<String, TransactionStats> transactions = new TreeMap<>();
+    private final TransactionStats total = new TransactionStats(TOTAL);
+    private long bucketWidth = INITIAL_BUCKET_WIDTH;
+    private TreeMap<Long, Map<String, TransactionStats>> buckets = new TreeMap<>();
+
+    /**
+     * @param excludedTransactionPattern transactions matching this regular expression are reported,
+     *                                   but not counted in the {@value #TOTAL} row. May be null.
+     */
+    public PerformanceAggregator(String excludedTransactionPattern) {
+        this.excludedTransactionPattern = excludedTransactionPattern == null || excludedTransactionPattern.isEmpty()
+                ? null : Pattern.compile(excludedTransactionPattern);
+    }
+
+    @Override
+    public void add(JtlSample sample) {
+        add(sample.getTimestamp(), sample.getElapsed(), sample.getLabel(), sample.isSuccess(), sample.getBytes());
+    }
+
+    public void add(long timestamp, long elapsed, String label, boolean success, long bytes) {
+        TransactionStats stats = transactions.get(label);
+        if (stats == null)
+            transactions.put(label, stats = new TransactionStats(label));
+        stats.add(timestamp, elapsed, success, bytes);
+        boolean excluded = excludedTransactionPattern != null && excludedTransactionPattern.matcher(label).matches();
+        if (!excluded)
+            total.add(timestamp, elapsed, success, bytes);
+
+        long index = Math.floorDiv(timestamp, bucketWidth);
+        Map<String, TransactionStats> bucket = buckets.get(index);
+        if (bucket == null) {
+            buckets.put(index, bucket = new HashMap<>());
+            if (buckets.size() > MAX_TIME_BUCKETS) {
+                coarsen();
+                index = Math.floorDiv(timestamp, bucketWidth);
+                bucket = buckets.get(index);
+            }
+        }
+        addToBucket(bucket, label, timestamp, elapsed, success, bytes);
+        if (!excluded)
+            addToBucket(bucket, TOTAL, timestamp, elapsed, success, bytes);
+    }
+
+    private static void addToBucket(Map<String, TransactionStats> bucket, String label, long timestamp, long elapsed, boolean success, long bytes) {
+        TransactionStats stats = bucket.get(label);
+        if (stats == null)
+            bucket.put(label, stats = new TransactionStats(label));
+        stats.add(timestamp, elapsed, success, bytes);
+    }
+
+    private void coarsen() {
+        while (buckets.size() > MAX_TIME_BUCKETS) {
+            bucketWidth *= 2;
+            TreeMap<Long, Map<String, TransactionStats>> merged = new TreeMap<>();
+            for (Map.Entry<Long, Map<String, TransactionStats>> entry : buckets.entrySet()) {
+                long index = Math.floorDiv(entry.getKey(), 2);
+                Map<String, TransactionStats> target = merged.get(index);
+                if (target == null) {
+                    merged.put(index, entry.getValue());
+                    continue;
+                }
+                for (TransactionStats stats : entry.getValue().values()) {
+                    TransactionStats existing = target.get(stats.getName());
+                    if (existing == null)
+                        target.put(stats.getName(), stats);
+                    else
+                        existing.merge(stats);
+                }
+            }
+            buckets = merged;
+        }
+    }
+
+    /**
+     * @return statistics of each transaction, ordered by name
+     */
+    public Collection<TransactionStats> getTransactions() {
+        return transactions.values();
+    }
+
+    public TransactionStats getTotal() {
+        return total;
+    }
+
+    /**
+     * @return width of a time bucket in milliseconds
+     */
+    public long getBucketWidth() {
+        return bucketWidth;
+    }
+
+    /**
+     * @return time buckets, keyed by their start time in milliseconds since the epoch
+     */
+    public SortedMap<Long, Map<String, TransactionStats>> getTimeBuckets() {
+        TreeMap<Long, Map<String, TransactionStats>> result = new TreeMap<>();
+        for (Map.Entry<Long, Map<String, TransactionStats>> entry : buckets.entrySet())
+            result.put(entry.getKey() * bucketWidth, Collections.unmodifiableMap(entry.getValue()));
+        return result;
+    }
+}
@@ -0,0 +1,137 @@
+package org.jenkinsci.plugins.perfci.stats;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The aggregated result of a build, persisted as <code>Performance.hist</code> next to <code>Performance.json</code>.
+ * <p>
+ * It keeps the latency histogram of every transaction, of the total and of every time bucket, which is a few
+ * kilobytes per transaction no matter how many samples the build had. Trend and comparison reports merge these
+ * histograms instead of reading raw data again.
+ */
+public class PerformanceSummary {
+    public static final String FILE_NAME = "Performance.hist";
+    private static final int MAGIC = 0x50484953; // "PHIS"
+    private static final int VERSION = 1;
+
+    private final long bucketWidth;
+    private final SortedMap<String, TransactionStats> transactions;
+    private final TransactionStats total;
+    private final SortedMap<Long, Map<String, TransactionStats>> timeBuckets;
+
+    public PerformanceSummary(long bucketWidth, SortedMap<String, TransactionStats> transactions, TransactionStats total,
+                              SortedMap<Long, Map<String, TransactionStats>> timeBuckets) {
+        this.bucketWidth = bucketWidth;
+        this.transactions = transactions;
+        this.total = total;
+        this.timeBuckets = timeBuckets;
+    }
+
+    public static PerformanceSummary of(PerformanceAggregator aggregator) {
+        SortedMap<String, TransactionStats> transactions = new TreeMap<>();
+        for (TransactionStats stats : aggregator.getTransactions())
+            transactions.put(stats.getName(), stats);
+        return new PerformanceSummary(aggregator.getBucketWidth(), transactions, aggregator.getTotal(),
+                aggregator.getTimeBuckets());
+    }
+
+    /**
+     * Merges the per-transaction and total statistics of several summaries, e.g. of a range of builds.
+     * Time buckets are not merged, since they belong to the timeline of a single build.
+     */
+    public static PerformanceSummary merge(Collection<PerformanceSummary> summaries) {
+        SortedMap<String, TransactionStats> transactions = new TreeMap<>();
+        TransactionStats total = new TransactionStats(PerformanceAggregator.TOTAL);
+        for (PerformanceSummary summary : summaries) {
+            for (TransactionStats stats : summary.transactions.values()) {
+                TransactionStats merged = transactions.get(stats.getName());
+                if (merged == null)
+                    transactions.put(stats.getName(), stats.copy(stats.getName()));
+                else
+                    merged.merge(stats);
+            }
+            total.merge(summary.total);
+        }
+        return new PerformanceSummary(0, transactions, total, new TreeMap<Long, Map<String, TransactionStats>>());
+    }
+
+    public void write(File file) throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(bucketWidth);
+            total.writeTo(out);
+            out.writeInt(transactions.size());
+            for (TransactionStats stats : transactions.values())
+                stats.writeTo(out);
+            out.writeInt(timeBuckets.size());
+            for (Map.Entry<Long, Map<String, TransactionStats>> bucket : timeBuckets.entrySet()) {
+                out.writeLong(bucket.getKey());
+                out.writeInt(bucket.getValue().size());
+                for (TransactionStats stats : bucket.getValue().values())
+                    stats.writeTo(out);
+            }
+        }
+    }
+
+    public static PerformanceSummary read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("'" + file + "' is not a performance summary.");
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported version " + version + " of performance summary '" + file + "'.");
+            long bucketWidth = in.readLong();
+            TransactionStats total = TransactionStats.readFrom(in);
+            SortedMap<String, TransactionStats> transactions = new TreeMap<>();
+            for (int i = in.readInt(); i > 0; --i) {
+                TransactionStats stats = TransactionStats.readFrom(in);
+                transactions.put(stats.getName(), stats);
+            }
+            SortedMap<Long, Map<String, TransactionStats>> timeBuckets = new TreeMap<>();
+            for (int i = in.readInt(); i > 0; --i) {
+                long start = in.readLong();
+                Map<String, TransactionStats> bucket = new HashMap<>();
+                for (int j = in.readInt(); j > 0; --j) {
+                    TransactionStats stats = TransactionStats.readFrom(in);
+                    bucket.put(stats.getName(), stats);
+                }
+                timeBuckets.put(start, bucket);
+            }
+            return new PerformanceSummary(bucketWidth, transactions, total, timeBuckets);
+        }
+    }
+
+    /**
+     * @return width of a time bucket in milliseconds, 0 for merged summaries
+     */
+    public long getBucketWidth() {
+        return bucketWidth;
+    }
+
+    /**
+     * @return statistics of each transaction, ordered by name
+     */
+    public Collection<TransactionStats> getTransactions() {
+        return transactions.values();
+    }
+
+    public TransactionStats getTransaction(String name) {
+        return transactions.get(name);
+    }
+
+    public TransactionStats getTotal() {
+        return total;
+    }
+
+    /**
+     * @return time buckets, keyed by their start time in milliseconds since the epoch
+     */
+    public SortedMap<Long, Map<String, TransactionStats>> getTimeBuckets() {
+        return timeBuckets;
+    }
+}
@@ -0,0 +1,63 @@
+package org.jenkinsci.plugins.perfci.stats;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Tells when a running test has breached its service level badly enough to be stopped: when the error rate or
+ * the 99th percentile response time of all transactions stays above a limit for a whole window, i.e. in every second
+ * of the window which has samples. A short spike within the window doesn't count, however high it is.
+ */
+public class SlaRule implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final double maxErrorRate;
+    private final long maxP99;
+    private final int windowSeconds;
+
+    /**
+     * @param maxErrorRate  error percentage, 0 for no limit
+     * @param maxP99        99th percentile response time in milliseconds, 0 for no limit
+     * @param windowSeconds how long a limit must be exceeded
+     */
+    public SlaRule(double maxErrorRate, long maxP99, int windowSeconds) {
+        this.maxErrorRate = maxErrorRate;
+        this.maxP99 = maxP99;
+        this.windowSeconds = Math.max(1, windowSeconds);
+    }
+
+    public boolean isEnabled() {
+        return maxErrorRate > 0 || maxP99 > 0;
+    }
+
+    public int getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    /**
+     * @return why the test breaches this rule, or null if it does not
+     */
+    public String check(LiveStats stats) {
+        if (!isEnabled() || stats.getDuration() < windowSeconds)
+            return null;
+        List<TransactionStats> seconds = stats.getWindowSeconds(windowSeconds);
+        if (seconds.isEmpty())
+            return null;
+        if (maxErrorRate > 0) {
+            double lowest = Double.MAX_VALUE;
+            for (TransactionStats second : seconds)
+                lowest = Math.min(lowest, second.getErrorRate());
+            if (lowest > maxErrorRate)
+                return String.format("error rate has been above %.2f%% in every second of the last %d seconds, at least %.2f%%",
+                        maxErrorRate, windowSeconds, lowest);
+        }
+        if (maxP99 > 0) {
+            double lowest = Double.MAX_VALUE;
+            for (TransactionStats second : seconds)
+                lowest = Math.min(lowest, second.getHistogram().getValueAtPercentile(99));
+            if (lowest > maxP99)
+                return String.format("99th percentile response time has been above %d ms in every second of the last %d seconds, at least %.0f ms",
+                        maxP99, windowSeconds, lowest);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,386 @@
+package org.jenkinsci.plugins.perfci.stats;
+
+import org.jenkinsci.plugins.perfci.jtl.JtlSample;
+import org.jenkinsci.plugins.perfci.jtl.SampleAggregator;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Rolls samples up into per-transaction statistics over fixed time buckets of 1, 10 and 60 seconds, which are
+ * persisted when the test finishes, one file per resolution, so a chart at any zoom level reads at most a few
+ * thousand buckets instead of all samples.
+ * <p>
+ * At most {@value #MAX_OPEN_SECONDS} 1 second buckets are kept in memory while samples are added; older ones are
+ * spilled to sorted temporary files, since a JTL file is roughly ordered by time. A bucket which receives samples
+ * again after it has been spilled is simply spilled once more. {@link #write(File)} merges the spilled files and
+ * derives the coarser resolutions from the merged stream, since histograms merge exactly, so memory use doesn't
+ * depend on the test duration.
+ * <p>
+ * An I/O error while spilling doesn't fail the scan the rollup is part of; it stops the rollup, and
+ * {@link #write(File)} reports it.
+ */
+public class TimeSeriesRollup implements SampleAggregator, Closeable {
+    public static final long[] RESOLUTIONS = {1000, 10 * 1000, 60 * 1000};
+    public static final String DIR_NAME = "rollup";
+    private static final int MAGIC = 0x50524F4C; // "PROL"
+    private static final int VERSION = 1;
+    private static final int MAX_OPEN_SECONDS = 300;
+
+    private final Pattern excludedTransactionPattern;
+    private final TreeMap<Long, Map<String, TransactionStats>> seconds = new TreeMap<>();
+    private final List<File> runs = new ArrayList<>();
+    private DataOutputStream run;
+    private long runLast = Long.MIN_VALUE;
+    private IOException failure;
+
+    /**
+     * @param excludedTransactionPattern transactions matching this regular expression are rolled up,
+     *                                   but not counted in the {@value PerformanceAggregator#TOTAL} series. May be null.
+     */
+    public TimeSeriesRollup(String excludedTransactionPattern) {
+        this.excludedTransactionPattern = excludedTransactionPattern == null || excludedTransactionPattern.isEmpty()
+                ? null : Pattern.compile(excludedTransactionPattern);
+    }
+
+    @Override
+    public void add(JtlSample sample) {
+        if (failure != null)
+            return;
+        Long second = Math.floorDiv(sample.getTimestamp(), RESOLUTIONS[0]) * RESOLUTIONS[0];
+        Map<String, TransactionStats> bucket = seconds.get(second);
+        if (bucket == null)
+            seconds.put(second, bucket = new HashMap<>());
+        add(bucket, sample.getLabel(), sample);
+        if (excludedTransactionPattern == null || !excludedTransactionPattern.matcher(sample.getLabel()).matches())
+            add(bucket, PerformanceAggregator.TOTAL, sample);
+        // a late sample may have opened the oldest bucket, which is then spilled right away
+        if (seconds.size() > MAX_OPEN_SECONDS)
+            spill(seconds.pollFirstEntry());
+    }
+
+    private static void add(Map<String, TransactionStats> bucket, String label, JtlSample sample) {
+        TransactionStats stats = bucket.get(label);
+        if (stats == null)
+            bucket.put(label, stats = new TransactionStats(label));
+        stats.add(sample.getTimestamp(), sample.getElapsed(), sample.isSuccess(), sample.getBytes());
+    }
+
+    /**
+     * Appends a bucket to the current temporary file, or starts a new one if the bucket is older than the last.
+     * A failure stops the rollup.
+     */
+    private void spill(Map.Entry<Long, Map<String, TransactionStats>> bucket) {
+        try {
+            if (run == null || bucket.getKey() <= runLast) {
+                if (run != null)
+                    run.close();
+                File file = File.createTempFile("perfci-rollup", ".tmp");
+                runs.add(file);
+                run = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            }
+            writeBucket(run, bucket.getKey(), bucket.getValue());
+            runLast = bucket.getKey();
+        } catch (IOException e) {
+            failure = e;
+            seconds.clear();
+        }
+    }
+
+    private static void writeBucket(DataOutputStream out, long start, Map<String, TransactionStats> bucket) throws IOException {
+        out.writeLong(start);
+        out.writeInt(bucket.size());
+        for (TransactionStats stats : bucket.values())
+            stats.writeTo(out);
+    }
+
+    /**
+     * Writes a file per resolution into <code>dir</code>.
+     *
+     * @throws IOException also if the rollup has been stopped by an error while samples were added
+     */
+    public void write(File dir) throws IOException {
+        try {
+            if (failure != null)
+                throw new IOException("Couldn't roll samples up: " + failure, failure);
+            if (run != null) {
+                run.close();
+                run = null;
+            }
+            dir.mkdirs();
+            List<Run> inputs = new ArrayList<>();
+            LevelWriter[] levels = new LevelWriter[RESOLUTIONS.length];
+            try {
+                for (File file : runs)
+                    inputs.add(new Run(new DataInputStream(new BufferedInputStream(new FileInputStream(file)))));
+                inputs.add(new Run(seconds.entrySet().iterator()));
+                for (int i = 0; i < RESOLUTIONS.length; ++i)
+                    levels[i] = new LevelWriter(getFile(dir, RESOLUTIONS[i]), RESOLUTIONS[i]);
+                PriorityQueue<Run> queue = new PriorityQueue<>();
+                for (Run input : inputs) {
+                    if (input.next())
+                        queue.add(input);
+                }
+                while (!queue.isEmpty()) {
+                    Run first = queue.poll();
+                    long start = first.start;
+                    Map<String, TransactionStats> bucket = first.bucket;
+                    if (first.next())
+                        queue.add(first);
+                    // the same second may have been spilled more than once
+                    while (!queue.isEmpty() && queue.peek().start == start) {
+                        Run same = queue.poll();
+                        merge(bucket, same.bucket);
+                        if (same.next())
+                            queue.add(same);
+                    }
+                    for (LevelWriter level : levels)
+                        level.add(start, bucket);
+                }
+                for (LevelWriter level : levels)
+                    level.finish();
+            } finally {
+                for (Run input : inputs)
+                    input.close();
+                for (LevelWriter level : levels) {
+                    if (level != null)
+                        level.close();
+                }
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private static void merge(Map<String, TransactionStats> target, Map<String, TransactionStats> bucket) {
+        for (TransactionStats stats : bucket.values()) {
+            TransactionStats existing = target.get(stats.getName());
+            if (existing == null)
+                target.put(stats.getName(), stats.copy(stats.getName()));
+            else
+                existing.merge(stats);
+        }
+    }
+
+    /**
+     * Deletes the temporary files. Called by {@link #write(File)}, and needed only if it isn't called.
+     */
+    @Override
+    public void close() throws IOException {
+        if (run != null) {
+            run.close();
+            run = null;
+        }
+        for (File file : runs)
+            file.delete();
+        runs.clear();
+        seconds.clear();
+    }
+
+    /**
+     * Sorted 1 second buckets, either from a temporary file or from memory.
+     */
+    private static class Run implements Comparable<Run>, Closeable {
+        private final DataInputStream in;
+        private final Iterator<Map.Entry<Long, Map<String, TransactionStats>>> memory;
+        private long start;
+        private Map<String, TransactionStats> bucket;
+
+        Run(DataInputStream in) {
+            this.in = in;
+            this.memory = null;
+        }
+
+        Run(Iterator<Map.Entry<Long, Map<String, TransactionStats>>> memory) {
+            this.in = null;
+            this.memory = memory;
+        }
+
+        boolean next() throws IOException {
+            if (memory != null) {
+                if (!memory.hasNext())
+                    return false;
+                Map.Entry<Long, Map<String, TransactionStats>> entry = memory.next();
+                start = entry.getKey();
+                bucket = entry.getValue();
+                return true;
+            }
+            try {
+                start = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            bucket = new HashMap<>();
+            for (int i = in.readInt(); i > 0; --i) {
+                TransactionStats stats = TransactionStats.readFrom(in);
+                bucket.put(stats.getName(), stats);
+            }
+            return true;
+        }
+
+        @Override
+        public int compareTo(Run other) {
+            return Long.compare(start, other.start);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null)
+                in.close();
+        }
+    }
+
+    /**
+     * Writes the buckets of one resolution as the merged 1 second buckets pass by in order. The header, which
+     * counts the buckets, is only known at the end, so the buckets go to a temporary file first.
+     */
+    private static class LevelWriter implements Closeable {
+        private final File file;
+        private final File body;
+        private final long resolution;
+        private final DataOutputStream out;
+        private long start = Long.MIN_VALUE;
+        private Map<String, TransactionStats> bucket;
+        private int count;
+        private long first;
+        private long last;
+
+        LevelWriter(File file, long resolution) throws IOException {
+            this.file = file;
+            this.body = new File(file.getPath() + ".body");
+            this.resolution = resolution;
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(body)));
+        }
+
+        void add(long second, Map<String, TransactionStats> secondBucket) throws IOException {
+            long bucketStart = Math.floorDiv(second, resolution) * resolution;
+            if (resolution == RESOLUTIONS[0]) {
+                emit(bucketStart, secondBucket);
+                return;
+            }
+            if (bucket != null && bucketStart != start) {
+                emit(start, bucket);
+                bucket = null;
+            }
+            if (bucket == null) {
+                start = bucketStart;
+                bucket = new HashMap<>();
+            }
+            merge(bucket, secondBucket);
+        }
+
+        private void emit(long bucketStart, Map<String, TransactionStats> buckets) throws IOException {
+            if (count++ == 0)
+                first = bucketStart;
+            last = bucketStart;
+            writeBucket(out, bucketStart, buckets);
+        }
+
+        void finish() throws IOException {
+            if (bucket != null)
+                emit(start, bucket);
+            out.close();
+            File temp = new File(file.getPath() + ".tmp");
+            try (DataOutputStream target = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp))))) {
+                target.writeInt(MAGIC);
+                target.writeInt(VERSION);
+                target.writeLong(resolution);
+                target.writeInt(count);
+                target.writeLong(first);
+                target.writeLong(last);
+                Files.copy(body.toPath(), target);
+            }
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file))
+                    throw new IOException("Couldn't write '" + file + "'.");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+            body.delete();
+        }
+    }
+
+    public static File getFile(File dir, long resolution) {
+        return new File(dir, resolution / 1000 + "s.rollup");
+    }
+
+    /**
+     * Reads the buckets between <code>from</code> and <code>to</code> at the finest resolution which has at most
+     * <code>maxPoints</code> buckets in that range, or at the coarsest resolution.
+     *
+     * @param from start of the range in milliseconds since the epoch, inclusive, or {@link Long#MIN_VALUE}
+     * @param to   end of the range in milliseconds since the epoch, exclusive, or {@link Long#MAX_VALUE}
+     * @return null if the rollup has not been written
+     */
+    public static Slice read(File dir, long from, long to, int maxPoints) throws IOException {
+        for (int i = 0; i < RESOLUTIONS.length; ++i) {
+            File file = getFile(dir, RESOLUTIONS[i]);
+            if (!file.isFile())
+                return null;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+                if (in.readInt() != MAGIC)
+                    throw new IOException("'" + file + "' is not a time series rollup.");
+                int version = in.readInt();
+                if (version != VERSION)
+                    throw new IOException("Unsupported version " + version + " of time series rollup '" + file + "'.");
+                long resolution = in.readLong();
+                int count = in.readInt();
+                long first = in.readLong();
+                long last = in.readLong();
+                long points = count == 0 ? 0 : (Math.min(to - 1, last) - Math.max(from, first)) / resolution + 1;
+                if (points > maxPoints && i < RESOLUTIONS.length - 1)
+                    continue;
+                SortedMap<Long, Map<String, TransactionStats>> buckets = new TreeMap<>();
+                for (; count > 0; --count) {
+                    long start = in.readLong();
+                    if (start >= to)
+                        break;
+                    Map<String, TransactionStats> bucket = new HashMap<>();
+                    for (int j = in.readInt(); j > 0; --j) {
+                        TransactionStats stats = TransactionStats.readFrom(in);
+                        bucket.put(stats.getName(), stats);
+                    }
+                    if (start + resolution > from)
+                        buckets.put(start, bucket);
+                }
+                return new Slice(resolution, buckets);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Buckets of one resolution read by {@link #read(File, long, long, int)}.
+     */
+    public static class Slice {
+        private final long resolution;
+        private final SortedMap<Long, Map<String, TransactionStats>> buckets;
+
+        Slice(long resolution, SortedMap<Long, Map<String, TransactionStats>> buckets) {
+            this.resolution = resolution;
+            this.buckets = buckets;
+        }
+
+        /**
+         * @return width of a bucket in milliseconds
+         */
+        public long getResolution() {
+            return resolution;
+        }
+
+        /**
+         * @return buckets keyed by their start time in milliseconds since the epoch
+         */
+        public SortedMap<Long, Map<String, TransactionStats>> getBuckets() {
+            return buckets;
+        }
+    }
+}
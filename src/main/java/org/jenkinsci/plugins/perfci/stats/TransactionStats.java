@@ -0,0 +1,126 @@
+package org.jenkinsci.plugins.perfci.stats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Counters of one transaction (JTL label) over a period of time.
+ */
+public class TransactionStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final String name;
+    private long errors;
+    private long bytes;
+    private long firstTimestamp = Long.MAX_VALUE;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private final LatencyHistogram histogram;
+
+    public TransactionStats(String name) {
+        this(name, new LatencyHistogram());
+    }
+
+    private TransactionStats(String name, LatencyHistogram histogram) {
+        this.name = name;
+        this.histogram = histogram;
+    }
+
+    /**
+     * @param timestamp when the sample started, in milliseconds since the epoch
+     * @param elapsed   response time in milliseconds
+     */
+    public void add(long timestamp, long elapsed, boolean success, long bytes) {
+        histogram.record(elapsed);
+        if (!success)
+            ++errors;
+        this.bytes += bytes;
+        if (timestamp < firstTimestamp)
+            firstTimestamp = timestamp;
+        if (timestamp + elapsed > lastTimestamp)
+            lastTimestamp = timestamp + elapsed;
+    }
+
+    public void merge(TransactionStats other) {
+        histogram.merge(other.histogram);
+        errors += other.errors;
+        bytes += other.bytes;
+        firstTimestamp = Math.min(firstTimestamp, other.firstTimestamp);
+        lastTimestamp = Math.max(lastTimestamp, other.lastTimestamp);
+    }
+
+    /**
+     * @return a new instance with the same counters, which can be merged into without changing this one
+     */
+    public TransactionStats copy(String name) {
+        TransactionStats copy = new TransactionStats(name);
+        copy.merge(this);
+        return copy;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(name);
+        out.writeLong(errors);
+        out.writeLong(bytes);
+        out.writeLong(firstTimestamp);
+        out.writeLong(lastTimestamp);
+        histogram.writeTo(out);
+    }
+
+    public static TransactionStats readFrom(DataInput in) throws IOException {
+        String name = in.readUTF();
+        long errors = in.readLong();
+        long bytes = in.readLong();
+        long firstTimestamp = in.readLong();
+        long lastTimestamp = in.readLong();
+        TransactionStats stats = new TransactionStats(name, LatencyHistogram.readFrom(in));
+        stats.errors = errors;
+        stats.bytes = bytes;
+        stats.firstTimestamp = firstTimestamp;
+        stats.lastTimestamp = lastTimestamp;
+        return stats;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return histogram.getCount();
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public double getErrorRate() {
+        long count = getCount();
+        return count == 0 ? Double.NaN : 100.0 * errors / count;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * @return samples per second between the first sample start and the last sample end.
+     */
+    public double getThroughput() {
+        long duration = lastTimestamp - firstTimestamp;
+        if (getCount() == 0)
+            return Double.NaN;
+        return duration <= 0 ? getCount() : getCount() * 1000.0 / duration;
+    }
+
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+}
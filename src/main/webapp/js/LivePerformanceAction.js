@@ -0,0 +1,43 @@
+(function($){
+	$(function(){
+		var POLL_MILLIS = 5000;
+		function format(value, digits) {
+			return value === undefined ? "-" : value.toFixed(digits);
+		}
+		function row(name, stats) {
+			var $tr = $("<tr/>");
+			$("<td/>").text(name).appendTo($tr);
+			$("<td/>").text(stats.samples).appendTo($tr);
+			$("<td/>").text(format(stats.throughput, 1)).appendTo($tr);
+			$("<td/>").text(format(stats.errorRate, 2)).appendTo($tr);
+			$("<td/>").text(format(stats.average, 0)).appendTo($tr);
+			$("<td/>").text(format(stats.p90, 0)).appendTo($tr);
+			$("<td/>").text(format(stats.p95, 0)).appendTo($tr);
+			$("<td/>").text(format(stats.p99, 0)).appendTo($tr);
+			return $tr;
+		}
+		function refresh() {
+			$.getJSON("stats", function(data) {
+				var $status = $("#live_status");
+				if (data.error !== 0) {
+					$status.text(data.errorMessage);
+					return;
+				}
+				$status.text((data.building ? "Test is running. " : "Test has finished. ")
+					+ (data.lastUpdate ? "Last sample read at " + new Date(data.lastUpdate).toLocaleTimeString() + "." : "No samples yet."));
+				var $windows = $("#live_windows tbody").empty();
+				for (var i = 0; i < data.windows.length; ++i)
+					$windows.append(row("last " + data.windows[i].seconds + "s", data.windows[i]));
+				var $transactions = $("#live_transactions tbody").empty();
+				for (var j = 0; j < data.transactions.length; ++j)
+					$transactions.append(row(data.transactions[j].name, data.transactions[j]));
+				if (data.building)
+					setTimeout(refresh, POLL_MILLIS);
+			}).fail(function() {
+				$("#live_status").text("Failed to read live statistics, retrying...");
+				setTimeout(refresh, POLL_MILLIS);
+			});
+		}
+		refresh();
+	});
+})(jQuery);
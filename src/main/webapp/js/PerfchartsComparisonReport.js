@@ -1,7 +1,20 @@
 (function($){
+	var waitForJob = PerfciReportJobs.waitForJob;
+	var describeJob = PerfciReportJobs.describeJob;
+
 	$(function(){
 		var $tag_error_msg =
 		$("#tag_error_msg");
+		if (PerfciReportJobs.pendingJob()) {
+			waitForJob("jobStatus", PerfciReportJobs.pendingJob(), function(status) {
+				$tag_error_msg.text(describeJob(status));
+			}, function(status) {
+				location.reload(true);
+			}, function(errorMessage) {
+				$tag_error_msg.addClass("tag_error_msg_error");
+				$tag_error_msg.text(errorMessage);
+			});
+		}
 		$("#btn_refresh").click(function(){
 			$tag_error_msg.removeClass("tag_error_msg_error");
 			$tag_error_msg.removeClass("tag_error_msg_fine");
@@ -17,9 +30,16 @@
 					$tag_error_msg.text(data.errorMessage);
 					return;
 				}
-				$tag_error_msg.addClass("tag_error_msg_fine");
-				$tag_error_msg.text(data.errorMessage);
-				location.reload(true);
+				waitForJob("jobStatus", data.jobId, function(status) {
+					$tag_error_msg.text(describeJob(status));
+				}, function(status) {
+					$tag_error_msg.addClass("tag_error_msg_fine");
+					$tag_error_msg.text(status.errorMessage);
+					location.reload(true);
+				}, function(errorMessage) {
+					$tag_error_msg.addClass("tag_error_msg_error");
+					$tag_error_msg.text(errorMessage);
+				});
 				}).fail(function() {
 					$tag_error_msg.addClass("tag_error_msg_error");
 					$tag_error_msg.text("Failed.");
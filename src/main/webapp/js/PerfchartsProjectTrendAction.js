@@ -1,4 +1,7 @@
 (function($){
+    var waitForJob = PerfciReportJobs.waitForJob;
+    var describeJob = PerfciReportJobs.describeJob;
+
     $(function(){
         var $builds = $("#builds");
         var $btn_submit = $("#btn_submit");
@@ -13,8 +16,21 @@
             			reportWindow.close()
             			return;
                 }
-            	reportWindow.location.href = data.url;
-            	$message.text("");
+                if (!data.jobId) {
+                    reportWindow.location.href = data.url;
+                    $message.text("");
+                    return;
+                }
+                waitForJob("jobStatus", data.jobId, function(status) {
+                    $message.text(describeJob(status));
+                }, function(status) {
+                    reportWindow.location.href = data.url;
+                    $message.text("");
+                }, function(errorMessage) {
+                    $message.addClass("error_msg_error");
+                    $message.text(errorMessage);
+                    reportWindow.close();
+                });
             }).fail(function() {
             			$message.addClass("error_msg_error");
             			$message.text("Failed.");
@@ -1,9 +1,22 @@
 (function($){
+    var waitForJob = PerfciReportJobs.waitForJob;
+    var describeJob = PerfciReportJobs.describeJob;
+
     $(function(){
         var $tag_error_msg = $("#tag_error_msg");
         var $txt_builds = $("#txt_builds");
         var $btn_generate_trend = $("#btn_generate_trend");
         var $btn_refresh_trend = $("#btn_refresh_trend");
+        if (PerfciReportJobs.pendingJob()) {
+            waitForJob("jobStatus", PerfciReportJobs.pendingJob(), function(status) {
+                $tag_error_msg.text(describeJob(status));
+            }, function(status) {
+                location.reload(true);
+            }, function(errorMessage) {
+                $tag_error_msg.addClass("tag_error_msg_error");
+                $tag_error_msg.text(errorMessage);
+            });
+        }
         $btn_generate_trend.click(function(){
             $tag_error_msg.removeClass("tag_error_msg_error");
             $tag_error_msg.removeClass("tag_error_msg_fine");
@@ -19,9 +32,18 @@
                     $tag_error_msg.text(data.errorMessage);
                     return;
                 }
-                $tag_error_msg.addClass("tag_error_msg_fine");
-                $tag_error_msg.text(data.errorMessage);
-                location.href = "../../" + data.url;
+                if (!data.jobId) {
+                    location.href = "../../" + data.url;
+                    return;
+                }
+                waitForJob("../../jobStatus", data.jobId, function(status) {
+                    $tag_error_msg.text(describeJob(status));
+                }, function(status) {
+                    location.href = "../../" + data.url;
+                }, function(errorMessage) {
+                    $tag_error_msg.addClass("tag_error_msg_error");
+                    $tag_error_msg.text(errorMessage);
+                });
             }).fail(function() {
                 $tag_error_msg.addClass("tag_error_msg_error");
                 $tag_error_msg.text("Failed.");
@@ -42,9 +64,16 @@
                             $tag_error_msg.text(data.errorMessage);
                             return;
                         }
-                        $tag_error_msg.addClass("tag_error_msg_fine");
-                        $tag_error_msg.text(data.errorMessage);
-                        location.reload(true);
+                        waitForJob("../../jobStatus", data.jobId, function(status) {
+                            $tag_error_msg.text(describeJob(status));
+                        }, function(status) {
+                            $tag_error_msg.addClass("tag_error_msg_fine");
+                            $tag_error_msg.text(status.errorMessage);
+                            location.reload(true);
+                        }, function(errorMessage) {
+                            $tag_error_msg.addClass("tag_error_msg_error");
+                            $tag_error_msg.text(errorMessage);
+                        });
                     }).fail(function() {
                         $tag_error_msg.addClass("tag_error_msg_error");
                         $tag_error_msg.text("Failed.");
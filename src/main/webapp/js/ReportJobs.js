@@ -0,0 +1,52 @@
+// helpers for pages which generate reports in the background, see ReportJobs
+var PerfciReportJobs = (function($){
+    // polls a background report generation job until it is finished
+    function waitForJob(statusUrl, jobId, onProgress, onDone, onFail) {
+        $.getJSON(statusUrl, { id : jobId }, function(status) {
+            if (status.error === 0 && !status.done) {
+                onProgress(status);
+                setTimeout(function() {
+                    waitForJob(statusUrl, jobId, onProgress, onDone, onFail);
+                }, 1000);
+                return;
+            }
+            if (status.error !== 0) {
+                onFail(status.errorMessage);
+                return;
+            }
+            onDone(status);
+        }).fail(function() {
+            onFail("Failed.");
+        });
+    }
+
+    function describeJob(status) {
+        if (status.state === "QUEUED")
+            return "Waiting in queue (position " + (status.queuePosition + 1) + ", " + status.waitedSeconds + "s)...";
+        return "Generating (" + status.runSeconds + "s)...";
+    }
+
+    // a data.js which is being generated names its job instead, see ReportJobs.respondPending()
+    function pendingJob() {
+        return window.perfciPendingReportJob;
+    }
+
+    // waits for the job of a page which is being generated, and shows the page once it is done
+    function waitForPendingPage(statusUrl, jobId, statusElementId) {
+        var $status = $("#" + statusElementId);
+        waitForJob(statusUrl, jobId, function(status) {
+            $status.text(describeJob(status));
+        }, function(status) {
+            location.reload(true);
+        }, function(errorMessage) {
+            $status.text(errorMessage);
+        });
+    }
+
+    return {
+        waitForJob : waitForJob,
+        describeJob : describeJob,
+        pendingJob : pendingJob,
+        waitForPendingPage : waitForPendingPage
+    };
+})(jQuery);
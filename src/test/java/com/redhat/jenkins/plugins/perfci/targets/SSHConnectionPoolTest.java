@@ -0,0 +1,139 @@
+package com.redhat.jenkins.plugins.perfci.targets;
+
+import net.schmizz.sshj.SSHClient;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Leases fake connections from a {@link SSHConnectionPool} and checks when they are shared, replaced and closed.
+ */
+public class SSHConnectionPoolTest {
+    private static final long IDLE_TIMEOUT = 60000;
+    private final SSHConnectionPool pool = new SSHConnectionPool();
+    private final SSHConnectionPool.Key key = key("secret");
+    private int connects;
+
+    @Test
+    public void leasesShareOneConnection() throws IOException {
+        FakeClient first = acquire(key);
+        FakeClient second = acquire(key);
+        assertSame(first, second);
+        assertEquals(1, connects);
+        pool.release(key, first);
+        pool.release(key, second);
+        // kept for the next lease
+        assertFalse(first.closed);
+        assertSame(first, acquire(key));
+        assertEquals(1, connects);
+    }
+
+    @Test
+    public void credentialsAreNotShared() throws IOException {
+        SSHConnectionPool.Key other = key("other secret");
+        assertEquals(key.hashCode(), other.hashCode());
+        assertNotSame(acquire(key), acquire(other));
+        assertEquals(2, connects);
+    }
+
+    @Test
+    public void invalidatedConnectionIsClosedWithItsLastLease() throws IOException {
+        FakeClient broken = acquire(key);
+        assertSame(broken, acquire(key));
+        assertSame(broken, acquire(key));
+        pool.invalidate(key, broken);
+        assertFalse("two leases are still held", broken.closed);
+        FakeClient replacement = acquire(key);
+        assertNotSame(broken, replacement);
+        pool.release(key, broken);
+        assertFalse(broken.closed);
+        pool.release(key, broken);
+        assertTrue(broken.closed);
+        // the stale leases were not taken from the replacement
+        assertSame(replacement, acquire(key));
+        pool.release(key, replacement);
+        pool.release(key, replacement);
+        assertFalse(replacement.closed);
+        assertEquals(2, connects);
+    }
+
+    @Test
+    public void brokenConnectionIsReplacedOnAcquire() throws IOException {
+        FakeClient broken = acquire(key);
+        broken.connected = false;
+        FakeClient replacement = acquire(key);
+        assertNotSame(broken, replacement);
+        assertFalse("its lease is still held", broken.closed);
+        pool.release(key, broken);
+        assertTrue(broken.closed);
+        try {
+            pool.sftp(key, broken);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void brokenConnectionIsClosedWithItsLastLease() throws IOException {
+        FakeClient client = acquire(key);
+        acquire(key);
+        client.connected = false;
+        pool.release(key, client);
+        assertFalse(client.closed);
+        pool.release(key, client);
+        assertTrue(client.closed);
+        assertNotSame(client, acquire(key));
+    }
+
+    @Test
+    public void failedConnectTakesNoLease() throws IOException {
+        try {
+            pool.acquire(key, IDLE_TIMEOUT, () -> {
+                throw new IOException("refused");
+            });
+            fail();
+        } catch (IOException expected) {
+        }
+        FakeClient client = acquire(key);
+        pool.release(key, client);
+        client.connected = false;
+        // the only lease has been returned, so nothing waits for the broken connection
+        assertNotSame(client, acquire(key));
+        assertTrue(client.closed);
+    }
+
+    private FakeClient acquire(SSHConnectionPool.Key key) throws IOException {
+        return (FakeClient) pool.acquire(key, IDLE_TIMEOUT, () -> {
+            ++connects;
+            return new FakeClient();
+        });
+    }
+
+    private static SSHConnectionPool.Key key(String password) {
+        return new SSHConnectionPool.Key("perf-host", 22, "perf", null, password, Collections.<String>emptyList(), false);
+    }
+
+    private static class FakeClient extends SSHClient {
+        boolean connected = true;
+        boolean closed;
+
+        @Override
+        public boolean isConnected() {
+            return connected && !closed;
+        }
+
+        @Override
+        public boolean isAuthenticated() {
+            return isConnected();
+        }
+
+        @Override
+        public void close() {
+            assertFalse("closed twice", closed);
+            closed = true;
+        }
+    }
+}
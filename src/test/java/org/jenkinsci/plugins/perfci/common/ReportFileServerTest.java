@@ -0,0 +1,244 @@
+package org.jenkinsci.plugins.perfci.common;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Serves a report file to fake requests and checks the status, headers and body of the responses to conditional,
+ * range and compressed requests.
+ */
+public class ReportFileServerTest {
+    private static final String CONTENT = "0123456789abcdefghij";
+    private static final long LAST_MODIFIED = 1500000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File file;
+
+    @Before
+    public void writeFile() throws IOException {
+        file = folder.newFile("data.js");
+        Files.write(file.toPath(), CONTENT.getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.setLastModified(LAST_MODIFIED));
+    }
+
+    @Test
+    public void wholeFile() throws IOException {
+        FakeResponse response = serve("GET");
+        assertEquals(200, response.status);
+        assertEquals(CONTENT, response.body());
+        assertEquals("20", response.headers.get("Content-Length"));
+        assertEquals("bytes", response.headers.get("Accept-Ranges"));
+        assertEquals(LAST_MODIFIED, (long) response.dateHeaders.get("Last-Modified"));
+        assertNotNull(response.headers.get("ETag"));
+        assertNull(response.headers.get("Content-Encoding"));
+    }
+
+    @Test
+    public void head() throws IOException {
+        FakeResponse response = serve("HEAD");
+        assertEquals(200, response.status);
+        assertEquals("20", response.headers.get("Content-Length"));
+        assertEquals("", response.body());
+    }
+
+    @Test
+    public void missingFile() throws IOException {
+        assertTrue(file.delete());
+        assertEquals(404, serve("GET").status);
+    }
+
+    @Test
+    public void notModified() throws IOException {
+        String etag = serve("GET").headers.get("ETag");
+        for (String ifNoneMatch : new String[]{etag, "W/" + etag, "\"other\", " + etag, "*"}) {
+            FakeResponse response = serve("GET", "If-None-Match", ifNoneMatch);
+            assertEquals(ifNoneMatch, 304, response.status);
+            assertEquals("", response.body());
+        }
+        assertEquals(200, serve("GET", "If-None-Match", "\"other\"").status);
+        // If-None-Match wins over If-Modified-Since
+        assertEquals(200, serve("GET", "If-None-Match", "\"other\"", "If-Modified-Since", date(LAST_MODIFIED)).status);
+        // HTTP dates have no milliseconds
+        assertEquals(304, serve("GET", "If-Modified-Since", date(LAST_MODIFIED + 999)).status);
+        assertEquals(200, serve("GET", "If-Modified-Since", date(LAST_MODIFIED - 1000)).status);
+        assertEquals(200, serve("GET", "If-Modified-Since", "yesterday").status);
+    }
+
+    @Test
+    public void ranges() throws IOException {
+        assertRange("bytes=2-5", "2-5", "2345");
+        assertRange("bytes=15-", "15-19", "fghij");
+        assertRange("bytes=-3", "17-19", "hij");
+        // an end after the file is the end of the file
+        assertRange("bytes=18-100", "18-19", "ij");
+        assertRange("bytes=-100", "0-19", CONTENT);
+
+        FakeResponse response = serve("GET", "Range", "bytes=20-");
+        assertEquals(416, response.status);
+        assertEquals("bytes */20", response.headers.get("Content-Range"));
+        assertEquals(416, serve("GET", "Range", "bytes=5-2").status);
+        // not supported, the whole file instead
+        for (String range : new String[]{"bytes=0-1,4-5", "bytes=-", "lines=1-2"}) {
+            response = serve("GET", "Range", range);
+            assertEquals(range, 200, response.status);
+            assertEquals(range, CONTENT, response.body());
+        }
+    }
+
+    @Test
+    public void ifRange() throws IOException {
+        String etag = serve("GET").headers.get("ETag");
+        assertEquals(206, serve("GET", "Range", "bytes=2-5", "If-Range", etag).status);
+        assertEquals(206, serve("GET", "Range", "bytes=2-5", "If-Range", date(LAST_MODIFIED)).status);
+        // the file has changed since the client read the first part, so it gets the whole new file
+        FakeResponse response = serve("GET", "Range", "bytes=2-5", "If-Range", "\"old\"");
+        assertEquals(200, response.status);
+        assertEquals(CONTENT, response.body());
+        assertEquals(200, serve("GET", "Range", "bytes=2-5", "If-Range", date(LAST_MODIFIED - 1000)).status);
+    }
+
+    @Test
+    public void compressedSibling() throws IOException {
+        File gzip = new File(file.getPath() + ReportCompressor.GZIP_SUFFIX);
+        Files.write(gzip.toPath(), "gzipped".getBytes(StandardCharsets.UTF_8));
+        assertTrue(gzip.setLastModified(LAST_MODIFIED));
+        FakeResponse response = serve("GET", "Accept-Encoding", "deflate, gzip;q=0.8");
+        assertEquals("gzip", response.headers.get("Content-Encoding"));
+        assertEquals("gzipped", response.body());
+        assertEquals("7", response.headers.get("Content-Length"));
+        assertEquals("Accept-Encoding", response.headers.get("Vary"));
+        // the representations differ, so their validators do too
+        assertNotEquals(serve("GET").headers.get("ETag"), response.headers.get("ETag"));
+
+        assertNull(serve("GET", "Accept-Encoding", "gzip;q=0").headers.get("Content-Encoding"));
+        assertNull(serve("GET", "Accept-Encoding", "br").headers.get("Content-Encoding"));
+        // ranges are of the uncompressed file
+        response = serve("GET", "Accept-Encoding", "gzip", "Range", "bytes=0-1");
+        assertNull(response.headers.get("Content-Encoding"));
+        assertEquals("01", response.body());
+        // a sibling older than the file is stale
+        assertTrue(gzip.setLastModified(LAST_MODIFIED - 1000));
+        response = serve("GET", "Accept-Encoding", "gzip");
+        assertNull(response.headers.get("Content-Encoding"));
+        assertEquals(CONTENT, response.body());
+    }
+
+    private void assertRange(String range, String expectedRange, String expectedBody) throws IOException {
+        FakeResponse response = serve("GET", "Range", range);
+        assertEquals(range, 206, response.status);
+        assertEquals(range, "bytes " + expectedRange + "/20", response.headers.get("Content-Range"));
+        assertEquals(range, Integer.toString(expectedBody.length()), response.headers.get("Content-Length"));
+        assertEquals(range, expectedBody, response.body());
+    }
+
+    private FakeResponse serve(String method, String... headers) throws IOException {
+        FakeResponse response = new FakeResponse();
+        ReportFileServer.serve(request(method, headers), response.proxy(), file, "application/javascript");
+        return response;
+    }
+
+    private static String date(long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC));
+    }
+
+    /**
+     * @param headers names and values
+     */
+    private static StaplerRequest request(final String method, String... headers) {
+        final Map<String, String> headerMap = new HashMap<>();
+        for (int i = 0; i < headers.length; i += 2)
+            headerMap.put(headers[i], headers[i + 1]);
+        return (StaplerRequest) Proxy.newProxyInstance(ReportFileServerTest.class.getClassLoader(),
+                new Class<?>[]{StaplerRequest.class}, (proxy, m, args) -> {
+                    switch (m.getName()) {
+                        case "getMethod":
+                            return method;
+                        case "getHeader":
+                            return headerMap.get((String) args[0]);
+                        case "getDateHeader":
+                            String value = headerMap.get((String) args[0]);
+                            if (value == null)
+                                return -1L;
+                            try {
+                                return Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(value)).toEpochMilli();
+                            } catch (RuntimeException e) {
+                                // as servlet containers do
+                                throw new IllegalArgumentException(value);
+                            }
+                        default:
+                            throw new UnsupportedOperationException(m.getName());
+                    }
+                });
+    }
+
+    private static class FakeResponse {
+        int status = 200;
+        final Map<String, String> headers = new HashMap<>();
+        final Map<String, Long> dateHeaders = new HashMap<>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        String body() {
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        StaplerResponse proxy() {
+            final ServletOutputStream out = new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                    body.write(b);
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener) {
+                }
+            };
+            return (StaplerResponse) Proxy.newProxyInstance(ReportFileServerTest.class.getClassLoader(),
+                    new Class<?>[]{StaplerResponse.class}, (proxy, m, args) -> {
+                        switch (m.getName()) {
+                            case "setStatus":
+                            case "sendError":
+                                status = (Integer) args[0];
+                                return null;
+                            case "setHeader":
+                                headers.put((String) args[0], (String) args[1]);
+                                return null;
+                            case "setDateHeader":
+                                dateHeaders.put((String) args[0], (Long) args[1]);
+                                return null;
+                            case "setContentType":
+                                return null;
+                            case "getOutputStream":
+                                return out;
+                            default:
+                                throw new UnsupportedOperationException(m.getName());
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.jenkinsci.plugins.perfci.jtl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes samples with {@link BinaryJtlWriter}, directly or through a {@link JtlConverter.Conversion}, and checks that
+ * {@link BinaryJtlReader} reads back exactly the same.
+ */
+public class BinaryJtlRoundTripTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void emptyFile() throws IOException {
+        assertEquals(0, roundTrip(new ArrayList<JtlSample>()).size());
+    }
+
+    @Test
+    public void samplesAcrossBlocks() throws IOException {
+        Random random = new Random(42);
+        List<JtlSample> samples = new ArrayList<>();
+        long timestamp = 1500000000000L;
+        // more than two blocks, the last one partial
+        for (int i = 0; i < BinaryJtlWriter.BLOCK_SIZE * 2 + 123; ++i) {
+            // mostly increasing, as JMeter writes them, but not always
+            timestamp += random.nextInt(100) - 10;
+            samples.add(sample(timestamp, random.nextInt(5000), "transaction " + random.nextInt(300),
+                    random.nextInt(10) == 0 ? "500" : "200", random.nextInt(10) != 0, random.nextInt(100000), random.nextInt(5000)));
+        }
+        assertSamplesEqual(samples, roundTrip(samples));
+    }
+
+    @Test
+    public void nullsAndExtremeValues() throws IOException {
+        List<JtlSample> samples = new ArrayList<>();
+        samples.add(sample(0, 0, null, null, false, 0, 0));
+        samples.add(sample(-1, -1, "", "", true, -1, -1));
+        samples.add(sample(Long.MAX_VALUE, Long.MAX_VALUE, "max", "200", true, Long.MAX_VALUE, Long.MAX_VALUE));
+        samples.add(sample(Long.MIN_VALUE, Long.MIN_VALUE, "min", "Non HTTP response code: java.net.SocketException", false,
+                Long.MIN_VALUE, Long.MIN_VALUE));
+        samples.add(sample(1500000000000L, 12, null, "200", true, 100, 5));
+        samples.add(sample(1500000000001L, 13, "max", null, true, 100, 5));
+        assertSamplesEqual(samples, roundTrip(samples));
+    }
+
+    @Test
+    public void unicodeLabels() throws IOException {
+        List<JtlSample> samples = new ArrayList<>();
+        String[] labels = {"\u767b\u5f55", "\u00dcberweisung", "emoji \ud83d\ude80", "tab\tand, comma", "\"quoted\""};
+        for (int i = 0; i < BinaryJtlWriter.BLOCK_SIZE + 1; ++i)
+            samples.add(sample(1500000000000L + i, i % 1000, labels[i % labels.length], "200", true, i, i % 100));
+        assertSamplesEqual(samples, roundTrip(samples));
+    }
+
+    @Test
+    public void openedAsBinary() throws IOException {
+        File file = folder.newFile("result" + JtlConverter.EXTENSION);
+        List<JtlSample> samples = new ArrayList<>();
+        samples.add(sample(1500000000000L, 42, "home", "200", true, 1024, 7));
+        write(file, samples);
+        try (JtlReader reader = JtlReader.open(file)) {
+            assertTrue(reader instanceof BinaryJtlReader);
+            assertSamplesEqual(samples, readAll(reader));
+        }
+    }
+
+    @Test
+    public void labelsWithNul() throws IOException {
+        List<JtlSample> samples = new ArrayList<>();
+        samples.add(sample(1500000000000L, 1, "a\0b", "200\0", true, 1, 1));
+        samples.add(sample(1500000000001L, 2, "\0", "\0\0", true, 2, 2));
+        // the ids of the labels after them stay the same
+        samples.add(sample(1500000000002L, 3, "c", "200", false, 3, 3));
+        samples.add(sample(1500000000003L, 4, "a\0b", "\0\0", true, 4, 4));
+        assertSamplesEqual(samples, roundTrip(samples));
+    }
+
+    @Test
+    public void conversionOfScannedCsvKeepsOriginal() throws IOException, InterruptedException {
+        File jtl = folder.newFile("result.jtl");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(jtl), StandardCharsets.UTF_8)) {
+            writer.write("timeStamp,elapsed,label,responseCode,responseMessage,success,bytes,Latency\n");
+            writer.write("1500000000000,120,home,200,OK,true,2048,30\n");
+            writer.write("1500000000500,3000,login,500,Internal Server Error,false,512,2900\n");
+        }
+        final List<JtlSample> scanned = new ArrayList<>();
+        JtlScanner scanner = new JtlScanner(null, new SampleAggregator() {
+            @Override
+            public void add(JtlSample sample) {
+                scanned.add(sample(sample.getTimestamp(), sample.getElapsed(), sample.getLabel(), sample.getResponseCode(),
+                        sample.isSuccess(), sample.getBytes(), sample.getLatency()));
+            }
+        });
+        File converted = JtlConverter.getConvertedFile(jtl);
+        try (JtlConverter.Conversion conversion = new JtlConverter(null).begin(jtl)) {
+            scanner.scan(jtl, conversion);
+            assertFalse(converted.exists());
+            assertEquals(2, conversion.commit());
+        }
+        assertTrue(jtl.isFile());
+        assertEquals(2, scanned.size());
+        try (JtlReader reader = JtlReader.open(converted)) {
+            assertTrue(reader instanceof BinaryJtlReader);
+            assertSamplesEqual(scanned, readAll(reader));
+        }
+        // from now on, only the converted file is read
+        List<File> resultFiles = new ArrayList<>();
+        JtlConverter.findResultFiles(folder.getRoot(), resultFiles);
+        assertEquals(Collections.singletonList(converted), resultFiles);
+    }
+
+    @Test
+    public void conversionNotCommittedLeavesNothing() throws IOException, InterruptedException {
+        File jtl = folder.newFile("result.jtl");
+        try (JtlConverter.Conversion conversion = new JtlConverter(null).begin(jtl)) {
+            conversion.add(sample(1500000000000L, 42, "home", "200", true, 1024, 7));
+        }
+        File[] files = folder.getRoot().listFiles();
+        assertNotNull(files);
+        assertEquals(Collections.singletonList(jtl), Arrays.asList(files));
+    }
+
+    private List<JtlSample> roundTrip(List<JtlSample> samples) throws IOException {
+        File file = folder.newFile();
+        write(file, samples);
+        try (BinaryJtlReader reader = new BinaryJtlReader(new FileInputStream(file))) {
+            return readAll(reader);
+        }
+    }
+
+    private static void write(File file, List<JtlSample> samples) throws IOException {
+        try (BinaryJtlWriter writer = new BinaryJtlWriter(new FileOutputStream(file))) {
+            for (JtlSample sample : samples)
+                writer.write(sample);
+        }
+    }
+
+    private static List<JtlSample> readAll(JtlReader reader) throws IOException {
+        List<JtlSample> samples = new ArrayList<>();
+        JtlSample sample = new JtlSample();
+        while (reader.read(sample)) {
+            samples.add(sample(sample.getTimestamp(), sample.getElapsed(), sample.getLabel(), sample.getResponseCode(),
+                    sample.isSuccess(), sample.getBytes(), sample.getLatency()));
+        }
+        // the end stays the end
+        assertFalse(reader.read(sample));
+        return samples;
+    }
+
+    private static JtlSample sample(long timestamp, long elapsed, String label, String responseCode, boolean success,
+                                    long bytes, long latency) {
+        JtlSample sample = new JtlSample();
+        sample.set(timestamp, elapsed, label, responseCode, success, bytes, latency);
+        return sample;
+    }
+
+    private static void assertSamplesEqual(List<JtlSample> expected, List<JtlSample> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            JtlSample e = expected.get(i);
+            JtlSample a = actual.get(i);
+            String message = "sample " + i;
+            assertEquals(message, e.getTimestamp(), a.getTimestamp());
+            assertEquals(message, e.getElapsed(), a.getElapsed());
+            assertEquals(message, e.getLabel(), a.getLabel());
+            assertEquals(message, e.getResponseCode(), a.getResponseCode());
+            assertEquals(message, e.isSuccess(), a.isSuccess());
+            assertEquals(message, e.getBytes(), a.getBytes());
+            assertEquals(message, e.getLatency(), a.getLatency());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.jenkinsci.plugins.perfci.jtl;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reads CSV JTL text and checks how the header, the delimiter, quoted fields and formatted or broken lines are read.
+ */
+public class CsvJtlReaderTest {
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @Test
+    public void defaultColumnsWithoutHeader() throws IOException {
+        List<JtlSample> samples = read("1500000000000,120,home,200,OK,Thread 1-1,text,true,,2048,300,1,1,http://x/,30,0,5\n");
+        assertEquals(1, samples.size());
+        assertSample(samples.get(0), 1500000000000L, 120, "home", "200", true, 2048, 30);
+    }
+
+    @Test
+    public void headerWithOtherOrderAndDelimiter() throws IOException {
+        for (String delimiter : new String[]{",", ";", "\t", "|"}) {
+            String text = String.join(delimiter, "timeStamp", "Latency", "label", "success", "elapsed", "bytes", "responseCode") + "\n"
+                    + String.join(delimiter, "1500000000000", "30", "\"login" + delimiter + " then home\"", "FALSE", "120", "512", "500") + "\n";
+            List<JtlSample> samples = read(text);
+            assertEquals(delimiter, 1, samples.size());
+            assertSample(samples.get(0), 1500000000000L, 120, "login" + delimiter + " then home", "500", false, 512, 30);
+        }
+    }
+
+    @Test
+    public void optionalColumnsMissing() throws IOException {
+        List<JtlSample> samples = read("\uFEFFtimeStamp,elapsed,label\r\n1500000000000,120,home\r\n");
+        assertEquals(1, samples.size());
+        assertSample(samples.get(0), 1500000000000L, 120, "home", null, true, 0, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requiredColumnMissing() throws IOException {
+        read("timeStamp,label\n1500000000000,home\n");
+    }
+
+    @Test
+    public void quotedFields() throws IOException {
+        String failure = new String(new char[JtlReader.BUFFER_SIZE * 2]).replace('\0', 'x');
+        List<JtlSample> samples = read("timeStamp,elapsed,label,responseCode,success,failureMessage,bytes,Latency\n"
+                + "1500000000000,120,\"say \"\"hi\"\", then\nleave\",200,true,,10,1\n"
+                + "1500000000001,121,home,500,false,\"" + failure + ",\n\"\"" + failure + "\",20,2\n"
+                + "1500000000002,122,\"home\",200,true,,30,3\n");
+        assertEquals(3, samples.size());
+        assertSample(samples.get(0), 1500000000000L, 120, "say \"hi\", then\nleave", "200", true, 10, 1);
+        assertSample(samples.get(1), 1500000000001L, 121, "home", "500", false, 20, 2);
+        assertSample(samples.get(2), 1500000000002L, 122, "home", "200", true, 30, 3);
+    }
+
+    @Test
+    public void formattedTimestamps() throws IOException {
+        TimeZone zone = TimeZone.getTimeZone("Asia/Shanghai");
+        List<JtlSample> samples = read("timeStamp,elapsed,label\n"
+                + "2017/07/14 10:40:00.123,1,a\n"
+                + "2017/07/14 10:40:01,1,a\n"
+                + "2017-07-14 10:40:02.500,1,a\n"
+                + "2017-07-14T10:40:03,1,a\n"
+                + "07/14/2017 10:40:04,1,a\n"
+                + "2017-07-14T02:40:05Z,1,a\n"
+                + "2017-07-14T10:40:06+08:00,1,a\n", zone);
+        long base = 1500000000000L;
+        assertEquals(7, samples.size());
+        assertEquals(base + 123, samples.get(0).getTimestamp());
+        for (int i = 1; i < samples.size(); ++i)
+            assertEquals("line " + i, base + i * 1000 + (i == 2 ? 500 : 0), samples.get(i).getTimestamp());
+    }
+
+    @Test
+    public void brokenLinesAreCountedAndSkipped() throws IOException {
+        CsvJtlReader reader = new CsvJtlReader(new StringReader("timeStamp,elapsed,label,success\n"
+                + "1500000000000,120,home,true\n"
+                + "\n"
+                + "1500000000001,slow,home,true\n"
+                + "14.07.2017 10:40,1,home,true\n"
+                + "1500000000002,122,home,true\n"
+                // the test was killed while this line was written
+                + "15000000"), UTC);
+        List<JtlSample> samples = readAll(reader);
+        assertEquals(2, samples.size());
+        assertEquals(1500000000002L, samples.get(1).getTimestamp());
+        assertEquals(3, reader.getRejectedLines());
+    }
+
+    private static List<JtlSample> read(String text) throws IOException {
+        return read(text, UTC);
+    }
+
+    private static List<JtlSample> read(String text, TimeZone zone) throws IOException {
+        try (CsvJtlReader reader = new CsvJtlReader(new StringReader(text), zone)) {
+            List<JtlSample> samples = readAll(reader);
+            assertEquals(0, reader.getRejectedLines());
+            return samples;
+        }
+    }
+
+    private static List<JtlSample> readAll(JtlReader reader) throws IOException {
+        List<JtlSample> samples = new ArrayList<>();
+        JtlSample sample = new JtlSample();
+        while (reader.read(sample)) {
+            JtlSample copy = new JtlSample();
+            copy.set(sample.getTimestamp(), sample.getElapsed(), sample.getLabel(), sample.getResponseCode(),
+                    sample.isSuccess(), sample.getBytes(), sample.getLatency());
+            samples.add(copy);
+        }
+        return samples;
+    }
+
+    private static void assertSample(JtlSample sample, long timestamp, long elapsed, String label, String responseCode,
+                                     boolean success, long bytes, long latency) {
+        assertEquals(timestamp, sample.getTimestamp());
+        assertEquals(elapsed, sample.getElapsed());
+        assertEquals(label, sample.getLabel());
+        assertEquals(responseCode, sample.getResponseCode());
+        assertEquals(success, sample.isSuccess());
+        assertEquals(bytes, sample.getBytes());
+        assertEquals(latency, sample.getLatency());
+    }
+}
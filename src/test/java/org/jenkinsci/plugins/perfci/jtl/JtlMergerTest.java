@@ -0,0 +1,120 @@
+package org.jenkinsci.plugins.perfci.jtl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Merges JTL files of several machines and checks the order, the corrected timestamps and that records with quoted
+ * fields are moved as a whole.
+ */
+public class JtlMergerTest {
+    private static final String HEADER = "timeStamp,elapsed,label,responseCode,responseMessage,success";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void ordersByCorrectedTimestamps() throws IOException {
+        File first = part(HEADER,
+                "1000,10,a,200,OK,true",
+                "3000,10,a,200,OK,true",
+                "5000,10,a,200,OK,true");
+        // this machine's clock is 1.5s ahead
+        File second = part(HEADER,
+                "3500,20,b,200,OK,true",
+                "5500,20,b,200,OK,true");
+        File target = new File(folder.getRoot(), "merged/result.jtl");
+        assertEquals(5, JtlMerger.merge(Arrays.asList(first, second), new long[]{0, 1500}, target));
+        assertEquals(Arrays.asList(HEADER,
+                "1000,10,a,200,OK,true",
+                "2000,20,b,200,OK,true",
+                "3000,10,a,200,OK,true",
+                "4000,20,b,200,OK,true",
+                "5000,10,a,200,OK,true"), lines(target));
+    }
+
+    @Test
+    public void quotedRecordsStayWhole() throws IOException {
+        String header = "label,timeStamp,elapsed,responseMessage";
+        File first = part(header,
+                "\"login, then home\",1000,10,OK",
+                "home,4000,10,\"first line",
+                "second line, \"\"quoted\"\"\"",
+                "home,6000,10,OK");
+        File second = part(header,
+                "\"x,y\",12000,20,\"a",
+                "",
+                "b\"",
+                "z,15000,20,OK");
+        File target = folder.newFile("merged.jtl");
+        assertEquals(5, JtlMerger.merge(Arrays.asList(first, second), new long[]{0, 10000}, target));
+        assertEquals(Arrays.asList(header,
+                "\"login, then home\",1000,10,OK",
+                "\"x,y\",2000,20,\"a",
+                "",
+                "b\"",
+                "home,4000,10,\"first line",
+                "second line, \"\"quoted\"\"\"",
+                "z,5000,20,OK",
+                "home,6000,10,OK"), lines(target));
+    }
+
+    @Test
+    public void otherDelimiter() throws IOException {
+        String header = "timeStamp;elapsed;label";
+        File first = part(header, "2000;1;a,b");
+        File second = part(header, "1000;1;c");
+        File target = folder.newFile("merged.jtl");
+        assertEquals(2, JtlMerger.merge(Arrays.asList(first, second), new long[]{0, -500}, target));
+        assertEquals(Arrays.asList(header, "1500;1;c", "2000;1;a,b"), lines(target));
+    }
+
+    @Test
+    public void emptyPartsAreSkipped() throws IOException {
+        File empty = folder.newFile();
+        File headerOnly = part(HEADER);
+        File samples = part(HEADER, "1000,10,a,200,OK,true");
+        File target = folder.newFile("merged.jtl");
+        assertEquals(1, JtlMerger.merge(Arrays.asList(empty, headerOnly, samples), new long[3], target));
+        assertEquals(Arrays.asList(HEADER, "1000,10,a,200,OK,true"), lines(target));
+    }
+
+    @Test
+    public void differentColumns() throws IOException {
+        File first = part(HEADER, "1000,10,a,200,OK,true");
+        File second = part("timeStamp,elapsed,label", "1000,10,a");
+        try {
+            JtlMerger.merge(Arrays.asList(first, second), new long[2], folder.newFile("merged.jtl"));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("different columns"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void noTimestamps() throws IOException {
+        File part = part("elapsed,label", "10,a");
+        JtlMerger.merge(Collections.singletonList(part), new long[1], folder.newFile("merged.jtl"));
+    }
+
+    private File part(String... lines) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static List<String> lines(File file) throws IOException {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,146 @@
+package org.jenkinsci.plugins.perfci.nmon;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Parses small NMON files and checks the snapshots, section series and TOP series they become.
+ */
+public class NmonParserTest {
+    private static final TimeZone ZONE = TimeZone.getTimeZone("Asia/Shanghai");
+    /**
+     * 14-JUL-2017 10:40:00 in {@link #ZONE}
+     */
+    private static final long T0 = 1500000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sectionsBySnapshot() throws IOException {
+        NmonHost host = parse(
+                "AAA,progname,topas_nmon",
+                "AAA,host,perf-db-1",
+                "CPU_ALL,CPU Total perf-db-1,User%,Sys%,Wait%,Idle%,Busy,CPUs",
+                "MEM,Memory MB perf-db-1,memtotal,,memfree",
+                "UNKNOWN,Something,a,b",
+                "ZZZZ,T0001,10:40:00,14-JUL-2017",
+                "CPU_ALL,T0001,12.5,3.1,0.0,84.4,,8",
+                "MEM,T0001,16000.0,123,8000.5",
+                "UNKNOWN,T0001,1,2",
+                "ZZZZ,T0002,10:40:10,14-jul-2017",
+                "CPU_ALL,T0002,50.0,10.0,n/a,40.0,,8",
+                // a record of another snapshot, e.g. from a file written twice
+                "MEM,T0001,1,1,1");
+        assertEquals("perf-db-1", host.getHostName());
+        assertEquals(2, host.getSnapshots());
+        assertSeries(host, "CPU_ALL/User%", T0, 12.5, T0 + 10000, 50.0);
+        assertSeries(host, "CPU_ALL/Sys%", T0, 3.1, T0 + 10000, 10.0);
+        // not a number
+        assertSeries(host, "CPU_ALL/Wait%", T0, 0.0);
+        // no value
+        assertSeries(host, "CPU_ALL/Busy");
+        assertSeries(host, "MEM/memfree", T0, 8000.5);
+        assertNull(host.getSeries("MEM/"));
+        assertNull(host.getSeries("UNKNOWN/a"));
+    }
+
+    @Test
+    public void malformedSnapshotIsSkipped() throws IOException {
+        NmonHost host = parse(
+                "CPU_ALL,CPU Total,User%",
+                "CPU_ALL,T0001,1.0",
+                "ZZZZ,T0001,10:40:00,14-XYZ-2017",
+                "CPU_ALL,T0001,2.0",
+                "ZZZZ,T0002,10:40:01",
+                "CPU_ALL,T0002,3.0",
+                "ZZZZ,T0003,10:40:02,14-JUL-2017",
+                "CPU_ALL,T0003,4.0",
+                // truncated by a host that went down
+                "CPU_A");
+        assertEquals(1, host.getSnapshots());
+        assertSeries(host, "CPU_ALL/User%", T0 + 2000, 4.0);
+    }
+
+    @Test
+    public void topIsSummedPerCommand() throws IOException {
+        NmonHost host = parse(
+                "TOP,%CPU Utilisation",
+                "TOP,+PID,Time,%CPU,%Usr,%Sys,Size,ResSet,ResText,ResData,ShdLib,MinorFault,MajorFault,Command",
+                "ZZZZ,T0001,10:40:00,14-JUL-2017",
+                "TOP,101,T0001,25.0,20.0,5.0,1,1,1,1,1,0,0,java",
+                "TOP,102,T0001,10.0,8.0,2.0,1,1,1,1,1,0,0,java",
+                "TOP,200,T0001,5.5,5.0,0.5,1,1,1,1,1,0,0,postgres",
+                "ZZZZ,T0002,10:40:10,14-JUL-2017",
+                "TOP,101,T0002,30.0,20.0,10.0,1,1,1,1,1,0,0,java",
+                // of the previous snapshot
+                "TOP,200,T0001,99.0,5.0,0.5,1,1,1,1,1,0,0,postgres");
+        assertSeries(host, "TOP/%CPU/java", T0, 35.0, T0 + 10000, 30.0);
+        assertSeries(host, "TOP/%CPU/postgres", T0, 5.5);
+    }
+
+    @Test
+    public void rareCommandsShareASeries() throws IOException {
+        String[] lines = new String[2 + 40];
+        lines[0] = "TOP,+PID,Time,%CPU,Command";
+        lines[1] = "ZZZZ,T0001,10:40:00,14-JUL-2017";
+        for (int i = 0; i < 40; ++i)
+            lines[2 + i] = "TOP," + i + ",T0001,1.0,command" + i;
+        NmonHost host = parse(lines);
+        int commands = 0;
+        for (ResourceTimeSeries series : host.getSeries()) {
+            if (series.getName().startsWith("TOP/%CPU/command"))
+                ++commands;
+        }
+        assertEquals(32, commands);
+        assertSeries(host, "TOP/%CPU/(other)", T0, 8.0);
+    }
+
+    @Test
+    public void parseAllKeepsOrderAndSkipsUnreadable() throws IOException, InterruptedException {
+        File first = nmon("first.nmon", "AAA,host,a");
+        File missing = new File(folder.getRoot(), "missing.nmon");
+        File second = nmon("second.nmon", "AAA,host,b");
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        List<NmonHost> hosts = NmonParser.parseAll(Arrays.asList(first, missing, second), ZONE, 2,
+                new PrintStream(log, true, "UTF-8"));
+        assertEquals(2, hosts.size());
+        assertEquals("a", hosts.get(0).getHostName());
+        assertEquals("first.nmon", hosts.get(0).getFileName());
+        assertEquals("b", hosts.get(1).getHostName());
+        assertTrue(log.toString("UTF-8").contains("missing.nmon"));
+    }
+
+    private NmonHost parse(String... lines) throws IOException {
+        return NmonParser.parse(nmon("host.nmon", lines), ZONE);
+    }
+
+    private File nmon(String name, String... lines) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return file;
+    }
+
+    /**
+     * @param points times and values
+     */
+    private static void assertSeries(NmonHost host, String name, double... points) {
+        ResourceTimeSeries series = host.getSeries(name);
+        assertNotNull(name, series);
+        assertEquals(name, points.length / 2, series.size());
+        for (int i = 0; i < series.size(); ++i) {
+            assertEquals(name, (long) points[2 * i], series.getTime(i));
+            assertEquals(name, points[2 * i + 1], series.getValue(i), 1e-9);
+        }
+    }
+}
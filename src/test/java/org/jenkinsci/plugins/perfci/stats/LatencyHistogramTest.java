@@ -0,0 +1,130 @@
+package org.jenkinsci.plugins.perfci.stats;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the bucket layout of {@link LatencyHistogram}, that its percentiles stay within the promised error,
+ * and that merged or persisted histograms report the same as one which recorded all samples.
+ */
+public class LatencyHistogramTest {
+    @Test
+    public void smallValuesAreExact() {
+        for (long value = 0; value < 64; ++value) {
+            int index = LatencyHistogram.indexOf(value);
+            assertEquals(value, index);
+            assertEquals(value, LatencyHistogram.lowerBoundOf(index));
+            assertEquals(1, LatencyHistogram.widthOf(index));
+        }
+    }
+
+    @Test
+    public void bucketsContainTheirValues() {
+        int lastIndex = -1;
+        for (long value = 0; value < 1L << 40; value = value < 1000 ? value + 1 : value + value / 997) {
+            int index = LatencyHistogram.indexOf(value);
+            long lower = LatencyHistogram.lowerBoundOf(index);
+            long width = LatencyHistogram.widthOf(index);
+            String message = "value " + value;
+            assertTrue(message, lower <= value && value < lower + width);
+            // at most 1/32 of the value, so the middle of a bucket is within about 3%
+            assertTrue(message, width == 1 || width * 32 <= lower);
+            assertTrue(message, index >= lastIndex);
+            // buckets are adjacent, none is skipped
+            assertTrue(message, index <= lastIndex + 1 || LatencyHistogram.lowerBoundOf(index - 1)
+                    + LatencyHistogram.widthOf(index - 1) == lower);
+            lastIndex = index;
+        }
+        int index = LatencyHistogram.indexOf(Long.MAX_VALUE);
+        assertTrue(LatencyHistogram.lowerBoundOf(index) <= Long.MAX_VALUE - LatencyHistogram.widthOf(index) + 1);
+    }
+
+    @Test
+    public void percentilesWithinThreePercent() {
+        Random random = new Random(7);
+        long[] values = new long[100000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; ++i) {
+            // long-tailed like response times
+            values[i] = (long) Math.exp(4 + 1.5 * random.nextGaussian());
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[]{0, 1, 10, 50, 90, 95, 99, 99.9, 100}) {
+            long exact = values[Math.max(0, (int) Math.ceil(percentile / 100 * values.length) - 1)];
+            double reported = histogram.getValueAtPercentile(percentile);
+            assertEquals("percentile " + percentile, exact, reported, Math.max(1, exact * 0.03));
+        }
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[0], histogram.getMin());
+        assertEquals(values[values.length - 1], histogram.getMax());
+    }
+
+    @Test
+    public void percentilesStayWithinRecordedValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000, 3);
+        assertEquals(1000, histogram.getValueAtPercentile(0), 0);
+        assertEquals(1000, histogram.getValueAtPercentile(50), 0);
+        assertEquals(1000, histogram.getValueAtPercentile(100), 0);
+        assertEquals(1000, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void emptyAndNegative() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertTrue(Double.isNaN(histogram.getValueAtPercentile(50)));
+        assertTrue(Double.isNaN(histogram.getMean()));
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        // a clock step may give a negative elapsed time
+        histogram.record(-5);
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getValueAtPercentile(50), 0);
+    }
+
+    @Test
+    public void mergeEqualsRecordingEverything() throws IOException {
+        Random random = new Random(11);
+        LatencyHistogram all = new LatencyHistogram();
+        LatencyHistogram small = new LatencyHistogram();
+        LatencyHistogram large = new LatencyHistogram();
+        for (int i = 0; i < 10000; ++i) {
+            long value = random.nextInt(200);
+            all.record(value);
+            small.record(value);
+            value = 1000000 + random.nextInt(100000000);
+            all.record(value);
+            large.record(value);
+        }
+        LatencyHistogram merged = new LatencyHistogram();
+        merged.merge(small);
+        // the other one has more buckets
+        merged.merge(large);
+        merged.merge(new LatencyHistogram());
+        assertSameHistogram(all, merged);
+        assertSameHistogram(all, roundTrip(merged));
+        assertSameHistogram(new LatencyHistogram(), roundTrip(new LatencyHistogram()));
+    }
+
+    private static LatencyHistogram roundTrip(LatencyHistogram histogram) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        histogram.writeTo(new DataOutputStream(bytes));
+        return LatencyHistogram.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static void assertSameHistogram(LatencyHistogram expected, LatencyHistogram actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getSum(), actual.getSum());
+        assertEquals(expected.getMin(), actual.getMin());
+        assertEquals(expected.getMax(), actual.getMax());
+        for (double percentile = 0; percentile <= 100; percentile += 0.5)
+            assertEquals("percentile " + percentile, expected.getValueAtPercentile(percentile),
+                    actual.getValueAtPercentile(percentile), 0);
+    }
+}
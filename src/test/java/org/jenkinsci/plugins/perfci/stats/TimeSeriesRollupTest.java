@@ -0,0 +1,116 @@
+package org.jenkinsci.plugins.perfci.stats;
+
+import org.jenkinsci.plugins.perfci.jtl.JtlScanner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.SortedMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Rolls a JTL file up through {@link JtlScanner}, as the report executor does, and checks the buckets read back at
+ * each resolution, also when buckets have been spilled and receive late samples afterwards.
+ */
+public class TimeSeriesRollupTest {
+    private static final long START = 1500000000000L;
+    private static final int SECONDS = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void spilledAndLateBucketsAreMerged() throws IOException, InterruptedException {
+        File jtl = folder.newFile("result.jtl");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(jtl), StandardCharsets.UTF_8)) {
+            writer.write("timeStamp,elapsed,label,responseCode,responseMessage,success,bytes,Latency\n");
+            // several times more seconds than are kept in memory
+            for (int second = 0; second < SECONDS; ++second) {
+                writeSample(writer, START + second * 1000L, 100 + second, "home", true);
+                writeSample(writer, START + second * 1000L + 500, 50, "static", second % 10 != 0);
+            }
+            // late samples of seconds spilled long ago
+            writeSample(writer, START + 5 * 1000L + 999, 7000, "home", false);
+            writeSample(writer, START + 5 * 1000L, 8000, "home", true);
+        }
+        File dir = folder.newFolder(TimeSeriesRollup.DIR_NAME);
+        try (TimeSeriesRollup rollup = new TimeSeriesRollup("static")) {
+            new JtlScanner(null, rollup).scan(jtl);
+            rollup.write(dir);
+        }
+
+        TimeSeriesRollup.Slice slice = TimeSeriesRollup.read(dir, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE);
+        assertEquals(1000, slice.getResolution());
+        SortedMap<Long, Map<String, TransactionStats>> buckets = slice.getBuckets();
+        assertEquals(SECONDS, buckets.size());
+        assertEquals(START, (long) buckets.firstKey());
+        assertEquals(START + (SECONDS - 1) * 1000L, (long) buckets.lastKey());
+        Map<String, TransactionStats> late = buckets.get(START + 5 * 1000L);
+        assertEquals(3, late.get("home").getCount());
+        assertEquals(1, late.get("home").getErrors());
+        assertEquals(8000, late.get("home").getHistogram().getMax());
+        // the excluded transaction isn't in the total
+        assertEquals(3, late.get(PerformanceAggregator.TOTAL).getCount());
+        Map<String, TransactionStats> onTime = buckets.get(START + 500 * 1000L);
+        assertEquals(1, onTime.get("home").getCount());
+        assertEquals(600, onTime.get("home").getHistogram().getMin());
+        assertEquals(1, onTime.get("static").getErrors());
+
+        slice = TimeSeriesRollup.read(dir, Long.MIN_VALUE, Long.MAX_VALUE, SECONDS / 10);
+        assertEquals(10000, slice.getResolution());
+        assertEquals(SECONDS / 10, slice.getBuckets().size());
+        assertEquals(12, slice.getBuckets().get(START).get("home").getCount());
+        assertEquals(10, slice.getBuckets().get(START).get("static").getCount());
+
+        slice = TimeSeriesRollup.read(dir, Long.MIN_VALUE, Long.MAX_VALUE, 1);
+        assertEquals(60000, slice.getResolution());
+        long home = 0;
+        long total = 0;
+        for (Map<String, TransactionStats> bucket : slice.getBuckets().values()) {
+            home += bucket.get("home").getCount();
+            total += bucket.get(PerformanceAggregator.TOTAL).getCount();
+        }
+        assertEquals(SECONDS + 2, home);
+        assertEquals(SECONDS + 2, total);
+    }
+
+    @Test
+    public void rangeSelectsResolutionAndBuckets() throws IOException, InterruptedException {
+        File jtl = folder.newFile("result.jtl");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(jtl), StandardCharsets.UTF_8)) {
+            writer.write("timeStamp,elapsed,label,responseCode,responseMessage,success,bytes,Latency\n");
+            for (int second = 0; second < 120; ++second)
+                writeSample(writer, START + second * 1000L, 10, "home", true);
+        }
+        File dir = folder.newFolder(TimeSeriesRollup.DIR_NAME);
+        try (TimeSeriesRollup rollup = new TimeSeriesRollup(null)) {
+            new JtlScanner(null, rollup).scan(jtl);
+            rollup.write(dir);
+        }
+        // 20 seconds fit at the finest resolution
+        TimeSeriesRollup.Slice slice = TimeSeriesRollup.read(dir, START + 10500, START + 30000, 20);
+        assertEquals(1000, slice.getResolution());
+        // the bucket the range starts in is included, the one it ends at isn't
+        assertEquals(START + 10000, (long) slice.getBuckets().firstKey());
+        assertEquals(START + 29000, (long) slice.getBuckets().lastKey());
+        assertEquals(20, slice.getBuckets().size());
+        slice = TimeSeriesRollup.read(dir, START + 10500, START + 30000, 19);
+        assertEquals(10000, slice.getResolution());
+        assertEquals(2, slice.getBuckets().size());
+    }
+
+    @Test
+    public void notWritten() throws IOException {
+        assertNull(TimeSeriesRollup.read(folder.getRoot(), Long.MIN_VALUE, Long.MAX_VALUE, 100));
+    }
+
+    private static void writeSample(Writer writer, long timestamp, long elapsed, String label, boolean success)
+            throws IOException {
+        writer.write(timestamp + "," + elapsed + "," + label + "," + (success ? "200,OK" : "500,Error") + ","
+                + success + ",1024," + elapsed / 2 + "\n");
+    }
+}